@@ -33,6 +33,7 @@ import javafx.scene.control.*;
 import javafx.scene.control.TableColumn.CellDataFeatures;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.control.cell.TextFieldTableCell;
+import javafx.scene.control.skin.VirtualFlow;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyCodeCombination;
 import javafx.scene.input.KeyCombination;
@@ -45,12 +46,14 @@ import javafx.util.Callback;
 import javafx.util.StringConverter;
 import javafx.util.converter.DefaultStringConverter;
 import org.nmrfx.analyst.gui.AnalystApp;
+import org.nmrfx.fxutil.Fx;
 import org.nmrfx.fxutil.Fxml;
 import org.nmrfx.fxutil.StageBasedController;
 import org.nmrfx.peaks.Multiplet;
 import org.nmrfx.peaks.Peak;
 import org.nmrfx.peaks.PeakDim;
 import org.nmrfx.peaks.PeakList;
+import org.nmrfx.peaks.events.PeakChangeEvent;
 import org.nmrfx.peaks.events.PeakEvent;
 import org.nmrfx.peaks.events.PeakListener;
 import org.nmrfx.processor.gui.FXMLController;
@@ -64,7 +67,9 @@ import java.text.DecimalFormat;
 import java.text.Format;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.ResourceBundle;
+import java.util.Set;
 
 /**
  * @author johnsonb
@@ -172,7 +177,39 @@ public class PeakTableController implements PeakMenuTarget, PeakListener, Initia
 
     @Override
     public void peakListChanged(PeakEvent peakEvent) {
-        refreshPeakView();
+        Fx.runOnFxThread(() -> {
+            if (peakEvent instanceof PeakChangeEvent changeEvent) {
+                Optional<Set<Peak>> changedPeaks = changeEvent.getChangedPeaks();
+                if (changedPeaks.isPresent() && !anyPeakVisible(changedPeaks.get())) {
+                    return;
+                }
+            }
+            refreshPeakView();
+        });
+    }
+
+    /**
+     * @param peaks the peaks
+     * @return true if any of the peaks is in a row that is showing, or if the
+     * rows showing can't be found
+     */
+    private boolean anyPeakVisible(Set<Peak> peaks) {
+        if (tableView.lookup(".virtual-flow") instanceof VirtualFlow<?> flow) {
+            IndexedCell<?> firstCell = flow.getFirstVisibleCell();
+            IndexedCell<?> lastCell = flow.getLastVisibleCell();
+            if ((firstCell == null) || (lastCell == null)) {
+                return true;
+            }
+            List<Peak> items = tableView.getItems();
+            int last = Math.min(lastCell.getIndex(), items.size() - 1);
+            for (int i = Math.max(firstCell.getIndex(), 0); i <= last; i++) {
+                if (peaks.contains(items.get(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
     }
 
     private class DimTableColumn<S, T> extends TableColumn<S, T> {
@@ -207,14 +207,17 @@ public class PolyChart extends Region {
             }
             Object source = peakEvent.getSource();
             PeakListAttributes activeAttr = null;
+            boolean needsDraw = false;
             if (source instanceof PeakList peakList) {
                 for (PeakListAttributes peakListAttr : peakListAttributesList) {
                     if (peakListAttr.getPeakList() == peakList) {
                         activeAttr = peakListAttr;
+                        // skip drawing if none of the changed peaks are, or were, visible
+                        needsDraw |= peakListAttr.updatePeaksInRegion(peakEvent);
                     }
                 }
             }
-            if (activeAttr != null) {
+            if ((activeAttr != null) && needsDraw) {
                 drawPeakLists(false);
                 drawSelectedPeaks(activeAttr);
             }
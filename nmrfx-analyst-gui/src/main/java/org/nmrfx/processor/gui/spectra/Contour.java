@@ -49,6 +49,9 @@ public class Contour extends java.lang.Object {
     public short[][] coords = null;
     public double xOffset = 0;
     public double yOffset = 0;
+    // number of dataset points per matrix cell, greater than 1 when contouring a pyramid level
+    public double xStep = 1;
+    public double yStep = 1;
     float[][] z = null;
     float rampEnd = 4;
     float plateauEnd = 8;
@@ -208,6 +211,16 @@ public class Contour extends java.lang.Object {
         }
     }
 
+    /**
+     * Set the cells to draw, as computed by an earlier call to marchSquares
+     * over the same region.
+     *
+     * @param cells the cells
+     */
+    public void setCells(int[][] cells) {
+        this.cells = cells;
+    }
+
     public synchronized boolean marchSquares(float level, float[][] data, int[][] cells) {
         boolean result = false;
         z = data;
@@ -390,8 +403,8 @@ public class Contour extends java.lang.Object {
         int i0 = (offset >> 2) & 3;
         int i1 = offset & 3;
         if (start) {
-            double xp1 = (x[i0] + xOffset) * scaleX + pix[0][0];
-            double yp1 = (y[i0] + yOffset) * scaleY + pix[1][0];
+            double xp1 = (x[i0] * xStep + xOffset) * scaleX + pix[0][0];
+            double yp1 = (y[i0] * yStep + yOffset) * scaleY + pix[1][0];
             if (xp1 < pix[0][0]) {
                 xp1 = pix[0][0];
             } else if (xp1 > pix[0][1]) {
@@ -405,8 +418,8 @@ public class Contour extends java.lang.Object {
             g2.beginPath();
             g2.moveTo(xp1, yp1);
         }
-        double xp2 = (x[i1] + xOffset) * scaleX + pix[0][0];
-        double yp2 = (y[i1] + yOffset) * scaleY + pix[1][0];
+        double xp2 = (x[i1] * xStep + xOffset) * scaleX + pix[0][0];
+        double yp2 = (y[i1] * yStep + yOffset) * scaleY + pix[1][0];
         if (xp2 < pix[0][0]) {
             xp2 = pix[0][0];
         } else if (xp2 > pix[0][1]) {
@@ -471,16 +484,16 @@ public class Contour extends java.lang.Object {
             int i0 = (offset >> 2) & 3;
             int i1 = offset & 3;
             if (start) {
-                double xp1 = (x[i0] + xOffset - pts[0][0])
+                double xp1 = (x[i0] * xStep + xOffset - pts[0][0])
                         / (pts[0][1] - pts[0][0]) * (pix[0][1] - pix[0][0]) + pix[0][0];
-                double yp1 = (y[i0] + yOffset - pts[1][0])
+                double yp1 = (y[i0] * yStep + yOffset - pts[1][0])
                         / (pts[1][1] - pts[1][0]) * (pix[1][1] - pix[1][0]) + pix[1][0];
                 g2.beginPath();
                 g2.moveTo(xp1, yp1);
             }
-            double xp2 = (x[i1] + xOffset - pts[0][0])
+            double xp2 = (x[i1] * xStep + xOffset - pts[0][0])
                     / (pts[0][1] - pts[0][0]) * (pix[0][1] - pix[0][0]) + pix[0][0];
-            double yp2 = (y[i1] + yOffset - pts[1][0])
+            double yp2 = (y[i1] * yStep + yOffset - pts[1][0])
                     / (pts[1][1] - pts[1][0]) * (pix[1][1] - pix[1][0]) + pix[1][0];
             g2.lineTo(xp2, yp2);
             nextSide = i1;
@@ -0,0 +1,175 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2017 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui.spectra;
+
+import org.nmrfx.processor.datasets.Dataset;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * LRU cache of the marching squares cells of contour levels, so panning only
+ * contours newly exposed tiles and adding levels only contours the added
+ * levels. Entries are keyed by a tile key (dataset, modification count, scale,
+ * dimensions, plane, pyramid level and tile origin) and the contour level.
+ * Cells are stored sparsely, and the cache is bounded by the bytes they use.
+ *
+ * @author brucejohnson
+ */
+public class ContourCache {
+
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * The contour cells of one level over one tile, stored as the indices
+     * (row * nx + column) and values of the non-zero cells.
+     */
+    public record ContourTile(int nx, int ny, int[] indices, int[] values) {
+        // marks a level that no value of the tile reaches, so higher levels can be skipped
+        static final ContourTile EMPTY = new ContourTile(0, 0, new int[0], new int[0]);
+
+        public static ContourTile of(int[][] cells) {
+            int ny = cells.length;
+            int nx = cells[0].length;
+            int n = 0;
+            for (int[] row : cells) {
+                for (int cell : row) {
+                    if (cell != 0) {
+                        n++;
+                    }
+                }
+            }
+            int[] indices = new int[n];
+            int[] values = new int[n];
+            int j = 0;
+            for (int iy = 0; iy < ny; iy++) {
+                for (int ix = 0; ix < nx; ix++) {
+                    if (cells[iy][ix] != 0) {
+                        indices[j] = iy * nx + ix;
+                        values[j++] = cells[iy][ix];
+                    }
+                }
+            }
+            return new ContourTile(nx, ny, indices, values);
+        }
+
+        public boolean isEmpty() {
+            return this == EMPTY;
+        }
+
+        long getBytes() {
+            return 48L + 8L * indices.length;
+        }
+
+        /**
+         * Get a new cell matrix for a region of the tile.
+         *
+         * @param x0 first column
+         * @param y0 first row
+         * @param x1 last column
+         * @param y1 last row
+         * @return the cells
+         */
+        public int[][] toCells(int x0, int y0, int x1, int y1) {
+            int[][] cells = new int[y1 - y0 + 1][x1 - x0 + 1];
+            for (int i = 0; i < indices.length; i++) {
+                int iy = indices[i] / nx;
+                int ix = indices[i] % nx;
+                if ((iy >= y0) && (iy <= y1) && (ix >= x0) && (ix <= x1)) {
+                    cells[iy - y0][ix - x0] = values[i];
+                }
+            }
+            return cells;
+        }
+    }
+
+    record ContourKey(String tileKey, float level) {
+    }
+
+    private final Map<ContourKey, ContourTile> tiles = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<Dataset, Integer> datasetIds = new WeakHashMap<>();
+    private int nextDatasetId = 0;
+    private long maxBytes;
+    private long bytes = 0;
+
+    public ContourCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trim();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return tiles.size();
+    }
+
+    /**
+     * Get the key of a tile of contours. The key changes whenever the data in
+     * the tile may have changed.
+     *
+     * @param dataset      the dataset
+     * @param dim          the dataset dimensions in display order
+     * @param pyramidLevel the pyramid level the tile was contoured at
+     * @param apt          the region of the tile, in dataset points
+     * @return the key
+     */
+    public synchronized String getTileKey(Dataset dataset, int[] dim, int pyramidLevel, int[][] apt) {
+        int datasetId = datasetIds.computeIfAbsent(dataset, d -> nextDatasetId++);
+        StringBuilder sBuilder = new StringBuilder();
+        sBuilder.append(datasetId).append(':').append(dataset.getModCount()).append(':')
+                .append(dataset.getScale()).append(':').append(pyramidLevel);
+        for (int i = 0; i < apt.length; i++) {
+            sBuilder.append(':').append(dim[i]).append('_').append(apt[i][0]).append('_').append(apt[i][1]);
+        }
+        return sBuilder.toString();
+    }
+
+    public synchronized ContourTile get(String tileKey, float level) {
+        return tiles.get(new ContourKey(tileKey, level));
+    }
+
+    public synchronized void put(String tileKey, float level, ContourTile tile) {
+        ContourTile old = tiles.put(new ContourKey(tileKey, level), tile);
+        if (old != null) {
+            bytes -= old.getBytes();
+        }
+        bytes += tile.getBytes();
+        trim();
+    }
+
+    public synchronized void clear() {
+        tiles.clear();
+        bytes = 0;
+    }
+
+    private void trim() {
+        Iterator<ContourTile> iter = tiles.values().iterator();
+        while ((bytes > maxBytes) && iter.hasNext()) {
+            bytes -= iter.next().getBytes();
+            iter.remove();
+        }
+    }
+}
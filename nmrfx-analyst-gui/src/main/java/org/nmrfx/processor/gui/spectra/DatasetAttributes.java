@@ -27,6 +27,7 @@ import org.nmrfx.processor.DatasetUtils;
 import org.nmrfx.processor.datasets.DataCoordTransformer;
 import org.nmrfx.processor.datasets.DataGenerator;
 import org.nmrfx.processor.datasets.Dataset;
+import org.nmrfx.processor.datasets.DatasetPyramid;
 import org.nmrfx.processor.gui.PolyChart.DISDIM;
 import org.nmrfx.processor.gui.PolyChartAxes;
 import org.nmrfx.processor.math.Vec;
@@ -41,6 +42,7 @@ import java.util.*;
 @PluginAPI("parametric")
 public class DatasetAttributes extends DataGenerator implements PublicPropertyContainer, Cloneable {
     private static final Logger log = LoggerFactory.getLogger(DatasetAttributes.class);
+    private static boolean useContourPyramid = true;
 
     private final IntegerProperty nlvls = new SimpleIntegerProperty(this, "nlvls", 20);
     private final ColorProperty posColor = new ColorProperty(this, "posColor", Color.BLACK);
@@ -1060,6 +1062,94 @@ public class DatasetAttributes extends DataGenerator implements PublicPropertyCo
         return (matrix);
     }
 
+    public static void setUseContourPyramid(boolean value) {
+        useContourPyramid = value;
+    }
+
+    public static boolean getUseContourPyramid() {
+        return useContourPyramid;
+    }
+
+    /**
+     * Get the level of the dataset pyramid that best matches the screen
+     * resolution, so that a pyramid cell is about one pixel. Level 0 means the
+     * full resolution data should be used.
+     *
+     * @param pix the pixel positions of the region bounds, as used by Contour
+     * @return the pyramid level
+     */
+    public int getPyramidLevel(double[][] pix) {
+        if (!useContourPyramid || (theFile.getNDim() < 2) || (theFile.getVec() != null)) {
+            return 0;
+        }
+        double pointsPerPixel = Double.MAX_VALUE;
+        for (int i = 0; i < 2; i++) {
+            double nPixels = Math.abs(pix[i][1] - pix[i][0]);
+            if (nPixels < 1.0) {
+                return 0;
+            }
+            pointsPerPixel = Math.min(pointsPerPixel, (pt[i][1] - pt[i][0] + 1) / nPixels);
+        }
+        if (pointsPerPixel < 2.0) {
+            return 0;
+        }
+        int level = 31 - Integer.numberOfLeadingZeros((int) pointsPerPixel);
+        return Math.min(level, theFile.getPyramid(dim).getNLevels());
+    }
+
+    /**
+     * Read the region found by getMatrixRegion from a level of the dataset
+     * pyramid. The region and offsets are converted from dataset points to
+     * points of the level, with offsets referring to the center of the
+     * first cell.
+     *
+     * @param level    the pyramid level
+     * @param apt      the region, in dataset points
+     * @param offset   the offsets, updated for the level
+     * @param matrices array of the block maximum and minimum matrices, reused
+     *                 if they have the right size
+     * @return the block maximum and minimum matrices
+     * @throws IOException if an I/O error occurs
+     */
+    public float[][][] readPyramidMatrix(int level, int[][] apt, double[] offset, float[][][] matrices) throws IOException {
+        DatasetPyramid pyramid = theFile.getPyramid(dim);
+        int[][] lpt = getLevelRegion(level, apt, offset);
+        int ny = lpt[1][1] - lpt[1][0] + 1;
+        int nx = lpt[0][1] - lpt[0][0] + 1;
+        if ((matrices == null) || (matrices[0].length != ny) || (matrices[0][0].length != nx) || (matrices[0] == matrices[1])) {
+            matrices = new float[][][]{new float[ny][nx], new float[ny][nx]};
+        }
+        pyramid.readMatrix(level, lpt, matrices[0], matrices[1]);
+        return matrices;
+    }
+
+    /**
+     * Convert a region found by getMatrixRegion from dataset points to points
+     * of a pyramid level, and the offsets to refer to the center of the first
+     * cell of the level.
+     *
+     * @param level  the pyramid level, 0 for full resolution data
+     * @param apt    the region, in dataset points
+     * @param offset the offsets, updated for the level
+     * @return the region in points of the level
+     */
+    public int[][] getLevelRegion(int level, int[][] apt, double[] offset) {
+        int[][] lpt = new int[apt.length][];
+        for (int i = 0; i < apt.length; i++) {
+            lpt[i] = apt[i].clone();
+        }
+        if (level > 0) {
+            DatasetPyramid pyramid = theFile.getPyramid(dim);
+            int step = 1 << level;
+            for (int i = 0; i < 2; i++) {
+                lpt[i][0] = apt[i][0] >> level;
+                lpt[i][1] = Math.min(apt[i][1] >> level, pyramid.getLevelSize(level, i) - 1);
+                offset[i] = lpt[i][0] * step + (step - 1) / 2.0 - ptd[i][0];
+            }
+        }
+        return lpt;
+    }
+
     public int getMatrixRegion(int iChunk, int maxChunk, int mode, int[][] apt,
                                double[] offset, StringBuffer chunkLabel) {
         Float extremeValue;
@@ -69,6 +69,8 @@ public class DrawSpectrum {
 
     private static final ExecutorService CONTOUR_GENERATION_EXECUTOR = Executors.newFixedThreadPool(30);
     private static final ExecutorService CONTOUR_DRAWING_EXECUTOR = Executors.newFixedThreadPool(100);
+    private static final int CONTOUR_TILE_SIZE = 256;
+    private static final ContourCache CONTOUR_CACHE = new ContourCache(ContourCache.DEFAULT_MAX_BYTES);
     private static boolean cancelled = false;
 
     static {
@@ -717,6 +719,40 @@ public class DrawSpectrum {
         return dataAttr.readMatrix(dataAttr.mChunk, chunkLabel.toString(), apt, z);
     }
 
+    /**
+     * Read the matrices to contour for a tile. At level 0 both entries are the
+     * full resolution data, otherwise they are the block maxima (for positive
+     * contours) and minima (for negative contours) of the pyramid level.
+     */
+    private static float[][][] readTile(DatasetAttributes dataAttr, int level, int[][] apt, String chunkLabel) throws IOException {
+        if (level == 0) {
+            float[][] matrix = dataAttr.readMatrix(dataAttr.mChunk, chunkLabel, apt, null);
+            return new float[][][]{matrix, matrix};
+        }
+        return dataAttr.readPyramidMatrix(level, apt, new double[2], null);
+    }
+
+    /**
+     * Get the cells of a tile that are within the displayed region, with a
+     * margin of one cell, so cached tiles can be drawn without regenerating
+     * them.
+     *
+     * @return the first and last cell along x and y, or null if less than two
+     * cells along an axis are visible
+     */
+    private static int[][] getVisibleCells(DatasetAttributes dataAttr, int level, int[][] lpt) {
+        int[][] view = new int[2][2];
+        for (int i = 0; i < 2; i++) {
+            int n = lpt[i][1] - lpt[i][0] + 1;
+            view[i][0] = Math.max(0, (dataAttr.pt[i][0] >> level) - lpt[i][0] - 1);
+            view[i][1] = Math.min(n - 1, (dataAttr.pt[i][1] >> level) - lpt[i][0] + 1);
+            if (view[i][1] - view[i][0] < 1) {
+                return null;
+            }
+        }
+        return view;
+    }
+
     private static boolean setContext(Contour contour, DatasetAttributes dataAttr, int iPosNeg) throws GraphicsIOException {
         final boolean ok;
         if (iPosNeg == 0) {
@@ -994,9 +1030,11 @@ public class DrawSpectrum {
 
         private void generateDrawingRequests(Task<Void> task, DatasetAttributes fileData) throws IOException {
             float[] levels = getLevels(fileData);
+            Dataset dataset = (Dataset) fileData.getDataset();
             double[] offset = {0, 0};
             fileData.mChunk = -1;
-            float[][] z = null;
+            int pyramidLevel = fileData.getPyramidLevel(getPix(axes.getX(), axes.getY(), fileData));
+            int step = 1 << pyramidLevel;
 
             do {
                 if (task.isCancelled()) {
@@ -1005,42 +1043,61 @@ public class DrawSpectrum {
                 }
                 int iChunk = fileData.mChunk + 1;
                 double[][] pix = getPix(axes.getX(), axes.getY(), fileData);
+                StringBuffer chunkLabel = new StringBuffer();
+                int[][] apt = new int[dataset.getNDim()][2];
+                int fileStatus = fileData.getMatrixRegion(iChunk, CONTOUR_TILE_SIZE << pyramidLevel, 1, apt,
+                        offset, chunkLabel);
+                if (fileStatus != 0) {
+                    break;
+                }
+                int[][] lpt = fileData.getLevelRegion(pyramidLevel, apt, offset);
+                int[][] view = getVisibleCells(fileData, pyramidLevel, lpt);
+                if (view == null) {
+                    continue;
+                }
+                String tileKey = CONTOUR_CACHE.getTileKey(dataset, fileData.dim, pyramidLevel, apt);
+                float[][][] z = null;
 
                 try {
-                    z = getData(fileData, iChunk, offset, z);
-                    if (z != null) {
-                        double xOff = offset[0];
-                        double yOff = offset[1];
-
-                        for (int iPosNeg = 0; iPosNeg < 2; iPosNeg++) {
-                            float sign = iPosNeg == 0 ? 1.0f : -1.0f;
-                            for (float level : levels) {
-                                if (!checkLevels(z, iPosNeg, sign * level)) {
-                                    break;
-                                }
-                                Contour contour = new Contour(fileData.ptd, pix);
-                                if (!setContext(contour, fileData, iPosNeg)) {
-                                    continue;
+                    for (int iPosNeg = 0; iPosNeg < 2; iPosNeg++) {
+                        float sign = iPosNeg == 0 ? 1.0f : -1.0f;
+                        for (float level : levels) {
+                            Contour contour = new Contour(fileData.ptd, pix);
+                            if (!setContext(contour, fileData, iPosNeg)) {
+                                break;
+                            }
+                            float contourLevel = sign * level;
+                            ContourCache.ContourTile tile = CONTOUR_CACHE.get(tileKey, contourLevel);
+                            if (tile == null) {
+                                if (z == null) {
+                                    z = readTile(fileData, pyramidLevel, apt, chunkLabel.toString());
                                 }
-                                contour.xOffset = xOff;
-                                contour.yOffset = yOff;
-
-                                int[][] cells = new int[z.length][z[0].length];
-                                if (!contour.marchSquares(sign * level, z, cells)) {
-                                    try {
-                                        ContourDrawingRequest request = new ContourDrawingRequest(contour, drawSpectrum.contourDrawingRequestId.get());
-                                        drawSpectrum.contourQueue.put(request);
-                                    } catch (InterruptedException ex) {
-                                        done = true;
-                                        return;
-                                    }
+                                float[][] zSign = z[iPosNeg];
+                                if (!checkLevels(zSign, iPosNeg, contourLevel)) {
+                                    tile = ContourCache.ContourTile.EMPTY;
                                 } else {
-                                    break;
+                                    int[][] cells = new int[zSign.length][zSign[0].length];
+                                    contour.marchSquares(contourLevel, zSign, cells);
+                                    tile = ContourCache.ContourTile.of(cells);
                                 }
+                                CONTOUR_CACHE.put(tileKey, contourLevel, tile);
+                            }
+                            if (tile.isEmpty()) {
+                                break;
+                            }
+                            contour.xOffset = offset[0] + view[0][0] * step;
+                            contour.yOffset = offset[1] + view[1][0] * step;
+                            contour.xStep = step;
+                            contour.yStep = step;
+                            contour.setCells(tile.toCells(view[0][0], view[1][0], view[0][1], view[1][1]));
+                            try {
+                                ContourDrawingRequest request = new ContourDrawingRequest(contour, drawSpectrum.contourDrawingRequestId.get());
+                                drawSpectrum.contourQueue.put(request);
+                            } catch (InterruptedException ex) {
+                                done = true;
+                                return;
                             }
                         }
-                    } else {
-                        break;
                     }
                 } catch (GraphicsIOException ex) {
                     throw new IOException(ex.getMessage());
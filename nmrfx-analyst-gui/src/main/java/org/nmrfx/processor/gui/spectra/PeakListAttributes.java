@@ -25,6 +25,7 @@ import org.nmrfx.chart.Axis;
 import org.nmrfx.datasets.DatasetBase;
 import org.nmrfx.fxutil.Fx;
 import org.nmrfx.peaks.*;
+import org.nmrfx.peaks.events.PeakChangeEvent;
 import org.nmrfx.peaks.events.PeakEvent;
 import org.nmrfx.peaks.events.PeakListener;
 import org.nmrfx.processor.datasets.Dataset;
@@ -70,6 +71,8 @@ public class PeakListAttributes implements PeakListener, PublicPropertyContainer
     final DatasetAttributes dataAttr;
     final PolyChart chart;
     Optional<List<Peak>> peaksInRegion = Optional.empty();
+    // the limits peaksInRegion was found with
+    double[][] regionLimits = null;
     Optional<List<Multiplet>> multipletsInRegion = Optional.empty();
     Set<Peak> selectedPeaks = new HashSet<>();
     Set<MultipletSelection> selectedMultiplets = FXCollections.observableSet();
@@ -347,12 +350,9 @@ public class PeakListAttributes implements PeakListener, PublicPropertyContainer
         if ((peakList != null) && (peakList.peaks() != null)) {
             double[][] limits = getRegionLimits(dataAttr);
             int[] peakDim = getPeakDim();
-            List<Peak> peaks = peakList.peaks()
-                    .stream()
-                    .parallel()
-                    .filter(peak -> peak.inRegion(limits, foldLimits, peakDim))
-                    .collect(Collectors.toList());
+            List<Peak> peaks = peakList.findPeaksInRegion(limits, foldLimits, peakDim);
             peaksInRegion = Optional.of(peaks);
+            regionLimits = limits;
         }
     }
 
@@ -368,12 +368,9 @@ public class PeakListAttributes implements PeakListener, PublicPropertyContainer
                 limits[1][1] = crossLimits[1][1];
             }
             int[] peakDim = getPeakDim();
-            List<Peak> peaks = peakList.peaks()
-                    .stream()
-                    .parallel()
-                    .filter(peak -> peak.inRegion(limits, foldLimits, peakDim))
-                    .collect(Collectors.toList());
+            List<Peak> peaks = peakList.findPeaksInRegion(limits, foldLimits, peakDim);
             peaksInRegion = Optional.of(peaks);
+            regionLimits = limits;
         }
     }
 
@@ -388,11 +385,7 @@ public class PeakListAttributes implements PeakListener, PublicPropertyContainer
                 limits[1][1] = crossLimits[1][1];
             }
             int[] peakDim = getPeakDim();
-            List<Peak> peaks = peakList.peaks()
-                    .stream()
-                    .parallel()
-                    .filter(peak -> peak.inRegion(limits, foldLimits, peakDim))
-                    .collect(Collectors.toList());
+            List<Peak> peaks = peakList.findPeaksInRegion(limits, foldLimits, peakDim);
             selectedPeaks.addAll(peaks);
             return (peaks);
         }
@@ -739,7 +732,53 @@ public class PeakListAttributes implements PeakListener, PublicPropertyContainer
 
     @Override
     public void peakListChanged(PeakEvent peakEvent) {
-        peaksInRegion = Optional.empty();
+        updatePeaksInRegion(peakEvent);
+    }
+
+    /**
+     * Update the peaks in the region for a change to the peak list. If the
+     * event names the changed peaks only those are checked, and the ones that
+     * moved into or out of the region are added or removed. Otherwise the
+     * peaks are found again when next needed.
+     *
+     * @param peakEvent the event
+     * @return false if no changed peak is or was in the region, so the peaks
+     * don't need to be drawn again
+     */
+    public boolean updatePeaksInRegion(PeakEvent peakEvent) {
+        if (!(peakEvent instanceof PeakChangeEvent changeEvent) || changeEvent.getChangedPeaks().isEmpty()
+                || peaksInRegion.isEmpty() || (regionLimits == null)) {
+            clearPeaksInRegion();
+            return true;
+        }
+        List<Peak> peaks = peaksInRegion.get();
+        Set<Peak> regionPeaks = new HashSet<>(peaks);
+        int[] peakDim = getPeakDim();
+        List<Peak> added = new ArrayList<>();
+        Set<Peak> removed = new HashSet<>();
+        boolean inRegion = false;
+        for (Peak peak : changeEvent.getChangedPeaks().get()) {
+            boolean wasIn = regionPeaks.contains(peak);
+            boolean isIn = (peak.getPeakList() == peakList) && peak.inRegion(regionLimits, foldLimits, peakDim);
+            if (isIn && !wasIn) {
+                added.add(peak);
+            } else if (wasIn && !isIn) {
+                removed.add(peak);
+            }
+            inRegion |= isIn || wasIn;
+        }
+        if (!added.isEmpty() || !removed.isEmpty()) {
+            List<Peak> newPeaks = new ArrayList<>(peaks.size() + added.size());
+            for (Peak peak : peaks) {
+                if (!removed.contains(peak)) {
+                    newPeaks.add(peak);
+                }
+            }
+            newPeaks.addAll(added);
+            newPeaks.sort(Comparator.comparing(Peak::getIndex));
+            peaksInRegion = Optional.of(newPeaks);
+        }
+        return inRegion;
     }
 
     public void copyTo(PeakListAttributes peakAttr) {
@@ -0,0 +1,54 @@
+package org.nmrfx.processor.gui.spectra;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ContourCacheTest {
+
+    int[][] getCells(int nx, int ny) {
+        int[][] cells = new int[ny][nx];
+        for (int iy = 0; iy < ny; iy++) {
+            for (int ix = 0; ix < nx; ix++) {
+                if ((ix + iy) % 5 == 0) {
+                    cells[iy][ix] = 1 + ix * 1000 + iy;
+                }
+            }
+        }
+        return cells;
+    }
+
+    @Test
+    public void testTileCells() {
+        int[][] cells = getCells(20, 12);
+        ContourCache.ContourTile tile = ContourCache.ContourTile.of(cells);
+        Assert.assertFalse(tile.isEmpty());
+        int[][] region = tile.toCells(3, 2, 15, 9);
+        Assert.assertEquals(8, region.length);
+        Assert.assertEquals(13, region[0].length);
+        for (int iy = 0; iy < region.length; iy++) {
+            for (int ix = 0; ix < region[0].length; ix++) {
+                Assert.assertEquals(cells[iy + 2][ix + 3], region[iy][ix]);
+            }
+        }
+    }
+
+    @Test
+    public void testEviction() {
+        ContourCache.ContourTile tile = ContourCache.ContourTile.of(getCells(40, 40));
+        long tileBytes = tile.getBytes();
+        ContourCache cache = new ContourCache(3 * tileBytes);
+        cache.put("a", 1.0f, tile);
+        cache.put("a", 2.0f, tile);
+        cache.put("b", 1.0f, tile);
+        Assert.assertEquals(3, cache.size());
+        // access a:1 so a:2 is the least recently used entry
+        Assert.assertSame(tile, cache.get("a", 1.0f));
+        cache.put("b", 2.0f, tile);
+        Assert.assertEquals(3, cache.size());
+        Assert.assertNull(cache.get("a", 2.0f));
+        Assert.assertNotNull(cache.get("a", 1.0f));
+        Assert.assertEquals(3 * tileBytes, cache.getBytes());
+        cache.clear();
+        Assert.assertEquals(0, cache.getBytes());
+    }
+}
@@ -42,6 +42,7 @@ public class BigMappedMatrixFile implements DatasetStorageInterface, Closeable {
 
     private static final Logger log = LoggerFactory.getLogger(BigMappedMatrixFile.class);
     private static final int MAPPING_SIZE = 1 << 30;
+    private static int mappingSize = MAPPING_SIZE;
     private File file;
     Dataset dataset;
     private RandomAccessFile raFile;
@@ -71,7 +72,7 @@ public class BigMappedMatrixFile implements DatasetStorageInterface, Closeable {
         dataType = dataset.getDataType();
         strides = new long[dataset.getNDim()];
         this.writable = writable;
-        mapSize = MAPPING_SIZE;
+        mapSize = mappingSize;
         init();
     }
 
@@ -103,6 +104,17 @@ public class BigMappedMatrixFile implements DatasetStorageInterface, Closeable {
         }
     }
 
+    /**
+     * Set the size of each mapping of files opened after this call. Used for
+     * testing.
+     *
+     * @param size the size in bytes, a multiple of 4, or a value less than 1
+     *             to restore the default
+     */
+    public static void setMappingSize(int size) {
+        mappingSize = size < 1 ? MAPPING_SIZE : size;
+    }
+
     public DatasetLayout getLayout() {
         return layout;
     }
@@ -174,26 +186,23 @@ public class BigMappedMatrixFile implements DatasetStorageInterface, Closeable {
         return totalSize;
     }
 
-    private MappedByteBuffer getMapping(final int index) throws IOException {
-        MapInfo mapInfo = mappings.get(index);
-        if (mapInfo.buffer == null) {
-            mapInfo.mapIt(raFile);
-        } else {
-            mapInfo.touch();
-        }
-        return mapInfo.buffer;
-    }
-
     @Override
     public float getFloat(int... offsets) throws IOException {
         long p = bytePosition(offsets);
         int mapN = (int) (p / mapSize);
         int offN = (int) (p % mapSize);
+        MapInfo mapInfo = mappings.get(mapN);
         try {
-            if (dataType == 0) {
-                return getMapping(mapN).getFloat(offN);
-            } else {
-                return getMapping(mapN).getInt(offN);
+            // the mapping can't be unmapped by other threads until released
+            MappedByteBuffer mapping = mapInfo.acquire(raFile);
+            try {
+                if (dataType == 0) {
+                    return mapping.getFloat(offN);
+                } else {
+                    return mapping.getInt(offN);
+                }
+            } finally {
+                mapInfo.release();
             }
         } catch (IOException e) {
             StringBuilder sBuilder = new StringBuilder();
@@ -213,11 +222,17 @@ public class BigMappedMatrixFile implements DatasetStorageInterface, Closeable {
         int mapN = (int) (p / mapSize);
         int offN = (int) (p % mapSize);
 
+        MapInfo mapInfo = mappings.get(mapN);
         try {
-            if (dataType == 0) {
-                getMapping(mapN).putFloat(offN, d);
-            } else {
-                getMapping(mapN).putInt(offN, (int) d);
+            MappedByteBuffer mapping = mapInfo.acquire(raFile);
+            try {
+                if (dataType == 0) {
+                    mapping.putFloat(offN, d);
+                } else {
+                    mapping.putInt(offN, (int) d);
+                }
+            } finally {
+                mapInfo.release();
             }
         } catch (IOException e) {
             StringBuilder sBuilder = new StringBuilder();
@@ -231,6 +246,68 @@ public class BigMappedMatrixFile implements DatasetStorageInterface, Closeable {
         }
     }
 
+    @Override
+    public void readFloats(int first, int last, int[] point, int dim, float[] values) throws IOException {
+        int stride = layout.offsetPoints[dim];
+        for (int i = first, k = 0; i <= last; ) {
+            point[dim] = i;
+            int blockLast = layout.lastInBlock(dim, i, last);
+            int n = blockLast - i + 1;
+            long p = bytePosition(point);
+            long pLast = p + (long) (n - 1) * stride * BYTES;
+            int mapN = (int) (p / mapSize);
+            if (mapN == (int) (pLast / mapSize)) {
+                int offN = (int) (p % mapSize);
+                MapInfo mapInfo = mappings.get(mapN);
+                MappedByteBuffer mapping = mapInfo.acquire(raFile);
+                try {
+                    StridedIO.get(mapping, offN / BYTES, stride, dataType != 0, values, k, n);
+                } finally {
+                    mapInfo.release();
+                }
+            } else {
+                // block spans two mappings
+                for (int j = 0; j < n; j++) {
+                    point[dim] = i + j;
+                    values[k + j] = getFloat(point);
+                }
+            }
+            k += n;
+            i = blockLast + 1;
+        }
+    }
+
+    @Override
+    public void writeFloats(int first, int last, int[] point, int dim, float[] values) throws IOException {
+        int stride = layout.offsetPoints[dim];
+        for (int i = first, k = 0; i <= last; ) {
+            point[dim] = i;
+            int blockLast = layout.lastInBlock(dim, i, last);
+            int n = blockLast - i + 1;
+            long p = bytePosition(point);
+            long pLast = p + (long) (n - 1) * stride * BYTES;
+            int mapN = (int) (p / mapSize);
+            if (mapN == (int) (pLast / mapSize)) {
+                int offN = (int) (p % mapSize);
+                MapInfo mapInfo = mappings.get(mapN);
+                MappedByteBuffer mapping = mapInfo.acquire(raFile);
+                try {
+                    StridedIO.put(mapping, offN / BYTES, stride, dataType != 0, values, k, n);
+                } finally {
+                    mapInfo.release();
+                }
+            } else {
+                // block spans two mappings
+                for (int j = 0; j < n; j++) {
+                    point[dim] = i + j;
+                    setFloat(values[k + j], point);
+                }
+            }
+            k += n;
+            i = blockLast + 1;
+        }
+    }
+
     @Override
     public void close() throws IOException {
         if (raFile != null) {
@@ -251,16 +328,17 @@ public class BigMappedMatrixFile implements DatasetStorageInterface, Closeable {
     @Override
     public double sumValues() throws IOException {
         double sum = 0.0;
-        for (int i = 0; i < totalSize; i++) {
-            long p = i * BYTES;
-            int mapN = (int) (p / mapSize);
-            int offN = (int) (p % mapSize);
+        long pointsPerMap = mapSize / BYTES;
+        for (int mapN = 0; mapN < mappings.size(); mapN++) {
+            MapInfo mapInfo = mappings.get(mapN);
+            MappedByteBuffer mapping = mapInfo.acquire(raFile);
             try {
-                sum += getMapping(mapN).getFloat(offN);
-            } catch (IOException e) {
-                MappedByteBuffer mapping = getMapping(mapN);
-                log.error("{} Err {} {} {}", mapN, offN, mapping.capacity(), mapping.limit());
-                System.exit(0);
+                long n = Math.min(pointsPerMap, totalSize - mapN * pointsPerMap);
+                for (int i = 0; i < n; i++) {
+                    sum += mapping.getFloat(i * BYTES);
+                }
+            } finally {
+                mapInfo.release();
             }
         }
         return sum;
@@ -269,34 +347,42 @@ public class BigMappedMatrixFile implements DatasetStorageInterface, Closeable {
     @Override
     public double sumFast() throws IOException {
         double sum = 0.0;
-        MappedByteBuffer mapping = getMapping(0);
-        long n = totalSize / (mapSize / BYTES);
-        for (int i = 0; i < n; i++) {
-            int p = i * BYTES;
-            try {
-                sum += mapping.getFloat(p);
-            } catch (Exception e) {
-                log.error("{} Err {} {}", p, mapping.capacity(), mapping.limit());
-                System.exit(0);
+        MapInfo mapInfo = mappings.get(0);
+        MappedByteBuffer mapping = mapInfo.acquire(raFile);
+        try {
+            long n = totalSize / (mapSize / BYTES);
+            for (int i = 0; i < n; i++) {
+                int p = i * BYTES;
+                try {
+                    sum += mapping.getFloat(p);
+                } catch (Exception e) {
+                    log.error("{} Err {} {}", p, mapping.capacity(), mapping.limit());
+                    System.exit(0);
+                }
             }
+        } finally {
+            mapInfo.release();
         }
         return sum;
     }
 
     @Override
     public void zero() throws IOException {
-        for (long i = 0; i < totalSize; i++) {
-            int mapN = (int) ((i * BYTES) / mapSize);
-            int offN = (int) ((i * BYTES) % mapSize);
+        long pointsPerMap = mapSize / BYTES;
+        for (int mapN = 0; mapN < mappings.size(); mapN++) {
+            MapInfo mapInfo = mappings.get(mapN);
+            MappedByteBuffer mapping = mapInfo.acquire(raFile);
             try {
-                if (dataType == 0) {
-                    getMapping(mapN).putFloat(offN, 0.0f);
-                } else {
-                    getMapping(mapN).putInt(offN, 0);
+                long n = Math.min(pointsPerMap, totalSize - mapN * pointsPerMap);
+                for (int i = 0; i < n; i++) {
+                    if (dataType == 0) {
+                        mapping.putFloat(i * BYTES, 0.0f);
+                    } else {
+                        mapping.putInt(i * BYTES, 0);
+                    }
                 }
-            } catch (java.lang.IndexOutOfBoundsException iOBE) {
-                log.warn("out of bounds at {} {} {}", i, mapN, offN);
-                throw iOBE;
+            } finally {
+                mapInfo.release();
             }
         }
     }
@@ -17,6 +17,7 @@
  */
 package org.nmrfx.processor.datasets;
 
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.ArrayRealVector;
@@ -51,6 +52,8 @@ import java.io.RandomAccessFile;
 import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -68,12 +71,15 @@ public class Dataset extends DatasetBase implements Comparable<Dataset> {
 
     private static final Logger log = LoggerFactory.getLogger(Dataset.class);
     private static final long BIG_MAP_LIMIT = Integer.MAX_VALUE / 2;
+    private static long bigMapLimit = BIG_MAP_LIMIT;
     private static boolean useCacheFile = false;
 
     private boolean dirty = false;  // flag set if a vector has been written to dataset, should purge bufferVectors
     LineShapeCatalog simVecs = null;
     Map<String, double[]> buffers = new HashMap<>();
     Dataset[] projections = null;
+    private final Map<String, DatasetPyramid> pyramids = new ConcurrentHashMap<>();
+    private final AtomicInteger modCount = new AtomicInteger(0);
     private Object analyzerObject = null;
     boolean memoryMode = false;
     String script = "";
@@ -477,7 +483,7 @@ public class Dataset extends DatasetBase implements Comparable<Dataset> {
         if (useCacheFile) {
             newDataFile = new SubMatrixFile(dataset, file, newLayout, raFile, writable);
         } else {
-            if (newLayout.getNDataBytes() > BIG_MAP_LIMIT) {
+            if (newLayout.getNDataBytes() > bigMapLimit) {
                 newDataFile = new BigMappedMatrixFile(dataset, file, newLayout, raFile, writable);
             } else {
                 if (newLayout.isSubMatrix()) {
@@ -552,6 +558,16 @@ public class Dataset extends DatasetBase implements Comparable<Dataset> {
         useCacheFile = value;
     }
 
+    /**
+     * Set the number of data bytes above which memory mapped files are
+     * mapped in several parts with BigMappedMatrixFile. Used for testing.
+     *
+     * @param limit the limit in bytes, a negative value restores the default
+     */
+    public static void setBigMapLimit(long limit) {
+        bigMapLimit = limit < 0 ? BIG_MAP_LIMIT : limit;
+    }
+
     public boolean isCacheFile() {
         return dataFile instanceof SubMatrixFile;
     }
@@ -645,6 +661,8 @@ public class Dataset extends DatasetBase implements Comparable<Dataset> {
     @Override
     public void close() {
         removeFile(fileName);
+        pyramids.values().forEach(DatasetPyramid::close);
+        pyramids.clear();
         try {
             if (dataFile != null) {
                 if (dataFile.isWritable()) {
@@ -672,23 +690,32 @@ public class Dataset extends DatasetBase implements Comparable<Dataset> {
         return memoryMode;
     }
 
-    double[] optCenter(int[] maxPoint, int[] dim) throws IOException {
+    /**
+     * Source of the values of dataset points, so a region can be analyzed from
+     * values that were read from the dataset beforehand.
+     */
+    @FunctionalInterface
+    public interface PointReader {
+        double readPoint(int[] pt, int[] dim) throws IOException;
+    }
+
+    double[] optCenter(int[] maxPoint, int[] dim, PointReader reader) throws IOException {
         double[] dmaxPoint = new double[nDim];
         int[] points = new int[nDim];
         double[] f = new double[2];
-        double centerValue = readPoint(maxPoint, dim);
+        double centerValue = reader.readPoint(maxPoint, dim);
         for (int j = 0; j < nDim; j++) {
             System.arraycopy(maxPoint, 0, points, 0, nDim);
             points[j] = maxPoint[j] - 1;
             if (points[j] < 0) {
                 points[j] = getSizeReal(dim[j]) - 1;
             }
-            f[0] = readPoint(points, dim);
+            f[0] = reader.readPoint(points, dim);
             points[j] = maxPoint[j] + 1;
             if (points[j] >= getSizeReal(dim[j])) {
                 points[j] = 0;
             }
-            f[1] = readPoint(points, dim);
+            f[1] = reader.readPoint(points, dim);
             double fPt = maxPoint[j];
             double delta = ((f[1] - f[0]) / (2.0 * ((2.0 * centerValue) - f[1]
                     - f[0])));
@@ -752,6 +779,32 @@ public class Dataset extends DatasetBase implements Comparable<Dataset> {
     @Override
     synchronized public RegionData analyzeRegion(int[][] pt, int[] cpt, double[] width, int[] dim)
             throws IOException {
+        return analyzeRegion(pt, cpt, width, dim, this::readPoint);
+    }
+
+    /**
+     * Calculate basic descriptive statistics on the specified region of the
+     * dataset, getting the values of the points from a reader. The reader is
+     * used without holding the dataset lock, so it must either read values
+     * that are already in memory or lock the dataset itself.
+     *
+     * @param pt     The bounds of the region in dataset points
+     * @param cpt    The center point of each region
+     * @param width  the width of each region
+     * @param dim    the dataset dimensions that the pt, cpt, and width
+     *               parameters use
+     * @param reader the source of the point values
+     * @return RegionData with statistical information about the specified
+     * region
+     * @throws java.io.IOException if an I/O error ocurrs
+     */
+    public RegionData analyzeRegion(int[][] pt, int[] cpt, double[] width, int[] dim, PointReader reader)
+            throws IOException {
+        if (vecMat != null) {
+            synchronized (this) {
+                setSizeTotal(0, vecMat.getSize());
+            }
+        }
         int[] iPointAbs = new int[nDim];
         double[] iTol = new double[nDim];
 
@@ -760,10 +813,6 @@ public class Dataset extends DatasetBase implements Comparable<Dataset> {
         double threshRatio = 0.25;
         int pass2;
 
-        if (vecMat != null) {
-            setSizeTotal(0, vecMat.getSize());
-        }
-
         int[] counterSizes = new int[nDim];
         for (int i = 0; i < nDim; i++) {
             if (pt[i][1] >= pt[i][0]) {
@@ -789,7 +838,7 @@ public class Dataset extends DatasetBase implements Comparable<Dataset> {
                     }
                     iPointAbs[i] = points[i];
                 }
-                rData.setValue(readPoint(points, dim));
+                rData.setValue(reader.readPoint(points, dim));
 
                 if (rData.getValue() == Double.MAX_VALUE) {
                     continue;
@@ -804,7 +853,7 @@ public class Dataset extends DatasetBase implements Comparable<Dataset> {
             }
 
         }
-        rData.setMaxDPoint(optCenter(rData.getMaxPoint(), dim));
+        rData.setMaxDPoint(optCenter(rData.getMaxPoint(), dim, reader));
         if (rData.getNpoints() == 1) {
             rData.setRMS(0.0);
         } else {
@@ -1053,6 +1102,48 @@ public class Dataset extends DatasetBase implements Comparable<Dataset> {
 
     void setDirty(boolean value) {
         dirty = value;
+        if (value) {
+            modCount.incrementAndGet();
+            pyramids.values().forEach(DatasetPyramid::invalidate);
+        }
+    }
+
+    /**
+     * Write a value into the dataset at the specified point, and mark values
+     * derived from the data, such as pyramids and contours, out of date.
+     *
+     * @param pt    indices of point to write
+     * @param value to write
+     * @throws IOException              if an I/O error occurs
+     * @throws IllegalArgumentException if point is outside range of dataset (
+     *                                  less than 0 or greater than or equal to size)
+     */
+    @Override
+    public void writePoint(int[] pt, double value) throws IOException, IllegalArgumentException {
+        super.writePoint(pt, value);
+        setDirty(true);
+    }
+
+    /**
+     * Get the number of times data has been written to the dataset. Used to
+     * tell whether values derived from the data, such as contours, are out of
+     * date.
+     *
+     * @return the modification count
+     */
+    public int getModCount() {
+        return modCount.get();
+    }
+
+    /**
+     * Get the multi-resolution pyramid of the planes spanned by the first two
+     * of the specified dimensions, creating it if necessary.
+     *
+     * @param dim the dataset dimensions, in display order
+     * @return the pyramid
+     */
+    public DatasetPyramid getPyramid(int[] dim) {
+        return pyramids.computeIfAbsent(Arrays.toString(dim), key -> new DatasetPyramid(this, dim));
     }
 
     /**
@@ -1062,7 +1153,7 @@ public class Dataset extends DatasetBase implements Comparable<Dataset> {
      * @return array of intensities at specified point values
      * @throws java.io.IOException if an I/O error ocurrs
      */
-    public double[] getIntensities(final ArrayList<int[]> posArray) throws IOException {
+    synchronized public double[] getIntensities(final ArrayList<int[]> posArray) throws IOException {
         double[] intensities = new double[posArray.size()];
         int[] dim = new int[nDim];
         for (int iDim = 0; iDim < nDim; iDim++) {
@@ -1082,7 +1173,7 @@ public class Dataset extends DatasetBase implements Comparable<Dataset> {
      * @return array of intensities within region
      * @throws java.io.IOException if an I/O error ocurrs
      */
-    public double[] getIntensities(final int[][] region) throws IOException {
+    synchronized public double[] getIntensities(final int[][] region) throws IOException {
         int[] dim = new int[nDim];
         int[] sizes = new int[nDim];
         for (int iDim = 0; iDim < nDim; iDim++) {
@@ -1352,6 +1443,7 @@ public class Dataset extends DatasetBase implements Comparable<Dataset> {
      */
     public void writeMatrixToDatasetFile(int[] dim, Matrix matrix)
             throws IOException {
+        setDirty(true);
         int[] point = new int[nDim];
         int[][] pt = matrix.getPt();
         double[][] mat = matrix.getMatrix();
@@ -1377,6 +1469,7 @@ public class Dataset extends DatasetBase implements Comparable<Dataset> {
      * @throws IOException if an I/O error occurs
      */
     public void writeMatrixNDToDatasetFile(int[] dim, MatrixND matrix) throws IOException {
+        setDirty(true);
         int[][] pt = matrix.getPt();
         int[] point = new int[nDim];
         point[dim[nDim - 1]] = pt[nDim - 1][0];
@@ -1558,27 +1651,100 @@ public class Dataset extends DatasetBase implements Comparable<Dataset> {
             }
 
         } else {
-            double dReal = 0.0;
-            int j = 0;
-            for (int i = pt[0][0]; i <= pt[0][1]; i++) {
-                if (axisReversed[dim[0]]) {
-                    point[dim[0]] = getSizeTotal(dim[0]) - 1 - i;
-                } else {
-                    point[dim[0]] = i;
-                }
-                if (rwVector.isComplex()) {
-                    if ((i % 2) != 0) {
-                        double dImaginary = readPointRaw(point);
-                        rwVector.set(j, new Complex(dReal, dImaginary));
-                        j++;
-                    } else {
-                        dReal = readPointRaw(point);
-                    }
-                } else {
-                    rwVector.set(j, readPointRaw(point));
+            int first = pt[0][0];
+            int last = pt[0][1];
+            int dimSize = getSizeTotal(dim[0]);
+            if ((dataFile == null) || (first < 0) || (last >= dimSize)) {
+                // no storage or a range outside the dataset, read point by point as readPointRaw handles these
+                readVectorPoints(pt, dim, point, rwVector);
+                return;
+            }
+            if (last < first) {
+                return;
+            }
+            float[] values = new float[last - first + 1];
+            if (axisReversed[dim[0]]) {
+                dataFile.readFloats(dimSize - 1 - last, dimSize - 1 - first, point, dim[0], values);
+                ArrayUtils.reverse(values);
+            } else {
+                dataFile.readFloats(first, last, point, dim[0], values);
+            }
+            DatasetStorageInterface.copyToVector(values, first, scale, rwVector);
+        }
+    }
+
+    private void readVectorPoints(int[][] pt, int[] dim, int[] point, VecBase rwVector) throws IOException {
+        double dReal = 0.0;
+        int j = 0;
+        for (int i = pt[0][0]; i <= pt[0][1]; i++) {
+            if (axisReversed[dim[0]]) {
+                point[dim[0]] = getSizeTotal(dim[0]) - 1 - i;
+            } else {
+                point[dim[0]] = i;
+            }
+            if (rwVector.isComplex()) {
+                if ((i % 2) != 0) {
+                    double dImaginary = readPointRaw(point);
+                    rwVector.set(j, new Complex(dReal, dImaginary));
                     j++;
+                } else {
+                    dReal = readPointRaw(point);
                 }
+            } else {
+                rwVector.set(j, readPointRaw(point));
+                j++;
+            }
+        }
+    }
+
+    /**
+     * Read a row of values along the first of the given dimensions. The values
+     * are those readPoint returns for each point of the row, but are read from
+     * storage in one call, unless the dimension is complex (so that only every
+     * other value is used) or the dataset is held in a vector.
+     *
+     * @param pt     the first point of the row, as used by readPoint
+     * @param dim    the dataset dimensions that are used in pt
+     * @param values the array to store the values in, its length is the
+     *               number of points in the row
+     * @throws IOException              if an I/O error occurs
+     * @throws IllegalArgumentException if the row is outside the dataset
+     */
+    public void readPoints(int[] pt, int[] dim, double[] values) throws IOException, IllegalArgumentException {
+        int nPoints = values.length;
+        if ((vecMat != null) || (dataFile == null) || complex[dim[0]]) {
+            int[] point = pt.clone();
+            for (int k = 0; k < nPoints; k++) {
+                point[0] = pt[0] + k;
+                values[k] = readPoint(point, dim);
+            }
+            return;
+        }
+        int first = pt[0];
+        int last = pt[0] + nPoints - 1;
+        if ((first < 0) || (last >= getSizeReal(dim[0]))) {
+            throw new IllegalArgumentException("row outside dataset " + dim[0] + " " + first + " " + last + " " + getSizeReal(dim[0]));
+        }
+        int[] rPt = new int[nDim];
+        for (int i = 1; i < nDim; i++) {
+            if ((pt[i] < 0) || (pt[i] >= getSizeReal(dim[i]))) {
+                throw new IllegalArgumentException("point outside dataset " + i + " " + dim[i] + " " + pt[i] + " " + getSizeReal(dim[i]));
             }
+            rPt[dim[i]] = complex[dim[i]] ? 2 * pt[i] : pt[i];
+            if (axisReversed[dim[i]]) {
+                rPt[dim[i]] = getSizeTotal(dim[i]) - 1 - rPt[dim[i]];
+            }
+        }
+        float[] floats = new float[nPoints];
+        if (axisReversed[dim[0]]) {
+            int dimSize = getSizeTotal(dim[0]);
+            dataFile.readFloats(dimSize - 1 - last, dimSize - 1 - first, rPt, dim[0], floats);
+            ArrayUtils.reverse(floats);
+        } else {
+            dataFile.readFloats(first, last, rPt, dim[0], floats);
+        }
+        for (int k = 0; k < nPoints; k++) {
+            values[k] = floats[k] / scale;
         }
     }
 
@@ -2439,8 +2605,9 @@ public class Dataset extends DatasetBase implements Comparable<Dataset> {
         DimCounter.Iterator cIter = getPointIterator();
         while (cIter.hasNext()) {
             int[] points = cIter.next();
-            writePoint(points, 0.0);
+            super.writePoint(points, 0.0);
         }
+        setDirty(true);
     }
 
     public boolean bufferExists(String bufferName) {
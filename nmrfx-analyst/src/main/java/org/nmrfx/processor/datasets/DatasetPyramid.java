@@ -0,0 +1,443 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2017 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.datasets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Multi-resolution copy of the planes of a dataset, used to contour a plane
+ * with a cost that scales with the number of pixels rather than the number of
+ * data points. Level k of a plane holds, for each block of 2^k x 2^k points,
+ * the maximum and the minimum of the block. Positive contours drawn from the
+ * maxima and negative contours drawn from the minima therefore still enclose
+ * every peak of the full resolution data.
+ * <p>
+ * The levels of a plane are built on first use and kept in memory. If a cache
+ * directory has been set with setCacheDir, the levels of datasets stored in a
+ * file are also written to a file in that directory (for example
+ * hsqc_1a2b3c4d_12.pyr for display dimensions 1 and 2 of hsqc.nv) so that
+ * later sessions don't have to rebuild them. If the file can't be created the
+ * levels are only kept in memory.
+ * <p>
+ * Writing to the dataset invalidates the pyramid. A stored pyramid is only
+ * reused while the size and modification time of the dataset file match those
+ * recorded when the pyramid file was created, so saving the dataset, or
+ * writing to it at all, causes the levels to be rebuilt in the next session.
+ *
+ * @author brucejohnson
+ */
+public class DatasetPyramid implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(DatasetPyramid.class);
+    private static final Pattern DATASET_SUFFIX = Pattern.compile("\\.(nv|ucsf|nvlnk)$");
+    static final int MAGIC = 0x4E565059;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 40;
+    static final int MIN_LEVEL_SIZE = 16;
+    static final int MAX_LEVELS = 8;
+    static final int STRIP_ROWS = 256;
+    static final long MAX_CACHED_FLOATS = 32L * 1024 * 1024;
+    private static Path cacheDir = null;
+
+    private final Dataset dataset;
+    private final int[] dim;
+    private final int nx;
+    private final int ny;
+    private final int[] planeSizes;
+    private final int nPlanes;
+    private final int nLevels;
+    private final int[][] levelSizes;
+    private final int[] levelOffsets;
+    private final int planeFloats;
+    private final Map<Integer, float[]> planes;
+    private final AtomicInteger generation = new AtomicInteger(0);
+    private int validGeneration = 0;
+    private final Path path;
+    private FileChannel fc = null;
+
+    /**
+     * Create the pyramid of the planes spanned by the first two of the
+     * specified dataset dimensions.
+     *
+     * @param dataset the dataset
+     * @param dim     the dataset dimensions, in display order. Entries after
+     *                the first two index the planes.
+     */
+    public DatasetPyramid(Dataset dataset, int[] dim) {
+        if (dataset.getNDim() < 2) {
+            throw new IllegalArgumentException("Pyramid requires a dataset with at least 2 dimensions");
+        }
+        this.dataset = dataset;
+        this.dim = dim.clone();
+        nx = dataset.getSizeReal(dim[0]);
+        ny = dataset.getSizeReal(dim[1]);
+        planeSizes = new int[dim.length];
+        int n = 1;
+        for (int i = 2; i < dim.length; i++) {
+            planeSizes[i] = dataset.getSizeReal(dim[i]);
+            n *= planeSizes[i];
+        }
+        nPlanes = n;
+
+        int levels = 0;
+        while ((levels < MAX_LEVELS) && ((nx >> (levels + 1)) >= MIN_LEVEL_SIZE)
+                && ((ny >> (levels + 1)) >= MIN_LEVEL_SIZE)) {
+            levels++;
+        }
+        nLevels = levels;
+        levelSizes = new int[nLevels + 1][2];
+        levelOffsets = new int[nLevels + 1];
+        int offset = 0;
+        for (int level = 1; level <= nLevels; level++) {
+            int size = 1 << level;
+            levelSizes[level][0] = (nx + size - 1) / size;
+            levelSizes[level][1] = (ny + size - 1) / size;
+            levelOffsets[level] = offset;
+            offset += 2 * levelSizes[level][0] * levelSizes[level][1];
+        }
+        planeFloats = offset;
+        int maxPlanes = (int) Math.max(1, MAX_CACHED_FLOATS / Math.max(1, planeFloats));
+        planes = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, float[]> eldest) {
+                return size() > maxPlanes;
+            }
+        };
+        path = getPyramidPath(dataset, dim);
+        if ((path != null) && (nLevels > 0)) {
+            openFile();
+        }
+    }
+
+    /**
+     * Set the directory that pyramid files are stored in. Pyramids created
+     * after this call use it.
+     *
+     * @param dir the directory, which is created when first used, or null to
+     *            keep pyramids only in memory
+     */
+    public static void setCacheDir(Path dir) {
+        cacheDir = dir;
+    }
+
+    public static Path getCacheDir() {
+        return cacheDir;
+    }
+
+    static Path getPyramidPath(Dataset dataset, int[] dim) {
+        File file = dataset.getFile();
+        Path dir = cacheDir;
+        if ((dir == null) || dataset.isMemoryFile() || (file == null) || !file.exists()) {
+            return null;
+        }
+        // the hash of the full path keeps datasets with the same name in different directories apart
+        String fileName = file.getName();
+        Matcher matcher = DATASET_SUFFIX.matcher(fileName);
+        int endIndex = matcher.find() ? matcher.start() : fileName.length();
+        StringBuilder sBuilder = new StringBuilder(fileName.substring(0, endIndex)).append('_');
+        sBuilder.append(String.format("%08x", file.getAbsolutePath().hashCode())).append('_');
+        for (int iDim : dim) {
+            sBuilder.append(iDim + 1);
+        }
+        return dir.resolve(sBuilder.append(".pyr").toString());
+    }
+
+    public int getNLevels() {
+        return nLevels;
+    }
+
+    /**
+     * Get the number of points along an axis of the specified level.
+     *
+     * @param level the level, starting at 1 for blocks of 2 x 2 points
+     * @param axis  0 for the first display dimension, 1 for the second
+     * @return the number of points
+     */
+    public int getLevelSize(int level, int axis) {
+        return levelSizes[level][axis];
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Mark the pyramid as out of date. The levels are rebuilt on next use.
+     * Called when the dataset is written, so it doesn't take a lock.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Read the block maxima and minima of a region of one level.
+     *
+     * @param level     the level, starting at 1 for blocks of 2 x 2 points
+     * @param pt        the region, in points of the level for the first two
+     *                  entries and in dataset points for the plane entries
+     * @param maxMatrix matrix to store the block maxima in
+     * @param minMatrix matrix to store the block minima in
+     * @return the maximum of the absolute values of the read values
+     * @throws IOException if an I/O error occurs
+     */
+    public float readMatrix(int level, int[][] pt, float[][] maxMatrix, float[][] minMatrix) throws IOException {
+        if ((level < 1) || (level > nLevels)) {
+            throw new IllegalArgumentException("Invalid pyramid level " + level);
+        }
+        float[] tiles = getPlane(pt);
+        int levelNX = levelSizes[level][0];
+        int maxOffset = levelOffsets[level];
+        int minOffset = maxOffset + levelNX * levelSizes[level][1];
+        double scale = dataset.getScale();
+        boolean swap = scale < 0.0;
+        float maxAbs = 0.0f;
+        for (int j = pt[1][0]; j <= pt[1][1]; j++) {
+            float[] maxRow = maxMatrix[j - pt[1][0]];
+            float[] minRow = minMatrix[j - pt[1][0]];
+            int index = j * levelNX;
+            for (int i = pt[0][0]; i <= pt[0][1]; i++) {
+                float maxValue = (float) (tiles[maxOffset + index + i] / scale);
+                float minValue = (float) (tiles[minOffset + index + i] / scale);
+                if (swap) {
+                    float hold = maxValue;
+                    maxValue = minValue;
+                    minValue = hold;
+                }
+                maxRow[i - pt[0][0]] = maxValue;
+                minRow[i - pt[0][0]] = minValue;
+                maxAbs = Math.max(maxAbs, Math.max(Math.abs(maxValue), Math.abs(minValue)));
+            }
+        }
+        return maxAbs;
+    }
+
+    private int getPlaneIndex(int[][] pt) {
+        int index = 0;
+        int mul = 1;
+        for (int i = 2; i < dim.length; i++) {
+            index += Math.min(pt[i][0], planeSizes[i] - 1) * mul;
+            mul *= planeSizes[i];
+        }
+        return index;
+    }
+
+    private synchronized float[] getPlane(int[][] pt) throws IOException {
+        int currentGeneration = generation.get();
+        if (validGeneration != currentGeneration) {
+            planes.clear();
+            clearFlags();
+            validGeneration = currentGeneration;
+        }
+        int plane = getPlaneIndex(pt);
+        float[] tiles = planes.get(plane);
+        if (tiles == null) {
+            tiles = fc != null ? loadStored(plane) : null;
+            if (tiles == null) {
+                tiles = build(pt);
+                if (generation.get() != currentGeneration) {
+                    return tiles;
+                }
+                store(plane, tiles);
+            }
+            planes.put(plane, tiles);
+        }
+        return tiles;
+    }
+
+    private float[] build(int[][] planePt) throws IOException {
+        float[] tiles = new float[planeFloats];
+        int levelNX = levelSizes[1][0];
+        int maxOffset = levelOffsets[1];
+        int minOffset = maxOffset + levelNX * levelSizes[1][1];
+        for (int i = 0; i < levelNX * levelSizes[1][1]; i++) {
+            tiles[maxOffset + i] = Float.NEGATIVE_INFINITY;
+            tiles[minOffset + i] = Float.POSITIVE_INFINITY;
+        }
+        int[][] apt = new int[dim.length][2];
+        for (int i = 2; i < dim.length; i++) {
+            apt[i][0] = planePt[i][0];
+            apt[i][1] = planePt[i][0];
+        }
+        apt[0][1] = nx - 1;
+        float scale = (float) dataset.getScale();
+        float[][] strip = new float[STRIP_ROWS][nx];
+        for (int y0 = 0; y0 < ny; y0 += STRIP_ROWS) {
+            apt[1][0] = y0;
+            apt[1][1] = Math.min(ny, y0 + STRIP_ROWS) - 1;
+            dataset.readMatrix(apt, dim, strip);
+            for (int y = apt[1][0]; y <= apt[1][1]; y++) {
+                float[] row = strip[y - y0];
+                int index = (y >> 1) * levelNX;
+                for (int x = 0; x < nx; x++) {
+                    float value = row[x] * scale;
+                    int tile = index + (x >> 1);
+                    if (value > tiles[maxOffset + tile]) {
+                        tiles[maxOffset + tile] = value;
+                    }
+                    if (value < tiles[minOffset + tile]) {
+                        tiles[minOffset + tile] = value;
+                    }
+                }
+            }
+        }
+        for (int level = 2; level <= nLevels; level++) {
+            reduce(tiles, level);
+        }
+        return tiles;
+    }
+
+    private void reduce(float[] tiles, int level) {
+        int prevNX = levelSizes[level - 1][0];
+        int prevNY = levelSizes[level - 1][1];
+        int prevMax = levelOffsets[level - 1];
+        int prevMin = prevMax + prevNX * prevNY;
+        int levelNX = levelSizes[level][0];
+        int maxOffset = levelOffsets[level];
+        int minOffset = maxOffset + levelNX * levelSizes[level][1];
+        for (int i = 0; i < levelNX * levelSizes[level][1]; i++) {
+            tiles[maxOffset + i] = Float.NEGATIVE_INFINITY;
+            tiles[minOffset + i] = Float.POSITIVE_INFINITY;
+        }
+        for (int y = 0; y < prevNY; y++) {
+            int index = (y >> 1) * levelNX;
+            for (int x = 0; x < prevNX; x++) {
+                int tile = index + (x >> 1);
+                tiles[maxOffset + tile] = Math.max(tiles[maxOffset + tile], tiles[prevMax + y * prevNX + x]);
+                tiles[minOffset + tile] = Math.min(tiles[minOffset + tile], tiles[prevMin + y * prevNX + x]);
+            }
+        }
+    }
+
+    private void openFile() {
+        File dataFile = dataset.getFile();
+        try {
+            Files.createDirectories(path.getParent());
+            fc = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            fc.read(header, 0);
+            header.flip();
+            boolean valid = (header.remaining() == HEADER_SIZE) && (header.getInt() == MAGIC)
+                    && (header.getInt() == VERSION) && (header.getInt() == nx) && (header.getInt() == ny)
+                    && (header.getInt() == nPlanes) && (header.getInt() == nLevels)
+                    && (header.getLong() == dataFile.length()) && (header.getLong() == dataFile.lastModified());
+            if (!valid) {
+                fc.truncate(0);
+                header.clear();
+                header.putInt(MAGIC).putInt(VERSION).putInt(nx).putInt(ny).putInt(nPlanes).putInt(nLevels);
+                header.putLong(dataFile.length()).putLong(dataFile.lastModified());
+                header.flip();
+                fc.write(header, 0);
+                clearFlags();
+            }
+        } catch (IOException | SecurityException e) {
+            log.warn("Can't use pyramid file {} {}", path, e.getMessage());
+            closeFile();
+        }
+    }
+
+    private long getPlanePosition(int plane) {
+        long dataStart = ((HEADER_SIZE + nPlanes + 7) / 8) * 8L;
+        return dataStart + (long) plane * planeFloats * Float.BYTES;
+    }
+
+    private boolean isStored(int plane) throws IOException {
+        ByteBuffer flag = ByteBuffer.allocate(1);
+        return (fc.read(flag, HEADER_SIZE + (long) plane) == 1) && (flag.get(0) == 1);
+    }
+
+    private void clearFlags() throws IOException {
+        if (fc != null) {
+            fc.write(ByteBuffer.allocate(nPlanes), HEADER_SIZE);
+        }
+    }
+
+    private float[] loadStored(int plane) {
+        try {
+            return isStored(plane) ? load(plane) : null;
+        } catch (IOException e) {
+            log.warn("Can't read pyramid file {} {}", path, e.getMessage());
+            closeFile();
+            return null;
+        }
+    }
+
+    private float[] load(int plane) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(planeFloats * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        long position = getPlanePosition(plane);
+        while (buffer.hasRemaining()) {
+            if (fc.read(buffer, position + buffer.position()) < 0) {
+                return null;
+            }
+        }
+        buffer.flip();
+        float[] tiles = new float[planeFloats];
+        buffer.asFloatBuffer().get(tiles);
+        return tiles;
+    }
+
+    private void store(int plane, float[] tiles) {
+        if (fc == null) {
+            return;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(planeFloats * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.asFloatBuffer().put(tiles);
+            long position = getPlanePosition(plane);
+            while (buffer.hasRemaining()) {
+                fc.write(buffer, position + buffer.position());
+            }
+            fc.write(ByteBuffer.wrap(new byte[]{1}), HEADER_SIZE + (long) plane);
+        } catch (IOException e) {
+            log.warn("Can't write pyramid file {} {}", path, e.getMessage());
+            closeFile();
+        }
+    }
+
+    private void closeFile() {
+        if (fc != null) {
+            try {
+                fc.close();
+            } catch (IOException e) {
+                log.warn(e.getMessage(), e);
+            }
+            fc = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        planes.clear();
+        closeFile();
+    }
+}
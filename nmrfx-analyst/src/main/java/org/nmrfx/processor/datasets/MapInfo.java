@@ -37,9 +37,15 @@ public class MapInfo {
 
     private static final Logger log = LoggerFactory.getLogger(MapInfo.class);
     public static final int MAX_SIZE = 100;
+    private static final long MIN_LRU_SIZE = 4 * 1024 * 1024;
 
+    // guards the map of mappings and the buffer and use count of every MapInfo,
+    // one lock as mapping one buffer can unmap another through the LRU map
+    private static final Object MAP_LOCK = new Object();
     private static Map mapMap = null;
     private static MapInfo lastTouched = null;
+    private static int maxMapped = MAX_SIZE;
+    private static long minLRUSize = MIN_LRU_SIZE;
 
 
     public static class MyLRUMap extends LRUMap {
@@ -57,8 +63,9 @@ public class MapInfo {
                 System.gc();
                 ip = 0;
             }
+            // the map removes the entry itself, so only unmap the buffer
             MapInfo mapInfo = (MapInfo) entry.getValue();
-            mapInfo.clean();
+            mapInfo.unmap();
             return true;
         }
     }
@@ -69,9 +76,8 @@ public class MapInfo {
     final long size;
     final FileChannel.MapMode mapMode;
     final ByteOrder byteOrder;
-
-
-
+    private int users = 0;
+    private boolean cleanPending = false;
 
     public MapInfo(final long start, final long size, final FileChannel.MapMode mapMode, final ByteOrder byteOrder) {
         this.start = start;
@@ -81,50 +87,133 @@ public class MapInfo {
     }
 
     public void mapIt(final RandomAccessFile raFile) throws IOException {
-        try {
-            buffer = raFile.getChannel().map(mapMode, start, size);
-            buffer.order(byteOrder);
-            if (size > 4 * 1024 * 1024) {
-                if (mapMap == null) {
-                    mapMap = Collections.synchronizedMap(new MyLRUMap(MAX_SIZE));
+        synchronized (MAP_LOCK) {
+            try {
+                buffer = raFile.getChannel().map(mapMode, start, size);
+                buffer.order(byteOrder);
+                cleanPending = false;
+                if (size > minLRUSize) {
+                    if (mapMap == null) {
+                        mapMap = Collections.synchronizedMap(new MyLRUMap(maxMapped));
+                    }
+                    mapMap.put(this, this);
                 }
-                mapMap.put(this, this);
+            } catch (IOException e) {
+                raFile.close();
+                throw e;
             }
-        } catch (IOException e) {
-            raFile.close();
-            throw e;
         }
     }
 
-    public void touch() {
-        if (buffer == null) {
-            return;
+    /**
+     * Get the buffer, mapping it if necessary, and keep it mapped until
+     * release is called. Each call must be followed by a call to release once
+     * the buffer is no longer used, so other threads can't unmap it while it
+     * is read or written.
+     *
+     * @param raFile the file to map from
+     * @return the mapped buffer
+     * @throws IOException if the file can't be mapped
+     */
+    public MappedByteBuffer acquire(final RandomAccessFile raFile) throws IOException {
+        synchronized (MAP_LOCK) {
+            if (buffer == null) {
+                mapIt(raFile);
+            } else {
+                touch();
+            }
+            users++;
+            return buffer;
         }
-        if (mapMap == null) {
-            return;
+    }
+
+    /**
+     * Release a buffer got with acquire. If the buffer was cleaned while in
+     * use it is unmapped when the last user releases it.
+     */
+    public void release() {
+        synchronized (MAP_LOCK) {
+            users--;
+            if ((users == 0) && cleanPending) {
+                clean();
+            }
         }
-        if (this != lastTouched) {
-            mapMap.get(this);
-            lastTouched = this;
+    }
+
+    /**
+     * Set how many mappings, of more than a minimum size, are kept mapped at
+     * once. The least recently used is unmapped when another is mapped.
+     * Mappings made before this call are no longer counted. Used for testing.
+     *
+     * @param maxMappings the number of mappings kept, or a value less than 1
+     *                    to restore the defaults
+     * @param minSize     the size in bytes above which mappings are counted
+     */
+    public static void setLRULimits(int maxMappings, long minSize) {
+        synchronized (MAP_LOCK) {
+            maxMapped = maxMappings < 1 ? MAX_SIZE : maxMappings;
+            minLRUSize = maxMappings < 1 ? MIN_LRU_SIZE : minSize;
+            mapMap = null;
+            lastTouched = null;
+        }
+    }
+
+    public void touch() {
+        synchronized (MAP_LOCK) {
+            if (buffer == null) {
+                return;
+            }
+            if (mapMap == null) {
+                return;
+            }
+            if (this != lastTouched) {
+                mapMap.get(this);
+                lastTouched = this;
+            }
         }
     }
 
     public void force() {
-        if (buffer == null) {
-            return;
+        synchronized (MAP_LOCK) {
+            if (buffer == null) {
+                return;
+            }
+            buffer.force();
         }
-        buffer.force();
     }
 
+    /**
+     * Unmap the buffer, or if it is in use, unmap it when the last user
+     * releases it.
+     */
     public void clean() {
-        if (buffer == null) {
-            return;
+        synchronized (MAP_LOCK) {
+            if (buffer == null) {
+                return;
+            }
+            if (mapMap != null) {
+                mapMap.remove(this);
+            }
+            unmap();
         }
-        if (mapMap != null) {
-            mapMap.remove(this);
+    }
+
+    private void unmap() {
+        synchronized (MAP_LOCK) {
+            if (buffer == null) {
+                return;
+            }
+            if (users > 0) {
+                cleanPending = true;
+                return;
+            }
+            cleanPending = false;
+            if (lastTouched == this) {
+                lastTouched = null;
+            }
+            closeDirectBuffer(buffer);
+            buffer = null;
         }
-        closeDirectBuffer(buffer);
-        buffer = null;
     }
 
     // code from 
@@ -17,11 +17,9 @@
  */
 package org.nmrfx.processor.datasets;
 
-import org.apache.commons.math3.complex.Complex;
 import org.nmrfx.datasets.DatasetHeaderIO;
 import org.nmrfx.datasets.DatasetLayout;
 import org.nmrfx.datasets.DatasetStorageInterface;
-import org.nmrfx.processor.math.Vec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,6 +28,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 
@@ -51,6 +50,7 @@ public class MappedMatrixFile implements DatasetStorageInterface, Closeable {
     private MappedByteBuffer mappedBuffer;
     DatasetLayout layout;
     FloatBuffer floatBuffer;
+    IntBuffer intBuffer;
     private final long BYTES = 4;
 
     /**
@@ -98,6 +98,7 @@ public class MappedMatrixFile implements DatasetStorageInterface, Closeable {
             mappedBuffer = this.raFile.getChannel().map(mapMode, layout.getFileHeaderSize(), size2);
             mappedBuffer.order(dataset.getByteOrder());
             floatBuffer = mappedBuffer.asFloatBuffer();
+            intBuffer = mappedBuffer.asIntBuffer();
         } catch (IOException e) {
             this.raFile.close();
             throw e;
@@ -237,46 +238,27 @@ public class MappedMatrixFile implements DatasetStorageInterface, Closeable {
         MapInfo.closeDirectBuffer(mapping);
     }
 
-    public void writeVector(int first, int last, int[] point, int dim, double scale, Vec vector) throws IOException {
-        int j = 0;
+    @Override
+    public void readFloats(int first, int last, int[] point, int dim, float[] values) {
         point[dim] = first;
         int position = (int) pointPosition(point);
         int stride = (int) strides[dim];
-        if (vector.isComplex()) {
-            for (int i = first; i <= last; i += 2) {
-                Complex c = vector.getComplex(j++);
-                floatBuffer.put(position, (float) (c.getReal() * scale));
-                position += stride;
-                floatBuffer.put(position, (float) (c.getImaginary() * scale));
-                position += stride;
-            }
+        if (dataType == 0) {
+            StridedIO.get(floatBuffer, position, stride, values, 0, last - first + 1);
         } else {
-            for (int i = first; i <= last; i++) {
-                floatBuffer.put(position, (float) (vector.getReal(j++) * scale));
-                position += stride;
-            }
+            StridedIO.get(intBuffer, position, stride, values, 0, last - first + 1);
         }
     }
 
-    public void readVector(int first, int last, int[] point, int dim, double scale, Vec vector) throws IOException {
-        int j = 0;
+    @Override
+    public void writeFloats(int first, int last, int[] point, int dim, float[] values) {
         point[dim] = first;
         int position = (int) pointPosition(point);
         int stride = (int) strides[dim];
-        if (vector.isComplex()) {
-            for (int i = first; i <= last; i += 2) {
-                double real = floatBuffer.get(position) / scale;
-                position += stride;
-                double imag = floatBuffer.get(position) / scale;
-                position += stride;
-                vector.set(j++, new Complex(real, imag));
-            }
+        if (dataType == 0) {
+            StridedIO.put(floatBuffer, position, stride, values, 0, last - first + 1);
         } else {
-            for (int i = first; i <= last; i++) {
-                double real = floatBuffer.get(position) / scale;
-                position += stride;
-                vector.set(j++, real);
-            }
+            StridedIO.put(intBuffer, position, stride, values, 0, last - first + 1);
         }
     }
 }
@@ -227,6 +227,44 @@ public class MappedSubMatrixFile implements DatasetStorageInterface, Closeable {
         mappedBuffer.force();
     }
 
+    @Override
+    public void readFloats(int first, int last, int[] point, int dim, float[] values) {
+        int stride = layout.offsetPoints[dim];
+        for (int i = first, k = 0; i <= last; ) {
+            point[dim] = i;
+            int blockLast = layout.lastInBlock(dim, i, last);
+            int n = blockLast - i + 1;
+            // bytePosition includes any block headers, so is consistent with getFloat
+            int position = (int) (bytePosition(point) / BYTES);
+            if (dataType == 0) {
+                StridedIO.get(floatBuffer, position, stride, values, k, n);
+            } else {
+                StridedIO.get(mappedBuffer, position, stride, true, values, k, n);
+            }
+            k += n;
+            i = blockLast + 1;
+        }
+    }
+
+    @Override
+    public void writeFloats(int first, int last, int[] point, int dim, float[] values) {
+        int stride = layout.offsetPoints[dim];
+        for (int i = first, k = 0; i <= last; ) {
+            point[dim] = i;
+            int blockLast = layout.lastInBlock(dim, i, last);
+            int n = blockLast - i + 1;
+            // bytePosition includes any block headers, so is consistent with getFloat
+            int position = (int) (bytePosition(point) / BYTES);
+            if (dataType == 0) {
+                StridedIO.put(floatBuffer, position, stride, values, k, n);
+            } else {
+                StridedIO.put(mappedBuffer, position, stride, true, values, k, n);
+            }
+            k += n;
+            i = blockLast + 1;
+        }
+    }
+
     private void clean(MappedByteBuffer mapping) {
         if (mapping == null) {
             return;
@@ -20,65 +20,184 @@ package org.nmrfx.processor.datasets;
 import org.nmrfx.datasets.MatrixType;
 import org.nmrfx.processor.math.MatrixND;
 import org.nmrfx.processor.math.Vec;
+import org.nmrfx.processor.processing.ProcessingException;
 import org.nmrfx.processor.processing.Processor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Pipelined I/O for processing. A set of reader threads prefetches vectors (or
+ * matrices) from the input into a bounded queue, from which the processing
+ * threads take them. Processed items are put on a second bounded queue that is
+ * drained by a single writer thread. Both queues block when full, so readers
+ * can't run ahead of processing and processing can't run ahead of writing.
+ *
  * @author brucejohnson
  */
 public class MatrixTypeService {
     private static final Logger log = LoggerFactory.getLogger(MatrixTypeService.class);
+    /**
+     * Marker placed on a queue to indicate that no more items will be added.
+     */
+    private static final List<MatrixType> END_OF_ITEMS = Collections.emptyList();
+    private static int numReaders = 1;
 
-    /* Each LinkedList<MatrixType> will hold one set of arraylists for a process. The
-     * outer List is synchronized but the inner List is not synchronized.
+    /* Each List<MatrixType> will hold one set of items for a process.
      */
-    private final LinkedBlockingQueue<List<MatrixType>> unprocessedItemQueue;
+    private final BlockingQueue<List<MatrixType>> unprocessedItemQueue;
     /**
-     * Each LinkedList<MatrixType> will be written to a file.
+     * Each List<MatrixType> will be written to a file.
      */
-    private final LinkedBlockingQueue<List<MatrixType>> processedItemQueue;
+    private final BlockingQueue<List<MatrixType>> processedItemQueue;
     AtomicInteger nWritten = new AtomicInteger(0);
     AtomicInteger nRead = new AtomicInteger(0);
-    AtomicInteger processedQueueLimit;
     AtomicBoolean errorWhileReadWrite = new AtomicBoolean(false);
     int itemsToWrite;
     int itemsToRead;
+    private final IOStats stats = new IOStats();
+    private final AtomicInteger activeReaders;
 
-    FutureTask<Boolean> futureTask;
+    private final Future<Boolean> writerFuture;
 
-    ExecutorService executor = Executors.newSingleThreadExecutor((Runnable r) -> {
-        Thread t = new Thread(r);
-        t.setDaemon(true);
-        return t;
-    });
+    private final ExecutorService executor;
 
     Processor processor;
 
+    /**
+     * Counters for the reader and writer stages.
+     */
+    public static class IOStats {
+        private final AtomicLong itemsRead = new AtomicLong();
+        private final AtomicLong itemsWritten = new AtomicLong();
+        private final AtomicLong readNanos = new AtomicLong();
+        private final AtomicLong writeNanos = new AtomicLong();
+        private final AtomicLong writeBatches = new AtomicLong();
+        private final AtomicInteger maxUnprocessedDepth = new AtomicInteger();
+        private final AtomicInteger maxProcessedDepth = new AtomicInteger();
+        private volatile long startTime = System.nanoTime();
+        private volatile long endTime = 0;
+
+        public long getItemsRead() {
+            return itemsRead.get();
+        }
+
+        public long getItemsWritten() {
+            return itemsWritten.get();
+        }
+
+        /**
+         * @return total time (summed over reader threads) spent reading, in
+         * seconds
+         */
+        public double getReadTime() {
+            return readNanos.get() * 1.0e-9;
+        }
+
+        /**
+         * @return total time spent writing, in seconds
+         */
+        public double getWriteTime() {
+            return writeNanos.get() * 1.0e-9;
+        }
+
+        public long getWriteBatches() {
+            return writeBatches.get();
+        }
+
+        public int getMaxUnprocessedQueueDepth() {
+            return maxUnprocessedDepth.get();
+        }
+
+        public int getMaxProcessedQueueDepth() {
+            return maxProcessedDepth.get();
+        }
+
+        /**
+         * @return elapsed time of the pipeline in seconds
+         */
+        public double getElapsedTime() {
+            long end = endTime == 0 ? System.nanoTime() : endTime;
+            return (end - startTime) * 1.0e-9;
+        }
+
+        public double getReadRate() {
+            double elapsed = getElapsedTime();
+            return elapsed > 0.0 ? getItemsRead() / elapsed : 0.0;
+        }
+
+        public double getWriteRate() {
+            double elapsed = getElapsedTime();
+            return elapsed > 0.0 ? getItemsWritten() / elapsed : 0.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("read %d (%.1f/s, %.3f s) written %d (%.1f/s, %.3f s, %d batches) max queue depth in %d out %d",
+                    getItemsRead(), getReadRate(), getReadTime(), getItemsWritten(), getWriteRate(), getWriteTime(),
+                    getWriteBatches(), getMaxUnprocessedQueueDepth(), getMaxProcessedQueueDepth());
+        }
+    }
+
     public MatrixTypeService(Processor processor, int processedQueueLimit, int itemsToRead, int itemsToWrite) {
         this.processor = processor;
         this.itemsToWrite = itemsToWrite;
         this.itemsToRead = itemsToRead;
-        this.processedQueueLimit = new AtomicInteger(processedQueueLimit);
-        unprocessedItemQueue = new LinkedBlockingQueue<>();
-        processedItemQueue = new LinkedBlockingQueue<>();
-        futureTask = new FutureTask(() -> readWriteItems());
-        executor.execute(futureTask);
+        unprocessedItemQueue = new LinkedBlockingQueue<>(processedQueueLimit);
+        processedItemQueue = new LinkedBlockingQueue<>(processedQueueLimit);
+        int nReaders = getNumReaders();
+        activeReaders = new AtomicInteger(nReaders);
+        executor = Executors.newFixedThreadPool(nReaders + 1, (Runnable r) -> {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        });
+        writerFuture = executor.submit(this::writeQueuedItems);
+        for (int i = 0; i < nReaders; i++) {
+            executor.submit(this::readItems);
+        }
+    }
+
+    /**
+     * Set the number of threads used to prefetch items from the input.
+     *
+     * @param n the number of reader threads
+     */
+    public static void setNumReaders(int n) {
+        numReaders = Math.max(1, n);
+    }
+
+    public static int getNumReaders() {
+        return numReaders;
+    }
+
+    public IOStats getStats() {
+        return stats;
+    }
+
+    public int getUnprocessedQueueDepth() {
+        return unprocessedItemQueue.size();
+    }
+
+    public int getProcessedQueueDepth() {
+        return processedItemQueue.size();
     }
 
     public void shutdown() {
-        executor.shutdown();
+        executor.shutdownNow();
         try {
             executor.awaitTermination(4, TimeUnit.SECONDS);
         } catch (InterruptedException ex) {
             log.warn(ex.getMessage(), ex);
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -87,18 +206,28 @@ public class MatrixTypeService {
     }
 
     public boolean finished() {
-        if ((nRead.get() >= itemsToRead) && !unprocessedItemQueue.isEmpty()) {
-            return false;
-        } else {
-            return (nRead.get() >= itemsToRead) && unprocessedItemQueue.isEmpty();
+        return (nRead.get() >= itemsToRead) && unprocessedItemQueue.isEmpty();
+    }
+
+    /**
+     * Signal that all processed items have been added to the write queue.
+     * The writer thread will finish once it has written them.
+     */
+    public void finishWriting() {
+        try {
+            processedItemQueue.put(END_OF_ITEMS);
+        } catch (InterruptedException ex) {
+            log.warn(ex.getMessage(), ex);
+            Thread.currentThread().interrupt();
         }
     }
 
     public boolean isDone(int timeOut) {
         try {
-            return futureTask.get(timeOut, TimeUnit.MILLISECONDS);
+            return writerFuture.get(timeOut, TimeUnit.MILLISECONDS);
         } catch (InterruptedException ex) {
             log.warn(ex.getMessage(), ex);
+            Thread.currentThread().interrupt();
             return false;
         } catch (ExecutionException ex) {
             log.warn(ex.getMessage(), ex);
@@ -110,41 +239,151 @@ public class MatrixTypeService {
         }
     }
 
-    /* Adds items to the unprocessed item queue.
+    /* Reads the next set of items and adds them to the unprocessed item queue,
+     * blocking if the queue is full.
      */
-    public boolean addNewItems() {
+    public boolean addNewItems() throws InterruptedException {
         if (!processor.getEndOfFile()) {
-            List<MatrixType> vectors = processor.getMatrixTypesFromFile();
-            unprocessedItemQueue.add(vectors);
-            if (vectors != null) {
-                int nVec = vectors.size();
-                if ((nVec == 1) && vectors.get(0) == null) {
-                    nVec = 0;
+            long start = System.nanoTime();
+            List<MatrixType> items = processor.getMatrixTypesFromFile();
+            stats.readNanos.addAndGet(System.nanoTime() - start);
+            if (items != null) {
+                int nItems = items.size();
+                if ((nItems == 1) && items.get(0) == null) {
+                    nItems = 0;
+                }
+                if (nItems > 0) {
+                    stats.itemsRead.addAndGet(nItems);
+                    unprocessedItemQueue.put(items);
+                    updateMax(stats.maxUnprocessedDepth, unprocessedItemQueue.size());
+                    nRead.addAndGet(nItems);
                 }
-                nRead.addAndGet(nVec);
             }
             return true;
         }
         return false;
     }
 
-    public void addItemsToWriteList(List<MatrixType> vectors) {
-        processedItemQueue.add(vectors);
+    public void addItemsToWriteList(List<MatrixType> items) {
+        try {
+            processedItemQueue.put(items);
+            updateMax(stats.maxProcessedDepth, processedItemQueue.size());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ProcessingException("Interrupted while queueing items to write");
+        }
     }
 
-    public List<MatrixType> getItemsFromUnprocessedList(int timeOut) {
-        List<MatrixType> vecs;
+    /**
+     * Take the next set of items to process, waiting until one is available.
+     *
+     * @return the items, or an empty list if all items have been read (or an
+     * error occurred while reading)
+     */
+    public List<MatrixType> getItemsFromUnprocessedList() {
         try {
-            if (finished()) {
-                vecs = null;
-            } else {
-                vecs = unprocessedItemQueue.poll(timeOut, TimeUnit.MILLISECONDS);
+            List<MatrixType> items = unprocessedItemQueue.take();
+            if (items == END_OF_ITEMS) {
+                // put the marker back so other processing threads see it
+                unprocessedItemQueue.put(END_OF_ITEMS);
             }
-            return vecs;
+            return items;
         } catch (InterruptedException ex) {
             log.warn(ex.getMessage(), ex);
-            return new ArrayList<>();
+            Thread.currentThread().interrupt();
+            return END_OF_ITEMS;
+        }
+    }
+
+    private static void updateMax(AtomicInteger max, int value) {
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    private void readItems() {
+        try {
+            while (!errorWhileReadWrite.get() && addNewItems()) {
+                // keep reading until the end of the input
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            log.error(ex.getMessage(), ex);
+            errorWhileReadWrite.set(true);
+        } finally {
+            if (activeReaders.decrementAndGet() == 0) {
+                // blocks until there is room, so the marker always goes after the last items
+                try {
+                    unprocessedItemQueue.put(END_OF_ITEMS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes all the items from the processedItemQueue to file. Whatever is
+     * waiting in the queue is taken as one batch and written in dataset
+     * position order, so writes that land in the same storage block are done
+     * together. After an error the remaining items are discarded, so that
+     * processing threads blocked on a full queue can still finish.
+     */
+    private boolean writeQueuedItems() throws InterruptedException {
+        List<List<MatrixType>> batch = new ArrayList<>();
+        List<MatrixType> items = new ArrayList<>();
+        boolean endOfItems = false;
+        try {
+            while (!endOfItems) {
+                batch.clear();
+                items.clear();
+                batch.add(processedItemQueue.take());
+                processedItemQueue.drainTo(batch);
+                for (List<MatrixType> batchItems : batch) {
+                    if (batchItems == END_OF_ITEMS) {
+                        endOfItems = true;
+                    } else {
+                        items.addAll(batchItems);
+                    }
+                }
+                if (!items.isEmpty() && !errorWhileReadWrite.get()) {
+                    long start = System.nanoTime();
+                    items.sort(MatrixTypeService::comparePositions);
+                    try {
+                        writeItems(items);
+                    } catch (Exception ex) {
+                        log.error(ex.getMessage(), ex);
+                        errorWhileReadWrite.set(true);
+                    }
+                    stats.writeNanos.addAndGet(System.nanoTime() - start);
+                    stats.writeBatches.incrementAndGet();
+                }
+            }
+            return !errorWhileReadWrite.get();
+        } catch (InterruptedException ex) {
+            log.error(ex.getMessage(), ex);
+            throw (ex);
+        } finally {
+            stats.endTime = System.nanoTime();
+        }
+    }
+
+    /**
+     * Order items by their location in the dataset, comparing the outermost
+     * dimension first.
+     */
+    private static int comparePositions(MatrixType a, MatrixType b) {
+        int[][] ptA = a instanceof Vec vecA ? vecA.getPt() : ((MatrixND) a).getPt();
+        int[][] ptB = b instanceof Vec vecB ? vecB.getPt() : ((MatrixND) b).getPt();
+        if ((ptA == null) || (ptB == null) || (ptA.length != ptB.length)) {
+            return 0;
+        }
+        for (int i = ptA.length - 1; i >= 0; i--) {
+            int result = Integer.compare(ptA[i][0], ptB[i][0]);
+            if (result != 0) {
+                return result;
+            }
         }
+        return 0;
     }
 
     private boolean writeItems(List<MatrixType> temp) throws DatasetException, IOException {
@@ -156,6 +395,10 @@ public class MatrixTypeService {
             checkDataset(dataset, vector);
             dataset.writeMatrixType(vector);
             nWritten.incrementAndGet();
+            stats.itemsWritten.incrementAndGet();
+            if (vector instanceof Vec vec) {
+                vec.recycle();
+            }
         }
         return true;
     }
@@ -226,40 +469,4 @@ public class MatrixTypeService {
             dataset.resizeDims(dimSizes);
         }
     }
-
-    /**
-     * Writes all of the items from the processedItemQueue to file.
-     */
-    public final boolean readWriteItems() throws InterruptedException {
-        List<MatrixType> temp = null;
-        while (true) {
-            try {
-                if (nRead.get() < itemsToRead) {
-                    if ((unprocessedItemQueue.size() < processedQueueLimit.get()) && (processedItemQueue.size() < processedQueueLimit.get())) {
-                        for (int i = 0; i < 4; i++) {
-                            if (!addNewItems()) {
-                                break;
-                            }
-                        }
-                    }
-                }
-
-                temp = processedItemQueue.poll(100, TimeUnit.MILLISECONDS);
-                if (temp != null) {
-                    writeItems(temp);
-                } else {
-                    if (nWritten.get() >= itemsToWrite) {
-                        return true;
-                    }
-                }
-            } catch (InterruptedException ex) {
-                log.error(ex.getMessage(), ex);
-                throw (ex);
-            } catch (Exception ex) {
-                log.error(ex.getMessage(), ex);
-                errorWhileReadWrite.set(true);
-                return false;
-            }
-        }
-    }
 }
@@ -17,11 +17,9 @@
  */
 package org.nmrfx.processor.datasets;
 
-import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.util.MultidimensionalCounter;
 import org.nmrfx.datasets.DatasetLayout;
 import org.nmrfx.datasets.DatasetStorageInterface;
-import org.nmrfx.processor.math.Vec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -171,50 +169,32 @@ public class MemoryFile implements DatasetStorageInterface, Closeable {
     public void force() {
     }
 
-    public void writeVector(int first, int last, int[] point, int dim, double scale, Vec vector) throws IOException {
-        int j = 0;
+    @Override
+    public void readFloats(int first, int last, int[] point, int dim, float[] values) throws IOException {
         point[dim] = first;
-        int position = (int) pointPosition(point);
+        int position = checkedPosition(first, last, point, dim);
         int stride = (int) strides[dim];
-        if (vector.isComplex()) {
-            for (int i = first; i <= last; i += 2) {
-                Complex c = vector.getComplex(j++);
-                floatBuffer.put(position, (float) (c.getReal() * scale));
-                position += stride;
-                floatBuffer.put(position, (float) (c.getImaginary() * scale));
-                position += stride;
-            }
+        if (floatBuffer != null) {
+            StridedIO.get(floatBuffer, position, stride, values, 0, last - first + 1);
         } else {
-            for (int i = first; i <= last; i++) {
-                floatBuffer.put(position, (float) (vector.getReal(j++) * scale));
-                position += stride;
-            }
+            StridedIO.get(intBuffer, position, stride, values, 0, last - first + 1);
         }
     }
 
-    public void readVector(int first, int last, int[] point, int dim, double scale, Vec vector) throws IOException {
-        int j = 0;
+    @Override
+    public void writeFloats(int first, int last, int[] point, int dim, float[] values) throws IOException {
         point[dim] = first;
-        int position = (int) pointPosition(point);
-        int stride = (int) strides[dim];
-        if (vector.isComplex()) {
-            for (int i = first; i <= last; i += 2) {
-                double real = dataType == 0 ? floatBuffer.get(position) / scale
-                        : intBuffer.get(position) / scale;
-                position += stride;
-                double imag = dataType == 0 ? floatBuffer.get(position) / scale
-                        : intBuffer.get(position) / scale;
-                position += stride;
-                vector.set(j++, new Complex(real, imag));
-            }
-        } else {
-            for (int i = first; i <= last; i++) {
-                double real = dataType == 0 ? floatBuffer.get(position) / scale
-                        : intBuffer.get(position) / scale;
-                position += stride;
-                vector.set(j++, real);
-            }
+        int position = checkedPosition(first, last, point, dim);
+        StridedIO.put(floatBuffer, position, (int) strides[dim], values, 0, last - first + 1);
+    }
+
+    private int checkedPosition(int first, int last, int[] point, int dim) throws PositionException {
+        long position = pointPosition(point);
+        long lastPosition = position + (last - first) * strides[dim];
+        if (lastPosition >= totalSize) {
+            throw new PositionException("Out of range in MemoryFile vector transfer", totalSize, (int) lastPosition, point);
         }
+        return (int) position;
     }
 
     /**
@@ -0,0 +1,91 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2017 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.datasets;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Strided bulk transfers between storage buffers and float arrays. Positions
+ * and strides are in points (floats), not bytes. Only absolute buffer
+ * operations are used so the buffers can be shared between threads.
+ */
+class StridedIO {
+
+    private StridedIO() {
+    }
+
+    static void get(FloatBuffer buffer, int position, int stride, float[] values, int start, int n) {
+        if (stride == 1) {
+            buffer.get(position, values, start, n);
+        } else {
+            for (int i = 0; i < n; i++) {
+                values[start + i] = buffer.get(position);
+                position += stride;
+            }
+        }
+    }
+
+    static void put(FloatBuffer buffer, int position, int stride, float[] values, int start, int n) {
+        if (stride == 1) {
+            buffer.put(position, values, start, n);
+        } else {
+            for (int i = 0; i < n; i++) {
+                buffer.put(position, values[start + i]);
+                position += stride;
+            }
+        }
+    }
+
+    static void get(IntBuffer buffer, int position, int stride, float[] values, int start, int n) {
+        for (int i = 0; i < n; i++) {
+            values[start + i] = buffer.get(position);
+            position += stride;
+        }
+    }
+
+    static void put(IntBuffer buffer, int position, int stride, float[] values, int start, int n) {
+        for (int i = 0; i < n; i++) {
+            buffer.put(position, (int) values[start + i]);
+            position += stride;
+        }
+    }
+
+    static void get(ByteBuffer buffer, int position, int stride, boolean intData, float[] values, int start, int n) {
+        int bytePosition = position * Float.BYTES;
+        int byteStride = stride * Float.BYTES;
+        for (int i = 0; i < n; i++) {
+            values[start + i] = intData ? buffer.getInt(bytePosition) : buffer.getFloat(bytePosition);
+            bytePosition += byteStride;
+        }
+    }
+
+    static void put(ByteBuffer buffer, int position, int stride, boolean intData, float[] values, int start, int n) {
+        int bytePosition = position * Float.BYTES;
+        int byteStride = stride * Float.BYTES;
+        for (int i = 0; i < n; i++) {
+            if (intData) {
+                buffer.putInt(bytePosition, (int) values[start + i]);
+            } else {
+                buffer.putFloat(bytePosition, values[start + i]);
+            }
+            bytePosition += byteStride;
+        }
+    }
+}
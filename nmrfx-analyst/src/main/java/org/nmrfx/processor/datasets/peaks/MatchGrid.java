@@ -0,0 +1,209 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2017 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.datasets.peaks;
+
+import java.util.Arrays;
+
+/**
+ * Cell grid over the positions of the items of one list, used to find the
+ * candidate partners of an item of another list when matching. Positions are
+ * scaled by the tolerance of each dimension, as in the matching distance
+ * sum(((iValue + iOffset) - (jValue + jOffset)) / tol)^2, and the cells are
+ * sqrt(maxDistanceSq) wide, so every item within maxDistanceSq of a position
+ * is in the cell of the position or one of its neighbors.
+ * <p>
+ * Cells are identified by a key made from the cell index of each dimension
+ * and the items are kept sorted by key, so only occupied cells take space.
+ *
+ * @author brucejohnson
+ */
+public class MatchGrid {
+
+    private final int nItems;
+    private final int nDim;
+    private final double[] cellSizes;
+    private final long[] minCells;
+    private final long[] nCellsPerDim;
+    private final long[] strides;
+    // sorted cell keys, and the item in each entry
+    private long[] keys;
+    private int[] items;
+    private final boolean useGrid;
+    private final long[] queryCells;
+
+    /**
+     * Make the grid.
+     *
+     * @param values        the position of each item, indexed by item and
+     *                      dimension
+     * @param offsets       offset added to the position in each dimension
+     * @param tol           the tolerance of each dimension
+     * @param maxDistanceSq the largest scaled squared distance of a candidate
+     */
+    public MatchGrid(double[][] values, double[] offsets, double[] tol, double maxDistanceSq) {
+        nItems = values.length;
+        nDim = tol.length;
+        cellSizes = new double[nDim];
+        minCells = new long[nDim];
+        nCellsPerDim = new long[nDim];
+        strides = new long[nDim];
+        queryCells = new long[nDim];
+        // slightly wider cells so rounding can't put a candidate two cells away
+        useGrid = setupGrid(values, offsets, tol, Math.sqrt(maxDistanceSq) * (1.0 + 1.0e-9));
+    }
+
+    private boolean setupGrid(double[][] values, double[] offsets, double[] tol, double cellWidth) {
+        for (int iDim = 0; iDim < nDim; iDim++) {
+            cellSizes[iDim] = Math.abs(tol[iDim]) * cellWidth;
+            if (!Double.isFinite(cellSizes[iDim]) || (cellSizes[iDim] <= 0.0)) {
+                return false;
+            }
+        }
+        long[][] cells = new long[nItems][nDim];
+        for (int iDim = 0; iDim < nDim; iDim++) {
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < nItems; i++) {
+                double scaled = Math.floor((values[i][iDim] + offsets[iDim]) / cellSizes[iDim]);
+                // also excludes NaN
+                if (!(Math.abs(scaled) < 1.0e15)) {
+                    return false;
+                }
+                long cell = (long) scaled;
+                cells[i][iDim] = cell;
+                min = Math.min(min, cell);
+                max = Math.max(max, cell);
+            }
+            minCells[iDim] = nItems == 0 ? 0 : min;
+            nCellsPerDim[iDim] = nItems == 0 ? 1 : max - min + 1;
+        }
+        long stride = 1;
+        for (int iDim = 0; iDim < nDim; iDim++) {
+            strides[iDim] = stride;
+            if (nCellsPerDim[iDim] > Long.MAX_VALUE / 4 / stride) {
+                return false;
+            }
+            stride *= nCellsPerDim[iDim];
+        }
+        // sort the items by cell key using keys of the form key * nItems + item
+        long[] sortKeys = new long[nItems];
+        boolean packed = stride <= Long.MAX_VALUE / Math.max(nItems, 1);
+        keys = new long[nItems];
+        items = new int[nItems];
+        for (int i = 0; i < nItems; i++) {
+            long key = 0;
+            for (int iDim = 0; iDim < nDim; iDim++) {
+                key += (cells[i][iDim] - minCells[iDim]) * strides[iDim];
+            }
+            keys[i] = key;
+            sortKeys[i] = packed ? key * nItems + i : key;
+        }
+        if (packed) {
+            Arrays.sort(sortKeys);
+            for (int i = 0; i < nItems; i++) {
+                items[i] = (int) (sortKeys[i] % nItems);
+                keys[i] = sortKeys[i] / nItems;
+            }
+        } else {
+            Integer[] order = new Integer[nItems];
+            for (int i = 0; i < nItems; i++) {
+                order[i] = i;
+            }
+            long[] itemKeys = keys.clone();
+            Arrays.sort(order, (a, b) -> Long.compare(itemKeys[a], itemKeys[b]));
+            for (int i = 0; i < nItems; i++) {
+                items[i] = order[i];
+                keys[i] = itemKeys[order[i]];
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the items that may be within maxDistanceSq of a position. Items
+     * outside that distance may also be returned, so the distance still has to
+     * be checked.
+     *
+     * @param values  the position
+     * @param offsets offset added to the position in each dimension
+     * @return the candidate items, in increasing order
+     */
+    public int[] getCandidates(double[] values, double[] offsets) {
+        if (!useGrid) {
+            int[] all = new int[nItems];
+            for (int i = 0; i < nItems; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        for (int iDim = 0; iDim < nDim; iDim++) {
+            double scaled = Math.floor((values[iDim] + offsets[iDim]) / cellSizes[iDim]);
+            if (!(Math.abs(scaled) < 1.0e15)) {
+                return new int[0];
+            }
+            queryCells[iDim] = (long) scaled - minCells[iDim];
+        }
+        int[] result = new int[16];
+        int nFound = 0;
+        int nNeighbors = 1;
+        for (int iDim = 0; iDim < nDim; iDim++) {
+            nNeighbors *= 3;
+        }
+        for (int iNeighbor = 0; iNeighbor < nNeighbors; iNeighbor++) {
+            long key = 0;
+            boolean inGrid = true;
+            int code = iNeighbor;
+            for (int iDim = 0; iDim < nDim; iDim++) {
+                long cell = queryCells[iDim] + (code % 3) - 1;
+                code /= 3;
+                if ((cell < 0) || (cell >= nCellsPerDim[iDim])) {
+                    inGrid = false;
+                    break;
+                }
+                key += cell * strides[iDim];
+            }
+            if (!inGrid) {
+                continue;
+            }
+            int start = firstIndexOf(key);
+            for (int k = start; (k < nItems) && (keys[k] == key); k++) {
+                if (nFound == result.length) {
+                    result = Arrays.copyOf(result, nFound * 2);
+                }
+                result[nFound++] = items[k];
+            }
+        }
+        int[] candidates = Arrays.copyOf(result, nFound);
+        Arrays.sort(candidates);
+        return candidates;
+    }
+
+    private int firstIndexOf(long key) {
+        int low = 0;
+        int high = nItems;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
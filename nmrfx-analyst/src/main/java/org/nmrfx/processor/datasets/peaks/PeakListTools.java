@@ -45,6 +45,8 @@ import smile.clustering.linkage.CompleteLinkage;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 import static java.util.Comparator.comparing;
@@ -696,23 +698,15 @@ public class PeakListTools {
         }
         double minDelta = 10.0;
         int nMatches = 0;
+        // only pairs closer than minDelta get an edge, so just test the pairs in neighboring grid cells
+        MatchGrid matchGrid = getMatchGrid(jMList, jOffsets, tol, minDelta);
         for (int iPeak = 0; iPeak < iNPeaks; iPeak++) {
-            double minDeltaSq = Double.MAX_VALUE;
-            int minJ = -1;
-            for (int jPeak = 0; jPeak < jNPeaks; jPeak++) {
-                double weight = Double.NEGATIVE_INFINITY;
-                MatchItem matchI = iMList.get(iPeak);
+            MatchItem matchI = iMList.get(iPeak);
+            for (int jPeak : matchGrid.getCandidates(matchI.values, iOffsets)) {
                 MatchItem matchJ = jMList.get(jPeak);
                 double deltaSqSum = getMatchingDistanceSq(matchI, iOffsets, matchJ, jOffsets, tol);
-                if (deltaSqSum < minDeltaSq) {
-                    minDeltaSq = deltaSqSum;
-                    minJ = jPeak;
-                }
                 if (deltaSqSum < minDelta) {
-                    weight = Math.exp(-deltaSqSum);
-                }
-                if (weight != Double.NEGATIVE_INFINITY) {
-                    bpMatch.setWeight(iPeak, jPeak, weight);
+                    bpMatch.setWeight(iPeak, jPeak, Math.exp(-deltaSqSum));
                     nMatches++;
                 }
             }
@@ -740,6 +734,14 @@ public class PeakListTools {
         return matchResult;
     }
 
+    static MatchGrid getMatchGrid(List<MatchItem> mList, double[] offsets, double[] tol, double maxDistanceSq) {
+        double[][] values = new double[mList.size()][];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = mList.get(i).values;
+        }
+        return new MatchGrid(values, offsets, tol, maxDistanceSq);
+    }
+
     private static void optimizeMatch(PeakList peakList, final ArrayList<MatchItem> iMList, final double[] iOffsets, final ArrayList<MatchItem> jMList, final double[] jOffsets, final double[] tol, int minDim, double min, double max) {
         class MatchFunction implements UnivariateFunction {
 
@@ -1055,16 +1057,7 @@ public class PeakListTools {
      * @param nPlanes
      */
     public static void quantifyPeaks(PeakList peakList, Dataset dataset, java.util.function.Function<RegionData, Double> f, String mode, int nPlanes) {
-        if (f == null) {
-            throw new IllegalArgumentException("Unknown measurment type: " + mode);
-        }
-
-        peakList.peaks().stream().forEach(peak -> {
-            double[][] values = new double[2][nPlanes];
-            measurePlanes(nPlanes, peak, dataset, f, mode, values, 0);
-            setValues(peak, values, mode);
-        });
-        setMeasureX(peakList, dataset, nPlanes);
+        new PeakQuantifier(peakList, List.of(dataset), f, mode, nPlanes).quantify();
     }
 
     /**
@@ -1075,24 +1068,10 @@ public class PeakListTools {
      * @param nPlanes
      */
     public static void quantifyPeaks(PeakList peakList, List<Dataset> datasets, java.util.function.Function<RegionData, Double> f, String mode, int nPlanes) {
-        if (f == null) {
-            throw new IllegalArgumentException("Unknown measurment type: " + mode);
-        }
-
-        peakList.peaks().stream().forEach(peak -> {
-            double[][] values = new double[2][datasets.size() * nPlanes];
-            int j = 0;
-            for (Dataset dataset : datasets) {
-                measurePlanes(nPlanes, peak, dataset, f, mode, values, j);
-                j += nPlanes;
-            }
-            setValues(peak, values, mode);
-
-        });
-        setMeasureX(peakList, datasets, nPlanes);
+        new PeakQuantifier(peakList, datasets, f, mode, nPlanes).quantify();
     }
 
-    private static void setValues(Peak peak, double[][] values, String mode) {
+    static void setValues(Peak peak, double[][] values, String mode) {
         if (mode.contains("vol")) {
             peak.setVolume1((float) values[0][0]);
             peak.setVolume1Err((float) values[1][0]);
@@ -1104,27 +1083,6 @@ public class PeakListTools {
 
     }
 
-    private static void measurePlanes(int nPlanes, Peak peak, Dataset dataset,
-                                      java.util.function.Function<RegionData, Double> f,
-                                      String mode, double[][] values, int iValue) {
-        int extraPlanes = Math.max(0, dataset.getNDim() - peak.getNDim());
-        int[] planes = new int[extraPlanes];
-        int[] pdim = peak.getPeakList().getDimsForDataset(dataset, true);
-        for (int i = 0; i < nPlanes; i++) {
-            if (planes.length > 0) {
-                planes[0] = i;
-            }
-            try {
-                double[] value = peak.measurePeak(dataset, pdim, planes, f, mode);
-                values[0][iValue] = value[0];
-                values[1][iValue] = value[1];
-                iValue++;
-            } catch (IOException ex) {
-                System.out.println(ex.getMessage());
-            }
-        }
-    }
-
     public static void setMeasureX(PeakList peakList, Dataset dataset, int nValues) {
         double[] pValues = null;
         for (int iDim = 0; iDim < dataset.getNDim(); iDim++) {
@@ -1176,14 +1134,18 @@ public class PeakListTools {
      */
     public static void tweakPeaks(PeakList peakList, Dataset dataset, Set<Peak> speaks, int[] planes) {
         int[] pdim = peakList.getDimsForDataset(dataset, true);
-        speaks.stream().forEach(peak -> {
-            try {
-                peak.tweak(dataset, pdim, planes);
-            } catch (IOException ex) {
-                log.error(ex.getMessage(), ex);
-            }
-        });
-
+        peakList.beginUpdates();
+        try {
+            speaks.stream().forEach(peak -> {
+                try {
+                    peak.tweak(dataset, pdim, planes);
+                } catch (IOException ex) {
+                    log.error(ex.getMessage(), ex);
+                }
+            });
+        } finally {
+            peakList.commitUpdates();
+        }
     }
 
     /**
@@ -1192,15 +1154,36 @@ public class PeakListTools {
      */
     public static void tweakPeaks(PeakList peakList, Dataset dataset, int[] planes) {
         int[] pdim = peakList.getDimsForDataset(dataset, true);
+        peakList.beginUpdates();
+        try {
+            peakList.peaks().stream().forEach(peak -> {
+                try {
+                    peak.tweak(dataset, pdim, planes);
+                } catch (IOException ex) {
+                    log.error(ex.getMessage(), ex);
+                }
+            });
+        } finally {
+            peakList.commitUpdates();
+        }
+    }
 
-        peakList.peaks().stream().forEach(peak -> {
-            try {
-                peak.tweak(dataset, pdim, planes);
-            } catch (IOException ex) {
-                log.error(ex.getMessage(), ex);
-            }
-        });
-
+    /**
+     * Refine the positions and widths of peaks concurrently, reading the data
+     * around the peaks that share a data tile once.
+     *
+     * @param peakList the peak list
+     * @param dataset  the dataset to take the peak regions from
+     * @param peaks    the peaks to refine
+     * @param planes   the planes of the dataset dimensions not in the peak list
+     * @param nThreads the number of threads to use
+     * @return the convergence of each peak and the elapsed time
+     */
+    public static PeakTweaker.TweakStats tweakPeaks(PeakList peakList, Dataset dataset, Collection<Peak> peaks,
+                                                    int[] planes, int nThreads) {
+        PeakTweaker tweaker = new PeakTweaker(peakList, dataset, planes);
+        tweaker.setThreads(nThreads);
+        return tweaker.tweak(peaks);
     }
 
     /**
@@ -1228,6 +1211,17 @@ public class PeakListTools {
         groupPeaksAndFit(peakList, theFile, rows, delays, peakList.peaks(), fitPars);
     }
 
+    /**
+     * Fit all the peaks of a peak list in overlap groups, fitting up to nThreads
+     * groups at a time.
+     *
+     * @param theFile
+     * @param nThreads the number of threads to fit with, 1 fits serially
+     */
+    public static void groupPeakListAndFit(PeakList peakList, Dataset theFile, int[] rows, double[] delays, PeakFitParameters fitPars, int nThreads) {
+        groupPeaksAndFit(peakList, theFile, rows, delays, peakList.peaks(), fitPars, nThreads);
+    }
+
     /**
      * @param theFile
      * @param peaks
@@ -1236,34 +1230,151 @@ public class PeakListTools {
      * @throws PeakFitException
      */
     public static void groupPeaksAndFit(PeakList peakList, Dataset theFile, int[] rows, double[] delays, Collection<Peak> peaks, PeakFitParameters fitPars) {
-        Set<List<Set<Peak>>> oPeaks = null;
+        groupPeaksAndFit(peakList, theFile, rows, delays, peaks, fitPars, 1);
+    }
+
+    /**
+     * Fit peaks in overlap groups. Groups are fit in a fixed order. With more
+     * than one thread, groups that share no peaks are fit concurrently in waves.
+     * A group that shares a peak with an earlier group is put in a later wave,
+     * and the fitted values of each wave are stored in group order before the
+     * next wave starts, so the results don't depend on thread scheduling. Peak
+     * list updates are held until all groups are fit. If fitting a group fails
+     * with an unchecked exception, the exception is thrown once the current
+     * wave is done, and no later waves are fit.
+     *
+     * @param theFile  the dataset to fit the peaks to
+     * @param peaks    the peaks to fit
+     * @param nThreads the number of threads to fit with, 1 fits serially
+     */
+    public static void groupPeaksAndFit(PeakList peakList, Dataset theFile, int[] rows, double[] delays, Collection<Peak> peaks,
+                                        PeakFitParameters fitPars, int nThreads) {
+        Set<List<Set<Peak>>> oPeaks;
         if (fitPars.constrainDim() < 0) {
             oPeaks = getPeakLayers(peaks);
         } else {
             oPeaks = getPeakColumns(peakList, peaks, fitPars.constrainDim());
         }
-        oPeaks.stream().forEach(oPeakSet -> {
-                    try {
-                        List<Peak> lPeaks = new ArrayList<>();
-                        int nFit = 0;
-                        for (int i = 0; i < 3; i++) {
-                            lPeaks.addAll(oPeakSet.get(i));
-                            if (i == 1) {
-                                nFit = lPeaks.size();
-                            }
+        List<List<Set<Peak>>> groups = sortPeakGroups(oPeaks);
+        // the mean widths are taken before any group is fit, so they don't depend on the fit order
+        double[] meanDimWidth = getMeanDimWidths(peakList);
+        peakList.beginUpdates();
+        try {
+            if (nThreads <= 1) {
+                for (List<Set<Peak>> group : groups) {
+                    fitPeakLayers(peakList, theFile, rows, delays, group, fitPars, meanDimWidth, null);
+                }
+            } else {
+                fitPeakGroupsInWaves(peakList, theFile, rows, delays, groups, fitPars, meanDimWidth, nThreads);
+            }
+        } finally {
+            peakList.commitUpdates();
+        }
+    }
 
-                        }
-                        boolean[] fitPeaks = new boolean[lPeaks.size()];
-                        Arrays.fill(fitPeaks, true);
-                        for (int i = nFit; i < fitPeaks.length; i++) {
-                            fitPeaks[i] = false;
-                        }
-                        fitPeakGroup(peakList, theFile, rows, delays, lPeaks, fitPeaks, fitPars);
-                    } catch (IllegalArgumentException | IOException | PeakFitException ex) {
-                        log.error(ex.getMessage(), ex);
-                    }
+    private static void fitPeakGroupsInWaves(PeakList peakList, Dataset theFile, int[] rows, double[] delays,
+                                             List<List<Set<Peak>>> groups, PeakFitParameters fitPars,
+                                             double[] meanDimWidth, int nThreads) {
+        List<List<List<Set<Peak>>>> waves = new ArrayList<>();
+        Map<Peak, Integer> lastWave = new HashMap<>();
+        for (List<Set<Peak>> group : groups) {
+            int wave = 0;
+            for (Set<Peak> layer : group) {
+                for (Peak peak : layer) {
+                    wave = Math.max(wave, lastWave.getOrDefault(peak, -1) + 1);
+                }
+            }
+            for (Set<Peak> layer : group) {
+                for (Peak peak : layer) {
+                    lastWave.put(peak, wave);
+                }
+            }
+            if (wave == waves.size()) {
+                waves.add(new ArrayList<>());
+            }
+            waves.get(wave).add(group);
+        }
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        try {
+            for (List<List<Set<Peak>>> wave : waves) {
+                List<List<Runnable>> waveUpdates = pool.submit(() -> wave.parallelStream().map(group -> {
+                    List<Runnable> peakUpdates = new ArrayList<>();
+                    fitPeakLayers(peakList, theFile, rows, delays, group, fitPars, meanDimWidth, peakUpdates);
+                    return peakUpdates;
+                }).toList()).get();
+                for (List<Runnable> peakUpdates : waveUpdates) {
+                    peakUpdates.forEach(Runnable::run);
                 }
-        );
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Peak fitting interrupted", ex);
+        } catch (ExecutionException ex) {
+            // fail as a serial fit would rather than skip the remaining waves
+            if (ex.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void fitPeakLayers(PeakList peakList, Dataset theFile, int[] rows, double[] delays, List<Set<Peak>> oPeakSet,
+                                      PeakFitParameters fitPars, double[] meanDimWidth, List<Runnable> peakUpdates) {
+        try {
+            List<Peak> lPeaks = new ArrayList<>();
+            int nFit = 0;
+            for (int i = 0; i < 3; i++) {
+                lPeaks.addAll(sortPeaks(oPeakSet.get(i)));
+                if (i == 1) {
+                    nFit = lPeaks.size();
+                }
+
+            }
+            boolean[] fitPeaks = new boolean[lPeaks.size()];
+            Arrays.fill(fitPeaks, true);
+            for (int i = nFit; i < fitPeaks.length; i++) {
+                fitPeaks[i] = false;
+            }
+            fitPeaks(peakList, theFile, lPeaks, fitPars, fitPeaks, rows, delays, meanDimWidth, peakUpdates);
+        } catch (IllegalArgumentException | IOException | PeakFitException ex) {
+            log.error(ex.getMessage(), ex);
+        }
+    }
+
+    private static double[] getMeanDimWidths(PeakList peakList) {
+        double[] meanDimWidth = new double[peakList.getNDim()];
+        for (int i = 0; i < meanDimWidth.length; i++) {
+            meanDimWidth[i] = peakList.widthDStatsPPM(i).getMean();
+        }
+        return meanDimWidth;
+    }
+
+    private static List<Peak> sortPeaks(Set<Peak> peaks) {
+        List<Peak> sorted = new ArrayList<>(peaks);
+        sorted.sort(comparing(Peak::getIdNum));
+        return sorted;
+    }
+
+    /**
+     * Sort overlap groups (which are generated as a set) so they are fit in the
+     * same order on every run. Groups are ordered by the ids of their peaks,
+     * layer by layer.
+     */
+    private static List<List<Set<Peak>>> sortPeakGroups(Set<List<Set<Peak>>> oPeaks) {
+        Map<List<Set<Peak>>, int[]> keys = new IdentityHashMap<>();
+        for (List<Set<Peak>> group : oPeaks) {
+            List<Integer> key = new ArrayList<>();
+            for (Set<Peak> layer : group) {
+                sortPeaks(layer).forEach(peak -> key.add(peak.getIdNum()));
+                key.add(-1);
+            }
+            keys.put(group, key.stream().mapToInt(Integer::intValue).toArray());
+        }
+        List<List<Set<Peak>>> groups = new ArrayList<>(oPeaks);
+        groups.sort((a, b) -> Arrays.compare(keys.get(a), keys.get(b)));
+        return groups;
     }
 
     /**
@@ -1293,6 +1404,24 @@ public class PeakListTools {
                                         int[] rows,
                                         double[] delays)
             throws IllegalArgumentException, IOException, PeakFitException {
+        return fitPeaks(peakList, theFile, peaks, fitPars, fitPeaks, rows, delays, getMeanDimWidths(peakList), null);
+    }
+
+    /**
+     * Fit peaks as for the public fitPeaks, with the mean line widths of the
+     * peak list computed by the caller. If peakUpdates is not null, the
+     * peaks are not updated, but a task that updates them with the fitted
+     * values is added to peakUpdates, so the caller can store the values of
+     * concurrently fit groups in a fixed order.
+     */
+    private static List<Object> fitPeaks(PeakList peakList, Dataset theFile, List<Peak> peaks,
+                                         PeakFitParameters fitPars,
+                                         boolean[] fitPeaks,
+                                         int[] rows,
+                                         double[] delays,
+                                         double[] meanDimWidth,
+                                         List<Runnable> peakUpdates)
+            throws IllegalArgumentException, IOException, PeakFitException {
         List<Object> peaksResult = new ArrayList<>();
         if (peaks.isEmpty()) {
             return peaksResult;
@@ -1308,7 +1437,6 @@ public class PeakListTools {
         int nPeaks = peaks.size();
         int[][] cpt = new int[nPeaks][dataDim];
         double[][] width = new double[nPeaks][dataDim];
-        double[] meanDimWidth = new double[nPeakDim];
         double maxDelay = 0.0;
         int nPlanes = 1;
         if ((delays != null) && (delays.length > 0)) {
@@ -1321,7 +1449,6 @@ public class PeakListTools {
 
         for (int i = 0; i < nPeakDim; i++) {
             pdim[i] = -1;
-            meanDimWidth[i] = peakList.widthDStatsPPM(i).getMean();
         }
 
         // a list of guesses for the fitter
@@ -1574,40 +1701,12 @@ public class PeakListTools {
             values[centerRef.index] += offset;
         }
         if (fitPars.updatePeaks()) {
-            int index = 1;
-            for (Peak peak : peaks) {
-                peak.setIntensity((float) values[index++]);
-                if ((delays != null) && (delays.length > 0)) {
-                    if (fitC) {
-                        peak.setComment(String.format("T %.4f %.3f", values[index++], values[index++]));
-                    } else {
-                        peak.setComment(String.format("T %.4f", values[index++]));
-                    }
-                } else if (nPlanes > 1) {
-                    double[][] measures = new double[2][nPlanes];
-                    index--;
-                    for (int iPlane = 0; iPlane < nPlanes; iPlane++) {
-                        measures[0][iPlane] = values[index++];
-                    }
-                    peak.setMeasures(measures);
-                }
-                double lineWidthAll = 1.0;
-                for (int pkDim = 0; pkDim < nPeakDim; pkDim++) {
-                    int dDim = pdim[pkDim];
-                    PeakDim peakDim = peak.getPeakDim(pkDim);
-                    double lineWidth = theFile.ptWidthToPPM(dDim, values[index]);
-                    double lineWidthHz = values[index++];
-                    peakDim.setLineWidthValue((float) lineWidth);
-                    lineWidthAll *= lineWidthHz;
-                    peakDim.setBoundsValue((float) (lineWidth * 1.5));
-                    peakDim.setChemShiftValueNoCheck((float) theFile.pointToPPM(dDim, values[index++]));
-                    double shapeFactor = values[values.length - nPeakDim + pkDim];
-                    peakDim.setShapeFactorValue((float) shapeFactor);
-                }
-                peak.setVolume1((float) (peak.getIntensity() * lineWidthAll));
-            }
-            if (nPlanes > 1) {
-                setMeasureX(peakList, theFile, nPlanes);
+            int nFitPlanes = nPlanes;
+            Runnable update = () -> updateFitPeaks(peakList, theFile, peaks, values, pdim, nFitPlanes, delays, fitC);
+            if (peakUpdates != null) {
+                peakUpdates.add(update);
+            } else {
+                update.run();
             }
         } else {
             int index = 1;
@@ -1647,6 +1746,46 @@ public class PeakListTools {
         return peaksResult;
     }
 
+    private static void updateFitPeaks(PeakList peakList, Dataset theFile, List<Peak> peaks, double[] values,
+                                       int[] pdim, int nPlanes, double[] delays, boolean fitC) {
+        int nPeakDim = pdim.length;
+        int index = 1;
+        for (Peak peak : peaks) {
+            peak.setIntensity((float) values[index++]);
+            if ((delays != null) && (delays.length > 0)) {
+                if (fitC) {
+                    peak.setComment(String.format("T %.4f %.3f", values[index++], values[index++]));
+                } else {
+                    peak.setComment(String.format("T %.4f", values[index++]));
+                }
+            } else if (nPlanes > 1) {
+                double[][] measures = new double[2][nPlanes];
+                index--;
+                for (int iPlane = 0; iPlane < nPlanes; iPlane++) {
+                    measures[0][iPlane] = values[index++];
+                }
+                peak.setMeasures(measures);
+            }
+            double lineWidthAll = 1.0;
+            for (int pkDim = 0; pkDim < nPeakDim; pkDim++) {
+                int dDim = pdim[pkDim];
+                PeakDim peakDim = peak.getPeakDim(pkDim);
+                double lineWidth = theFile.ptWidthToPPM(dDim, values[index]);
+                double lineWidthHz = values[index++];
+                peakDim.setLineWidthValue((float) lineWidth);
+                lineWidthAll *= lineWidthHz;
+                peakDim.setBoundsValue((float) (lineWidth * 1.5));
+                peakDim.setChemShiftValueNoCheck((float) theFile.pointToPPM(dDim, values[index++]));
+                double shapeFactor = values[values.length - nPeakDim + pkDim];
+                peakDim.setShapeFactorValue((float) shapeFactor);
+            }
+            peak.setVolume1((float) (peak.getIntensity() * lineWidthAll));
+        }
+        if (nPlanes > 1) {
+            setMeasureX(peakList, theFile, nPlanes);
+        }
+    }
+
     /**
      * @return
      */
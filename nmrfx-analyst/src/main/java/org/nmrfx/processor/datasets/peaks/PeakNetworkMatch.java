@@ -378,20 +378,19 @@ public class PeakNetworkMatch {
 // fixme
 //    check for deleted peaks
 //    check for peaks outside of a specified region
+        double[][] jValues = new double[jNPeaks][];
+        for (int jPeak = 0; jPeak < jNPeaks; jPeak++) {
+            jValues[jPeak] = jMList.get(jPeak).values;
+        }
+        // only pairs closer than minDelta get an edge, so just test the pairs in neighboring grid cells
+        MatchGrid matchGrid = new MatchGrid(jValues, jOffsets, tol, minDelta);
         for (int iPeak = 0; iPeak < iNPeaks; iPeak++) {
-            double minDeltaSq = Double.MAX_VALUE;
-            for (int jPeak = 0; jPeak < jNPeaks; jPeak++) {
-                double weight = Double.NEGATIVE_INFINITY;
-                MatchItem matchI = iMList.get(iPeak);
+            MatchItem matchI = iMList.get(iPeak);
+            for (int jPeak : matchGrid.getCandidates(matchI.values, iOffsets)) {
                 MatchItem matchJ = jMList.get(jPeak);
                 double deltaSqSum = getMatchingDistanceSq(matchI, iOffsets, matchJ, jOffsets, tol);
-                if (deltaSqSum < minDeltaSq) {
-                    minDeltaSq = deltaSqSum;
-                }
                 if (deltaSqSum < minDelta) {
-                    weight = Math.exp(-deltaSqSum);
-                }
-                if (weight != Double.NEGATIVE_INFINITY) {
+                    double weight = Math.exp(-deltaSqSum);
                     if (doLinkMatch) {
                         double linkedSum = getLinkedSum(matchI.itemIndex, matchJ.itemIndex);
                         weight += linkedSum / 10.0;
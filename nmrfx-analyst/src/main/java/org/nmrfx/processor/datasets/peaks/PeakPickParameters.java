@@ -45,6 +45,7 @@ public class PeakPickParameters {
     public int nPeakDim = 0;
     public int posNeg = 1;
     public double noiseLimit = 0.0;
+    public int nThreads = Runtime.getRuntime().availableProcessors();
 
     public PeakPickParameters(Dataset dataset, String listName) {
         this.theFile = dataset;
@@ -76,6 +77,11 @@ public class PeakPickParameters {
         return this;
     }
 
+    public PeakPickParameters threads(int nThreads) {
+        this.nThreads = Math.max(1, nThreads);
+        return this;
+    }
+
     public PeakPickParameters level(int thickness) {
         this.thickness = thickness;
         return this;
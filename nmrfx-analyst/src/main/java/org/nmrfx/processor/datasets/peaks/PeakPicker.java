@@ -26,6 +26,7 @@ package org.nmrfx.processor.datasets.peaks;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 import org.nmrfx.annotations.PythonAPI;
+import org.nmrfx.datasets.DatasetLayout;
 import org.nmrfx.datasets.Nuclei;
 import org.nmrfx.math.VecBase;
 import org.nmrfx.peaks.Peak;
@@ -38,11 +39,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Optional;
+import java.util.concurrent.Callable;
 
 /**
  * @author brucejohnson
@@ -55,8 +58,13 @@ public class PeakPicker {
     private final PeakPickParameters peakPickPar;
     private final int nDim;
     private static final String MSG_PEAK_LIST = "Peak List ";
+    private static final int N_STAT_POINTS = 1024;
+    private static final int MIN_TILE_SIZE = 16;
+    private static final int DEFAULT_TILE_SIZE = 64;
+    private static final int MAX_TILE_POINTS = 1 << 20;
     Peak lastPeakPicked = null;
     int nPeaks;
+    boolean useTiles = true;
 
     public PeakPicker(PeakPickParameters peakPickPar) {
         this.peakPickPar = peakPickPar;
@@ -69,6 +77,11 @@ public class PeakPicker {
         return dataset.readPoint(pt, dim);
     }
 
+    // used for testing, to compare the tiled pick with the point by point pick
+    void setUseTiles(boolean useTiles) {
+        this.useTiles = useTiles;
+    }
+
     double getSf(int i) {
         return dataset.getSf(i);
     }
@@ -81,12 +94,40 @@ public class PeakPicker {
         return dataset.getSizeReal(i);
     }
 
+    /**
+     * Get the half size (in points) of the region a point must be the maximum
+     * of to be picked.
+     *
+     * @param regionSizeHz the size of the region in Hz, values below 0.1 use 2 points
+     * @param nPeakDim     the number of peak dimensions, the region doesn't
+     *                     extend along other dimensions
+     * @return the half size along each dimension
+     */
+    int[] getRegionSize(double regionSizeHz, int nPeakDim) {
+        int[] regionSize = new int[nDim];
+        for (int i = 0; i < nDim; i++) {
+            if (regionSizeHz > 0.1) {
+                regionSize[i] = (int) (regionSizeHz / dataset.getSw(i) * dataset.getSizeReal(i));
+            } else {
+                regionSize[i] = 2;
+            }
+
+            if (regionSize[i] < 1) {
+                regionSize[i] = 1;
+            }
+
+            if (i >= nPeakDim) {
+                regionSize[i] = 0;
+            }
+        }
+        return regionSize;
+    }
+
     public boolean checkForPeak(double centerValue, int[] pt,
                                 int[] dim, boolean findMax, boolean fixedPick, double regionSizeHz, int nPeakDim, int sign) {
         int[] checkPoint = new int[nDim];
         int[] deltaPoint = new int[nDim];
         int[] testPoint = new int[nDim];
-        int[] regionSize = new int[nDim];
         boolean foundPeak = true;
         boolean ok;
         int i;
@@ -102,23 +143,8 @@ public class PeakPicker {
             return true;
         }
 
-        for (i = 0; i < nDim; i++) {
-            if (regionSizeHz > 0.1) {
-                regionSize[i] = (int) (regionSizeHz / dataset.getSw(i) * dataset.getSizeReal(i));
-            } else {
-                regionSize[i] = 2;
-            }
-
-            if (regionSize[i] < 1) {
-                regionSize[i] = 1;
-            }
-
-            if (i >= nPeakDim) {
-                regionSize[i] = 0;
-            }
-
-            testPoint[i] = pt[i];
-        }
+        int[] regionSize = getRegionSize(regionSizeHz, nPeakDim);
+        System.arraycopy(pt, 0, testPoint, 0, nDim);
         do {
             ok = true;
             foundMax = false;
@@ -531,15 +557,10 @@ public class PeakPicker {
     public PeakList peakPick()
             throws IOException, IllegalArgumentException {
         int[] dim;
-        int[][] pt;
         int[] pdim = new int[nDim];
-        int[] checkPoint = new int[nDim];
-        int[] lastPoint = new int[nDim];
         nPeaks = 0;
         int nMatch;
-        double checkValue;
         dim = peakPickPar.dim;
-        pt = peakPickPar.pt;
         Double noiseLevel = dataset.getNoiseLevel();
         lastPeakPicked = null;
 
@@ -639,8 +660,31 @@ public class PeakPicker {
             throw new IllegalArgumentException("nv_dataset peakPick: invalid mode");
         }
 
+        if (useTiles && !findMax && !peakPickPar.fixedPick && (nDim > 1)) {
+            noiseLevel = pickTiles(peakList, dim, pdim, noiseLevel);
+        } else {
+            noiseLevel = pickPoints(peakList, dim, pdim, findMax, noiseLevel);
+        }
+
+        if ((noiseLevel != null) && (noiseLevel > 0.0)) {
+            peakList.setFOM(noiseLevel);
+        }
+        dataset.setNoiseLevel(noiseLevel);
+        peakList.reIndex();
+        return peakList;
+    }
+
+    /**
+     * Pick peaks by scanning the points of the region in order, reading each
+     * point and its neighbors from the dataset.
+     *
+     * @return the noise level
+     */
+    private Double pickPoints(PeakList peakList, int[] dim, int[] pdim, boolean findMax, Double noiseLevel) throws IOException {
+        int[][] pt = peakPickPar.pt;
+        int[] checkPoint = new int[nDim];
+        int[] lastPoint = new int[nDim];
         SummaryStatistics stats = new SummaryStatistics();
-        int nStatPoints = 1024;
 
         int[] counterSizes = new int[nDim];
         for (int i = 0; i < nDim; i++) {
@@ -654,11 +698,11 @@ public class PeakPicker {
                 points[i] += pt[i][0];
                 checkPoint[i] = points[i];
             }
-            checkValue = readPoint(points, dim);
+            double checkValue = readPoint(points, dim);
             int sign = 1;
             if (nDim > 1) {
                 stats.addValue(checkValue);
-                if (stats.getN() == nStatPoints) {
+                if (stats.getN() == N_STAT_POINTS) {
                     double stDev = stats.getStandardDeviation();
                     if ((noiseLevel == null) || (stDev < noiseLevel)) {
                         noiseLevel = stDev;
@@ -668,18 +712,7 @@ public class PeakPicker {
             }
             boolean measurePeak = true;
             if (!peakPickPar.fixedPick) {
-                if ((checkValue >= 0.0) && (checkValue < peakPickPar.level)) {
-                    continue;
-                }
-                if ((checkValue < 0.0) && (checkValue > -peakPickPar.level)) {
-                    continue;
-                }
-
-                if ((checkValue < 0.0) && ((peakPickPar.posNeg & 2) == 0)) {
-                    continue;
-                }
-
-                if ((checkValue > 0.0) && ((peakPickPar.posNeg & 1) == 0)) {
+                if (!isPickable(checkValue)) {
                     continue;
                 }
             } else {
@@ -697,54 +730,291 @@ public class PeakPicker {
             }
             if (checkForPeak(checkValue, checkPoint, dim, findMax, peakPickPar.fixedPick,
                     peakPickPar.regionWidth, peakPickPar.nPeakDim, sign)) {
-                boolean aboveNoise = true;
-                if (peakPickPar.noiseLimit > 0.001) {
-                    double noiseRatio = dataset.checkNoiseLevel(checkValue, checkPoint, dim);
-                    if (noiseRatio < peakPickPar.noiseLimit) {
-                        aboveNoise = false;
+                addPickedPeak(peakList, checkPoint, lastPoint, dim, pdim, checkValue, sign, findMax, measurePeak);
+            }
+        }
+        return noiseLevel;
+    }
+
+    private boolean isPickable(double checkValue) {
+        if ((checkValue >= 0.0) && (checkValue < peakPickPar.level)) {
+            return false;
+        }
+        if ((checkValue < 0.0) && (checkValue > -peakPickPar.level)) {
+            return false;
+        }
+        if ((checkValue < 0.0) && ((peakPickPar.posNeg & 2) == 0)) {
+            return false;
+        }
+        return (checkValue <= 0.0) || ((peakPickPar.posNeg & 1) != 0);
+    }
+
+    private void addPickedPeak(PeakList peakList, int[] checkPoint, int[] lastPoint, int[] dim, int[] pdim,
+                               double checkValue, int sign, boolean findMax, boolean measurePeak) throws IOException {
+        boolean aboveNoise = true;
+        if (peakPickPar.noiseLimit > 0.001) {
+            double noiseRatio = dataset.checkNoiseLevel(checkValue, checkPoint, dim);
+            if (noiseRatio < peakPickPar.noiseLimit) {
+                aboveNoise = false;
+            }
+        }
+        if (aboveNoise) {
+            boolean samePeak = false;
+            if (findMax || peakPickPar.fixedPick) {
+                samePeak = true;
+                for (int ii = 0; ii < checkPoint.length; ii++) {
+                    if (lastPoint[ii] != checkPoint[ii]) {
+                        samePeak = false;
+                        break;
+                    }
+                }
+            }
+            if (!samePeak) {
+                Peak peak = new Peak(peakList, peakPickPar.nPeakDim);
+                if (measurePeak(peakPickPar.level, checkPoint, peakPickPar.cpt, dim, pdim,
+                        peakPickPar.fixedPick, peak,
+                        peakPickPar.nPeakDim, peakPickPar.sDevN, sign, measurePeak)) {
+                    Peak pickedPeak = peakList.addPeak(peak);
+                    if (pickedPeak != null) {
+                        nPeaks++;
+                        lastPeakPicked = pickedPeak;
+                    } else {
+                        peakList.idLast--;
                     }
+                } else {
+                    peakList.idLast--;
+                }
+                if (findMax || peakPickPar.fixedPick) {
+                    System.arraycopy(checkPoint, 0, lastPoint, 0, checkPoint.length);
                 }
-                if (aboveNoise) {
-                    boolean samePeak = false;
-                    if (findMax || peakPickPar.fixedPick) {
-                        samePeak = true;
-                        for (int ii = 0; ii < checkPoint.length; ii++) {
-                            if (lastPoint[ii] != checkPoint[ii]) {
-                                samePeak = false;
-                                break;
-                            }
+
+            }
+        }
+    }
+
+    /**
+     * A local maximum found in a tile.
+     *
+     * @param scanIndex the index of the point in the scan order of the whole region
+     * @param point     the point
+     * @param value     the absolute value at the point
+     * @param sign      the sign of the value
+     */
+    record Candidate(long scanIndex, int[] point, double value, int sign) {
+    }
+
+    record TileResult(List<Candidate> candidates, Double noiseLevel) {
+    }
+
+    /**
+     * A tile of the region being picked, with the values of the tile and a halo
+     * of neighbors around it read from the dataset in one pass.
+     */
+    class PickTile {
+
+        final int[] start;
+        final int[] end;
+        final int[] dim;
+        final RegionBuffer buffer;
+
+        PickTile(int[] start, int[] end, int[] halo, int[] dim) {
+            this.start = start;
+            this.end = end;
+            this.dim = dim;
+            int[] bufStart = new int[nDim];
+            int[] bufEnd = new int[nDim];
+            for (int i = 0; i < nDim; i++) {
+                bufStart[i] = Math.max(0, start[i] - halo[i]);
+                bufEnd[i] = Math.min(dataset.getSizeReal(dim[i]) - 1, end[i] + halo[i]);
+            }
+            buffer = new RegionBuffer(dataset, dim, bufStart, bufEnd);
+        }
+
+        void read() throws IOException {
+            // the size of tiles is limited by getTiles
+            buffer.read(Integer.MAX_VALUE);
+        }
+
+        double getValue(int[] points) throws IOException {
+            return buffer.readPoint(points);
+        }
+
+        /**
+         * Check whether the value at a point is not exceeded by any neighbor.
+         * This follows checkForPeak (without a search for the maximum).
+         */
+        boolean isLocalMax(double centerValue, int[] pt, int[] regionSize, int sign) throws IOException {
+            int[] checkPoint = new int[nDim];
+            int[] deltaPoint = new int[nDim];
+            boolean ok = true;
+            for (int i = 0; i < nDim; i++) {
+                deltaPoint[i] = -regionSize[i];
+            }
+            while (true) {
+                boolean isCenterPoint = true;
+                for (int i = 0; i < nDim; i++) {
+                    if (deltaPoint[i] != 0) {
+                        isCenterPoint = false;
+                        checkPoint[i] = pt[i] + deltaPoint[i];
+                        if (checkPoint[i] < 0) {
+                            ok = false;
+                        } else if (checkPoint[i] >= dataset.getSizeReal(dim[i])) {
+                            checkPoint[i] = checkPoint[i] - dataset.getSizeReal(dim[i]);
                         }
+                    } else {
+                        checkPoint[i] = pt[i];
                     }
-                    if (!samePeak) {
-                        Peak peak = new Peak(peakList, peakPickPar.nPeakDim);
-                        if (measurePeak(peakPickPar.level, checkPoint, peakPickPar.cpt, dim, pdim,
-                                peakPickPar.fixedPick, peak,
-                                peakPickPar.nPeakDim, peakPickPar.sDevN, sign, measurePeak)) {
-                            Peak pickedPeak = peakList.addPeak(peak);
-                            if (pickedPeak != null) {
-                                nPeaks++;
-                                lastPeakPicked = pickedPeak;
-                            } else {
-                                peakList.idLast--;
-                            }
-                        } else {
-                            peakList.idLast--;
+                }
+                if (ok && !isCenterPoint && (sign * getValue(checkPoint) > centerValue)) {
+                    return false;
+                }
+                int i;
+                for (i = 0; i < nDim; i++) {
+                    deltaPoint[i]++;
+                    if (deltaPoint[i] > regionSize[i]) {
+                        deltaPoint[i] = -regionSize[i];
+                    } else {
+                        break;
+                    }
+                }
+                if (i == nDim) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Find the local maxima of the tile. The values of the tile are only
+         * held while it is scanned, so at most one buffer per thread is in
+         * memory at a time.
+         */
+        TileResult scan(int[] regionSize) throws IOException {
+            read();
+            try {
+                int[][] pt = peakPickPar.pt;
+                List<Candidate> candidates = new ArrayList<>();
+                SummaryStatistics stats = new SummaryStatistics();
+                Double noiseLevel = null;
+                int[] sizes = new int[nDim];
+                for (int i = 0; i < nDim; i++) {
+                    sizes[i] = end[i] - start[i] + 1;
+                }
+                int[] points = new int[nDim];
+                for (int[] counts : new DimCounter(sizes)) {
+                    for (int i = 0; i < nDim; i++) {
+                        points[i] = counts[i] + start[i];
+                    }
+                    double checkValue = getValue(points);
+                    stats.addValue(checkValue);
+                    if (stats.getN() == N_STAT_POINTS) {
+                        double stDev = stats.getStandardDeviation();
+                        if ((noiseLevel == null) || (stDev < noiseLevel)) {
+                            noiseLevel = stDev;
                         }
-                        if (findMax || peakPickPar.fixedPick) {
-                            System.arraycopy(checkPoint, 0, lastPoint, 0, checkPoint.length);
+                        stats.clear();
+                    }
+                    if (!isPickable(checkValue)) {
+                        continue;
+                    }
+                    int sign = checkValue < 0.0 ? -1 : 1;
+                    checkValue *= sign;
+                    if (isLocalMax(checkValue, points, regionSize, sign)) {
+                        long scanIndex = 0;
+                        long stride = 1;
+                        for (int i = 0; i < nDim; i++) {
+                            scanIndex += (points[i] - pt[i][0]) * stride;
+                            stride *= pt[i][1] - pt[i][0] + 1;
                         }
-
+                        candidates.add(new Candidate(scanIndex, points.clone(), checkValue, sign));
                     }
                 }
+                return new TileResult(candidates, noiseLevel);
+            } finally {
+                buffer.release();
             }
         }
+    }
 
-        if ((noiseLevel != null) && (noiseLevel > 0.0)) {
-            peakList.setFOM(noiseLevel);
+    /**
+     * Get the tiles covering the region to pick. Tiles follow the storage
+     * blocks of the dataset (but are at least MIN_TILE_SIZE points along the
+     * peak dimensions), so the points of a tile are read from few blocks.
+     */
+    List<PickTile> getTiles(int[] dim, int[] halo) {
+        int[][] pt = peakPickPar.pt;
+        DatasetLayout layout = dataset.getLayout();
+        int[] tileSize = new int[nDim];
+        int[] nTiles = new int[nDim];
+        long tilePoints = 1;
+        for (int i = 0; i < nDim; i++) {
+            int blockSize = (layout == null) || (layout.getBlockSize(dim[i]) < 1) ? DEFAULT_TILE_SIZE : layout.getBlockSize(dim[i]);
+            tileSize[i] = i < peakPickPar.nPeakDim ? Math.max(MIN_TILE_SIZE, blockSize) : 1;
+            tileSize[i] = Math.min(tileSize[i], pt[i][1] - pt[i][0] + 1);
+            tilePoints *= tileSize[i];
         }
-        dataset.setNoiseLevel(noiseLevel);
-        peakList.reIndex();
-        return peakList;
+        while (tilePoints > MAX_TILE_POINTS) {
+            int iMax = 0;
+            for (int i = 1; i < nDim; i++) {
+                if (tileSize[i] > tileSize[iMax]) {
+                    iMax = i;
+                }
+            }
+            tilePoints /= tileSize[iMax];
+            tileSize[iMax] = (tileSize[iMax] + 1) / 2;
+            tilePoints *= tileSize[iMax];
+        }
+        for (int i = 0; i < nDim; i++) {
+            nTiles[i] = (pt[i][1] - pt[i][0] + tileSize[i]) / tileSize[i];
+        }
+        List<PickTile> tiles = new ArrayList<>();
+        for (int[] tile : new DimCounter(nTiles)) {
+            int[] start = new int[nDim];
+            int[] end = new int[nDim];
+            for (int i = 0; i < nDim; i++) {
+                start[i] = pt[i][0] + tile[i] * tileSize[i];
+                end[i] = Math.min(pt[i][1], start[i] + tileSize[i] - 1);
+            }
+            tiles.add(new PickTile(start, end, halo, dim));
+        }
+        return tiles;
+    }
+
+    /**
+     * Pick peaks by scanning tiles of the region in parallel. Each tile is read
+     * with a halo of the neighbors needed to check for local maxima. The
+     * candidates of all tiles are then measured and added to the peak list in
+     * the order of a point by point scan of the region, so the result doesn't
+     * depend on the number of threads. The noise level is the smallest
+     * standard deviation of groups of points within a tile.
+     *
+     * @return the noise level
+     */
+    private Double pickTiles(PeakList peakList, int[] dim, int[] pdim, Double noiseLevel) throws IOException {
+        int[] regionSize = getRegionSize(peakPickPar.regionWidth, peakPickPar.nPeakDim);
+        List<Callable<TileResult>> tasks = new ArrayList<>();
+        for (PickTile tile : getTiles(dim, regionSize)) {
+            tasks.add(() -> tile.scan(regionSize));
+        }
+        List<TileResult> results;
+        try {
+            results = TaskRunner.run(tasks, peakPickPar.nThreads, "Peak picking");
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        List<Candidate> candidates = new ArrayList<>();
+        for (TileResult result : results) {
+            candidates.addAll(result.candidates());
+            Double tileNoise = result.noiseLevel();
+            if ((tileNoise != null) && ((noiseLevel == null) || (tileNoise < noiseLevel))) {
+                noiseLevel = tileNoise;
+            }
+        }
+        candidates.sort(Comparator.comparingLong(Candidate::scanIndex));
+        int[] lastPoint = new int[nDim];
+        for (Candidate candidate : candidates) {
+            addPickedPeak(peakList, candidate.point(), lastPoint, dim, pdim, candidate.value(), candidate.sign(), false, true);
+        }
+        return noiseLevel;
     }
 
     public boolean anyPeaksInRegion() {
@@ -766,11 +1036,7 @@ public class PeakPicker {
                 limits[i][1] = peakPickPar.theFile.pointToPPM(j, peakPickPar.pt[i][0]);
                 limits[i][0] = peakPickPar.theFile.pointToPPM(j, peakPickPar.pt[i][1]);
             }
-            Optional<Peak> firstPeak = peakList.peaks()
-                    .stream()
-                    .parallel()
-                    .filter(peak -> peak.inRegion(limits, null, dimMap)).findFirst();
-            foundAny = firstPeak.isPresent();
+            foundAny = !peakList.findPeaksInRegion(limits, null, dimMap).isEmpty();
         }
         return foundAny;
     }
@@ -789,11 +1055,8 @@ public class PeakPicker {
                 limits[i][1] = peakPickPar.theFile.pointToPPM(j, peakPickPar.pt[i][0]);
                 limits[i][0] = peakPickPar.theFile.pointToPPM(j, peakPickPar.pt[i][1]);
             }
-            peaks = peakList.peaks()
-                    .stream()
-                    .parallel()
-                    .filter(p -> !p.isDeleted())
-                    .filter(p -> p.inRegion(limits, null, peakPickPar.dim)).toList();
+            peaks = peakList.findPeaksInRegion(limits, null, peakPickPar.dim).stream()
+                    .filter(p -> !p.isDeleted()).toList();
         }
         return peaks;
     }
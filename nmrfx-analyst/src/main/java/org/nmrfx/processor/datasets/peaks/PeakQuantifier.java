@@ -0,0 +1,327 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2017 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.datasets.peaks;
+
+import org.nmrfx.datasets.DatasetLayout;
+import org.nmrfx.datasets.RegionData;
+import org.nmrfx.peaks.Peak;
+import org.nmrfx.peaks.PeakList;
+import org.nmrfx.processor.datasets.Dataset;
+import org.nmrfx.utilities.ProgressUpdater;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Measures the peaks of a peak list in each plane of a series of datasets.
+ * The measurements in a dataset are ordered by the data block that holds the
+ * center of each peak region (and plane), so the regions in a block are read
+ * together instead of revisiting blocks as the peak list order jumps around
+ * the spectrum. The ordered regions of each dataset are split into
+ * contiguous ranges that are measured concurrently, so the planes of a
+ * single pseudo-nD dataset are spread over the threads as well. Each region
+ * is read into a buffer under the dataset lock and then analyzed without
+ * it. A dataset without a plane dimension is measured once per peak, and
+ * the value is stored for each of the planes. The measures of each peak are
+ * stored in one pass once all datasets are measured.
+ *
+ * @author brucejohnson
+ */
+public class PeakQuantifier {
+
+    private static final Logger log = LoggerFactory.getLogger(PeakQuantifier.class);
+    private static final int MAX_BUFFER_POINTS = 1 << 20;
+
+    /**
+     * The amount of work done by a quantification.
+     *
+     * @param nRegions     the number of regions measured
+     * @param nRegionBytes the size, in bytes, of the data in the measured
+     *                     regions. This is not the amount read from storage,
+     *                     which depends on the blocks the regions fall in.
+     * @param seconds      the elapsed time
+     */
+    public record QuantifyStats(int nRegions, long nRegionBytes, double seconds) {
+        /**
+         * Get the rate the regions were measured at, as MB of region data per
+         * second of elapsed time.
+         *
+         * @return the rate
+         */
+        public double getRegionMBPerSecond() {
+            return seconds > 0.0 ? nRegionBytes / (1024.0 * 1024.0) / seconds : 0.0;
+        }
+    }
+
+    record Region(long block, int plane, int iPeak) {
+    }
+
+    private final PeakList peakList;
+    private final List<Dataset> datasets;
+    private final Function<RegionData, Double> f;
+    private final String mode;
+    private final int nPlanes;
+    private int nThreads = Runtime.getRuntime().availableProcessors();
+    private ProgressUpdater progressUpdater = null;
+    private final AtomicInteger nMeasured = new AtomicInteger(0);
+    private final AtomicLong nRegionBytes = new AtomicLong(0);
+    private int nTotal = 0;
+
+    public PeakQuantifier(PeakList peakList, List<Dataset> datasets, Function<RegionData, Double> f, String mode, int nPlanes) {
+        if (f == null) {
+            throw new IllegalArgumentException("Unknown measurment type: " + mode);
+        }
+        this.peakList = peakList;
+        this.datasets = datasets;
+        this.f = f;
+        this.mode = mode;
+        this.nPlanes = nPlanes;
+    }
+
+    public void setThreads(int nThreads) {
+        this.nThreads = Math.max(1, nThreads);
+    }
+
+    /**
+     * Set an updater that is given the fraction of regions measured as the
+     * quantification proceeds. It is called from the measuring threads.
+     *
+     * @param progressUpdater the updater, or null
+     */
+    public void setProgressUpdater(ProgressUpdater progressUpdater) {
+        this.progressUpdater = progressUpdater;
+    }
+
+    /**
+     * Measure the peaks and store the values as the measures of each peak and
+     * the dataset values (or plane indices) as the measures of the peak list.
+     * If measuring any of the regions fails the peaks are left unchanged and
+     * the failure is thrown.
+     *
+     * @return the number of regions measured, the bytes of data they hold and
+     * the elapsed time
+     * @throws IllegalStateException if the measurement was interrupted or
+     *                               failed with a checked exception
+     */
+    public QuantifyStats quantify() {
+        long startTime = System.nanoTime();
+        List<Peak> peaks = new ArrayList<>(peakList.peaks());
+        double[][][] values = new double[peaks.size()][2][datasets.size() * nPlanes];
+        nMeasured.set(0);
+        nRegionBytes.set(0);
+        if (!peaks.isEmpty()) {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            int nRegions = 0;
+            for (int iSet = 0; iSet < datasets.size(); iSet++) {
+                final int jSet = iSet;
+                long[] regionBytes = new long[peaks.size()];
+                List<Region> regions = getRegions(iSet, peaks, regionBytes);
+                nRegions += regions.size();
+                int nRanges = Math.max(1, Math.min(nThreads, regions.size()));
+                for (int iRange = 0; iRange < nRanges; iRange++) {
+                    List<Region> range = regions.subList(regions.size() * iRange / nRanges,
+                            regions.size() * (iRange + 1) / nRanges);
+                    tasks.add(() -> {
+                        measureRegions(jSet, peaks, range, regionBytes, values);
+                        return null;
+                    });
+                }
+            }
+            nTotal = nRegions;
+            TaskRunner.run(tasks, nThreads, "Peak quantification");
+            peakList.beginUpdates();
+            try {
+                for (int i = 0; i < peaks.size(); i++) {
+                    PeakListTools.setValues(peaks.get(i), values[i], mode);
+                }
+                PeakListTools.setMeasureX(peakList, datasets, nPlanes);
+            } finally {
+                peakList.commitUpdates();
+            }
+        }
+        double seconds = (System.nanoTime() - startTime) / 1.0e9;
+        QuantifyStats stats = new QuantifyStats(nMeasured.get(), nRegionBytes.get(), seconds);
+        log.info("Measured {} regions in {} s, {} MB/s of region data", stats.nRegions(),
+                String.format("%.2f", seconds), String.format("%.1f", stats.getRegionMBPerSecond()));
+        return stats;
+    }
+
+    /**
+     * Get the regions of a dataset to measure, ordered by data block. There is
+     * one region per peak and plane, or one per peak if the dataset has no
+     * plane dimension.
+     */
+    private List<Region> getRegions(int iSet, List<Peak> peaks, long[] regionBytes) {
+        Dataset dataset = datasets.get(iSet);
+        int nDataDim = dataset.getNDim();
+        int[] pdim = peakList.getDimsForDataset(dataset, true);
+        int planeDim = getPlaneDim(nDataDim, pdim);
+        int nMeasurePlanes = planeDim >= 0 ? nPlanes : 1;
+        int bytesPerPoint = dataset.getDataType() == 0 ? Float.BYTES : Double.BYTES;
+        DatasetLayout layout = dataset.getLayout();
+
+        List<Region> regions = new ArrayList<>();
+        int[][] p = new int[nDataDim][2];
+        int[] cpt = new int[nDataDim];
+        double[] width = new double[nDataDim];
+        for (int iPeak = 0; iPeak < peaks.size(); iPeak++) {
+            peaks.get(iPeak).getPeakRegion(dataset, pdim, p, cpt, width, null);
+            long nPoints = 1;
+            for (int dDim : pdim) {
+                nPoints *= Math.abs(p[dDim][1] - p[dDim][0]) + 1;
+            }
+            regionBytes[iPeak] = nPoints * bytesPerPoint;
+            for (int plane = 0; plane < nMeasurePlanes; plane++) {
+                if (planeDim >= 0) {
+                    cpt[planeDim] = plane;
+                }
+                regions.add(new Region(getBlock(layout, cpt), plane, iPeak));
+            }
+        }
+        regions.sort(Comparator.comparingLong(Region::block).thenComparingInt(Region::plane)
+                .thenComparingInt(Region::iPeak));
+        return regions;
+    }
+
+    private void measureRegions(int iSet, List<Peak> peaks, List<Region> regions, long[] regionBytes, double[][][] values) {
+        Dataset dataset = datasets.get(iSet);
+        int nDataDim = dataset.getNDim();
+        int[] pdim = peakList.getDimsForDataset(dataset, true);
+        int planeDim = getPlaneDim(nDataDim, pdim);
+        for (Region region : regions) {
+            try {
+                double[] value = measureRegion(dataset, peaks.get(region.iPeak()), pdim, planeDim, region.plane());
+                if (planeDim >= 0) {
+                    int iValue = iSet * nPlanes + region.plane();
+                    values[region.iPeak()][0][iValue] = value[0];
+                    values[region.iPeak()][1][iValue] = value[1];
+                } else {
+                    // the region is the same in every plane
+                    for (int plane = 0; plane < nPlanes; plane++) {
+                        int iValue = iSet * nPlanes + plane;
+                        values[region.iPeak()][0][iValue] = value[0];
+                        values[region.iPeak()][1][iValue] = value[1];
+                    }
+                }
+            } catch (IOException | IllegalArgumentException ex) {
+                log.error(ex.getMessage(), ex);
+            }
+            nRegionBytes.addAndGet(regionBytes[region.iPeak()]);
+            updateProgress(nMeasured.incrementAndGet());
+        }
+    }
+
+    /**
+     * Measure a peak in a plane as Peak.measurePeak does, but read the
+     * region into a buffer under the dataset lock and analyze it without the
+     * lock.
+     */
+    private double[] measureRegion(Dataset dataset, Peak peak, int[] pdim, int planeDim, int plane) throws IOException {
+        int nDataDim = dataset.getNDim();
+        int nPlaneDims = Math.max(0, nDataDim - pdim.length);
+        if (nDataDim != peakList.nDim + nPlaneDims) {
+            throw new IllegalArgumentException("Number of peak list dimensions not equal to number of dataset dimensions");
+        }
+        int[][] p = new int[nDataDim][2];
+        int[] cpt = new int[nDataDim];
+        double[] width = new double[nDataDim];
+        int[] dim = new int[nDataDim];
+        peak.getPeakRegion(dataset, pdim, p, cpt, width, null);
+        for (int i = 0; i < nDataDim; i++) {
+            dim[i] = i;
+            if (!isPeakDim(i, pdim)) {
+                // the first plane dimension is at the plane, any others at 0
+                int planeValue = i == planeDim ? plane : 0;
+                cpt[i] = p[i][1] = p[i][0] = planeValue;
+                width[i] = 0.0;
+            }
+        }
+        int[] bufStart = new int[nDataDim];
+        int[] bufEnd = new int[nDataDim];
+        for (int i = 0; i < nDataDim; i++) {
+            bufStart[i] = p[i][0];
+            bufEnd[i] = p[i][1];
+        }
+        // a region that wraps around the dataset is empty here, and is read from the dataset
+        RegionBuffer buffer = new RegionBuffer(dataset, dim, bufStart, bufEnd);
+        buffer.read(MAX_BUFFER_POINTS);
+        RegionData regionData = dataset.analyzeRegion(p, cpt, width, dim, buffer);
+        double value = f.apply(regionData);
+        Double noise = dataset.getNoiseLevel();
+        double err = 0.0;
+        if (noise != null) {
+            int nPoints = regionData.getNpoints(mode);
+            err = nPoints == 1 ? noise.floatValue() : Math.sqrt(nPoints) * noise.floatValue();
+        }
+        return new double[]{value, err};
+    }
+
+    private void updateProgress(int n) {
+        ProgressUpdater updater = progressUpdater;
+        if ((updater != null) && ((n % 100 == 0) || (n == nTotal))) {
+            updater.updateProgress((double) n / nTotal);
+        }
+    }
+
+    private static boolean isPeakDim(int dDim, int[] pdim) {
+        for (int pDim : pdim) {
+            if (pDim == dDim) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int getPlaneDim(int nDataDim, int[] pdim) {
+        for (int dDim = 0; dDim < nDataDim; dDim++) {
+            if (!isPeakDim(dDim, pdim)) {
+                return dDim;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the index of the data block that holds a point.
+     *
+     * @param layout the layout of the dataset, or null if it has none
+     * @param pt     the point
+     * @return the block index
+     */
+    static long getBlock(DatasetLayout layout, int[] pt) {
+        if (layout == null) {
+            return 0;
+        }
+        long block = 0;
+        long stride = 1;
+        for (int iDim = 0; iDim < pt.length; iDim++) {
+            int blockSize = Math.max(1, layout.getBlockSize(iDim));
+            block += (pt[iDim] / blockSize) * stride;
+            stride *= Math.max(1, layout.getNBlocks(iDim));
+        }
+        return block;
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2017 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.datasets.peaks;
+
+import org.nmrfx.datasets.DatasetLayout;
+import org.nmrfx.datasets.RegionData;
+import org.nmrfx.peaks.Peak;
+import org.nmrfx.peaks.PeakDim;
+import org.nmrfx.peaks.PeakList;
+import org.nmrfx.processor.datasets.Dataset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * Refines the positions and widths of peaks, as Peak.tweak does, for many
+ * peaks at once. Peaks are grouped by the data tile (following the storage
+ * blocks of the dataset) that holds their center, and the points around the
+ * peaks of a tile are read from the dataset once into a buffer that is
+ * shared by the refinement of those peaks. Tiles are refined concurrently
+ * and the new positions are stored in the peaks in one update at the end.
+ * <p>
+ * A peak is refined by analyzing its region, moving the region to the
+ * maximum that was found and repeating until the maximum no longer moves
+ * (the peak has converged) or the iteration limit is reached. With a limit
+ * of one iteration the positions are the same as those of Peak.tweak.
+ *
+ * @author brucejohnson
+ */
+public class PeakTweaker {
+
+    private static final Logger log = LoggerFactory.getLogger(PeakTweaker.class);
+    private static final int MIN_TILE_SIZE = 16;
+    private static final int MAX_TILE_SIZE = 64;
+    private static final int MAX_BUFFER_POINTS = 1 << 22;
+
+    /**
+     * The outcome of refining one peak.
+     *
+     * @param peak        the peak
+     * @param converged   true if the maximum of the peak region stopped moving
+     * @param nIterations the number of times the region was analyzed
+     * @param shift       the distance, in points, the peak was moved
+     */
+    public record TweakResult(Peak peak, boolean converged, int nIterations, double shift) {
+    }
+
+    /**
+     * The outcome of refining a set of peaks.
+     *
+     * @param results the result for each peak, in the order the peaks were given
+     * @param nTiles  the number of tiles the peaks were grouped into
+     * @param seconds the elapsed time
+     */
+    public record TweakStats(List<TweakResult> results, int nTiles, double seconds) {
+        public int getNConverged() {
+            return (int) results.stream().filter(TweakResult::converged).count();
+        }
+    }
+
+    private final Dataset dataset;
+    private final PeakList peakList;
+    private final int[] planes;
+    private final int nDataDim;
+    private final int[] pdim;
+    private final int[] dim;
+    private int nThreads = Runtime.getRuntime().availableProcessors();
+    private int maxIterations = 4;
+    private boolean refineWidths = true;
+
+    public PeakTweaker(PeakList peakList, Dataset dataset, int[] planes) {
+        this.peakList = peakList;
+        this.dataset = dataset;
+        this.planes = planes;
+        nDataDim = dataset.getNDim();
+        if (nDataDim != (peakList.getNDim() + planes.length)) {
+            throw new IllegalArgumentException("Number of peak list dimensions not equal to number of dataset dimensions");
+        }
+        pdim = peakList.getDimsForDataset(dataset, true);
+        dim = new int[nDataDim];
+        for (int i = 0; i < nDataDim; i++) {
+            dim[i] = i;
+        }
+    }
+
+    public void setThreads(int nThreads) {
+        this.nThreads = Math.max(1, nThreads);
+    }
+
+    /**
+     * Set the largest number of times the region of a peak is analyzed.
+     *
+     * @param maxIterations the iteration limit, at least 1
+     */
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = Math.max(1, maxIterations);
+    }
+
+    /**
+     * Set whether line widths are measured, at half height, along with the
+     * positions.
+     *
+     * @param refineWidths true to measure the widths
+     */
+    public void setRefineWidths(boolean refineWidths) {
+        this.refineWidths = refineWidths;
+    }
+
+    /**
+     * A peak region in dataset points, along with the refined position and
+     * widths once the peak is refined.
+     */
+    class PeakRegion {
+
+        final Peak peak;
+        final int[][] p = new int[nDataDim][2];
+        final int[] cpt = new int[nDataDim];
+        final double[] width = new double[nDataDim];
+        double[] position = null;
+        double[] widths = null;
+        boolean converged = false;
+        int nIterations = 0;
+        double shift = 0.0;
+
+        PeakRegion(Peak peak) {
+            this.peak = peak;
+            peak.getPeakRegion(dataset, pdim, p, cpt, width, null);
+            int k = 0;
+            for (int i = 0; i < nDataDim; i++) {
+                if (!isPeakDim(i)) {
+                    cpt[i] = p[i][1] = p[i][0] = planes[k];
+                    width[i] = 0.0;
+                    k++;
+                }
+            }
+        }
+
+        void refine(Tile tile) throws IOException {
+            int[] lastMax = cpt.clone();
+            RegionData regionData = null;
+            for (nIterations = 1; nIterations <= maxIterations; nIterations++) {
+                regionData = dataset.analyzeRegion(p, cpt, width, dim, tile::getValue);
+                int[] maxPoint = regionData.getMaxPoint();
+                if (Arrays.equals(maxPoint, lastMax)) {
+                    converged = true;
+                    break;
+                }
+                if (nIterations == maxIterations) {
+                    break;
+                }
+                for (int i : pdim) {
+                    int delta = maxPoint[i] - cpt[i];
+                    int size = dataset.getSizeReal(i);
+                    p[i][0] = Math.floorMod(p[i][0] + delta, size);
+                    p[i][1] = Math.floorMod(p[i][1] + delta, size);
+                    cpt[i] = maxPoint[i];
+                }
+                System.arraycopy(maxPoint, 0, lastMax, 0, nDataDim);
+            }
+            position = regionData.getMaxDPoint().clone();
+            double sumSq = 0.0;
+            for (int j = 0; j < pdim.length; j++) {
+                int i = pdim[j];
+                double delta = position[i] - dataset.ppmToDPoint(i, peak.getPeakDim(j).getChemShiftValue());
+                int size = dataset.getSizeReal(i);
+                if (Math.abs(delta) > size / 2.0) {
+                    delta -= Math.signum(delta) * size;
+                }
+                sumSq += delta * delta;
+            }
+            shift = Math.sqrt(sumSq);
+            if (refineWidths) {
+                widths = measureWidths(tile, regionData.getMaxPoint());
+            }
+        }
+
+        /**
+         * Measure the width at half height along each peak dimension, as the
+         * peak picker does. A width is NaN if the value doesn't fall to half
+         * height on both sides before reaching a larger value or the search
+         * limit.
+         */
+        double[] measureWidths(Tile tile, int[] maxPoint) throws IOException {
+            double[] halfWidths = new double[nDataDim];
+            Arrays.fill(halfWidths, Double.NaN);
+            double centerValue = tile.getValue(maxPoint, dim);
+            int sign = centerValue < 0.0 ? -1 : 1;
+            centerValue *= sign;
+            double halfHeightValue = centerValue / 2.0;
+            int[] checkPoint = new int[nDataDim];
+            double[] halfWidth = new double[2];
+            for (int i : pdim) {
+                int size = dataset.getSizeReal(i);
+                int maxWidth = Math.max(3, 3 * (Math.floorMod(p[i][1] - p[i][0], size) + 1));
+                boolean ok = true;
+                for (int iDir = 0; ok && (iDir < 2); iDir++) {
+                    int delta = iDir == 0 ? -1 : 1;
+                    System.arraycopy(maxPoint, 0, checkPoint, 0, nDataDim);
+                    double previousValue = centerValue;
+                    ok = false;
+                    for (int j = 1; j < maxWidth; j++) {
+                        checkPoint[i] = Math.floorMod(checkPoint[i] + delta, size);
+                        double testValue = sign * tile.getValue(checkPoint, dim);
+                        if (testValue > centerValue) {
+                            break;
+                        }
+                        if (testValue < halfHeightValue) {
+                            halfWidth[iDir] = (j - 1) + ((previousValue - halfHeightValue) / (previousValue - testValue));
+                            ok = true;
+                            break;
+                        }
+                        previousValue = testValue;
+                    }
+                }
+                if (ok) {
+                    // limit the effect of a wide side, as the peak picker does
+                    double fullWidth = halfWidth[0] + halfWidth[1];
+                    double width2 = 2.0 * Math.min(halfWidth[0], halfWidth[1]);
+                    halfWidths[i] = Math.min(fullWidth, 1.1 * width2);
+                }
+            }
+            return halfWidths;
+        }
+
+        void store() {
+            if (position == null) {
+                return;
+            }
+            for (int j = 0; j < pdim.length; j++) {
+                PeakDim peakDim = peak.getPeakDim(j);
+                if (peakDim.isFrozen()) {
+                    continue;
+                }
+                int i = pdim[j];
+                peakDim.setChemShiftValue((float) dataset.pointToPPM(i, position[i]));
+                if ((widths != null) && (widths[i] > 0.0)) {
+                    peakDim.setLineWidthValue((float) dataset.ptWidthToPPM(i, widths[i]));
+                }
+            }
+        }
+    }
+
+    /**
+     * A tile of the dataset, with the values of the points around the peaks
+     * whose center is in the tile. Points outside the buffer are read from
+     * the dataset.
+     */
+    class Tile {
+
+        final List<PeakRegion> regions = new ArrayList<>();
+        RegionBuffer buffer = null;
+
+        /**
+         * Read the points around the regions of the tile.
+         *
+         * @return false if the points are not buffered and are read from the
+         * dataset
+         */
+        boolean read() throws IOException {
+            int[] bufStart = new int[nDataDim];
+            int[] bufEnd = new int[nDataDim];
+            Arrays.fill(bufStart, Integer.MAX_VALUE);
+            Arrays.fill(bufEnd, Integer.MIN_VALUE);
+            for (PeakRegion region : regions) {
+                for (int i = 0; i < nDataDim; i++) {
+                    int start = region.p[i][0];
+                    int end = region.p[i][1];
+                    if (isPeakDim(i)) {
+                        if (end < start) {
+                            // wraps around the dataset, read directly
+                            continue;
+                        }
+                        // room for the region to move once and for measuring the width
+                        int margin = end - start + 2;
+                        start -= margin;
+                        end += margin;
+                    }
+                    bufStart[i] = Math.min(bufStart[i], Math.max(0, start));
+                    bufEnd[i] = Math.max(bufEnd[i], Math.min(dataset.getSizeReal(i) - 1, end));
+                }
+            }
+            // if every region wraps along a dimension the buffer is empty and they are all read directly
+            buffer = new RegionBuffer(dataset, dim, bufStart, bufEnd);
+            return buffer.read(MAX_BUFFER_POINTS);
+        }
+
+        double getValue(int[] points, int[] pointDim) throws IOException {
+            return buffer.readPoint(points, pointDim);
+        }
+
+        void refine() throws IOException {
+            read();
+            for (PeakRegion region : regions) {
+                try {
+                    region.refine(this);
+                } catch (IOException ex) {
+                    log.error(ex.getMessage(), ex);
+                }
+            }
+            buffer = null;
+        }
+    }
+
+    private boolean isPeakDim(int iDim) {
+        for (int pDim : pdim) {
+            if (pDim == iDim) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the size of the tiles along each dataset dimension. Along the peak
+     * dimensions tiles are the storage blocks of the dataset, split (down to
+     * MIN_TILE_SIZE points) until they are at most MAX_TILE_SIZE points so
+     * there are enough tiles to share among the threads. Tiles are one point
+     * thick along the other dimensions.
+     */
+    int[] getTileSizes() {
+        DatasetLayout layout = dataset.getLayout();
+        int[] tileSize = new int[nDataDim];
+        for (int i = 0; i < nDataDim; i++) {
+            int blockSize = (layout == null) || (layout.getBlockSize(i) < 1) ? MAX_TILE_SIZE : layout.getBlockSize(i);
+            while ((blockSize > MAX_TILE_SIZE) && (blockSize / 2 >= MIN_TILE_SIZE)) {
+                blockSize = (blockSize + 1) / 2;
+            }
+            tileSize[i] = isPeakDim(i) ? Math.max(MIN_TILE_SIZE, blockSize) : 1;
+        }
+        return tileSize;
+    }
+
+    /**
+     * Refine the peaks of the peak list.
+     *
+     * @return the convergence of each peak, the number of tiles and the
+     * elapsed time
+     */
+    public TweakStats tweak() {
+        return tweak(peakList.peaks());
+    }
+
+    /**
+     * Refine a set of peaks and store their new positions (and widths).
+     * Deleted peaks are skipped. If reading or refining a tile fails, no
+     * peaks are changed and the failure is thrown.
+     *
+     * @param peaks the peaks to refine
+     * @return the convergence of each peak, the number of tiles and the
+     * elapsed time
+     */
+    public TweakStats tweak(Collection<Peak> peaks) {
+        long startTime = System.nanoTime();
+        int[] tileSizes = getTileSizes();
+        List<PeakRegion> regions = new ArrayList<>();
+        Map<Long, Tile> tileMap = new TreeMap<>();
+        for (Peak peak : peaks) {
+            if (peak.isDeleted()) {
+                continue;
+            }
+            PeakRegion region = new PeakRegion(peak);
+            regions.add(region);
+            long key = 0;
+            long stride = 1;
+            for (int i = 0; i < nDataDim; i++) {
+                key += (region.cpt[i] / tileSizes[i]) * stride;
+                stride *= (dataset.getSizeReal(i) + tileSizes[i] - 1) / tileSizes[i];
+            }
+            tileMap.computeIfAbsent(key, k -> new Tile()).regions.add(region);
+        }
+        List<Tile> tiles = new ArrayList<>(tileMap.values());
+        runTiles(tiles);
+
+        List<TweakResult> results = new ArrayList<>(regions.size());
+        peakList.beginUpdates();
+        try {
+            for (PeakRegion region : regions) {
+                region.store();
+                results.add(new TweakResult(region.peak, region.converged, region.nIterations, region.shift));
+            }
+        } finally {
+            peakList.commitUpdates();
+        }
+        double seconds = (System.nanoTime() - startTime) / 1.0e9;
+        TweakStats stats = new TweakStats(results, tiles.size(), seconds);
+        log.info("Tweaked {} peaks in {} tiles, {} converged, in {} s", results.size(), tiles.size(),
+                stats.getNConverged(), String.format("%.3f", seconds));
+        return stats;
+    }
+
+    private void runTiles(List<Tile> tiles) {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (Tile tile : tiles) {
+            tasks.add(() -> {
+                tile.refine();
+                return null;
+            });
+        }
+        TaskRunner.run(tasks, nThreads, "Peak tweaking");
+    }
+}
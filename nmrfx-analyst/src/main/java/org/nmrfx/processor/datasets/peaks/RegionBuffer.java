@@ -0,0 +1,148 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2017 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.datasets.peaks;
+
+import org.nmrfx.processor.datasets.Dataset;
+import org.nmrfx.processor.datasets.DimCounter;
+
+import java.io.IOException;
+
+/**
+ * The values of a box of dataset points, read under the dataset lock so they
+ * can be used by one thread without it. Each row of the box (along its first
+ * dimension) is read from storage in one call to Dataset.readPoints.
+ * Points outside the box, and all points of a box that is empty or too large
+ * to buffer, are read from the dataset.
+ *
+ * @author brucejohnson
+ */
+class RegionBuffer implements Dataset.PointReader {
+
+    private final Dataset dataset;
+    private final int[] dim;
+    private final int[] bufStart;
+    private final int[] bufSize;
+    private double[] values = null;
+
+    /**
+     * Make a buffer for a box of points. The values are not read until read
+     * is called.
+     *
+     * @param dataset  the dataset
+     * @param dim      the dataset dimension of each dimension of the box
+     * @param bufStart the first point of the box, as used by Dataset.readPoint
+     * @param bufEnd   the last point of the box. If it is before the first
+     *                 point along any dimension the box is empty.
+     */
+    RegionBuffer(Dataset dataset, int[] dim, int[] bufStart, int[] bufEnd) {
+        this.dataset = dataset;
+        this.dim = dim;
+        this.bufStart = bufStart.clone();
+        bufSize = new int[bufStart.length];
+        for (int i = 0; i < bufStart.length; i++) {
+            bufSize[i] = bufEnd[i] < bufStart[i] ? 0 : bufEnd[i] - bufStart[i] + 1;
+        }
+    }
+
+    /**
+     * Read the values of the box from the dataset.
+     *
+     * @param maxPoints the largest number of points to buffer
+     * @return false if the box was empty or larger than maxPoints, so that
+     * every point is read from the dataset
+     * @throws IOException if an I/O error occurs
+     */
+    boolean read(long maxPoints) throws IOException {
+        values = null;
+        long nPoints = 1;
+        for (int size : bufSize) {
+            nPoints *= size;
+        }
+        if ((nPoints == 0) || (nPoints > maxPoints)) {
+            return false;
+        }
+        double[] bufValues = new double[(int) nPoints];
+        int nDim = bufSize.length;
+        int rowSize = bufSize[0];
+        int[] rowCounts = bufSize.clone();
+        rowCounts[0] = 1;
+        int[] points = new int[nDim];
+        points[0] = bufStart[0];
+        double[] rowValues = new double[rowSize];
+        int offset = 0;
+        synchronized (dataset) {
+            for (int[] counts : new DimCounter(rowCounts)) {
+                for (int i = 1; i < nDim; i++) {
+                    points[i] = counts[i] + bufStart[i];
+                }
+                dataset.readPoints(points, dim, rowValues);
+                System.arraycopy(rowValues, 0, bufValues, offset, rowSize);
+                offset += rowSize;
+            }
+        }
+        values = bufValues;
+        return true;
+    }
+
+    /**
+     * Drop the buffered values, so later reads go to the dataset.
+     */
+    void release() {
+        values = null;
+    }
+
+    // used for testing, to check that buffers are released
+    boolean isBuffered() {
+        return values != null;
+    }
+
+    @Override
+    public double readPoint(int[] points, int[] pointDim) throws IOException {
+        if (values != null) {
+            int offset = 0;
+            int stride = 1;
+            boolean inBuffer = true;
+            for (int i = 0; i < bufSize.length; i++) {
+                int index = points[i] - bufStart[i];
+                if ((index < 0) || (index >= bufSize[i])) {
+                    inBuffer = false;
+                    break;
+                }
+                offset += index * stride;
+                stride *= bufSize[i];
+            }
+            if (inBuffer) {
+                return values[offset];
+            }
+        }
+        synchronized (dataset) {
+            return dataset.readPoint(points, pointDim);
+        }
+    }
+
+    /**
+     * Get the value at a point, given in the dimensions of the box.
+     *
+     * @param points the point
+     * @return the value
+     * @throws IOException if an I/O error occurs
+     */
+    double readPoint(int[] points) throws IOException {
+        return readPoint(points, dim);
+    }
+}
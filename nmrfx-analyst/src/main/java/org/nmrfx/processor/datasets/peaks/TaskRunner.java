@@ -0,0 +1,91 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2017 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.datasets.peaks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Runs the tasks of a peak operation on a pool of threads that lasts for the
+ * call, or on the calling thread if there is only one thread or task. A
+ * failed task fails the whole run: a runtime exception is rethrown, an
+ * IOException is thrown as an UncheckedIOException and any other exception,
+ * or an interrupt, as an IllegalStateException.
+ *
+ * @author brucejohnson
+ */
+final class TaskRunner {
+
+    private TaskRunner() {
+    }
+
+    /**
+     * Run tasks and get their results.
+     *
+     * @param tasks    the tasks
+     * @param nThreads the largest number of threads to use
+     * @param name     the name of the operation, used in the message of an
+     *                 interrupt
+     * @param <T>      the type of the results
+     * @return the result of each task, in the order of the tasks
+     */
+    static <T> List<T> run(List<Callable<T>> tasks, int nThreads, String name) {
+        List<T> results = new ArrayList<>(tasks.size());
+        int nPoolThreads = Math.min(nThreads, tasks.size());
+        if (nPoolThreads <= 1) {
+            for (Callable<T> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch (Exception ex) {
+                    throw getFailure(ex);
+                }
+            }
+            return results;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(nPoolThreads);
+        try {
+            for (Future<T> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(name + " interrupted", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw getFailure((Exception) ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return results;
+    }
+
+    private static RuntimeException getFailure(Exception ex) {
+        if (ex instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        } else if (ex instanceof IOException ioException) {
+            return new UncheckedIOException(ioException);
+        } else {
+            return new IllegalStateException(ex);
+        }
+    }
+}
@@ -18,9 +18,6 @@
 package org.nmrfx.processor.math;
 
 import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
-import org.apache.commons.math3.transform.DftNormalization;
-import org.apache.commons.math3.transform.FastFourierTransformer;
-import org.apache.commons.math3.transform.TransformType;
 import org.apache.commons.math3.util.FastMath;
 import org.apache.commons.math3.util.MultidimensionalCounter;
 import org.nmrfx.datasets.MatrixType;
@@ -383,11 +380,11 @@ public class MatrixND implements MatrixType {
     }
 
     private void fft(double[][] riVec) {
-        FastFourierTransformer.transformInPlace(riVec, DftNormalization.STANDARD, TransformType.FORWARD);
+        SplitComplexFFT.get(riVec[0].length).forward(riVec[0], riVec[1]);
     }
 
     private void ifft(double[][] riVec) {
-        FastFourierTransformer.transformInPlace(riVec, DftNormalization.STANDARD, TransformType.INVERSE);
+        SplitComplexFFT.get(riVec[0].length).inverse(riVec[0], riVec[1]);
     }
 
     private void fftShuffle(double[][] riVec) {
@@ -0,0 +1,431 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2017 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.math;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fast Fourier Transform of complex data held in separate real and imaginary
+ * arrays. A plan is created (and cached) for each transform size. The plan
+ * holds the twiddle factors and input permutation, so transforms don't
+ * allocate any memory. Sizes that are not a power of two are handled with a
+ * mixed radix algorithm (radix 4, 2 and 3 butterflies, with a general
+ * butterfly for any larger prime factors).
+ * <p>
+ * Only the first n values of the arrays passed to the transform methods are
+ * used, so the arrays may be longer than the transform size. Plans are
+ * thread-safe, scratch space is kept per thread.
+ *
+ * @author brucejohnson
+ */
+public class SplitComplexFFT {
+
+    private static final Map<Integer, SplitComplexFFT> PLANS = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Workspace> WORKSPACE = ThreadLocal.withInitial(Workspace::new);
+    private static final double SIN_60 = Math.sqrt(3.0) / 2.0;
+
+    private final int n;
+    private final int[] factors;
+    private final int[] permutation;
+    private final double[] cosTable;
+    private final double[] sinTable;
+
+    private static class Workspace {
+        double[] re = new double[0];
+        double[] im = new double[0];
+        double[] packRe = new double[0];
+        double[] packIm = new double[0];
+        double[] tmpRe = new double[0];
+        double[] tmpIm = new double[0];
+
+        void ensure(int size) {
+            if (re.length < size) {
+                re = new double[size];
+                im = new double[size];
+            }
+        }
+
+        void ensurePack(int size) {
+            if (packRe.length < size) {
+                packRe = new double[size];
+                packIm = new double[size];
+            }
+        }
+
+        void ensureTmp(int size) {
+            if (tmpRe.length < size) {
+                tmpRe = new double[size];
+                tmpIm = new double[size];
+            }
+        }
+    }
+
+    private SplitComplexFFT(int n) {
+        this.n = n;
+        factors = factor(n);
+        permutation = new int[n];
+        for (int i = 0; i < n; i++) {
+            permutation[i] = permute(i);
+        }
+        cosTable = new double[n];
+        sinTable = new double[n];
+        for (int i = 0; i < n; i++) {
+            double theta = 2.0 * Math.PI * i / n;
+            cosTable[i] = Math.cos(theta);
+            sinTable[i] = Math.sin(theta);
+        }
+    }
+
+    /**
+     * Get the (cached) plan for transforms of the specified size.
+     *
+     * @param n the number of complex points
+     * @return the plan
+     */
+    public static SplitComplexFFT get(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("FFT size must be positive " + n);
+        }
+        return PLANS.computeIfAbsent(n, SplitComplexFFT::new);
+    }
+
+    public int getSize() {
+        return n;
+    }
+
+    static int[] factor(int n) {
+        List<Integer> factorList = new ArrayList<>();
+        int remaining = n;
+        while (remaining % 4 == 0) {
+            factorList.add(4);
+            remaining /= 4;
+        }
+        while (remaining % 2 == 0) {
+            factorList.add(2);
+            remaining /= 2;
+        }
+        for (int p = 3; p * p <= remaining; p += 2) {
+            while (remaining % p == 0) {
+                factorList.add(p);
+                remaining /= p;
+            }
+        }
+        if (remaining > 1) {
+            factorList.add(remaining);
+        }
+        return factorList.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * The input index that should be at position pos before the butterfly
+     * stages are run (the mixed radix generalization of bit reversal).
+     */
+    private int permute(int pos) {
+        int result = 0;
+        int mult = 1;
+        int size = n;
+        for (int i = factors.length - 1; i >= 0; i--) {
+            int p = factors[i];
+            int sub = size / p;
+            result += mult * (pos / sub);
+            pos %= sub;
+            mult *= p;
+            size = sub;
+        }
+        return result;
+    }
+
+    /**
+     * Forward transform (exp(-2 pi i j k / n)), without normalization.
+     *
+     * @param re real values, replaced by the real values of the transform
+     * @param im imaginary values, replaced by the imaginary values of the
+     *           transform
+     */
+    public void forward(double[] re, double[] im) {
+        Workspace work = WORKSPACE.get();
+        transform(work, re, im);
+        System.arraycopy(work.re, 0, re, 0, n);
+        System.arraycopy(work.im, 0, im, 0, n);
+    }
+
+    /**
+     * Inverse transform (exp(2 pi i j k / n)), scaled by 1/n so it is the
+     * inverse of {@link #forward}.
+     *
+     * @param re real values, replaced by the real values of the transform
+     * @param im imaginary values, replaced by the imaginary values of the
+     *           transform
+     */
+    public void inverse(double[] re, double[] im) {
+        Workspace work = WORKSPACE.get();
+        conjugate(im);
+        transform(work, re, im);
+        double scale = 1.0 / n;
+        for (int i = 0; i < n; i++) {
+            re[i] = work.re[i] * scale;
+            im[i] = -work.im[i] * scale;
+        }
+    }
+
+    /**
+     * Forward transform with the zero frequency moved to the center of the
+     * result (as done by {@link Cfft#cfft} and {@link Vec#apache_fft}).
+     *
+     * @param re real values, replaced by the real values of the transform
+     * @param im imaginary values, replaced by the imaginary values of the
+     *           transform
+     */
+    public void forwardShifted(double[] re, double[] im) {
+        Workspace work = WORKSPACE.get();
+        transform(work, re, im);
+        int shift = n / 2;
+        int nFirst = n - shift;
+        System.arraycopy(work.re, 0, re, shift, nFirst);
+        System.arraycopy(work.im, 0, im, shift, nFirst);
+        System.arraycopy(work.re, nFirst, re, 0, shift);
+        System.arraycopy(work.im, nFirst, im, 0, shift);
+    }
+
+    /**
+     * Inverse of {@link #forwardShifted}: the input has the zero frequency at
+     * the center and the result is scaled by 1/n.
+     *
+     * @param re real values, replaced by the real values of the transform
+     * @param im imaginary values, replaced by the imaginary values of the
+     *           transform
+     */
+    public void inverseShifted(double[] re, double[] im) {
+        Workspace work = WORKSPACE.get();
+        work.ensurePack(n);
+        int shift = n / 2;
+        int nFirst = n - shift;
+        System.arraycopy(re, shift, work.packRe, 0, nFirst);
+        System.arraycopy(im, shift, work.packIm, 0, nFirst);
+        System.arraycopy(re, 0, work.packRe, nFirst, shift);
+        System.arraycopy(im, 0, work.packIm, nFirst, shift);
+        conjugate(work.packIm);
+        transform(work, work.packRe, work.packIm);
+        double scale = 1.0 / n;
+        for (int i = 0; i < n; i++) {
+            re[i] = work.re[i] * scale;
+            im[i] = -work.im[i] * scale;
+        }
+    }
+
+    /**
+     * Forward transform of real data. The n real values are taken from re and
+     * the first n/2 complex values of the transform (the remainder are their
+     * complex conjugates) are returned in re and im. Even sizes are done with
+     * a complex transform of half the size.
+     *
+     * @param re real input values, replaced by the real values of the
+     *           transform
+     * @param im replaced by the imaginary values of the transform
+     */
+    public void realForward(double[] re, double[] im) {
+        Workspace work = WORKSPACE.get();
+        int half = n / 2;
+        work.ensurePack(n);
+        if ((n % 2 != 0) || (half < 2)) {
+            System.arraycopy(re, 0, work.packRe, 0, n);
+            Arrays.fill(work.packIm, 0, n, 0.0);
+            transform(work, work.packRe, work.packIm);
+            System.arraycopy(work.re, 0, re, 0, half);
+            System.arraycopy(work.im, 0, im, 0, half);
+            return;
+        }
+        for (int i = 0; i < half; i++) {
+            work.packRe[i] = re[2 * i];
+            work.packIm[i] = re[2 * i + 1];
+        }
+        SplitComplexFFT halfPlan = get(half);
+        halfPlan.transform(work, work.packRe, work.packIm);
+        double[] zr = work.re;
+        double[] zi = work.im;
+        for (int k = 0; k < half; k++) {
+            int kc = k == 0 ? 0 : half - k;
+            double er = 0.5 * (zr[k] + zr[kc]);
+            double ei = 0.5 * (zi[k] - zi[kc]);
+            double or = 0.5 * (zi[k] + zi[kc]);
+            double oi = -0.5 * (zr[k] - zr[kc]);
+            double c = cosTable[k];
+            double s = sinTable[k];
+            re[k] = er + c * or + s * oi;
+            im[k] = ei + c * oi - s * or;
+        }
+    }
+
+    private void conjugate(double[] im) {
+        for (int i = 0; i < n; i++) {
+            im[i] = -im[i];
+        }
+    }
+
+    /**
+     * Forward transform of the first n values of re and im. The input arrays
+     * are unchanged and the result is left in the workspace arrays.
+     */
+    private void transform(Workspace work, double[] re, double[] im) {
+        work.ensure(n);
+        double[] xr = work.re;
+        double[] xi = work.im;
+        for (int i = 0; i < n; i++) {
+            int j = permutation[i];
+            xr[i] = re[j];
+            xi[i] = im[j];
+        }
+        int stride = 1;
+        for (int p : factors) {
+            switch (p) {
+                case 2 -> radix2(xr, xi, stride);
+                case 3 -> radix3(xr, xi, stride);
+                case 4 -> radix4(xr, xi, stride);
+                default -> radixN(work, xr, xi, stride, p);
+            }
+            stride *= p;
+        }
+    }
+
+    private void radix2(double[] xr, double[] xi, int stride) {
+        int span = stride * 2;
+        int twStep = n / span;
+        for (int j = 0; j < stride; j++) {
+            double c = cosTable[j * twStep];
+            double s = -sinTable[j * twStep];
+            for (int k0 = j; k0 < n; k0 += span) {
+                int k1 = k0 + stride;
+                double tr = c * xr[k1] - s * xi[k1];
+                double ti = c * xi[k1] + s * xr[k1];
+                xr[k1] = xr[k0] - tr;
+                xi[k1] = xi[k0] - ti;
+                xr[k0] += tr;
+                xi[k0] += ti;
+            }
+        }
+    }
+
+    private void radix3(double[] xr, double[] xi, int stride) {
+        int span = stride * 3;
+        int twStep = n / span;
+        for (int j = 0; j < stride; j++) {
+            double c1 = cosTable[j * twStep];
+            double s1 = -sinTable[j * twStep];
+            double c2 = cosTable[2 * j * twStep];
+            double s2 = -sinTable[2 * j * twStep];
+            for (int k0 = j; k0 < n; k0 += span) {
+                int k1 = k0 + stride;
+                int k2 = k1 + stride;
+                double a1r = c1 * xr[k1] - s1 * xi[k1];
+                double a1i = c1 * xi[k1] + s1 * xr[k1];
+                double a2r = c2 * xr[k2] - s2 * xi[k2];
+                double a2i = c2 * xi[k2] + s2 * xr[k2];
+                double tr = a1r + a2r;
+                double ti = a1i + a2i;
+                double dr = SIN_60 * (a1r - a2r);
+                double di = SIN_60 * (a1i - a2i);
+                double mr = xr[k0] - 0.5 * tr;
+                double mi = xi[k0] - 0.5 * ti;
+                xr[k0] += tr;
+                xi[k0] += ti;
+                xr[k1] = mr + di;
+                xi[k1] = mi - dr;
+                xr[k2] = mr - di;
+                xi[k2] = mi + dr;
+            }
+        }
+    }
+
+    private void radix4(double[] xr, double[] xi, int stride) {
+        int span = stride * 4;
+        int twStep = n / span;
+        for (int j = 0; j < stride; j++) {
+            double c1 = cosTable[j * twStep];
+            double s1 = -sinTable[j * twStep];
+            double c2 = cosTable[2 * j * twStep];
+            double s2 = -sinTable[2 * j * twStep];
+            double c3 = cosTable[3 * j * twStep];
+            double s3 = -sinTable[3 * j * twStep];
+            for (int k0 = j; k0 < n; k0 += span) {
+                int k1 = k0 + stride;
+                int k2 = k1 + stride;
+                int k3 = k2 + stride;
+                double a1r = c1 * xr[k1] - s1 * xi[k1];
+                double a1i = c1 * xi[k1] + s1 * xr[k1];
+                double a2r = c2 * xr[k2] - s2 * xi[k2];
+                double a2i = c2 * xi[k2] + s2 * xr[k2];
+                double a3r = c3 * xr[k3] - s3 * xi[k3];
+                double a3i = c3 * xi[k3] + s3 * xr[k3];
+                double t0r = xr[k0] + a2r;
+                double t0i = xi[k0] + a2i;
+                double t1r = xr[k0] - a2r;
+                double t1i = xi[k0] - a2i;
+                double t2r = a1r + a3r;
+                double t2i = a1i + a3i;
+                double t3r = a1r - a3r;
+                double t3i = a1i - a3i;
+                xr[k0] = t0r + t2r;
+                xi[k0] = t0i + t2i;
+                xr[k2] = t0r - t2r;
+                xi[k2] = t0i - t2i;
+                xr[k1] = t1r + t3i;
+                xi[k1] = t1i - t3r;
+                xr[k3] = t1r - t3i;
+                xi[k3] = t1i + t3r;
+            }
+        }
+    }
+
+    private void radixN(Workspace work, double[] xr, double[] xi, int stride, int p) {
+        work.ensureTmp(p);
+        double[] ar = work.tmpRe;
+        double[] ai = work.tmpIm;
+        int span = stride * p;
+        int twStep = n / span;
+        int rootStep = n / p;
+        for (int j = 0; j < stride; j++) {
+            for (int k0 = j; k0 < n; k0 += span) {
+                for (int q = 0; q < p; q++) {
+                    int k = k0 + q * stride;
+                    int tw = q * j * twStep;
+                    double c = cosTable[tw];
+                    double s = -sinTable[tw];
+                    ar[q] = c * xr[k] - s * xi[k];
+                    ai[q] = c * xi[k] + s * xr[k];
+                }
+                for (int m = 0; m < p; m++) {
+                    double sumR = 0.0;
+                    double sumI = 0.0;
+                    for (int q = 0; q < p; q++) {
+                        int tw = ((q * m) % p) * rootStep;
+                        double c = cosTable[tw];
+                        double s = -sinTable[tw];
+                        sumR += c * ar[q] - s * ai[q];
+                        sumI += c * ai[q] + s * ar[q];
+                    }
+                    xr[k0 + m * stride] = sumR;
+                    xi[k0 + m * stride] = sumI;
+                }
+            }
+        }
+    }
+}
@@ -94,6 +94,12 @@ public class Vec extends VecBase {
      */
     public SampleSchedule schedule = null;
 
+    /**
+     * The pool this vector was obtained from, or null if it isn't pooled (or
+     * has already been returned to its pool).
+     */
+    VecPool pool = null;
+
     public Vec(int size) {
         super(size, VTYPE);
     }
@@ -110,6 +116,29 @@ public class Vec extends VecBase {
         super(size, pt, dim, complex);
     }
 
+    @Override
+    public void reset(int newSize, int[][] newPt, int[] newDim, boolean complex) {
+        super.reset(newSize, newPt, newDim, complex);
+        annotationData = null;
+        schedule = null;
+    }
+
+    /**
+     * Return this vector to the pool it was obtained from, so it can be reused.
+     * Does nothing if the vector didn't come from a pool. The vector must not
+     * be used after it is recycled.
+     *
+     * @return true if the vector was returned to a pool
+     */
+    public boolean recycle() {
+        VecPool vecPool = pool;
+        if (vecPool != null) {
+            pool = null;
+            return vecPool.release(this);
+        }
+        return false;
+    }
+
     /**
      * Create a real vector.
      *
@@ -656,6 +685,7 @@ public class Vec extends VecBase {
      */
     public Vec apache_fft(final boolean negate) {
         if (isComplex()) {
+            makeApache();
             checkPowerOf2();
             Complex[] ftvec = new Complex[size];
             if (negate) {
@@ -696,6 +726,7 @@ public class Vec extends VecBase {
      */
     public Vec apache_ift() {
         if (isComplex()) {
+            makeApache();
             checkPowerOf2();
             Complex[] ftvec = new Complex[size];
             System.arraycopy(cvec, 0, ftvec, 0, size);
@@ -1067,23 +1098,15 @@ public class Vec extends VecBase {
      */
     public void fft(boolean negatePairs, boolean negateImaginary, boolean fixGroupDelay) {
         if (isComplex()) {
-            if (!useApache()) {
-                makeApache();
-            }
+            makeNotApache();
             if (negatePairs) {
                 negatePairs();
             }
             checkPowerOf2();
-            Complex[] ftvector = new Complex[getSize()];
             if (negateImaginary) {
-                for (int i = 0; i < getSize(); i++) {
-                    ftvector[i] = new Complex(cvec[i].getReal(), -cvec[i].getImaginary());
-                }
-            } else {
-                System.arraycopy(cvec, 0, ftvector, 0, getSize());
+                negateImaginary();
             }
-            Complex[] ftResult = apache_fft(ftvector);
-            System.arraycopy(ftResult, 0, cvec, 0, getSize());
+            SplitComplexFFT.get(size).forwardShifted(rvec, ivec);
             setFreqDomain(true);
             if (fixGroupDelay) {
                 fixGroupDelay();
@@ -1107,20 +1130,11 @@ public class Vec extends VecBase {
      */
     public void ifft(boolean negatePairs, boolean negateImaginary) {
         if (isComplex()) {
-            if (!useApache()) {
-                makeApache();
-            }
+            makeNotApache();
             checkPowerOf2();
-            Complex[] ftvector = new Complex[getSize()];
-            System.arraycopy(cvec, 0, ftvector, 0, getSize());
-            Complex[] ftResult = apache_ift(ftvector);
-
+            SplitComplexFFT.get(size).inverseShifted(rvec, ivec);
             if (negateImaginary) {
-                for (int i = 0; i < getSize(); i++) {
-                    cvec[i] = new Complex(ftResult[i].getReal(), -ftResult[i].getImaginary());
-                }
-            } else {
-                System.arraycopy(ftResult, 0, cvec, 0, getSize());
+                negateImaginary();
             }
 
             setFreqDomain(false);
@@ -1133,14 +1147,13 @@ public class Vec extends VecBase {
     }
 
     /**
-     *
+     * Fast Fourier Transform of this vector. Unlike {@link #fft()} the vector
+     * is not zero filled to a power of 2 size.
      */
     public void ft() {
         if (isComplex) {
-            if (!useApache) {
-                makeApache();
-            }
-            Cfft.cfft(cvec, size, 0);
+            makeNotApache();
+            SplitComplexFFT.get(size).forwardShifted(rvec, ivec);
             freqDomain = true;
         }
     }
@@ -1167,29 +1180,17 @@ public class Vec extends VecBase {
     public void rft(boolean inverse, boolean negatePairs, boolean negateOdd) {
         if (!isComplex) {
             checkPowerOf2();
-            double[] ftvec = new double[size];
             if (negatePairs) {
                 negatePairs();
             }
             if (negateOdd) {
                 negateImaginary();
             }
-            System.arraycopy(rvec, 0, ftvec, 0, size);
-
-            Complex[] ftResult = apache_rfft(ftvec);
-
+            int ftSize = size;
+            makeNotApache();
             makeComplex();
-
-            int newSize = ftResult.length / 2;
-            resize(newSize, true);
-            if (useApache) {
-                System.arraycopy(ftResult, 0, cvec, 0, newSize);
-            } else {
-                for (int i = 0; i < size; ++i) {
-                    rvec[i] = ftResult[i].getReal();
-                    ivec[i] = ftResult[i].getImaginary();
-                }
-            }
+            SplitComplexFFT.get(ftSize).realForward(rvec, ivec);
+            resize(ftSize / 2, true);
             freqDomain = true;
         }
     }
@@ -1224,17 +1225,16 @@ public class Vec extends VecBase {
         resize(newSize);
 
         scale(2.0);
+        makeNotApache();
         makeComplex();
-        makeApache();
 
         ifft();
-        set(0, new Complex(getReal(0) / 2, getImag(0)));
+        rvec[0] /= 2;
 
         int osize2 = size / 2;
 
-        for (int i = osize2; i < size; i++) {
-            set(i, Complex.ZERO);
-        }
+        Arrays.fill(rvec, osize2, size, 0.0);
+        Arrays.fill(ivec, osize2, size, 0.0);
 
         fft();
         resize(origSize);
@@ -1375,11 +1375,8 @@ public class Vec extends VecBase {
      */
     public void ift() {
         if (isComplex) {
-            if (!useApache) {
-                makeApache();
-            }
-
-            Cfft.ift(cvec, size);
+            makeNotApache();
+            SplitComplexFFT.get(size).inverseShifted(rvec, ivec);
             freqDomain = false;
         }
     }
@@ -2402,9 +2399,10 @@ public class Vec extends VecBase {
         double xval;
         int nRegions;
 
-        if (cvec == null) {
-            throw new VecException("tdpoly: no data in vector");
+        if (!isComplex) {
+            throw new VecException("tdpoly: no complex data in vector");
         }
+        makeApache();
 
         m = size;
 
@@ -2948,7 +2946,7 @@ public class Vec extends VecBase {
      */
     public Vec cwtd(int winSize) {
         if (isComplex()) {
-            // fixme check for apache mode
+            makeApache();
             cwtd(cvec, size, winSize);
         } else {
             cwtd(rvec, size, winSize);
@@ -55,6 +55,7 @@ public class VecConverters {
         boolean real = true;
         if (isComplex) {
             resize(nBytes / 8, isComplex);
+            vec.makeApache();
         } else {
             resize(nBytes / 4, isComplex);
         }
@@ -112,6 +113,7 @@ public class VecConverters {
 
         if (isComplex) {
             resize(nBytes / 4, isComplex);
+            vec.makeApache();
         } else {
             resize(nBytes / 2, isComplex);
         }
@@ -153,6 +155,7 @@ public class VecConverters {
 
         if (isComplex) {
             resize(nBytes / 16, isComplex);
+            vec.makeApache();
         } else {
             resize(nBytes / 8, isComplex);
         }
@@ -86,6 +86,7 @@ public class VecIO {
                 vec.rvec[i] = rList.get(i);
             }
         } else {
+            vec.makeApache();
             for (int i = 0; i < n; i++) {
                 double real = rList.get(i);
                 double imag = iList.get(i);
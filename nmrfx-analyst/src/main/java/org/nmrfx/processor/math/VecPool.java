@@ -0,0 +1,110 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2017 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.math;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of vectors that can be reused instead of allocating new ones. Vectors
+ * are taken from the pool by one thread, but may be returned (with
+ * {@link Vec#recycle()}) by any thread, for example after they have been
+ * written to a dataset.
+ *
+ * @author brucejohnson
+ */
+public class VecPool {
+
+    private final Queue<Vec> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger nFree = new AtomicInteger(0);
+    private final AtomicLong nAllocated = new AtomicLong(0);
+    private final AtomicLong nReused = new AtomicLong(0);
+    private final int maxFree;
+
+    /**
+     * Create a pool.
+     *
+     * @param maxFree the maximum number of unused vectors to hold on to
+     */
+    public VecPool(int maxFree) {
+        this.maxFree = maxFree;
+    }
+
+    /**
+     * Get a vector with the specified size, complex mode and dataset
+     * location. The vector is in the same state as one created with
+     * {@link Vec#Vec(int, int[][], int[], boolean)}.
+     *
+     * @param size    Size of vector.
+     * @param pt      dataset location (may be null)
+     * @param dim     dataset dimensions (may be null)
+     * @param complex true if vector stores complex data
+     * @return the vector
+     */
+    public Vec get(int size, int[][] pt, int[] dim, boolean complex) {
+        Vec vec = free.poll();
+        if (vec == null) {
+            vec = pt == null ? new Vec(size, complex) : new Vec(size, pt, dim, complex);
+            nAllocated.incrementAndGet();
+        } else {
+            nFree.decrementAndGet();
+            vec.reset(size, pt, dim, complex);
+            nReused.incrementAndGet();
+        }
+        vec.pool = this;
+        return vec;
+    }
+
+    boolean release(Vec vec) {
+        if (nFree.incrementAndGet() > maxFree) {
+            nFree.decrementAndGet();
+            return false;
+        }
+        free.add(vec);
+        return true;
+    }
+
+    /**
+     * Discard all unused vectors held by the pool.
+     */
+    public void clear() {
+        while (free.poll() != null) {
+            nFree.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the number of vectors that had to be allocated
+     */
+    public long getAllocated() {
+        return nAllocated.get();
+    }
+
+    /**
+     * @return the number of times a vector was reused instead of allocated
+     */
+    public long getReused() {
+        return nReused.get();
+    }
+
+    public int getFree() {
+        return nFree.get();
+    }
+}
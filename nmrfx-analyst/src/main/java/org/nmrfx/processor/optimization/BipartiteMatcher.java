@@ -39,8 +39,10 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
 
 /**
@@ -73,6 +75,12 @@ import java.util.StringTokenizer;
  * behave as if that edge were not in the graph. If all the edges incident on a
  * given node have weight Double.NEGATIVE_INFINITY, then the final result will
  * not be a perfect matching, and an exception will be thrown.
+ * <p>
+ * With HashMap storage (see reset) only the edges that were set are stored,
+ * the others have weight Double.NEGATIVE_INFINITY, and the matching is found
+ * by shortest augmenting paths over the stored edges. Sparse graphs, such as
+ * those of peaks within a tolerance of each other, can then be matched for n
+ * much larger than would fit an n x n array.
  */
 public class BipartiteMatcher {
 
@@ -115,7 +123,7 @@ public class BipartiteMatcher {
             weights = null;
             hashedWeights = new HashMap[n];
             for (int i = 0; i < n; i++) {
-                hashedWeights[i] = new HashMap();
+                hashedWeights[i] = new HashMap<>();
             }
         } else {
             weights = new double[n][n];
@@ -178,7 +186,7 @@ public class BipartiteMatcher {
     public double getWeight(int i, int j) {
         double weight = Double.NEGATIVE_INFINITY;
         if (useHashMap) {
-            Double weightObj = (Double) hashedWeights[i].get(j);
+            Double weightObj = hashedWeights[i].get(j);
             if (weightObj != null) {
                 weight = weightObj;
             }
@@ -223,6 +231,10 @@ public class BipartiteMatcher {
             return new int[0];
         }
         ensurePositiveWeights();
+        if (useHashMap) {
+            setupRows();
+            return getSparseMatching();
+        }
 
         // Step 0: Initialization
         eligibleS.clear();
@@ -303,6 +315,204 @@ public class BipartiteMatcher {
         return matching;
     }
 
+    /**
+     * Finds the matching by successive shortest augmenting paths over the
+     * stored edges (the Hungarian method in the form of Jonker and Volgenant).
+     * The sources are added one at a time, each by the shortest path, in
+     * reduced cost, to a free target or to a slack target of its own that
+     * stands for leaving it unmatched. Costs are the negated weights and the
+     * slack has cost 0, so this is the same maximum-weight matching that
+     * getMatching gives with an n x n array. Paths are found with Dijkstra's
+     * algorithm and only the nodes it settles have their dual variables
+     * changed, so adding a source takes time that depends on the edges near it
+     * rather than on n.
+     */
+    private int[] getSparseMatching() {
+        // targets n to 2n - 1 are the slacks, target n + i only has an edge from source i
+        int nTargets = 2 * n;
+        double[] sourceDuals = new double[n];
+        double[] targetDuals = new double[nTargets];
+        int[] sourceMatches = new int[n];
+        int[] targetMatches = new int[nTargets];
+        Arrays.fill(sourceMatches, -1);
+        Arrays.fill(targetMatches, -1);
+        // reduced costs, cost - u[i] - v[j], start at zero or more
+        for (int i = 0; i < n; i++) {
+            double maxRowWeight = 0.0;
+            for (int k = rowStarts[i]; k < rowStarts[i + 1]; k++) {
+                maxRowWeight = Math.max(maxRowWeight, rowWeights[k]);
+            }
+            sourceDuals[i] = -maxRowWeight;
+        }
+        double[] dist = new double[nTargets];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        int[] pred = new int[nTargets];
+        boolean[] settled = new boolean[nTargets];
+        int[] touched = new int[nTargets];
+        int[] settledList = new int[nTargets];
+        TargetHeap heap = new TargetHeap();
+
+        for (int i0 = 0; i0 < n; i0++) {
+            if (rowStarts[i0] == rowStarts[i0 + 1]) {
+                continue;
+            }
+            int nTouched = 0;
+            int nSettled = 0;
+            heap.clear();
+            int source = i0;
+            double sourceDist = 0.0;
+            int freeTarget = -1;
+            while (true) {
+                // relax the edges of the source, and the edge to its slack
+                for (int k = rowStarts[source]; k <= rowStarts[source + 1]; k++) {
+                    int j;
+                    double cost;
+                    if (k < rowStarts[source + 1]) {
+                        j = rowCols[k];
+                        cost = -rowWeights[k];
+                    } else {
+                        j = n + source;
+                        cost = 0.0;
+                    }
+                    if (settled[j]) {
+                        continue;
+                    }
+                    double reducedCost = Math.max(0.0, cost - sourceDuals[source] - targetDuals[j]);
+                    double newDist = sourceDist + reducedCost;
+                    if (newDist < dist[j]) {
+                        if (dist[j] == Double.POSITIVE_INFINITY) {
+                            touched[nTouched++] = j;
+                        }
+                        dist[j] = newDist;
+                        pred[j] = source;
+                        heap.add(newDist, j);
+                    }
+                }
+                int j = -1;
+                while (!heap.isEmpty()) {
+                    double d = heap.peekDist();
+                    int jHeap = heap.poll();
+                    if (!settled[jHeap] && (d == dist[jHeap])) {
+                        j = jHeap;
+                        break;
+                    }
+                }
+                // the slack of i0 is always reachable, so this doesn't happen
+                if (j == -1) {
+                    break;
+                }
+                settled[j] = true;
+                settledList[nSettled++] = j;
+                if (targetMatches[j] == -1) {
+                    freeTarget = j;
+                    break;
+                }
+                source = targetMatches[j];
+                sourceDist = dist[j];
+            }
+            if (freeTarget != -1) {
+                double pathDist = dist[freeTarget];
+                sourceDuals[i0] += pathDist;
+                for (int s = 0; s < nSettled; s++) {
+                    int j = settledList[s];
+                    double delta = pathDist - dist[j];
+                    targetDuals[j] -= delta;
+                    if (targetMatches[j] != -1) {
+                        sourceDuals[targetMatches[j]] += delta;
+                    }
+                }
+                int j = freeTarget;
+                while (true) {
+                    int i = pred[j];
+                    int next = sourceMatches[i];
+                    sourceMatches[i] = j;
+                    targetMatches[j] = i;
+                    if (i == i0) {
+                        break;
+                    }
+                    j = next;
+                }
+            }
+            for (int t = 0; t < nTouched; t++) {
+                dist[touched[t]] = Double.POSITIVE_INFINITY;
+                settled[touched[t]] = false;
+            }
+        }
+        int[] matching = new int[n];
+        for (int i = 0; i < n; i++) {
+            matching[i] = sourceMatches[i] < n ? sourceMatches[i] : -1;
+        }
+        return matching;
+    }
+
+    /**
+     * Binary min-heap of targets keyed by distance. Entries aren't removed
+     * when a distance decreases, so stale entries are skipped when polled.
+     */
+    private static class TargetHeap {
+
+        private double[] dists = new double[64];
+        private int[] targets = new int[64];
+        private int size = 0;
+
+        void clear() {
+            size = 0;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        double peekDist() {
+            return dists[0];
+        }
+
+        void add(double dist, int target) {
+            if (size == dists.length) {
+                dists = Arrays.copyOf(dists, size * 2);
+                targets = Arrays.copyOf(targets, size * 2);
+            }
+            int pos = size++;
+            while (pos > 0) {
+                int parent = (pos - 1) >> 1;
+                if (dists[parent] <= dist) {
+                    break;
+                }
+                dists[pos] = dists[parent];
+                targets[pos] = targets[parent];
+                pos = parent;
+            }
+            dists[pos] = dist;
+            targets[pos] = target;
+        }
+
+        int poll() {
+            int result = targets[0];
+            size--;
+            double dist = dists[size];
+            int target = targets[size];
+            int pos = 0;
+            while (true) {
+                int child = 2 * pos + 1;
+                if (child >= size) {
+                    break;
+                }
+                if ((child + 1 < size) && (dists[child + 1] < dists[child])) {
+                    child++;
+                }
+                if (dists[child] >= dist) {
+                    break;
+                }
+                dists[pos] = dists[child];
+                targets[pos] = targets[child];
+                pos = child;
+            }
+            dists[pos] = dist;
+            targets[pos] = target;
+            return result;
+        }
+    }
+
     /**
      * Tries to find an augmenting path containing only edges (i,j) for which
      * u[i] + v[j] = weights[i][j]. If it succeeds, returns the index of the
@@ -349,6 +559,35 @@ public class BipartiteMatcher {
         return -1;
     }
 
+    /**
+     * Copies the stored edges of each source into arrays, in order of
+     * increasing target.
+     */
+    private void setupRows() {
+        int nEdges = 0;
+        for (int i = 0; i < n; i++) {
+            nEdges += hashedWeights[i].size();
+        }
+        rowStarts = new int[n + 1];
+        rowCols = new int[nEdges];
+        rowWeights = new double[nEdges];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            rowStarts[i] = k;
+            int start = k;
+            for (Map.Entry<Integer, Double> entry : hashedWeights[i].entrySet()) {
+                if (entry.getValue() != Double.NEGATIVE_INFINITY) {
+                    rowCols[k++] = entry.getKey();
+                }
+            }
+            Arrays.sort(rowCols, start, k);
+            for (int m = start; m < k; m++) {
+                rowWeights[m] = hashedWeights[i].get(rowCols[m]);
+            }
+        }
+        rowStarts[n] = k;
+    }
+
     /**
      * Given an augmenting path ending at lastNode, "flips" the path. This means
      * that an edge on the path is in the matching after the flip if and only if
@@ -399,6 +638,15 @@ public class BipartiteMatcher {
     private void ensurePositiveWeights() {
         // minWeight is the minimum non-infinite weight
         if (minWeight < TOL) {
+            if (useHashMap) {
+                for (int i = 0; i < n; i++) {
+                    hashedWeights[i].replaceAll((j, weight) -> weight == Double.NEGATIVE_INFINITY
+                            ? weight : weight - minWeight + 1);
+                }
+                maxWeight = maxWeight - minWeight + 1;
+                minWeight = 1;
+                return;
+            }
             for (int i = 0; i < n; i++) {
                 for (int j = 0; j < n; j++) {
                     double weight = getWeight(i, j);
@@ -430,7 +678,11 @@ public class BipartiteMatcher {
     private static final double TOL = 1e-10;
     int n;
     double[][] weights;
-    HashMap[] hashedWeights;
+    HashMap<Integer, Double>[] hashedWeights;
+    // the edges of source i are rowCols[k], rowWeights[k] for k from rowStarts[i] to rowStarts[i + 1]
+    int[] rowStarts;
+    int[] rowCols;
+    double[] rowWeights;
     double minWeight;
     double maxWeight;
     boolean useHashMap = false;
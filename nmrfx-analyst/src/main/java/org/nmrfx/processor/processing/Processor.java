@@ -34,8 +34,10 @@ import org.nmrfx.processor.events.DatasetSavedEvent;
 import org.nmrfx.processor.math.Matrix;
 import org.nmrfx.processor.math.MatrixND;
 import org.nmrfx.processor.math.Vec;
+import org.nmrfx.processor.math.VecPool;
 import org.nmrfx.processor.operations.Invertible;
 import org.nmrfx.processor.operations.Operation;
+import org.nmrfx.processor.operations.PythonScript;
 import org.nmrfx.processor.processing.processes.IncompleteProcessException;
 import org.nmrfx.processor.processing.processes.ProcessOps;
 import org.nmrfx.utilities.ProgressUpdater;
@@ -52,6 +54,7 @@ import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -225,6 +228,18 @@ public class Processor {
     private double elapsedTime = 0.0;
 
     MatrixTypeService datasetWriter;
+    private MatrixTypeService.IOStats lastIOStats = null;
+    /**
+     * Vectors read from the input are taken from a pool belonging to the
+     * reading thread and returned to it once they've been written. The pools
+     * only last for one run.
+     */
+    private boolean useVecPool = true;
+    private volatile boolean recycleVectors = false;
+    private final List<VecPool> vecPools = new CopyOnWriteArrayList<>();
+    private ThreadLocal<VecPool> threadVecPool = ThreadLocal.withInitial(this::newVecPool);
+    private long lastVecsAllocated = 0;
+    private long lastVecsReused = 0;
 
     LineShapeCatalog simVecProcessor = null;
 
@@ -838,6 +853,8 @@ public class Processor {
             complex[i] = nmrData.isComplex(i);
         }
         tmult = null;
+        // getIndirectSizes falls back to this until the direct dimension is set up
+        itemsToWrite = 0;
     }
 
     /**
@@ -1133,23 +1150,12 @@ public class Processor {
 
     public List<Vec> getNextVectors() {
         if (useIOController) {
-            while (true) {
-                if (datasetWriter.finished()) {
-                    return Collections.EMPTY_LIST;
-                } else if (datasetWriter.hasError()) {
-                    throw new ProcessingException("Error processing");
-                } else {
-                    List<MatrixType> matrixTypes = datasetWriter.getItemsFromUnprocessedList(100);
-                    if (matrixTypes != null) {
-                        int nRead = vectorsRead.addAndGet(matrixTypes.size());
-                        List<Vec> vecs = new ArrayList<>();
-                        for (MatrixType mat : matrixTypes) {
-                            vecs.add((Vec) mat);
-                        }
-                        return vecs;
-                    }
-                }
+            List<MatrixType> matrixTypes = getNextItems();
+            List<Vec> vecs = new ArrayList<>();
+            for (MatrixType mat : matrixTypes) {
+                vecs.add((Vec) mat);
             }
+            return vecs;
         } else {
             return getVectorsFromFile();
         }
@@ -1157,24 +1163,28 @@ public class Processor {
 
     public MatrixType getNextMatrix() {
         if (useIOController) {
-            while (true) {
-                if (datasetWriter.finished()) {
-                    return null;
-                } else if (datasetWriter.hasError()) {
-                    throw new ProcessingException("Error processing");
-                } else {
-                    List<MatrixType> matrixTypes = datasetWriter.getItemsFromUnprocessedList(100);
-                    if (matrixTypes != null) {
-                        int nRead = vectorsRead.addAndGet(matrixTypes.size());
-                        return matrixTypes.get(0);
-                    }
-                }
-            }
+            List<MatrixType> matrixTypes = getNextItems();
+            return matrixTypes.isEmpty() ? null : matrixTypes.get(0);
         } else {
             return getMatrixFromFile();
         }
     }
 
+    /**
+     * Take the next items prefetched by the reader threads, blocking until
+     * they're available.
+     *
+     * @return the items, or an empty list if there are no more items
+     */
+    private List<MatrixType> getNextItems() {
+        List<MatrixType> matrixTypes = datasetWriter.getItemsFromUnprocessedList();
+        if (matrixTypes.isEmpty() && datasetWriter.hasError()) {
+            throw new ProcessingException("Error processing");
+        }
+        vectorsRead.addAndGet(matrixTypes.size());
+        return matrixTypes;
+    }
+
     public List<MatrixType> getMatrixTypesFromFile() {
         List<MatrixType> mats = new ArrayList<>();
         if (matrixMode.get()) {
@@ -1195,78 +1205,101 @@ public class Processor {
      *
      * @return ArrayList of Vecs from the dataset.
      */
-    public synchronized List<Vec> getVectorsFromFile() {
-        Vec temp;
-        ArrayList<Vec> vectors = new ArrayList<>();
+    public List<Vec> getVectorsFromFile() {
+        if (nvDataset) {
+            return getVectorsFromDataset();
+        } else {
+            return getVectorsFromFID();
+        }
+    }
 
-// pt[][] : coordinates in data matrix
-// pt[0][0] to pt[0][1] is start/end coords for vec column
-// pt[1][0] to pt[1][1] is start/end coords for orthogonal row
-        if (nvDataset) {  // indirect dimensions
-            int[][] pt;
+    /**
+     * Gets the next 'vectorsPerProcess' Vecs from the dataset being processed.
+     * The positions of the vectors are taken from the scan region while holding
+     * the lock, but the data is read outside it, so several threads can read
+     * from the dataset at once.
+     *
+     * @return List of Vecs from the dataset.
+     */
+    private List<Vec> getVectorsFromDataset() {
+        // pt[][] : coordinates in data matrix
+        // pt[0][0] to pt[0][1] is start/end coords for vec column
+        // pt[1][0] to pt[1][1] is start/end coords for orthogonal row
+        List<int[][]> pts = new ArrayList<>();
+        synchronized (this) {
             if (endOfFile.get()) {
-                return vectors;
+                return new ArrayList<>();
             }
             for (int i = 0; i < vectorsPerProcess; ++i) {
-                pt = scanregion.nextPoint2();
+                int[][] pt = scanregion.nextPoint2();
                 if (pt.length == 0) {
                     endOfFile.set(true);
                     break;
                 }
-                try {
-                    temp = new Vec(vectorSize, pt, dim, nvComplex);
-                    dataset.readVectorFromDatasetFile(pt, dim, temp);
-                    if (temp.checkExtreme(1.0e16)) {
-                        log.warn("extreme read");
-                    }
-                    vectors.add(temp);
-                } catch (Exception ex) {
-                    setProcessorAvailableStatus(true);
-                    throw new ProcessingException(ex.getMessage(), ex);
+                pts.add(pt);
+            }
+        }
+        ArrayList<Vec> vectors = new ArrayList<>();
+        for (int[][] pt : pts) {
+            try {
+                Vec temp = newVector(vectorSize, pt, dim, nvComplex);
+                dataset.readVectorFromDatasetFile(pt, dim, temp);
+                if (temp.checkExtreme(1.0e16)) {
+                    log.warn("extreme read");
                 }
+                vectors.add(temp);
+            } catch (Exception ex) {
+                setProcessorAvailableStatus(true);
+                throw new ProcessingException(ex.getMessage(), ex);
             }
-        } else {  // direct dimension, read FIDs
-            int vectorsPerGroup = 1;
-            if (tmult != null) {
-                vectorsPerGroup = tmult.getGroupSize();
+        }
+        return vectors;
+    }
+
+    /**
+     * Gets the next 'vectorsPerProcess' Vecs from the FID files. The vendor
+     * readers aren't thread-safe so this is done while holding the lock.
+     *
+     * @return List of Vecs from the FID files.
+     */
+    private synchronized List<Vec> getVectorsFromFID() {
+        Vec temp;
+        ArrayList<Vec> vectors = new ArrayList<>();
+        int vectorsPerGroup = 1;
+        if (tmult != null) {
+            vectorsPerGroup = tmult.getGroupSize();
+        }
+        int nSteps = vectorsPerProcess / vectorsPerGroup;
+        for (int iStep = 0; iStep < nSteps; ) {
+            int vecGroup = incrementVecGroupsRead();
+            if (vecGroup > getTotalVecGroups() - 1) {
+                setEndOfFile();
+                break;
             }
-            int nSteps = vectorsPerProcess / vectorsPerGroup;
-            for (int iStep = 0; iStep < nSteps; ) {
-                int vecGroup = incrementVecGroupsRead();
-                if (vecGroup > getTotalVecGroups() - 1) {
-                    setEndOfFile();
-                    break;
-                }
-                VecIndex vecIndex = null;
-                try {
-                    vecIndex = getNextGroup(vecGroup);
-                } catch (Exception pEx) {
-                    throw pEx;
-                }
+            VecIndex vecIndex = getNextGroup(vecGroup);
 
-                if (vecIndex != null) {
-                    iStep++;
-                    for (int j = 0; j < vectorsPerGroup; j++) {
-                        try {
-                            for (NMRData nmrData : nmrDataSets) {
-                                temp = new Vec(vectorSize, nmrData.isComplex(dim[0]));
-                                nmrData.readVector(vecIndex.inVecs[j], temp);
-                                if (testCorruptionMode) {
-                                    for (int[] rowSkip : nmrData.getSkipIndices()) {
-                                        if (rowSkip[0] == vecIndex.getOutVec(j)[1][0]) {
-                                            temp.rand();
-                                        }
+            if (vecIndex != null) {
+                iStep++;
+                for (int j = 0; j < vectorsPerGroup; j++) {
+                    try {
+                        for (NMRData nmrData : nmrDataSets) {
+                            temp = newVector(vectorSize, null, null, nmrData.isComplex(dim[0]));
+                            nmrData.readVector(vecIndex.inVecs[j], temp);
+                            if (testCorruptionMode) {
+                                for (int[] rowSkip : nmrData.getSkipIndices()) {
+                                    if (rowSkip[0] == vecIndex.getOutVec(j)[1][0]) {
+                                        temp.rand();
                                     }
                                 }
-                                temp.setPt(vecIndex.outVecs[j], dim);
-                                vectors.add(temp);
                             }
-                        } catch (Exception e) {
-                            setProcessorAvailableStatus(true);
-                            throw new ProcessingException(e.getMessage(), e);
+                            temp.setPt(vecIndex.outVecs[j], dim);
+                            vectors.add(temp);
                         }
-                        vecReadCount.incrementAndGet();
+                    } catch (Exception e) {
+                        setProcessorAvailableStatus(true);
+                        throw new ProcessingException(e.getMessage(), e);
                     }
+                    vecReadCount.incrementAndGet();
                 }
             }
         }
@@ -1612,6 +1645,7 @@ public class Processor {
             vecGroupsRead.set(0);
             vectorsRead.set(0);
             endOfFile.set(false);
+            startVecPools(p);
 
             ArrayList<Future> completedProcesses = new ArrayList<>();
             if (useIOController && !p.isDataset()) {
@@ -1631,14 +1665,21 @@ public class Processor {
                     future.get();
                 } catch (InterruptedException | ExecutionException ex) {
                     setProcessorAvailableStatus(true);
+                    if (datasetWriter != null) {
+                        datasetWriter.shutdown();
+                        datasetWriter = null;
+                    }
                     throw new ProcessingException(ex.getMessage());
                 }
             }
             doneWriting.set(true);
             boolean doneFlushed = true;
             if (useIOController && !p.isDataset()) {
+                datasetWriter.finishWriting();
                 doneFlushed = datasetWriter.isDone(10000);
+                lastIOStats = datasetWriter.getStats();
                 log.info("done flushed {}", doneFlushed);
+                log.info("I/O {}", lastIOStats);
             }
             if (!getProcessorError() && doneFlushed) {
                 if (p.isMatrix()) {
@@ -1657,6 +1698,7 @@ public class Processor {
                 dataset.writeHeader();
             }
             printVecReadCount();
+            finishVecPools();
             pool.shutdown();
             if (useIOController && !p.isDataset()) {
                 log.info("shutdown now");
@@ -1784,6 +1826,121 @@ public class Processor {
         return numProcessors;
     }
 
+    /**
+     * Set the number of threads used to prefetch vectors from the input when
+     * the I/O controller is in use.
+     *
+     * @param n the number of reader threads
+     */
+    public void setNumReaders(int n) {
+        MatrixTypeService.setNumReaders(n);
+    }
+
+    public int getNumReaders() {
+        return MatrixTypeService.getNumReaders();
+    }
+
+    /**
+     * Get the reader and writer statistics for the most recently completed
+     * process, or null if the I/O controller hasn't been used.
+     *
+     * @return the I/O statistics
+     */
+    public MatrixTypeService.IOStats getIOStats() {
+        return lastIOStats;
+    }
+
+    /**
+     * Set whether vectors read from the input are reused, once they have been
+     * written, instead of being allocated for each read.
+     *
+     * @param state true to reuse vectors
+     */
+    public void setUseVecPool(boolean state) {
+        useVecPool = state;
+    }
+
+    public boolean getUseVecPool() {
+        return useVecPool;
+    }
+
+    /**
+     * Get the number of vector allocations that were avoided by reusing
+     * vectors in the most recently completed process.
+     *
+     * @return the number of reused vectors
+     */
+    public long getVectorsReused() {
+        return lastVecsReused;
+    }
+
+    /**
+     * Get the number of vectors that were allocated in the most recently
+     * completed process.
+     *
+     * @return the number of allocated vectors
+     */
+    public long getVectorsAllocated() {
+        return lastVecsAllocated;
+    }
+
+    private VecPool newVecPool() {
+        VecPool vecPool = new VecPool(Math.max(64, 4 * vectorsPerProcess * numProcessors));
+        vecPools.add(vecPool);
+        return vecPool;
+    }
+
+    /**
+     * Python scripts could keep references to vectors, so vectors aren't
+     * reused when a process includes one.
+     */
+    private void startVecPools(ProcessOps p) {
+        boolean hasScript = p.getOperations().stream().anyMatch(op -> op instanceof PythonScript);
+        recycleVectors = useVecPool && !hasScript && !p.isMatrix() && !p.isDataset();
+        vecPools.clear();
+        threadVecPool = ThreadLocal.withInitial(this::newVecPool);
+    }
+
+    private void finishVecPools() {
+        lastVecsAllocated = 0;
+        lastVecsReused = 0;
+        for (VecPool vecPool : vecPools) {
+            lastVecsAllocated += vecPool.getAllocated();
+            lastVecsReused += vecPool.getReused();
+            vecPool.clear();
+        }
+        vecPools.clear();
+        recycleVectors = false;
+        if (lastVecsReused > 0) {
+            log.info("Vectors allocated {}, reused {}", lastVecsAllocated, lastVecsReused);
+        }
+    }
+
+    private Vec newVector(int size, int[][] pt, int[] dim, boolean complex) {
+        if (recycleVectors) {
+            return threadVecPool.get().get(size, pt, dim, complex);
+        } else if (pt == null) {
+            return new Vec(size, complex);
+        } else {
+            return new Vec(size, pt, dim, complex);
+        }
+    }
+
+    /**
+     * Return vectors that have been processed to the pools they were read
+     * into. When the I/O controller is used, vectors are returned by the
+     * writer once they have been written, so this does nothing.
+     *
+     * @param vectors the vectors
+     */
+    public void recycleVectors(List<Vec> vectors) {
+        if (recycleVectors && !useIOController) {
+            for (Vec vector : vectors) {
+                vector.recycle();
+            }
+        }
+    }
+
     public void setVectorsPerProcess(int n) {
         vectorsPerProcess = n;
     }
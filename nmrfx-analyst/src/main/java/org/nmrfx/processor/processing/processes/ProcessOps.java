@@ -303,6 +303,7 @@ public class ProcessOps implements Callable<Object> {
             }
 
             vectorsProcessed += vectors.size();
+            processor.recycleVectors(vectors);
             vectors.clear();
 
         }
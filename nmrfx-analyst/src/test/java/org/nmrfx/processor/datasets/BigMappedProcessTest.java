@@ -0,0 +1,105 @@
+package org.nmrfx.processor.datasets;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nmrfx.processor.math.Vec;
+import org.nmrfx.processor.processing.Processor;
+import org.python.util.PythonInterpreter;
+
+import java.io.File;
+
+public class BigMappedProcessTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    static final int N_DIRECT = 256;
+    static final int N_INDIRECT = 64;
+
+    @After
+    public void restoreLimits() {
+        Dataset.setBigMapLimit(-1);
+        BigMappedMatrixFile.setMappingSize(0);
+        MapInfo.setLRULimits(0, 0);
+        Processor.setMemoryModeLimit(536870912L);
+    }
+
+    String makeFID(String name) throws Exception {
+        String fidName = new File(tmpFolder.getRoot(), name).toString();
+        Dataset fid = Dataset.createDataset(fidName, fidName, fidName,
+                new int[]{2 * N_DIRECT, 2 * N_INDIRECT}, false, true);
+        for (int iDim = 0; iDim < 2; iDim++) {
+            fid.setComplex(iDim, true);
+            fid.setFreqDomain(iDim, false);
+            fid.setSf(iDim, 600.0);
+            fid.setSw(iDim, 6000.0);
+        }
+        fid.setNFreqDims(0);
+        Vec vec = new Vec(N_DIRECT, true);
+        for (int j = 0; j < 2 * N_INDIRECT; j++) {
+            // alternate rows are the real and imaginary parts of the indirect dimension
+            double phase = (j % 2 == 0 ? 0.0 : -Math.PI / 2) + (j / 2) * 0.37;
+            for (int i = 0; i < N_DIRECT; i++) {
+                double decay = Math.exp(-(i + j / 2) * 0.01);
+                vec.set(i, Math.cos(i * 0.9 + phase) * decay, Math.sin(i * 0.9 + phase) * decay);
+            }
+            fid.writeVector(vec, new int[]{j}, 0);
+        }
+        fid.writeHeader();
+        fid.writeParFile();
+        fid.close();
+        return fidName;
+    }
+
+    float[][] process(String fidName, String outName) throws Exception {
+        PythonInterpreter interp = new PythonInterpreter();
+        interp.exec("from pyproc import *");
+        interp.exec("useProcessor()");
+        interp.exec("procOpts(nprocess=4, nvectors=4)");
+        interp.exec("from org.nmrfx.processor.datasets import AcquisitionType");
+        interp.exec("fidInfo = FID('" + fidName + "')");
+        interp.exec("fidInfo.fidObj.setUserSymbolicCoefs(1, AcquisitionType.HYPER)");
+        interp.exec("CREATE('" + outName + "')");
+        interp.exec("DIM(1)\nFT()\nREAL()");
+        interp.exec("DIM(2)\nFT()\nREAL()");
+        interp.exec("run()");
+        Dataset dataset = new Dataset(outName, outName, false, false);
+        try {
+            int nx = dataset.getSizeTotal(0);
+            int ny = dataset.getSizeTotal(1);
+            float[][] values = new float[ny][nx];
+            dataset.readMatrix(new int[][]{{0, nx - 1}, {0, ny - 1}}, new int[]{0, 1}, values);
+            return values;
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testThreadedProcessingAcrossMappings() throws Exception {
+        Processor.setMemoryModeLimit(0);
+        Processor.getProcessor().setNumReaders(2);
+        float[][] expected = process(makeFID("fid1.nv"), new File(tmpFolder.getRoot(), "single.nv").toString());
+
+        // many small mappings, only a few of which stay mapped, so the reader and
+        // writer threads map and unmap them while other threads use them
+        Dataset.setBigMapLimit(0);
+        BigMappedMatrixFile.setMappingSize(4096);
+        MapInfo.setLRULimits(3, 0);
+        float[][] values = process(makeFID("fid2.nv"), new File(tmpFolder.getRoot(), "big.nv").toString());
+
+        Assert.assertEquals(N_INDIRECT, expected.length);
+        Assert.assertEquals(N_DIRECT, expected[0].length);
+        double sum = 0.0;
+        for (int j = 0; j < expected.length; j++) {
+            Assert.assertArrayEquals(expected[j], values[j], 0.0f);
+            for (float value : expected[j]) {
+                sum += Math.abs(value);
+            }
+        }
+        Assert.assertTrue(sum > 0.0);
+    }
+}
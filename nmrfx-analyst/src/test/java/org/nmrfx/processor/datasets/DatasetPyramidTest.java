@@ -0,0 +1,167 @@
+package org.nmrfx.processor.datasets;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nmrfx.processor.math.Vec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public class DatasetPyramidTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    int[] dim = {0, 1};
+
+    @After
+    public void clearCacheDir() {
+        DatasetPyramid.setCacheDir(null);
+    }
+
+    void fill(Dataset dataset, int nx, int ny, double offset) throws IOException {
+        for (int iDim = 0; iDim < 2; iDim++) {
+            dataset.setComplex(iDim, false);
+            dataset.setComplex_r(iDim, false);
+        }
+        Vec vec = new Vec(nx, false);
+        for (int j = 0; j < ny; j++) {
+            for (int i = 0; i < nx; i++) {
+                vec.setReal(i, Math.sin(i * 0.37 + j * 0.11) * (1 + j % 7) + offset);
+            }
+            dataset.writeVector(vec, new int[]{j}, 0);
+        }
+    }
+
+    void checkLevel(Dataset dataset, DatasetPyramid pyramid, int level, int nx, int ny) throws IOException {
+        float[][] data = new float[ny][nx];
+        dataset.readMatrix(new int[][]{{0, nx - 1}, {0, ny - 1}}, dim, data);
+        int lnx = pyramid.getLevelSize(level, 0);
+        int lny = pyramid.getLevelSize(level, 1);
+        float[][] maxMatrix = new float[lny][lnx];
+        float[][] minMatrix = new float[lny][lnx];
+        pyramid.readMatrix(level, new int[][]{{0, lnx - 1}, {0, lny - 1}}, maxMatrix, minMatrix);
+        int step = 1 << level;
+        for (int j = 0; j < lny; j++) {
+            for (int i = 0; i < lnx; i++) {
+                float max = Float.NEGATIVE_INFINITY;
+                float min = Float.POSITIVE_INFINITY;
+                for (int y = j * step; y < Math.min(ny, (j + 1) * step); y++) {
+                    for (int x = i * step; x < Math.min(nx, (i + 1) * step); x++) {
+                        max = Math.max(max, data[y][x]);
+                        min = Math.min(min, data[y][x]);
+                    }
+                }
+                Assert.assertEquals(max, maxMatrix[j][i], 1.0e-5);
+                Assert.assertEquals(min, minMatrix[j][i], 1.0e-5);
+            }
+        }
+    }
+
+    @Test
+    public void testMemoryLevels() throws DatasetException, IOException {
+        int nx = 150;
+        int ny = 70;
+        Dataset dataset = new Dataset("pyramid", null, new int[]{nx, ny}, false);
+        try {
+            fill(dataset, nx, ny, 0.0);
+            DatasetPyramid pyramid = dataset.getPyramid(dim);
+            Assert.assertEquals(2, pyramid.getNLevels());
+            Assert.assertNull(pyramid.getPath());
+            for (int level = 1; level <= pyramid.getNLevels(); level++) {
+                checkLevel(dataset, pyramid, level, nx, ny);
+            }
+            fill(dataset, nx, ny, 3.0);
+            checkLevel(dataset, pyramid, 1, nx, ny);
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testFileLevels() throws DatasetException, IOException {
+        int nx = 128;
+        int ny = 64;
+        File cacheDir = new File(tmpFolder.getRoot(), "cache");
+        DatasetPyramid.setCacheDir(cacheDir.toPath());
+        File file = tmpFolder.newFile("pyramid.nv");
+        Dataset dataset = Dataset.createDataset(file.getPath(), file.getName(), file.getName(), new int[]{nx, ny}, false, true);
+        try {
+            fill(dataset, nx, ny, 0.0);
+            DatasetPyramid pyramid = dataset.getPyramid(dim);
+            Assert.assertEquals(cacheDir.toPath(), pyramid.getPath().getParent());
+            String pyramidName = pyramid.getPath().getFileName().toString();
+            Assert.assertTrue(pyramidName.startsWith("pyramid_") && pyramidName.endsWith("_12.pyr"));
+            checkLevel(dataset, pyramid, 2, nx, ny);
+            Assert.assertTrue(Files.size(pyramid.getPath()) > DatasetPyramid.HEADER_SIZE);
+            pyramid.close();
+
+            // a new pyramid reads the stored levels
+            DatasetPyramid stored = new DatasetPyramid(dataset, dim);
+            checkLevel(dataset, stored, 1, nx, ny);
+            checkLevel(dataset, stored, 2, nx, ny);
+            stored.close();
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testNoPyramidFile() throws DatasetException, IOException {
+        int nx = 128;
+        int ny = 64;
+        File file = tmpFolder.newFile("nocache.nv");
+        Dataset dataset = Dataset.createDataset(file.getPath(), file.getName(), file.getName(), new int[]{nx, ny}, false, true);
+        try {
+            fill(dataset, nx, ny, 0.0);
+            // files are only written once a cache directory is set
+            DatasetPyramid pyramid = new DatasetPyramid(dataset, dim);
+            Assert.assertNull(pyramid.getPath());
+            checkLevel(dataset, pyramid, 2, nx, ny);
+            pyramid.close();
+
+            // a cache directory that can't be created leaves the levels in memory
+            DatasetPyramid.setCacheDir(tmpFolder.newFile("notadir").toPath().resolve("cache"));
+            pyramid = new DatasetPyramid(dataset, dim);
+            checkLevel(dataset, pyramid, 1, nx, ny);
+            checkLevel(dataset, pyramid, 2, nx, ny);
+            Assert.assertFalse(Files.exists(pyramid.getPath()));
+            pyramid.close();
+            String[] names = tmpFolder.getRoot().list((dir, name) -> name.endsWith(".pyr"));
+            Assert.assertEquals(0, names.length);
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testWritePoint() throws DatasetException, IOException {
+        int nx = 128;
+        int ny = 64;
+        File file = tmpFolder.newFile("points.nv");
+        Dataset dataset = Dataset.createDataset(file.getPath(), file.getName(), file.getName(), new int[]{nx, ny}, false, true);
+        try {
+            fill(dataset, nx, ny, 0.0);
+            DatasetPyramid pyramid = dataset.getPyramid(dim);
+            checkLevel(dataset, pyramid, 1, nx, ny);
+
+            // contours and pyramid levels of the old values are out of date
+            int modCount = dataset.getModCount();
+            dataset.writePoint(new int[]{37, 21}, 100.0);
+            Assert.assertNotEquals(modCount, dataset.getModCount());
+            checkLevel(dataset, pyramid, 1, nx, ny);
+
+            modCount = dataset.getModCount();
+            dataset.clear();
+            Assert.assertNotEquals(modCount, dataset.getModCount());
+            checkLevel(dataset, pyramid, 1, nx, ny);
+            checkLevel(dataset, pyramid, 2, nx, ny);
+        } finally {
+            dataset.close();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package org.nmrfx.processor.datasets;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nmrfx.datasets.DatasetLayout;
+import org.nmrfx.datasets.DatasetStorageInterface;
+import org.nmrfx.processor.math.Vec;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+public class StorageFloatsTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    static final int[] SIZES = {64, 32, 8};
+
+    @After
+    public void restoreLimits() {
+        Dataset.setBigMapLimit(-1);
+        BigMappedMatrixFile.setMappingSize(0);
+    }
+
+    Dataset makeDataset(String name) throws Exception {
+        String fileName = new File(tmpFolder.getRoot(), name).toString();
+        return Dataset.createDataset(fileName, fileName, fileName, SIZES, false, true);
+    }
+
+    DatasetStorageInterface makeStorage(Dataset dataset, String name, DatasetLayout layout) throws Exception {
+        File file = new File(tmpFolder.getRoot(), name);
+        RandomAccessFile raFile = new RandomAccessFile(file, "rw");
+        return Dataset.createDataFile(dataset, raFile, file, layout, true);
+    }
+
+    static float value(int[] pt) {
+        return pt[0] + 100.0f * pt[1] + 10000.0f * pt[2];
+    }
+
+    void checkStorage(DatasetStorageInterface storage) throws Exception {
+        int[] pt = new int[3];
+        for (pt[2] = 0; pt[2] < SIZES[2]; pt[2]++) {
+            for (pt[1] = 0; pt[1] < SIZES[1]; pt[1]++) {
+                for (pt[0] = 0; pt[0] < SIZES[0]; pt[0]++) {
+                    storage.setFloat(value(pt), pt);
+                }
+            }
+        }
+        for (int dim = 0; dim < 3; dim++) {
+            // ranges within one block, across block boundaries and the whole dimension
+            int[][] ranges = {{1, 3}, {SIZES[dim] / 2 - 3, SIZES[dim] / 2 + 2}, {0, SIZES[dim] - 1}};
+            for (int[] range : ranges) {
+                int first = range[0];
+                int last = range[1];
+                int[] point = {5, 7, 3};
+                float[] values = new float[last - first + 1];
+                storage.readFloats(first, last, point.clone(), dim, values);
+                for (int i = first; i <= last; i++) {
+                    point[dim] = i;
+                    Assert.assertEquals(value(point), values[i - first], 0.0f);
+                }
+
+                for (int k = 0; k < values.length; k++) {
+                    values[k] = -1.0f - k;
+                }
+                storage.writeFloats(first, last, point.clone(), dim, values);
+                for (int i = first; i <= last; i++) {
+                    point[dim] = i;
+                    Assert.assertEquals(-1.0f - (i - first), storage.getFloat(point), 0.0f);
+                    storage.setFloat(value(point), point);
+                }
+                // neighbours outside the range are untouched
+                if (first > 0) {
+                    point[dim] = first - 1;
+                    Assert.assertEquals(value(point), storage.getFloat(point), 0.0f);
+                }
+                if (last < SIZES[dim] - 1) {
+                    point[dim] = last + 1;
+                    Assert.assertEquals(value(point), storage.getFloat(point), 0.0f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMemoryFile() throws Exception {
+        Dataset dataset = makeDataset("memory.nv");
+        try {
+            DatasetStorageInterface storage = new MemoryFile(dataset, DatasetLayout.createFullMatrix(0, SIZES), true);
+            checkStorage(storage);
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testMappedMatrixFile() throws Exception {
+        Dataset dataset = makeDataset("mapped.nv");
+        try {
+            DatasetStorageInterface storage = makeStorage(dataset, "full.nv", DatasetLayout.createFullMatrix(0, SIZES));
+            Assert.assertTrue(storage instanceof MappedMatrixFile);
+            checkStorage(storage);
+            storage.close();
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testMappedSubMatrixFile() throws Exception {
+        Dataset dataset = makeDataset("mappedsub.nv");
+        try {
+            DatasetStorageInterface storage = makeStorage(dataset, "sub.nv", DatasetLayout.createBlockMatrix(0, SIZES));
+            Assert.assertTrue(storage instanceof MappedSubMatrixFile);
+            checkStorage(storage);
+            storage.close();
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testBigMappedMatrixFile() throws Exception {
+        Dataset dataset = makeDataset("bigmapped.nv");
+        try {
+            // small mappings so that runs cross from one mapping to the next
+            Dataset.setBigMapLimit(0);
+            BigMappedMatrixFile.setMappingSize(4096);
+            DatasetStorageInterface storage = makeStorage(dataset, "big.nv", DatasetLayout.createBlockMatrix(0, SIZES));
+            Assert.assertTrue(storage instanceof BigMappedMatrixFile);
+            checkStorage(storage);
+            storage.close();
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testReadVectorWithoutStorage() throws Exception {
+        // a closed dataset no longer has storage and reads as zeros
+        Dataset noStorage = makeDataset("nostorage.nv");
+        noStorage.close();
+        Vec vec = new Vec(16, false);
+        vec.set(3, 2.0);
+        noStorage.readVectorFromDatasetFile(new int[][]{{0, 15}, {0, 0}, {0, 0}}, new int[]{0, 1, 2}, vec);
+        Assert.assertEquals(0.0, vec.getReal(3), 0.0);
+
+        Dataset dataset = makeDataset("outside.nv");
+        try {
+            Vec outside = new Vec(SIZES[0], false);
+            Assert.assertThrows(IllegalArgumentException.class, () ->
+                    dataset.readVectorFromDatasetFile(new int[][]{{1, SIZES[0]}, {0, 0}, {0, 0}}, new int[]{0, 1, 2}, outside));
+        } finally {
+            dataset.close();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.nmrfx.processor.datasets.peaks;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.nmrfx.peaks.Peak;
+import org.nmrfx.peaks.PeakDim;
+import org.nmrfx.peaks.PeakList;
+import org.nmrfx.processor.datasets.Dataset;
+import org.nmrfx.processor.datasets.DatasetException;
+import org.nmrfx.processor.math.Vec;
+
+import java.io.IOException;
+
+public class GroupFitTest {
+
+    int n = 128;
+    double[][] centers = {{20.5, 30.2}, {26.0, 33.1}, {70.3, 80.4}, {100.2, 20.7}, {104.6, 24.0}, {50.1, 110.3}};
+
+    Dataset getDataset() throws DatasetException, IOException {
+        Dataset dataset = new Dataset("groupfit", null, new int[]{n, n}, false);
+        for (int iDim = 0; iDim < 2; iDim++) {
+            dataset.setComplex(iDim, false);
+            dataset.setSf(iDim, 600.0);
+            dataset.setSw(iDim, 1200.0);
+            dataset.setRefPt(iDim, 0.0);
+            dataset.setRefValue(iDim, 10.0);
+            dataset.setLabel(iDim, "H" + (iDim + 1));
+        }
+        Vec vec = new Vec(n, false);
+        for (int j = 0; j < n; j++) {
+            for (int i = 0; i < n; i++) {
+                double value = 0.0;
+                for (double[] center : centers) {
+                    double dx = (i - center[0]) / 2.0;
+                    double dy = (j - center[1]) / 2.5;
+                    value += 100.0 / ((1.0 + dx * dx) * (1.0 + dy * dy));
+                }
+                vec.setReal(i, value);
+            }
+            dataset.writeVector(vec, new int[]{j}, 0);
+        }
+        return dataset;
+    }
+
+    PeakList getPeakList(Dataset dataset, String name) {
+        PeakList peakList = new PeakList(name, 2);
+        for (int iDim = 0; iDim < 2; iDim++) {
+            peakList.getSpectralDim(iDim).setDimName(dataset.getLabel(iDim));
+            peakList.getSpectralDim(iDim).setSf(600.0);
+            peakList.getSpectralDim(iDim).setSw(1200.0);
+        }
+        for (double[] center : centers) {
+            Peak peak = peakList.getNewPeak();
+            peak.setIntensity(90.0f);
+            for (int iDim = 0; iDim < 2; iDim++) {
+                PeakDim peakDim = peak.getPeakDim(iDim);
+                double ppm = dataset.pointToPPM(iDim, center[iDim] + 0.4);
+                peakDim.setChemShiftValue((float) ppm);
+                double width = Math.abs(dataset.pointToPPM(iDim, 0.0) - dataset.pointToPPM(iDim, 5.0));
+                peakDim.setLineWidthValue((float) width);
+                peakDim.setBoundsValue((float) (3.0 * width));
+            }
+        }
+        return peakList;
+    }
+
+    @Test
+    public void testParallelMatchesSerial() throws DatasetException, IOException {
+        Dataset dataset = getDataset();
+        PeakList serial = getPeakList(dataset, "serial");
+        PeakList parallel = getPeakList(dataset, "parallel");
+        try {
+            int[] rows = new int[0];
+            PeakListTools.groupPeaksAndFit(serial, dataset, rows, null, serial.peaks(), new PeakFitParameters());
+            PeakListTools.groupPeaksAndFit(parallel, dataset, rows, null, parallel.peaks(), new PeakFitParameters(), 4);
+            for (int i = 0; i < centers.length; i++) {
+                Peak serialPeak = serial.getPeak(i);
+                Peak parallelPeak = parallel.getPeak(i);
+                Assert.assertEquals(serialPeak.getIntensity(), parallelPeak.getIntensity(), 0.0f);
+                for (int iDim = 0; iDim < 2; iDim++) {
+                    float ppm = serialPeak.getPeakDim(iDim).getChemShiftValue();
+                    Assert.assertEquals(ppm, parallelPeak.getPeakDim(iDim).getChemShiftValue(), 0.0f);
+                    Assert.assertEquals(centers[i][iDim], dataset.ppmToDPoint(iDim, ppm), 0.1);
+                }
+            }
+        } finally {
+            serial.remove();
+            parallel.remove();
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testParallelFailure() throws DatasetException, IOException {
+        Dataset dataset = getDataset();
+        PeakList peakList = getPeakList(dataset, "failure");
+        try {
+            PeakFitParameters fitPars = new PeakFitParameters() {
+                @Override
+                public FIT_MODE fitMode() {
+                    throw new IllegalStateException("fit failed");
+                }
+            };
+            IllegalStateException ex = Assert.assertThrows(IllegalStateException.class, () ->
+                    PeakListTools.groupPeaksAndFit(peakList, dataset, new int[0], null, peakList.peaks(), fitPars, 4));
+            Assert.assertTrue(ex.getMessage().contains("fit failed"));
+        } finally {
+            peakList.remove();
+            dataset.close();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.nmrfx.processor.datasets.peaks;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.nmrfx.processor.optimization.BipartiteMatcher;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class MatchGridTest {
+
+    double[] tol = {0.02, 0.2};
+    double minDelta = 10.0;
+
+    double[][] getValues(Random random, int n) {
+        double[][] values = new double[n][2];
+        for (int i = 0; i < n; i++) {
+            values[i][0] = 6.0 + 4.0 * random.nextDouble();
+            values[i][1] = 100.0 + 35.0 * random.nextDouble();
+        }
+        return values;
+    }
+
+    double distanceSq(double[] iValues, double[] iOffsets, double[] jValues, double[] jOffsets) {
+        double sum = 0.0;
+        for (int k = 0; k < iValues.length; k++) {
+            double delta = ((iValues[k] + iOffsets[k]) - (jValues[k] + jOffsets[k])) / tol[k];
+            sum += delta * delta;
+        }
+        return sum;
+    }
+
+    @Test
+    public void testCandidates() {
+        Random random = new Random(5);
+        double[][] iValues = getValues(random, 300);
+        double[][] jValues = getValues(random, 400);
+        double[] iOffsets = {0.01, -0.3};
+        double[] jOffsets = {0.0, 0.1};
+        MatchGrid matchGrid = new MatchGrid(jValues, jOffsets, tol, minDelta);
+        int nClose = 0;
+        for (double[] iValue : iValues) {
+            int[] candidates = matchGrid.getCandidates(iValue, iOffsets);
+            for (int j = 0; j < jValues.length; j++) {
+                if (distanceSq(iValue, iOffsets, jValues[j], jOffsets) < minDelta) {
+                    Assert.assertTrue(Arrays.binarySearch(candidates, j) >= 0);
+                    nClose++;
+                }
+            }
+            Assert.assertTrue(candidates.length < jValues.length / 4);
+        }
+        Assert.assertTrue(nClose > 0);
+    }
+
+    BipartiteMatcher getMatcher(double[][] iValues, double[][] jValues, boolean sparse) {
+        int iN = iValues.length;
+        int jN = jValues.length;
+        double[] offsets = new double[2];
+        BipartiteMatcher matcher = new BipartiteMatcher();
+        matcher.reset(iN + jN, sparse);
+        for (int i = 0; i < iN; i++) {
+            matcher.setWeight(i, jN + i, -1.0);
+        }
+        for (int j = 0; j < jN; j++) {
+            matcher.setWeight(iN + j, j, -1.0);
+        }
+        for (int i = 0; i < iN; i++) {
+            for (int j = 0; j < jN; j++) {
+                double deltaSqSum = distanceSq(iValues[i], offsets, jValues[j], offsets);
+                // the dense matcher is given every edge, the sparse one only the edges that can match
+                if (deltaSqSum < minDelta) {
+                    matcher.setWeight(i, j, Math.exp(-deltaSqSum));
+                } else if (!sparse) {
+                    matcher.setWeight(i, j, Double.NEGATIVE_INFINITY);
+                }
+            }
+        }
+        if (!sparse) {
+            for (int i = 0; i < iN; i++) {
+                for (int j = 0; j < iN; j++) {
+                    if (i != j) {
+                        matcher.setWeight(i, jN + j, Double.NEGATIVE_INFINITY);
+                    }
+                }
+            }
+            for (int i = 0; i < jN; i++) {
+                for (int j = 0; j < iN + jN; j++) {
+                    if (i != j) {
+                        matcher.setWeight(iN + i, j, Double.NEGATIVE_INFINITY);
+                    }
+                }
+            }
+        }
+        return matcher;
+    }
+
+    @Test
+    public void testSparseMatching() {
+        Random random = new Random(9);
+        double[][] iValues = getValues(random, 150);
+        double[][] jValues = new double[170][];
+        for (int j = 0; j < jValues.length; j++) {
+            if (j < iValues.length) {
+                jValues[j] = new double[]{iValues[j][0] + 0.01 * random.nextGaussian(),
+                        iValues[j][1] + 0.1 * random.nextGaussian()};
+            } else {
+                jValues[j] = getValues(random, 1)[0];
+            }
+        }
+        int[] dense = getMatcher(iValues, jValues, false).getMatching();
+        int[] sparse = getMatcher(iValues, jValues, true).getMatching();
+        Assert.assertArrayEquals(dense, sparse);
+        int nMatched = 0;
+        for (int i = 0; i < iValues.length; i++) {
+            if (sparse[i] < jValues.length) {
+                nMatched++;
+            }
+        }
+        Assert.assertTrue(nMatched > iValues.length / 2);
+    }
+}
@@ -0,0 +1,143 @@
+package org.nmrfx.processor.datasets.peaks;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.nmrfx.peaks.Peak;
+import org.nmrfx.peaks.PeakList;
+import org.nmrfx.processor.datasets.Dataset;
+import org.nmrfx.processor.datasets.DatasetException;
+import org.nmrfx.processor.math.Vec;
+
+import java.io.IOException;
+import java.util.Random;
+
+public class PeakPickerTest {
+
+    int nx = 300;
+    int ny = 140;
+
+    Dataset getDataset() throws DatasetException, IOException {
+        Dataset dataset = new Dataset("pick", null, new int[]{nx, ny}, false);
+        for (int iDim = 0; iDim < 2; iDim++) {
+            dataset.setComplex(iDim, false);
+            dataset.setSf(iDim, 600.0);
+            dataset.setSw(iDim, 3000.0);
+            dataset.setRefPt(iDim, 0.0);
+            dataset.setRefValue(iDim, 10.0);
+            dataset.setLabel(iDim, "H" + (iDim + 1));
+        }
+        Random random = new Random(3);
+        double[][] centers = new double[60][3];
+        for (double[] center : centers) {
+            center[0] = 5 + random.nextDouble() * (nx - 10);
+            center[1] = 5 + random.nextDouble() * (ny - 10);
+            center[2] = (random.nextDouble() < 0.2 ? -1.0 : 1.0) * (20.0 + 80.0 * random.nextDouble());
+        }
+        Vec vec = new Vec(nx, false);
+        for (int j = 0; j < ny; j++) {
+            for (int i = 0; i < nx; i++) {
+                double value = random.nextGaussian();
+                for (double[] center : centers) {
+                    double dx = (i - center[0]) / 1.5;
+                    double dy = (j - center[1]) / 2.0;
+                    value += center[2] / ((1.0 + dx * dx) * (1.0 + dy * dy));
+                }
+                vec.setReal(i, value);
+            }
+            dataset.writeVector(vec, new int[]{j}, 0);
+        }
+        return dataset;
+    }
+
+    PeakList pick(Dataset dataset, String listName, int nThreads) throws IOException {
+        return pick(dataset, listName, nThreads, true);
+    }
+
+    PeakList pick(Dataset dataset, String listName, int nThreads, boolean useTiles) throws IOException {
+        PeakPickParameters pickPar = new PeakPickParameters(dataset, listName);
+        pickPar.level(10.0).pos(true).neg(true).threads(nThreads);
+        pickPar.calcRange();
+        PeakPicker picker = new PeakPicker(pickPar);
+        picker.setUseTiles(useTiles);
+        return picker.peakPick();
+    }
+
+    void assertSamePeaks(PeakList expected, PeakList peakList) {
+        Assert.assertEquals(expected.size(), peakList.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Peak expectedPeak = expected.getPeak(i);
+            Peak peak = peakList.getPeak(i);
+            Assert.assertEquals(expectedPeak.getIntensity(), peak.getIntensity(), 0.0f);
+            for (int iDim = 0; iDim < 2; iDim++) {
+                Assert.assertEquals(expectedPeak.getPeakDim(iDim).getChemShiftValue(),
+                        peak.getPeakDim(iDim).getChemShiftValue(), 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void testThreadsMatch() throws DatasetException, IOException {
+        Dataset dataset = getDataset();
+        PeakList serial = null;
+        PeakList parallel = null;
+        try {
+            serial = pick(dataset, "pick1", 1);
+            double noise = dataset.getNoiseLevel();
+            dataset.setNoiseLevel(null);
+            parallel = pick(dataset, "pick4", 4);
+            Assert.assertEquals(noise, dataset.getNoiseLevel(), 0.0);
+            Assert.assertTrue(serial.size() > 20);
+            Assert.assertTrue(serial.peaks().stream().anyMatch(p -> p.getIntensity() < 0.0));
+            assertSamePeaks(serial, parallel);
+        } finally {
+            if (serial != null) {
+                serial.remove();
+            }
+            if (parallel != null) {
+                parallel.remove();
+            }
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testTilesMatchPoints() throws DatasetException, IOException {
+        Dataset dataset = getDataset();
+        PeakList points = null;
+        PeakList tiles = null;
+        try {
+            points = pick(dataset, "points", 1, false);
+            tiles = pick(dataset, "tiles", 4, true);
+            Assert.assertTrue(points.size() > 20);
+            Assert.assertTrue(points.peaks().stream().anyMatch(p -> p.getIntensity() < 0.0));
+            assertSamePeaks(points, tiles);
+        } finally {
+            if (points != null) {
+                points.remove();
+            }
+            if (tiles != null) {
+                tiles.remove();
+            }
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testTileReleased() throws DatasetException, IOException {
+        Dataset dataset = getDataset();
+        try {
+            PeakPickParameters pickPar = new PeakPickParameters(dataset, "released");
+            pickPar.level(10.0).pos(true).neg(true);
+            pickPar.calcRange();
+            PeakPicker picker = new PeakPicker(pickPar);
+            int[] regionSize = picker.getRegionSize(pickPar.regionWidth, pickPar.nPeakDim);
+            PeakPicker.PickTile tile = picker.getTiles(pickPar.dim, regionSize).get(0);
+            tile.read();
+            Assert.assertTrue(tile.buffer.isBuffered());
+            tile.scan(regionSize);
+            Assert.assertFalse(tile.buffer.isBuffered());
+        } finally {
+            dataset.close();
+        }
+    }
+}
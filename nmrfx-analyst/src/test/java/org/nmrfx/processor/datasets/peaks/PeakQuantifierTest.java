@@ -0,0 +1,200 @@
+package org.nmrfx.processor.datasets.peaks;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.nmrfx.datasets.DatasetLayout;
+import org.nmrfx.datasets.RegionData;
+import org.nmrfx.peaks.Peak;
+import org.nmrfx.peaks.PeakDim;
+import org.nmrfx.peaks.PeakList;
+import org.nmrfx.processor.datasets.Dataset;
+import org.nmrfx.processor.datasets.DatasetException;
+import org.nmrfx.processor.math.Vec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+public class PeakQuantifierTest {
+
+    int n = 96;
+
+    Dataset getDataset(String name, double scale) throws DatasetException, IOException {
+        return getDataset(name, scale, 0);
+    }
+
+    Dataset getDataset(String name, double scale, int nPlanes) throws DatasetException, IOException {
+        int[] sizes = nPlanes > 0 ? new int[]{n, n, nPlanes} : new int[]{n, n};
+        Dataset dataset = new Dataset(name, null, sizes, false);
+        if (nPlanes > 0) {
+            dataset.setComplex(2, false);
+            dataset.setLabel(2, "T");
+        }
+        for (int iDim = 0; iDim < 2; iDim++) {
+            dataset.setComplex(iDim, false);
+            dataset.setSf(iDim, 600.0);
+            dataset.setSw(iDim, 1200.0);
+            dataset.setRefPt(iDim, 0.0);
+            dataset.setRefValue(iDim, 10.0);
+            dataset.setLabel(iDim, "H" + (iDim + 1));
+        }
+        Vec vec = new Vec(n, false);
+        for (int k = 0; k < Math.max(1, nPlanes); k++) {
+            double planeScale = scale * Math.exp(-0.3 * k);
+            for (int j = 0; j < n; j++) {
+                for (int i = 0; i < n; i++) {
+                    vec.setReal(i, planeScale * Math.cos(i * 0.21) * Math.sin(j * 0.13 + 0.5) + 0.01 * i);
+                }
+                dataset.writeVector(vec, nPlanes > 0 ? new int[]{j, k} : new int[]{j}, 0);
+            }
+        }
+        return dataset;
+    }
+
+    PeakList getPeakList(Dataset dataset) {
+        PeakList peakList = new PeakList("quantify", 2);
+        for (int iDim = 0; iDim < 2; iDim++) {
+            peakList.getSpectralDim(iDim).setDimName(dataset.getLabel(iDim));
+        }
+        for (int i = 0; i < 40; i++) {
+            Peak peak = peakList.getNewPeak();
+            for (int iDim = 0; iDim < 2; iDim++) {
+                PeakDim peakDim = peak.getPeakDim(iDim);
+                double pt = 5 + ((i * (iDim == 0 ? 37 : 53)) % (n - 10));
+                peakDim.setChemShiftValue((float) dataset.pointToPPM(iDim, pt));
+                double width = Math.abs(dataset.pointToPPM(iDim, 0.0) - dataset.pointToPPM(iDim, 3.0));
+                peakDim.setLineWidthValue((float) width);
+                peakDim.setBoundsValue((float) (2.0 * width));
+            }
+        }
+        return peakList;
+    }
+
+    @Test
+    public void testQuantify() throws DatasetException, IOException {
+        List<Dataset> datasets = new ArrayList<>();
+        datasets.add(getDataset("quant1", 1.0));
+        datasets.add(getDataset("quant2", 0.5));
+        datasets.add(getDataset("quant3", 0.25));
+        PeakList peakList = getPeakList(datasets.get(0));
+        try {
+            Function<RegionData, Double> f = Peak.getMeasureFunction("volume");
+            PeakQuantifier quantifier = new PeakQuantifier(peakList, datasets, f, "volume", 1);
+            quantifier.setThreads(3);
+            PeakQuantifier.QuantifyStats stats = quantifier.quantify();
+            Assert.assertEquals(peakList.size() * datasets.size(), stats.nRegions());
+            Assert.assertTrue(stats.nRegionBytes() > 0);
+            int[] pdim = peakList.getDimsForDataset(datasets.get(0), true);
+            for (Peak peak : peakList.peaks()) {
+                double[][] measures = peak.getMeasures().orElseThrow();
+                Assert.assertEquals(datasets.size(), measures[0].length);
+                for (int iSet = 0; iSet < datasets.size(); iSet++) {
+                    double[] value = peak.measurePeak(datasets.get(iSet), pdim, new int[0], f, "volume");
+                    Assert.assertEquals(value[0], measures[0][iSet], 0.0);
+                }
+                Assert.assertEquals(measures[0][0], peak.getVolume1(), 1.0e-3);
+            }
+            Assert.assertEquals(datasets.size(), peakList.getMeasureValues().length);
+        } finally {
+            peakList.remove();
+            for (Dataset dataset : datasets) {
+                dataset.close();
+            }
+        }
+    }
+
+    @Test
+    public void testQuantifyPlanes() throws DatasetException, IOException {
+        int nPlanes = 4;
+        Dataset dataset = getDataset("quantplanes", 1.0, nPlanes);
+        PeakList peakList = getPeakList(dataset);
+        try {
+            Function<RegionData, Double> f = Peak.getMeasureFunction("volume");
+            PeakQuantifier quantifier = new PeakQuantifier(peakList, List.of(dataset), f, "volume", nPlanes);
+            quantifier.setThreads(4);
+            PeakQuantifier.QuantifyStats stats = quantifier.quantify();
+            Assert.assertEquals(peakList.size() * nPlanes, stats.nRegions());
+            int[] pdim = peakList.getDimsForDataset(dataset, true);
+            for (Peak peak : peakList.peaks()) {
+                double[][] measures = peak.getMeasures().orElseThrow();
+                Assert.assertEquals(nPlanes, measures[0].length);
+                for (int plane = 0; plane < nPlanes; plane++) {
+                    double[] value = peak.measurePeak(dataset, pdim, new int[]{plane}, f, "volume");
+                    Assert.assertEquals(value[0], measures[0][plane], 0.0);
+                }
+                Assert.assertNotEquals(measures[0][0], measures[0][1], 0.0);
+            }
+        } finally {
+            peakList.remove();
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testQuantifyNoPlaneDim() throws DatasetException, IOException {
+        int nPlanes = 3;
+        Dataset dataset = getDataset("quantnoplane", 1.0);
+        PeakList peakList = getPeakList(dataset);
+        try {
+            Function<RegionData, Double> f = Peak.getMeasureFunction("volume");
+            PeakQuantifier quantifier = new PeakQuantifier(peakList, List.of(dataset), f, "volume", nPlanes);
+            quantifier.setThreads(2);
+            PeakQuantifier.QuantifyStats stats = quantifier.quantify();
+            // measured once per peak, and stored for every plane
+            Assert.assertEquals(peakList.size(), stats.nRegions());
+            int[] pdim = peakList.getDimsForDataset(dataset, true);
+            for (Peak peak : peakList.peaks()) {
+                double[][] measures = peak.getMeasures().orElseThrow();
+                Assert.assertEquals(nPlanes, measures[0].length);
+                double[] value = peak.measurePeak(dataset, pdim, new int[0], f, "volume");
+                for (int plane = 0; plane < nPlanes; plane++) {
+                    Assert.assertEquals(value[0], measures[0][plane], 0.0);
+                }
+            }
+        } finally {
+            peakList.remove();
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testQuantifyFailure() throws DatasetException, IOException {
+        Dataset dataset = getDataset("quantfail", 1.0);
+        PeakList peakList = getPeakList(dataset);
+        try {
+            for (Peak peak : peakList.peaks()) {
+                peak.setIntensity(7.0f);
+            }
+            Function<RegionData, Double> f = regionData -> {
+                throw new IllegalStateException("measure failed");
+            };
+            for (int nThreads : new int[]{1, 4}) {
+                PeakQuantifier quantifier = new PeakQuantifier(peakList, List.of(dataset), f, "intensity", 1);
+                quantifier.setThreads(nThreads);
+                IllegalStateException ex = Assert.assertThrows(IllegalStateException.class, quantifier::quantify);
+                Assert.assertTrue(ex.getMessage().contains("measure failed"));
+                // nothing is stored when a measurement fails
+                for (Peak peak : peakList.peaks()) {
+                    Assert.assertEquals(7.0f, peak.getIntensity(), 0.0f);
+                    Assert.assertTrue(peak.getMeasures().isEmpty());
+                }
+            }
+        } finally {
+            peakList.remove();
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testBlock() {
+        DatasetLayout layout = DatasetLayout.createBlockMatrix(0, new int[]{256, 128});
+        int blockX = layout.getBlockSize(0);
+        int blockY = layout.getBlockSize(1);
+        long block0 = PeakQuantifier.getBlock(layout, new int[]{0, 0});
+        Assert.assertEquals(block0, PeakQuantifier.getBlock(layout, new int[]{blockX - 1, blockY - 1}));
+        Assert.assertNotEquals(block0, PeakQuantifier.getBlock(layout, new int[]{blockX, 0}));
+        Assert.assertNotEquals(PeakQuantifier.getBlock(layout, new int[]{blockX, 0}),
+                PeakQuantifier.getBlock(layout, new int[]{0, blockY}));
+    }
+}
@@ -0,0 +1,108 @@
+package org.nmrfx.processor.datasets.peaks;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.nmrfx.peaks.Peak;
+import org.nmrfx.peaks.PeakList;
+import org.nmrfx.processor.datasets.Dataset;
+import org.nmrfx.processor.datasets.DatasetException;
+
+import java.io.IOException;
+import java.util.Random;
+
+public class PeakTweakerTest {
+
+    PeakList pickAndJitter(Dataset dataset, String listName) throws IOException {
+        PeakPickParameters pickPar = new PeakPickParameters(dataset, listName);
+        pickPar.level(10.0).pos(true).neg(true).threads(1);
+        pickPar.calcRange();
+        PeakList peakList = new PeakPicker(pickPar).peakPick();
+        Random random = new Random(7);
+        for (Peak peak : peakList.peaks()) {
+            for (int iDim = 0; iDim < 2; iDim++) {
+                double ptWidth = dataset.ptWidthToPPM(iDim, 1.0);
+                double delta = (random.nextDouble() - 0.5) * 3.0 * ptWidth;
+                float shift = peak.getPeakDim(iDim).getChemShiftValue();
+                peak.getPeakDim(iDim).setChemShiftValue((float) (shift + delta));
+            }
+        }
+        return peakList;
+    }
+
+    @Test
+    public void testMatchesTweak() throws DatasetException, IOException {
+        Dataset dataset = new PeakPickerTest().getDataset();
+        PeakList serial = null;
+        PeakList parallel = null;
+        PeakList iterated = null;
+        try {
+            int[] planes = new int[0];
+            serial = pickAndJitter(dataset, "tweak1");
+            parallel = pickAndJitter(dataset, "tweak2");
+            iterated = pickAndJitter(dataset, "tweak3");
+            PeakListTools.tweakPeaks(serial, dataset, planes);
+
+            PeakTweaker tweaker = new PeakTweaker(parallel, dataset, planes);
+            tweaker.setThreads(4);
+            tweaker.setMaxIterations(1);
+            tweaker.setRefineWidths(false);
+            PeakTweaker.TweakStats stats = tweaker.tweak();
+            Assert.assertEquals(serial.size(), stats.results().size());
+            Assert.assertTrue(stats.nTiles() > 1);
+            for (int i = 0; i < serial.size(); i++) {
+                for (int iDim = 0; iDim < 2; iDim++) {
+                    Assert.assertEquals(serial.getPeak(i).getPeakDim(iDim).getChemShiftValue(),
+                            parallel.getPeak(i).getPeakDim(iDim).getChemShiftValue(), 0.0f);
+                }
+            }
+
+            tweaker = new PeakTweaker(iterated, dataset, planes);
+            tweaker.setThreads(4);
+            stats = tweaker.tweak();
+            Assert.assertTrue(stats.getNConverged() > iterated.size() * 3 / 4);
+            for (PeakTweaker.TweakResult result : stats.results()) {
+                if (result.converged()) {
+                    Assert.assertTrue(result.nIterations() <= 4);
+                    for (int iDim = 0; iDim < 2; iDim++) {
+                        Assert.assertTrue(result.peak().getPeakDim(iDim).getLineWidthValue() > 0.0f);
+                    }
+                }
+            }
+        } finally {
+            for (PeakList peakList : new PeakList[]{serial, parallel, iterated}) {
+                if (peakList != null) {
+                    peakList.remove();
+                }
+            }
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void testWrappedTile() throws DatasetException, IOException {
+        Dataset dataset = new PeakPickerTest().getDataset();
+        PeakList peakList = null;
+        try {
+            peakList = pickAndJitter(dataset, "tweak4");
+            PeakTweaker tweaker = new PeakTweaker(peakList, dataset, new int[0]);
+            Peak peak = peakList.getPeak(0);
+            PeakTweaker.PeakRegion region = tweaker.new PeakRegion(peak);
+            int[] points = new int[2];
+            for (int i = 0; i < 2; i++) {
+                // a region that wraps around the end of the dataset
+                points[i] = region.p[i][0];
+                region.p[i][1] = region.p[i][0] - 1;
+            }
+            PeakTweaker.Tile tile = tweaker.new Tile();
+            tile.regions.add(region);
+            Assert.assertFalse(tile.read());
+            int[] dim = {0, 1};
+            Assert.assertEquals(dataset.readPoint(points, dim), tile.getValue(points, dim), 0.0);
+        } finally {
+            if (peakList != null) {
+                peakList.remove();
+            }
+            dataset.close();
+        }
+    }
+}
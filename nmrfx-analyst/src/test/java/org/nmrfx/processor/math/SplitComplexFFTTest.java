@@ -0,0 +1,165 @@
+package org.nmrfx.processor.math;
+
+import org.apache.commons.math3.complex.Complex;
+import org.apache.commons.math3.transform.DftNormalization;
+import org.apache.commons.math3.transform.FastFourierTransformer;
+import org.apache.commons.math3.transform.TransformType;
+import org.junit.Assert;
+import org.junit.Test;
+import org.nmrfx.processor.operations.Ft;
+import org.nmrfx.processor.operations.Shift;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class SplitComplexFFTTest {
+
+    private static final double TOL = 1.0e-9;
+
+    double[][] getRIVec(int n, long seed) {
+        Random random = new Random(seed);
+        double[][] riVec = new double[2][n];
+        for (int i = 0; i < n; i++) {
+            riVec[0][i] = random.nextGaussian();
+            riVec[1][i] = random.nextGaussian();
+        }
+        return riVec;
+    }
+
+    double[][] dft(double[][] riVec) {
+        int n = riVec[0].length;
+        double[][] result = new double[2][n];
+        for (int k = 0; k < n; k++) {
+            for (int j = 0; j < n; j++) {
+                double theta = -2.0 * Math.PI * ((long) j * k % n) / n;
+                double c = Math.cos(theta);
+                double s = Math.sin(theta);
+                result[0][k] += riVec[0][j] * c - riVec[1][j] * s;
+                result[1][k] += riVec[0][j] * s + riVec[1][j] * c;
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testForwardMatchesApache() {
+        for (int n = 2; n <= 2048; n *= 2) {
+            double[][] riVec = getRIVec(n, n);
+            double[][] expected = {riVec[0].clone(), riVec[1].clone()};
+            FastFourierTransformer.transformInPlace(expected, DftNormalization.STANDARD, TransformType.FORWARD);
+            SplitComplexFFT.get(n).forward(riVec[0], riVec[1]);
+            for (int i = 0; i < n; i++) {
+                Assert.assertEquals(expected[0][i], riVec[0][i], TOL);
+                Assert.assertEquals(expected[1][i], riVec[1][i], TOL);
+            }
+        }
+    }
+
+    @Test
+    public void testMixedRadixMatchesDFT() {
+        int[] sizes = {1, 3, 5, 6, 7, 12, 15, 30, 49, 60, 97, 100, 210};
+        for (int n : sizes) {
+            double[][] riVec = getRIVec(n, n);
+            double[][] expected = dft(riVec);
+            SplitComplexFFT.get(n).forward(riVec[0], riVec[1]);
+            for (int i = 0; i < n; i++) {
+                Assert.assertEquals(expected[0][i], riVec[0][i], TOL);
+                Assert.assertEquals(expected[1][i], riVec[1][i], TOL);
+            }
+        }
+    }
+
+    @Test
+    public void testInverse() {
+        int[] sizes = {8, 12, 45, 256, 1000};
+        for (int n : sizes) {
+            double[][] riVec = getRIVec(n, n);
+            double[][] keep = {riVec[0].clone(), riVec[1].clone()};
+            SplitComplexFFT fft = SplitComplexFFT.get(n);
+            fft.forwardShifted(riVec[0], riVec[1]);
+            fft.inverseShifted(riVec[0], riVec[1]);
+            for (int i = 0; i < n; i++) {
+                Assert.assertEquals(keep[0][i], riVec[0][i], TOL);
+                Assert.assertEquals(keep[1][i], riVec[1][i], TOL);
+            }
+        }
+    }
+
+    @Test
+    public void testShiftedMatchesCfft() {
+        int n = 512;
+        double[][] riVec = getRIVec(n, 7);
+        Complex[] cvec = new Complex[n];
+        for (int i = 0; i < n; i++) {
+            cvec[i] = new Complex(riVec[0][i], riVec[1][i]);
+        }
+        Cfft.cfft(cvec, n, 0);
+        SplitComplexFFT.get(n).forwardShifted(riVec[0], riVec[1]);
+        for (int i = 0; i < n; i++) {
+            Assert.assertEquals(cvec[i].getReal(), riVec[0][i], TOL);
+            Assert.assertEquals(cvec[i].getImaginary(), riVec[1][i], TOL);
+        }
+    }
+
+    @Test
+    public void testRealForward() {
+        int[] sizes = {2, 9, 64, 90};
+        for (int n : sizes) {
+            double[][] riVec = getRIVec(n, n);
+            Arrays.fill(riVec[1], 0.0);
+            double[][] expected = dft(riVec);
+            SplitComplexFFT.get(n).realForward(riVec[0], riVec[1]);
+            for (int i = 0; i < n / 2; i++) {
+                Assert.assertEquals(expected[0][i], riVec[0][i], TOL);
+                Assert.assertEquals(expected[1][i], riVec[1][i], TOL);
+            }
+        }
+    }
+
+    @Test
+    public void testVecFFTMatchesApache() {
+        int n = 256;
+        double[][] riVec = getRIVec(n, 11);
+        Vec vec = new Vec(n, true);
+        Complex[] cvec = new Complex[n];
+        for (int i = 0; i < n; i++) {
+            cvec[i] = new Complex(riVec[0][i], riVec[1][i]);
+            vec.set(i, cvec[i]);
+        }
+        Vec.apache_fft(cvec);
+        vec.fft();
+        Assert.assertFalse(vec.useApache());
+        for (int i = 0; i < n; i++) {
+            Assert.assertEquals(cvec[i].getReal(), vec.getReal(i), TOL);
+            Assert.assertEquals(cvec[i].getImaginary(), vec.getImag(i), TOL);
+        }
+        vec.ifft();
+        for (int i = 0; i < n; i++) {
+            Assert.assertEquals(riVec[0][i], vec.getReal(i), TOL);
+            Assert.assertEquals(riVec[1][i], vec.getImag(i), TOL);
+        }
+    }
+
+    @Test
+    public void testShiftAfterFT() throws Exception {
+        int n = 128;
+        double[][] riVec = getRIVec(n, 13);
+        for (int shift : new int[]{5, -7}) {
+            Vec vec = new Vec(n, true);
+            Complex[] cvec = new Complex[n];
+            for (int i = 0; i < n; i++) {
+                cvec[i] = new Complex(riVec[0][i], riVec[1][i]);
+                vec.set(i, cvec[i]);
+            }
+            Vec.apache_fft(cvec);
+            new Ft(false, false).eval(vec);
+            new Shift(shift, false).eval(vec);
+            for (int i = 0; i < n; i++) {
+                int j = i - shift;
+                Complex expected = (j >= 0) && (j < n) ? cvec[j] : Complex.ZERO;
+                Assert.assertEquals(expected.getReal(), vec.getReal(i), TOL);
+                Assert.assertEquals(expected.getImaginary(), vec.getImag(i), TOL);
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.nmrfx.processor.math;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VecPoolTest {
+
+    @Test
+    public void testReuse() {
+        VecPool pool = new VecPool(4);
+        int[][] pt = {{0, 511}, {3, 3}};
+        int[] dim = {0, 1};
+        Vec vec = pool.get(256, pt, dim, true);
+        Assert.assertTrue(vec.recycle());
+        Assert.assertFalse(vec.recycle());
+        Vec vec2 = pool.get(128, pt, dim, true);
+        Assert.assertSame(vec, vec2);
+        Assert.assertEquals(1, pool.getAllocated());
+        Assert.assertEquals(1, pool.getReused());
+        Vec vec3 = pool.get(128, pt, dim, true);
+        Assert.assertNotSame(vec2, vec3);
+        Assert.assertEquals(2, pool.getAllocated());
+    }
+
+    @Test
+    public void testResetMatchesNewVector() {
+        VecPool pool = new VecPool(4);
+        int[][] pt = {{0, 255}, {7, 7}};
+        int[] dim = {0, 1};
+        Vec vec = pool.get(128, pt, dim, true);
+        for (int i = 0; i < vec.getSize(); i++) {
+            vec.set(i, i, -i);
+        }
+        vec.fft();
+        vec.setPh0(45.0);
+        vec.setGroupDelay(12.0);
+        vec.setRefValue(4.7);
+        vec.dwellTime = 0.001;
+        vec.resize(512);
+        vec.recycle();
+
+        int[][] pt2 = {{0, 127}, {9, 9}};
+        Vec reused = pool.get(64, pt2, dim, true);
+        Vec fresh = new Vec(64, pt2, dim, true);
+        Assert.assertSame(vec, reused);
+        Assert.assertEquals(fresh.getSize(), reused.getSize());
+        Assert.assertEquals(fresh.isComplex(), reused.isComplex());
+        Assert.assertEquals(fresh.useApache(), reused.useApache());
+        Assert.assertEquals(fresh.getFreqDomain(), reused.getFreqDomain());
+        Assert.assertEquals(fresh.getPH0(), reused.getPH0(), 1.0e-12);
+        Assert.assertEquals(fresh.getGroupDelay(), reused.getGroupDelay(), 1.0e-12);
+        Assert.assertEquals(fresh.getRefValue(), reused.getRefValue(), 1.0e-12);
+        Assert.assertEquals(fresh.dwellTime, reused.dwellTime, 1.0e-12);
+        Assert.assertEquals(fresh.getTDSize(), reused.getTDSize());
+        Assert.assertArrayEquals(fresh.getPt()[0], reused.getPt()[0]);
+        Assert.assertArrayEquals(fresh.getPt()[1], reused.getPt()[1]);
+        for (int i = 0; i < reused.getSize(); i++) {
+            Assert.assertEquals(0.0, reused.getReal(i), 0.0);
+            Assert.assertEquals(0.0, reused.getImag(i), 0.0);
+        }
+    }
+}
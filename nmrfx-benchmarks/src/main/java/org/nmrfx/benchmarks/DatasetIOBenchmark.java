@@ -0,0 +1,120 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2017 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.benchmarks;
+
+import org.nmrfx.processor.datasets.Dataset;
+import org.nmrfx.processor.datasets.DatasetException;
+import org.nmrfx.processor.math.Vec;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading and writing vectors of a 2D dataset for each storage backend:
+ * memory (MemoryFile), mapped (MappedSubMatrixFile) and cache (SubMatrixFile
+ * buffered through the StorageCache). Successive invocations move to the next
+ * row or column so the whole dataset is visited.
+ *
+ * @author brucejohnson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DatasetIOBenchmark {
+
+    @Param({"memory", "mapped", "cache"})
+    String backend;
+
+    @Param({"2048"})
+    int rowSize;
+
+    @Param({"512"})
+    int nRows;
+
+    Dataset dataset;
+    File file;
+    Vec row;
+    Vec column;
+    int rowIndex = 0;
+    int columnIndex = 0;
+
+    @Setup
+    public void setup() throws DatasetException, IOException {
+        int[] sizes = {rowSize, nRows};
+        if (backend.equals("memory")) {
+            dataset = new Dataset("bench_" + backend, null, sizes, false);
+        } else {
+            file = Files.createTempFile("bench_" + backend, ".nv").toFile();
+            Dataset.useCacheFile(backend.equals("cache"));
+            dataset = Dataset.createDataset(file.getPath(), file.getName(), file.getName(), sizes, false, true);
+        }
+        for (int iDim = 0; iDim < sizes.length; iDim++) {
+            dataset.setComplex(iDim, false);
+            dataset.setComplex_r(iDim, false);
+        }
+        row = SyntheticData.spectrum(rowSize, 5L);
+        row.makeReal();
+        for (int i = 0; i < nRows; i++) {
+            dataset.writeVector(row, new int[]{i}, 0);
+        }
+        column = new Vec(nRows, false);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        dataset.close();
+        Dataset.useCacheFile(false);
+        if (file != null) {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    @Benchmark
+    public Vec readRow() throws IOException {
+        dataset.readVector(row, rowIndex, 0);
+        rowIndex = (rowIndex + 1) % nRows;
+        return row;
+    }
+
+    @Benchmark
+    public Vec readColumn() throws IOException {
+        dataset.readVector(column, columnIndex, 1);
+        columnIndex = (columnIndex + 1) % rowSize;
+        return column;
+    }
+
+    @Benchmark
+    public Vec writeRow() throws IOException {
+        dataset.writeVector(row, new int[]{rowIndex}, 0);
+        rowIndex = (rowIndex + 1) % nRows;
+        return row;
+    }
+
+    @Benchmark
+    public Vec writeColumn() throws IOException {
+        dataset.writeVector(column, new int[]{columnIndex}, 1);
+        columnIndex = (columnIndex + 1) % rowSize;
+        return column;
+    }
+}
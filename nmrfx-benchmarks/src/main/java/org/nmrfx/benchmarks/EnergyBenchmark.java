@@ -0,0 +1,104 @@
+/*
+ * NMRFx Structure : A Program for Calculating Structures
+ * Copyright (C) 2004-2017 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.benchmarks;
+
+import org.nmrfx.chemistry.Atom;
+import org.nmrfx.structure.chemistry.energy.EnergyCoords;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repulsive contact and distance constraint energies of {@link EnergyCoords}.
+ * The atoms are placed at random in a cube with roughly the density of
+ * protein heavy atoms. Contact pairs are all pairs closer than the cutoff
+ * and the constraints connect random atoms within 10 residues of each other.
+ *
+ * @author brucejohnson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnergyBenchmark {
+
+    static final double DENSITY = 0.05;
+    static final double CUTOFF = 5.0;
+    static final int ATOMS_PER_RESIDUE = 8;
+
+    @Param({"1000", "5000"})
+    int nAtoms;
+
+    EnergyCoords eCoords;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(17L);
+        double side = Math.cbrt(nAtoms / DENSITY);
+        eCoords = new EnergyCoords();
+        eCoords.initCoords(nAtoms);
+        for (int i = 0; i < nAtoms; i++) {
+            Atom atom = Atom.genAtomWithElement("C" + i, 6);
+            eCoords.setCoords(i, side * random.nextDouble(), side * random.nextDouble(),
+                    side * random.nextDouble(), i / ATOMS_PER_RESIDUE, atom);
+        }
+        eCoords.getFixedRange();
+
+        double cutoff2 = CUTOFF * CUTOFF;
+        for (int i = 0; i < nAtoms; i++) {
+            for (int j = i + 1; j < nAtoms; j++) {
+                if (eCoords.disSq(i, j) < cutoff2) {
+                    eCoords.addPair(i, j, i / ATOMS_PER_RESIDUE, j / ATOMS_PER_RESIDUE, 3.2);
+                }
+            }
+        }
+
+        int window = 10 * ATOMS_PER_RESIDUE;
+        for (int k = 0; k < 2 * nAtoms; k++) {
+            int i = random.nextInt(nAtoms);
+            int j = Math.min(nAtoms - 1, i + 1 + random.nextInt(window));
+            if (i != j) {
+                eCoords.addPair(i, j, -1, -1, 1.8, 5.0, false, k, 1.0);
+            }
+        }
+        eCoords.updateGroups();
+    }
+
+    @Benchmark
+    public double calcRepel() {
+        return eCoords.calcRepel(false, 1.0, 1.0);
+    }
+
+    @Benchmark
+    public double calcRepelDeriv() {
+        return eCoords.calcRepel(true, 1.0, 1.0);
+    }
+
+    @Benchmark
+    public double calcNOE() {
+        return eCoords.calcNOE(false, 1.0);
+    }
+
+    @Benchmark
+    public double calcNOEDeriv() {
+        return eCoords.calcNOE(true, 1.0);
+    }
+}
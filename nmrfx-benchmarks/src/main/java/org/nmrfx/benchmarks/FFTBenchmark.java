@@ -0,0 +1,158 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2017 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.benchmarks;
+
+import org.apache.commons.math3.complex.Complex;
+import org.apache.commons.math3.transform.DftNormalization;
+import org.apache.commons.math3.transform.FastFourierTransformer;
+import org.apache.commons.math3.transform.TransformType;
+import org.nmrfx.processor.math.Cfft;
+import org.nmrfx.processor.math.SplitComplexFFT;
+import org.nmrfx.processor.math.Vec;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fourier transforms of a single vector. The Vec benchmarks include the cost
+ * of copying the template FID into the work vector, which is measured on its
+ * own by {@link #copyOnly()}. The engine benchmarks compare
+ * {@link SplitComplexFFT} with the Cfft and Apache Commons Math transforms on
+ * the same data.
+ *
+ * @author brucejohnson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FFTBenchmark {
+
+    @Param({"1024", "4096", "16384"})
+    int size;
+
+    Vec fid;
+    Vec realFid;
+    Vec work;
+    double[] re;
+    double[] im;
+    double[][] ri;
+    Complex[] cTemplate;
+    Complex[] cvec;
+
+    @Setup
+    public void setup() {
+        fid = SyntheticData.fid(size, 32, 1L);
+        realFid = new Vec(size, false);
+        for (int i = 0; i < size; i++) {
+            realFid.set(i, fid.getReal(i));
+        }
+        work = new Vec(size, true);
+        re = new double[size];
+        im = new double[size];
+        ri = new double[2][size];
+        cTemplate = new Complex[size];
+        for (int i = 0; i < size; i++) {
+            cTemplate[i] = new Complex(fid.getReal(i), fid.getImag(i));
+        }
+        cvec = new Complex[size];
+    }
+
+    private void loadArrays() {
+        for (int i = 0; i < size; i++) {
+            re[i] = fid.getReal(i);
+            im[i] = fid.getImag(i);
+        }
+    }
+
+    @Benchmark
+    public Vec copyOnly() {
+        fid.copy(work);
+        return work;
+    }
+
+    @Benchmark
+    public Vec vecFt() {
+        fid.copy(work);
+        work.ft();
+        return work;
+    }
+
+    @Benchmark
+    public Vec vecFtIft() {
+        fid.copy(work);
+        work.ft();
+        work.ift();
+        return work;
+    }
+
+    @Benchmark
+    public Vec vecFft() {
+        fid.copy(work);
+        work.fft();
+        return work;
+    }
+
+    @Benchmark
+    public Vec vecRft() {
+        realFid.copy(work);
+        work.rft(false);
+        return work;
+    }
+
+    @Benchmark
+    public double[] splitComplexForward() {
+        loadArrays();
+        SplitComplexFFT.get(size).forwardShifted(re, im);
+        return re;
+    }
+
+    @Benchmark
+    public double[] splitComplexReal() {
+        loadArrays();
+        Arrays.fill(im, 0.0);
+        SplitComplexFFT.get(size).realForward(re, im);
+        return re;
+    }
+
+    @Benchmark
+    public Complex[] cfft() {
+        System.arraycopy(cTemplate, 0, cvec, 0, size);
+        Cfft.cfft(cvec, size, 0);
+        return cvec;
+    }
+
+    @Benchmark
+    public Complex[] apacheComplex() {
+        System.arraycopy(cTemplate, 0, cvec, 0, size);
+        return Vec.apache_fft(cvec);
+    }
+
+    @Benchmark
+    public double[][] apacheInPlace() {
+        for (int i = 0; i < size; i++) {
+            ri[0][i] = fid.getReal(i);
+            ri[1][i] = fid.getImag(i);
+        }
+        FastFourierTransformer.transformInPlace(ri, DftNormalization.STANDARD, TransformType.FORWARD);
+        return ri;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2017 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.benchmarks;
+
+import org.nmrfx.processor.math.Vec;
+import org.nmrfx.processor.operations.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single vector processing operations with the default parameters used by the
+ * corresponding pyproc commands. Apodization operations are applied to a FID,
+ * phasing and baseline correction to a frequency domain spectrum. Each
+ * invocation first copies the template into the work vector, and clears any
+ * signal region so baseline correction includes region detection.
+ *
+ * @author brucejohnson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OperationBenchmark {
+
+    @Param({"gm", "expd", "sb", "phase", "bcpoly", "bcwhit"})
+    String op;
+
+    @Param({"4096", "32768"})
+    int size;
+
+    Vec template;
+    Vec work;
+    Operation operation;
+
+    @Setup
+    public void setup() {
+        operation = switch (op) {
+            case "gm" -> new Gm(1.0, 1.0, 0.0, 1.0, false);
+            case "expd" -> new Expd(1.0, 1.0, false);
+            case "sb" -> new SinebellApod(0.5, 1.0, 2.0, 1.0, 0, false);
+            case "phase" -> new Phase(45.0, 30.0);
+            case "bcpoly" -> new BcPoly(2, 16);
+            case "bcwhit" -> new Bcwhit(5000, 1, false);
+            default -> throw new IllegalArgumentException("Unknown operation " + op);
+        };
+        boolean timeDomain = op.equals("gm") || op.equals("expd") || op.equals("sb");
+        template = timeDomain ? SyntheticData.fid(size, 32, 3L) : SyntheticData.spectrum(size, 3L);
+        work = new Vec(size, true);
+    }
+
+    @Benchmark
+    public Vec eval() {
+        template.copy(work);
+        work.setSignalRegion(null);
+        operation.eval(work);
+        return work;
+    }
+}
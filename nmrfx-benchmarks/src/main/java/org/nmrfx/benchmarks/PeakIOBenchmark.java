@@ -0,0 +1,85 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2017 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.benchmarks;
+
+import org.nmrfx.peaks.InvalidPeakException;
+import org.nmrfx.peaks.PeakList;
+import org.nmrfx.peaks.io.PeakReader;
+import org.nmrfx.peaks.io.PeakWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing and reading synthetic peak lists in XPK2 format, as done for each
+ * peak list when a project is saved and opened.
+ *
+ * @author brucejohnson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PeakIOBenchmark {
+
+    @Param({"10000", "1000000"})
+    int nPeaks;
+
+    PeakList peakList;
+    File writeFile;
+    File readFile;
+
+    @Setup
+    public void setup() throws IOException, InvalidPeakException {
+        peakList = SyntheticData.peakList("io" + nPeaks, 3, nPeaks, 17L);
+        writeFile = Files.createTempFile("bench_write", ".xpk2").toFile();
+        readFile = Files.createTempFile("bench_read", ".xpk2").toFile();
+        try (BufferedWriter writer = Files.newBufferedWriter(readFile.toPath())) {
+            new PeakWriter().writePeaksXPK2(writer, peakList);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        peakList.remove();
+        Files.deleteIfExists(writeFile.toPath());
+        Files.deleteIfExists(readFile.toPath());
+    }
+
+    @Benchmark
+    public long writeXPK2() throws IOException, InvalidPeakException {
+        try (BufferedWriter writer = Files.newBufferedWriter(writeFile.toPath())) {
+            new PeakWriter().writePeaksXPK2(writer, peakList);
+        }
+        return writeFile.length();
+    }
+
+    @Benchmark
+    public int readXPK2() throws IOException {
+        PeakList readList = new PeakReader().readXPK2Peaks(readFile.toString());
+        int size = readList.size();
+        readList.remove();
+        return size;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2017 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.benchmarks;
+
+import org.nmrfx.math.Clusters;
+import org.nmrfx.peaks.Peak;
+import org.nmrfx.peaks.PeakDim;
+import org.nmrfx.peaks.PeakList;
+import org.nmrfx.processor.datasets.peaks.PeakListTools;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Peak list searches: {@link PeakList#locatePeaks(double[][], int[])} with
+ * small boxes at random positions, and {@link Clusters#doCluster(int, double[])}
+ * on the peaks of three jittered copies of the same list, as done when
+ * clustering linked peak lists, and
+ * {@link PeakListTools#getExpPredMatches(PeakList, PeakList, int[], double[])}
+ * between the list and a jittered copy, as done when matching predicted and
+ * experimental peaks.
+ *
+ * @author brucejohnson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PeakListBenchmark {
+
+    @Param({"1000", "10000"})
+    int nPeaks;
+
+    @Param({"500"})
+    int nClusterPeaks;
+
+    PeakList peakList;
+    double[][][] searchLimits;
+    int[] searchDims = {0, 1};
+    int searchIndex = 0;
+    double[][] clusterValues;
+    int[] clusterGroups;
+    double[] clusterTol = {0.05, 0.5};
+    PeakList matchList;
+    double[] matchTol = {0.05, 0.5};
+
+    @Setup
+    public void setup() {
+        peakList = SyntheticData.peakList("locate" + nPeaks, 2, nPeaks, 11L);
+        Random random = new Random(13L);
+        searchLimits = new double[256][2][2];
+        for (double[][] limits : searchLimits) {
+            Peak peak = peakList.getPeak(random.nextInt(nPeaks));
+            for (int iDim = 0; iDim < 2; iDim++) {
+                double ppm = peak.getPeakDim(iDim).getChemShiftValue();
+                double width = iDim == 0 ? 0.1 : 1.0;
+                limits[iDim][0] = ppm + width / 2.0;
+                limits[iDim][1] = ppm - width / 2.0;
+            }
+        }
+
+        int nGroups = 3;
+        clusterValues = new double[nClusterPeaks * nGroups][2];
+        clusterGroups = new int[nClusterPeaks * nGroups];
+        for (int iGroup = 0; iGroup < nGroups; iGroup++) {
+            for (int i = 0; i < nClusterPeaks; i++) {
+                Peak peak = peakList.getPeak(i % nPeaks);
+                int index = iGroup * nClusterPeaks + i;
+                clusterGroups[index] = iGroup;
+                for (int iDim = 0; iDim < 2; iDim++) {
+                    double ppm = peak.getPeakDim(iDim).getChemShiftValue();
+                    clusterValues[index][iDim] = ppm + random.nextGaussian() * clusterTol[iDim] / 4.0;
+                }
+            }
+        }
+
+        matchList = SyntheticData.peakList("match" + nPeaks, 2, nPeaks, 11L);
+        for (Peak peak : matchList.peaks()) {
+            for (int iDim = 0; iDim < 2; iDim++) {
+                PeakDim peakDim = peak.getPeakDim(iDim);
+                double ppm = peakDim.getChemShiftValue() + random.nextGaussian() * matchTol[iDim] / 4.0;
+                peakDim.setChemShiftValue((float) ppm);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        peakList.remove();
+        matchList.remove();
+    }
+
+    @Benchmark
+    public List<Peak> locatePeaks() {
+        double[][] limits = searchLimits[searchIndex];
+        searchIndex = (searchIndex + 1) % searchLimits.length;
+        double[][] copy = {limits[0].clone(), limits[1].clone()};
+        return peakList.locatePeaks(copy, searchDims);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Clusters doCluster() {
+        Clusters clusters = new Clusters();
+        for (int i = 0; i < clusterValues.length; i++) {
+            clusters.addDatum(new Clusters.ClusterItem(i, clusterValues[i], clusterGroups[i]));
+        }
+        clusters.doCluster(2, clusterTol);
+        return clusters;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Peak[]> matchPeakLists() {
+        return PeakListTools.getExpPredMatches(peakList, matchList, searchDims, matchTol);
+    }
+}
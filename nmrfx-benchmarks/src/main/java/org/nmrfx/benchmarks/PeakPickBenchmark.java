@@ -0,0 +1,74 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2017 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.benchmarks;
+
+import org.nmrfx.peaks.PeakList;
+import org.nmrfx.processor.datasets.Dataset;
+import org.nmrfx.processor.datasets.DatasetException;
+import org.nmrfx.processor.datasets.peaks.PeakPickParameters;
+import org.nmrfx.processor.datasets.peaks.PeakPicker;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Peak picking of a whole synthetic 2D or 3D dataset. The peak list from the
+ * previous invocation is removed first so every pick starts from an empty
+ * list.
+ *
+ * @author brucejohnson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PeakPickBenchmark {
+
+    @Param({"2", "3"})
+    int nDim;
+
+    Dataset dataset;
+    String listName;
+
+    @Setup
+    public void setup() throws DatasetException, IOException {
+        int[] sizes = nDim == 2 ? new int[]{1024, 512} : new int[]{256, 128, 64};
+        int nPeaks = nDim == 2 ? 400 : 300;
+        dataset = SyntheticData.peakDataset("pick" + nDim + "d", sizes, nPeaks, 7L);
+        listName = "pick" + nDim + "d_list";
+    }
+
+    @TearDown
+    public void tearDown() {
+        PeakList.remove(listName);
+        dataset.close();
+    }
+
+    @Benchmark
+    public PeakList peakPick() throws IOException {
+        PeakList.remove(listName);
+        PeakPickParameters peakPickPar = (new PeakPickParameters(dataset, listName)).level(20.0).mode("new");
+        peakPickPar.pos(true).neg(false);
+        peakPickPar.calcRange();
+        PeakPicker picker = new PeakPicker(peakPickPar);
+        return picker.peakPick();
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2017 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.benchmarks;
+
+import org.nmrfx.analyst.dataops.SimData;
+import org.nmrfx.peaks.Peak;
+import org.nmrfx.peaks.PeakDim;
+import org.nmrfx.peaks.PeakList;
+import org.nmrfx.peaks.SpectralDim;
+import org.nmrfx.processor.datasets.Dataset;
+import org.nmrfx.processor.datasets.DatasetException;
+import org.nmrfx.processor.math.Vec;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generators for the synthetic vectors, datasets and peak lists used by the
+ * benchmarks, so that they can be run without any experimental data.
+ *
+ * @author brucejohnson
+ */
+public class SyntheticData {
+
+    static final double[] SF = {600.0, 60.8, 150.9};
+    static final double[] SW = {8000.0, 2000.0, 6000.0};
+    static final double[] REF = {4.7, 118.0, 45.0};
+    static final String[] LABELS = {"H1", "N15", "C13"};
+
+    private SyntheticData() {
+    }
+
+    /**
+     * Generate a complex FID that is the sum of decaying sinusoids with random
+     * frequencies and amplitudes, plus a small amount of noise.
+     *
+     * @param size     number of complex points
+     * @param nSignals number of signals
+     * @param seed     seed for the random number generator
+     * @return the FID
+     */
+    public static Vec fid(int size, int nSignals, long seed) {
+        Random random = new Random(seed);
+        Vec vec = new Vec(size, true);
+        vec.setSF(SF[0]);
+        vec.setSW(SW[0]);
+        vec.setRefValue(REF[0]);
+        double dwellTime = 1.0 / SW[0];
+        double[] freqs = new double[nSignals];
+        double[] decays = new double[nSignals];
+        double[] amps = new double[nSignals];
+        for (int j = 0; j < nSignals; j++) {
+            freqs[j] = 2.0 * Math.PI * (random.nextDouble() - 0.5) * SW[0] * dwellTime;
+            decays[j] = Math.exp(-Math.PI * (2.0 + 8.0 * random.nextDouble()) * dwellTime);
+            amps[j] = 0.2 + random.nextDouble();
+        }
+        for (int i = 0; i < size; i++) {
+            double re = 0.0;
+            double im = 0.0;
+            for (int j = 0; j < nSignals; j++) {
+                double amp = amps[j] * Math.pow(decays[j], i);
+                re += amp * Math.cos(freqs[j] * i);
+                im += amp * Math.sin(freqs[j] * i);
+            }
+            vec.set(i, re + 0.001 * random.nextGaussian(), im + 0.001 * random.nextGaussian());
+        }
+        return vec;
+    }
+
+    /**
+     * Generate a phased-out, complex, frequency domain spectrum. The spectrum
+     * of a compound from the {@link SimData} library is used when available,
+     * otherwise the Fourier transform of a synthetic FID.
+     *
+     * @param size number of complex points
+     * @param seed seed used if the synthetic FID has to be generated
+     * @return the spectrum
+     */
+    public static Vec spectrum(int size, long seed) {
+        if (!SimData.loaded()) {
+            SimData.load();
+        }
+        List<String> names = SimData.getNames();
+        Vec vec;
+        if (names.isEmpty()) {
+            vec = fid(size, 24, seed);
+            vec.ft();
+            vec.phase(45.0, 30.0);
+        } else {
+            vec = new Vec(size);
+            vec.setSF(SF[0]);
+            vec.setSW(SW[0]);
+            vec.setRefValue(REF[0]);
+            vec.setName(names.get((int) (Math.abs(seed) % names.size())));
+            SimData.genVec(vec.getName(), vec, 1.0);
+            if (vec.getSize() != size) {
+                vec.resize(size);
+            }
+        }
+        return vec;
+    }
+
+    /**
+     * Create an in-memory, frequency domain dataset containing Lorentzian peaks
+     * at random positions on a noisy baseline.
+     *
+     * @param name   name of the dataset
+     * @param sizes  sizes of the dataset dimensions (at most 3)
+     * @param nPeaks number of peaks
+     * @param seed   seed for the random number generator
+     * @return the dataset
+     * @throws DatasetException if the dataset can't be created
+     * @throws IOException      if the values can't be written
+     */
+    public static Dataset peakDataset(String name, int[] sizes, int nPeaks, long seed) throws DatasetException, IOException {
+        int nDim = sizes.length;
+        Random random = new Random(seed);
+        Dataset dataset = new Dataset(name, null, sizes, false);
+        for (int iDim = 0; iDim < nDim; iDim++) {
+            dataset.setSf(iDim, SF[iDim]);
+            dataset.setSw(iDim, SW[iDim]);
+            dataset.setRefValue(iDim, REF[iDim]);
+            dataset.setRefPt(iDim, sizes[iDim] / 2.0);
+            dataset.setLabel(iDim, LABELS[iDim]);
+            dataset.setComplex(iDim, false);
+            dataset.setComplex_r(iDim, false);
+            dataset.setFreqDomain(iDim, true);
+            dataset.setFreqDomain_r(iDim, true);
+        }
+        dataset.setNFreqDims(nDim);
+
+        double[][] positions = new double[nPeaks][nDim];
+        double[][] widths = new double[nPeaks][nDim];
+        double[] amps = new double[nPeaks];
+        for (int iPeak = 0; iPeak < nPeaks; iPeak++) {
+            for (int iDim = 0; iDim < nDim; iDim++) {
+                positions[iPeak][iDim] = 8 + random.nextDouble() * (sizes[iDim] - 16);
+                widths[iPeak][iDim] = 1.0 + 2.0 * random.nextDouble();
+            }
+            amps[iPeak] = 100.0 + 900.0 * random.nextDouble();
+        }
+
+        int nRows = nDim > 1 ? sizes[1] : 1;
+        int nPlanes = nDim > 2 ? sizes[2] : 1;
+        Vec row = new Vec(sizes[0], false);
+        double[] rowFactors = new double[nPeaks];
+        for (int k = 0; k < nPlanes; k++) {
+            for (int j = 0; j < nRows; j++) {
+                for (int iPeak = 0; iPeak < nPeaks; iPeak++) {
+                    double factor = amps[iPeak];
+                    if (nDim > 1) {
+                        factor *= lorentz(j, positions[iPeak][1], widths[iPeak][1]);
+                    }
+                    if (nDim > 2) {
+                        factor *= lorentz(k, positions[iPeak][2], widths[iPeak][2]);
+                    }
+                    rowFactors[iPeak] = factor;
+                }
+                for (int i = 0; i < sizes[0]; i++) {
+                    double value = random.nextGaussian();
+                    for (int iPeak = 0; iPeak < nPeaks; iPeak++) {
+                        if (rowFactors[iPeak] > 0.01) {
+                            value += rowFactors[iPeak] * lorentz(i, positions[iPeak][0], widths[iPeak][0]);
+                        }
+                    }
+                    row.set(i, value);
+                }
+                if (nDim == 1) {
+                    dataset.writeVector(row, new int[0], 0);
+                } else if (nDim == 2) {
+                    dataset.writeVector(row, new int[]{j}, 0);
+                } else {
+                    dataset.writeVector(row, new int[]{j, k}, 0);
+                }
+            }
+        }
+        dataset.setNoiseLevel(1.0);
+        return dataset;
+    }
+
+    /**
+     * Create a peak list with peaks at random positions.
+     *
+     * @param name   name of the peak list
+     * @param nDim   number of dimensions (at most 3)
+     * @param nPeaks number of peaks
+     * @param seed   seed for the random number generator
+     * @return the peak list
+     */
+    public static PeakList peakList(String name, int nDim, int nPeaks, long seed) {
+        Random random = new Random(seed);
+        PeakList peakList = new PeakList(name, nDim);
+        for (int iDim = 0; iDim < nDim; iDim++) {
+            SpectralDim sDim = peakList.getSpectralDim(iDim);
+            sDim.setSf(SF[iDim]);
+            sDim.setSw(SW[iDim]);
+            sDim.setRef(REF[iDim]);
+            sDim.setDimName(LABELS[iDim]);
+        }
+        for (int iPeak = 0; iPeak < nPeaks; iPeak++) {
+            Peak peak = peakList.getNewPeak();
+            for (int iDim = 0; iDim < nDim; iDim++) {
+                PeakDim peakDim = peak.getPeakDim(iDim);
+                double ppmWidth = SW[iDim] / SF[iDim];
+                double ppm = REF[iDim] + (random.nextDouble() - 0.5) * ppmWidth;
+                peakDim.setChemShiftValue((float) ppm);
+                peakDim.setLineWidthValue((float) (0.02 * ppmWidth / 10.0));
+                peakDim.setBoundsValue((float) (0.06 * ppmWidth / 10.0));
+            }
+            peak.setIntensity((float) (100.0 + 900.0 * random.nextDouble()));
+        }
+        return peakList;
+    }
+
+    private static double lorentz(double x, double center, double width) {
+        double delta = (x - center) / width;
+        return 1.0 / (1.0 + delta * delta);
+    }
+}
@@ -14,24 +14,77 @@ import java.util.Map;
 public class MoleculeFactory {
     private static final Logger log = LoggerFactory.getLogger(MoleculeFactory.class);
     private static Constructor constructor = null;
+    private static final ThreadLocal<ThreadMolecule> threadMolecule = new ThreadLocal<>();
+
+    /**
+     * The molecule of a thread that works on its own molecule.
+     */
+    private static class ThreadMolecule {
+        MoleculeBase molecule = null;
+    }
 
     private MoleculeFactory() {
 
     }
 
+    /**
+     * Give the current thread its own active molecule, so several threads
+     * can each build and work on a molecule at the same time. Until
+     * endThreadMolecule is called, a molecule that is created, put or made
+     * active becomes the thread's molecule instead of being added to the
+     * project. getActive returns it, and getMolecule finds it by name before
+     * the molecules of the project.
+     */
+    public static void beginThreadMolecule() {
+        threadMolecule.set(new ThreadMolecule());
+    }
+
+    /**
+     * Go back to using the molecules of the project in the current thread.
+     */
+    public static void endThreadMolecule() {
+        threadMolecule.remove();
+    }
+
+    /**
+     * @return true if the current thread works on its own molecule (see
+     * beginThreadMolecule)
+     */
+    public static boolean hasThreadMolecule() {
+        return threadMolecule.get() != null;
+    }
+
     public static MoleculeBase getActive() {
+        ThreadMolecule current = threadMolecule.get();
+        if (current != null) {
+            return current.molecule;
+        }
         return ProjectBase.getActive().getActiveMolecule();
     }
 
     public static void setActive(MoleculeBase molecule) {
-        ProjectBase.getActive().setActiveMolecule(molecule);
+        ThreadMolecule current = threadMolecule.get();
+        if (current != null) {
+            current.molecule = molecule;
+        } else {
+            ProjectBase.getActive().setActiveMolecule(molecule);
+        }
     }
 
     public static void putMolecule(MoleculeBase molecule) {
-        ProjectBase.getActive().putMolecule(molecule);
+        ThreadMolecule current = threadMolecule.get();
+        if (current != null) {
+            current.molecule = molecule;
+        } else {
+            ProjectBase.getActive().putMolecule(molecule);
+        }
     }
 
     public static MoleculeBase getMolecule(String name) {
+        ThreadMolecule current = threadMolecule.get();
+        if ((current != null) && (current.molecule != null) && current.molecule.getName().equals(name)) {
+            return current.molecule;
+        }
         return ProjectBase.getActive().getMolecule(name);
     }
 
@@ -87,7 +140,7 @@ public class MoleculeFactory {
             }
         }
         if (moleculeBase != null) {
-            ProjectBase.getActive().putMolecule(moleculeBase);
+            putMolecule(moleculeBase);
             setActive(moleculeBase);
         }
         return moleculeBase;
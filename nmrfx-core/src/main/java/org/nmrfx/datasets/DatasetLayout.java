@@ -146,6 +146,20 @@ public class DatasetLayout {
         return offsetBlocks[i];
     }
 
+    /**
+     * Get the last index along a dimension that is in the same block as the
+     * specified index, limited to not exceed a maximum index.
+     *
+     * @param iDim  the dimension
+     * @param index the index along the dimension
+     * @param last  the maximum index to return
+     * @return the last index in the block
+     */
+    public int lastInBlock(int iDim, int index, int last) {
+        int blockEnd = (index / blockSize[iDim] + 1) * blockSize[iDim] - 1;
+        return Math.min(blockEnd, last);
+    }
+
     /**
      * @return the fileHeaderSize
      */
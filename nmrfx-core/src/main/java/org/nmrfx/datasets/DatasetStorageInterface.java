@@ -139,42 +139,137 @@ public interface DatasetStorageInterface {
      */
     public void force();
 
-    public default void writeVector(int first, int last, int[] point, int dim, double scale, VecBase vector) throws IOException {
-        int j = 0;
-        for (int i = first; i <= last; i++) {
+    /**
+     * Read a run of values along one dimension. The values from index first to
+     * index last (inclusive) along dimension dim, at the position given by the
+     * other entries of point, are copied into values. Implementations should
+     * override this to use bulk, strided access to the underlying storage.
+     *
+     * @param first  the first index along dim
+     * @param last   the last index along dim
+     * @param point  the position in the other dimensions. The value of
+     *               point[dim] is modified.
+     * @param dim    the dimension to read along
+     * @param values array to store the values in, must be at least last - first + 1 long
+     * @throws IOException if an I/O error occurs
+     */
+    public default void readFloats(int first, int last, int[] point, int dim, float[] values) throws IOException {
+        for (int i = first, k = 0; i <= last; i++, k++) {
             point[dim] = i;
-            if (vector.isComplex()) {
-                if ((i % 2) != 0) {
-                    setFloat((float) (vector.getImag(j) * scale), point);
+            values[k] = getFloat(point);
+        }
+    }
+
+    /**
+     * Write a run of values along one dimension. The values are written from
+     * index first to index last (inclusive) along dimension dim, at the
+     * position given by the other entries of point.  Implementations should
+     * override this to use bulk, strided access to the underlying storage.
+     *
+     * @param first  the first index along dim
+     * @param last   the last index along dim
+     * @param point  the position in the other dimensions. The value of
+     *               point[dim] is modified.
+     * @param dim    the dimension to write along
+     * @param values the values to write, must be at least last - first + 1 long
+     * @throws IOException if an I/O error occurs
+     */
+    public default void writeFloats(int first, int last, int[] point, int dim, float[] values) throws IOException {
+        for (int i = first, k = 0; i <= last; i++, k++) {
+            point[dim] = i;
+            setFloat(values[k], point);
+        }
+    }
+
+    public default void writeVector(int first, int last, int[] point, int dim, double scale, VecBase vector) throws IOException {
+        float[] values = new float[last - first + 1];
+        copyFromVector(vector, first, scale, values);
+        writeFloats(first, last, point, dim, values);
+    }
+
+    public default void readVector(int first, int last, int[] point, int dim, double scale, VecBase vector) throws IOException {
+        float[] values = new float[last - first + 1];
+        readFloats(first, last, point, dim, values);
+        copyToVector(values, first, scale, vector);
+    }
+
+    /**
+     * Copy values read from a dataset into a vector. If the vector is complex
+     * the values are interleaved real and imaginary, with values at odd
+     * dataset indices being imaginary.
+     *
+     * @param values the values read from the dataset
+     * @param first  the dataset index of the first value
+     * @param scale  values are divided by this scale
+     * @param vector the vector to store values in
+     */
+    public static void copyToVector(float[] values, int first, double scale, VecBase vector) {
+        checkVectorSize(values.length, first, vector, false);
+        if (vector.isComplex()) {
+            boolean direct = !vector.useApache();
+            double dReal = 0.0;
+            for (int k = 0, j = 0; k < values.length; k++) {
+                if (((first + k) % 2) != 0) {
+                    double dImaginary = values[k] / scale;
+                    if (direct) {
+                        vector.rvec[j] = dReal;
+                        vector.ivec[j] = dImaginary;
+                    } else {
+                        vector.set(j, new Complex(dReal, dImaginary));
+                    }
                     j++;
                 } else {
-                    setFloat((float) (vector.getReal(j) * scale), point);
+                    dReal = values[k] / scale;
                 }
-            } else {
-                setFloat((float) (vector.getReal(j) * scale), point);
-                j++;
+            }
+        } else {
+            double[] rvec = vector.rvec;
+            for (int k = 0; k < values.length; k++) {
+                rvec[k] = values[k] / scale;
             }
         }
     }
 
-    public default void readVector(int first, int last, int[] point, int dim, double scale, VecBase vector) throws IOException {
-
-        double dReal = 0.0;
-        int j = 0;
-        for (int i = first; i <= last; i++) {
-            point[dim] = i;
-            if (vector.isComplex()) {
-                if ((i % 2) != 0) {
-                    double dImaginary = getFloat(point) / scale;
-                    vector.set(j, new Complex(dReal, dImaginary));
+    /**
+     * Copy values from a vector into an array to be written to a dataset. If
+     * the vector is complex the values are interleaved real and imaginary, with
+     * values at odd dataset indices being imaginary.
+     *
+     * @param vector the vector to get values from
+     * @param first  the dataset index of the first value
+     * @param scale  values are multiplied by this scale
+     * @param values array to store the values in
+     */
+    public static void copyFromVector(VecBase vector, int first, double scale, float[] values) {
+        checkVectorSize(values.length, first, vector, true);
+        if (vector.isComplex()) {
+            boolean direct = !vector.useApache();
+            for (int k = 0, j = 0; k < values.length; k++) {
+                if (((first + k) % 2) != 0) {
+                    values[k] = (float) ((direct ? vector.ivec[j] : vector.getImag(j)) * scale);
                     j++;
                 } else {
-                    dReal = getFloat(point) / scale;
+                    values[k] = (float) ((direct ? vector.rvec[j] : vector.getReal(j)) * scale);
                 }
-            } else {
-                vector.set(j, getFloat(point) / scale);
-                j++;
             }
+        } else {
+            double[] rvec = vector.rvec;
+            for (int k = 0; k < values.length; k++) {
+                values[k] = (float) (rvec[k] * scale);
+            }
+        }
+    }
+
+    private static void checkVectorSize(int nValues, int first, VecBase vector, boolean writing) {
+        int nNeeded = nValues;
+        if (vector.isComplex()) {
+            // imaginary values are at odd indices, and complete a complex value
+            int nOdd = (first + nValues) / 2 - first / 2;
+            nNeeded = writing ? Math.max(nOdd, nValues - nOdd) : nOdd;
+        }
+        if (nNeeded > vector.getSize()) {
+            throw new IllegalArgumentException("Cannot transfer " + nNeeded
+                    + " elements with a Vec of size " + vector.getSize());
         }
     }
 
@@ -5,27 +5,44 @@
  */
 package org.nmrfx.datasets;
 
-import org.apache.commons.collections4.map.LRUMap;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.LinkedHashMap;
 import java.util.Map.Entry;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
+ * A shared block cache for SubMatrixFile storage. Blocks are kept in least
+ * recently used order and the cache is bounded by a total byte budget. When a
+ * block is evicted, it is written back to its file if it has been modified.
+ * <p>
+ * The cache is split into independently locked stripes so that threads
+ * working on different blocks don't contend with each other. Each thread
+ * remembers the last block it used, so consecutive accesses to the same block
+ * don't touch the stripe at all. Writes to a block are serialized on the
+ * block itself, so a block can't be evicted while a write to it is in
+ * progress.
+ * <p>
+ * The byte budget is shared by all stripes. A thread that loads a block
+ * evicts least recently used blocks from each stripe in turn until the cache
+ * is back within the budget, so the cache only exceeds it by the blocks being
+ * loaded at that moment.
+ *
  * @author brucejohnson
  */
 public class StorageCache {
-    private static final Logger log = LoggerFactory.getLogger(StorageCache.class);
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    public static final int DEFAULT_STRIPES = 16;
 
-    Map<DatasetKey, ByteBuffer> buffers;
-    ByteBuffer activeBuffer = null;
-    DatasetKey activeKey = null;
+    private final Stripe[] stripes;
+    private final ThreadLocal<CacheEntry> lastEntry = new ThreadLocal<>();
+    private final AtomicLong currentBytes = new AtomicLong();
+    private final AtomicInteger nextEvictStripe = new AtomicInteger();
+    private volatile long maxBytes;
 
     public static class DatasetKey {
 
@@ -75,121 +92,343 @@ public class StorageCache {
         }
     }
 
-    static class TrackingLRUMap<K, V> extends LRUMap<DatasetKey, ByteBuffer> {
+    static class CacheEntry {
+        final DatasetKey key;
+        final ByteBuffer buffer;
+        // guarded by the entry's monitor
+        boolean dirty = false;
+        volatile boolean evicted = false;
+
+        CacheEntry(DatasetKey key, ByteBuffer buffer) {
+            this.key = key;
+            this.buffer = buffer;
+        }
+
+        /**
+         * Write the block back to its file if it has been modified.  Must be
+         * called while holding the entry's monitor.
+         */
+        boolean writeBack() throws IOException {
+            boolean written = false;
+            if (dirty && key.file.writable) {
+                key.file.writeBlock(key.blockNum, buffer);
+                written = true;
+            }
+            dirty = false;
+            return written;
+        }
+    }
+
+    /**
+     * Hit, miss and eviction counters for the blocks of one file.
+     */
+    public static class CacheStats {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        private final LongAdder writeBacks = new LongAdder();
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        public long getEvictions() {
+            return evictions.sum();
+        }
+
+        public long getWriteBacks() {
+            return writeBacks.sum();
+        }
+
+        public double getHitRate() {
+            long nHits = getHits();
+            long total = nHits + getMisses();
+            return total == 0 ? 0.0 : (double) nHits / total;
+        }
+
+        public void reset() {
+            hits.reset();
+            misses.reset();
+            evictions.reset();
+            writeBacks.reset();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits %d misses %d evictions %d writeBacks %d", getHits(), getMisses(), getEvictions(), getWriteBacks());
+        }
+    }
+
+    /**
+     * One independently locked LRU section of the cache.
+     */
+    class Stripe {
+        private final LinkedHashMap<DatasetKey, CacheEntry> buffers = new LinkedHashMap<>(64, 0.75f, true);
 
-        TrackingLRUMap(int maxSize) {
-            super(maxSize);
+        synchronized CacheEntry getEntry(DatasetKey key) throws IOException {
+            CacheEntry entry = buffers.get(key);
+            if (entry == null) {
+                key.file.cacheStats.misses.increment();
+                entry = new CacheEntry(key, key.file.readBlock(key.blockNum));
+                buffers.put(key, entry);
+                currentBytes.addAndGet(entry.buffer.capacity());
+            } else {
+                key.file.cacheStats.hits.increment();
+            }
+            return entry;
         }
 
-        protected boolean removeLRU(LinkEntry<DatasetKey, ByteBuffer> entry) {
-            //releaseResources(entry.getValue());  // release resources held by entry
-            DatasetKey key = entry.getKey();
+        /**
+         * Evict the least recently used block of this stripe, other than the
+         * block to keep.
+         *
+         * @param keep a block that must not be evicted, or null
+         * @return true if a block was evicted
+         */
+        synchronized boolean evictOne(CacheEntry keep) throws IOException {
+            Iterator<CacheEntry> iter = buffers.values().iterator();
+            while (iter.hasNext()) {
+                CacheEntry entry = iter.next();
+                if (entry != keep) {
+                    remove(entry);
+                    entry.key.file.cacheStats.evictions.increment();
+                    iter.remove();
+                    return true;
+                }
+            }
+            return false;
+        }
 
-            if (key.file.writable) {
-                try {
-                    key.file.writeBlock(key.blockNum, entry.getValue());
-                } catch (IOException ex) {
-                    log.error(ex.getMessage(), ex);
+        synchronized void flush(SubMatrixFile file) throws IOException {
+            Iterator<Entry<DatasetKey, CacheEntry>> iter = buffers.entrySet().iterator();
+            while (iter.hasNext()) {
+                Entry<DatasetKey, CacheEntry> entry = iter.next();
+                if (entry.getKey().file == file) {
+                    remove(entry.getValue());
+                    iter.remove();
                 }
             }
-            return true;  // actually delete entry
+        }
+
+        private void remove(CacheEntry entry) throws IOException {
+            synchronized (entry) {
+                if (entry.writeBack()) {
+                    entry.key.file.cacheStats.writeBacks.increment();
+                }
+                entry.evicted = true;
+            }
+            currentBytes.addAndGet(-entry.buffer.capacity());
+        }
+
+        synchronized int getBlockCount() {
+            return buffers.size();
         }
     }
 
     public StorageCache() {
-        TrackingLRUMap lruMap = new TrackingLRUMap(1024);
-
-        buffers = new ConcurrentHashMap<DatasetKey, ByteBuffer>(lruMap);
+        this(DEFAULT_MAX_BYTES, DEFAULT_STRIPES);
+    }
 
+    public StorageCache(long maxBytes, int nStripes) {
+        if (nStripes < 1) {
+            throw new IllegalArgumentException("Number of stripes must be positive " + nStripes);
+        }
+        this.maxBytes = maxBytes;
+        stripes = new Stripe[nStripes];
+        for (int i = 0; i < nStripes; i++) {
+            stripes[i] = new Stripe();
+        }
     }
 
-    public ByteBuffer getBuffer(DatasetKey key) throws IOException {
-        return buffers.get(key);
+    /**
+     * Get the maximum number of bytes of block data held by the cache.
+     *
+     * @return the byte budget
+     */
+    public long getMaxBytes() {
+        return maxBytes;
     }
 
-    public void flush(SubMatrixFile file) throws IOException {
-        activeBuffer = null;
-        activeKey = null;
-        Iterator<Entry<DatasetKey, ByteBuffer>> iter = buffers.entrySet().iterator();
-        while (iter.hasNext()) {
-            Entry<DatasetKey, ByteBuffer> entry = iter.next();
-            if (entry.getKey().file == file) {
-                if (file.writable) {
-                    file.writeBlock(entry.getKey().blockNum, entry.getValue());
-                }
-                iter.remove();
-            }
+    /**
+     * Set the maximum number of bytes of block data held by the cache. If the
+     * cache currently holds more than this, least recently used blocks are
+     * evicted (and written back if modified) immediately.
+     *
+     * @param maxBytes the byte budget
+     * @throws IOException if an I/O error occurs writing back an evicted block
+     */
+    public void setMaxBytes(long maxBytes) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive " + maxBytes);
         }
+        this.maxBytes = maxBytes;
+        evict(null);
     }
 
-    public synchronized void io(DatasetKey[] vecKeys, int[] offsets, double[] vec, int mode) throws IOException {
-        DatasetKey lastKey = null;
-        ByteBuffer buffer = null;
-        for (int i = 0; i < vec.length; i++) {
-            if ((i == 0) || (vecKeys[i] != vecKeys[i - 1])) {
-                buffer = getABuffer(vecKeys[i]);
-            }
-            if (mode == 1) {
-                vec[i] = buffer.getFloat(offsets[i] * Float.BYTES);
+    /**
+     * Evict blocks until the cache is within its byte budget, taking the least
+     * recently used block of each stripe in turn. Only one stripe is locked at
+     * a time.
+     *
+     * @param keep a block that must not be evicted, or null
+     * @throws IOException if an I/O error occurs writing back an evicted block
+     */
+    private void evict(CacheEntry keep) throws IOException {
+        int nEmpty = 0;
+        while ((currentBytes.get() > maxBytes) && (nEmpty < stripes.length)) {
+            Stripe stripe = stripes[Math.floorMod(nextEvictStripe.getAndIncrement(), stripes.length)];
+            if (stripe.evictOne(keep)) {
+                nEmpty = 0;
             } else {
-                buffer.putFloat(offsets[i] * Float.BYTES, (float) vec[i]);
+                nEmpty++;
             }
         }
     }
 
-    ByteBuffer getABuffer(DatasetKey key) throws IOException {
-        ByteBuffer buffer;
-        if (key == activeKey) {
-            buffer = activeBuffer;
-        } else {
-            buffer = buffers.get(key);
+    /**
+     * Get the number of independently locked stripes in the cache.
+     *
+     * @return the number of stripes
+     */
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * Get the number of bytes of block data currently held by the cache.
+     *
+     * @return the number of bytes
+     */
+    public long getCurrentBytes() {
+        return currentBytes.get();
+    }
+
+    /**
+     * Get the number of blocks currently held by the cache.
+     *
+     * @return the number of blocks
+     */
+    public int getBlockCount() {
+        int sum = 0;
+        for (Stripe stripe : stripes) {
+            sum += stripe.getBlockCount();
+        }
+        return sum;
+    }
+
+    public ByteBuffer getBuffer(DatasetKey key) throws IOException {
+        return getEntry(key).buffer;
+    }
+
+    /**
+     * Write back any modified blocks of the specified file and remove all its
+     * blocks from the cache.
+     *
+     * @param file the file whose blocks should be flushed
+     * @throws IOException if an I/O error occurs
+     */
+    public void flush(SubMatrixFile file) throws IOException {
+        for (Stripe stripe : stripes) {
+            stripe.flush(file);
         }
-        if (buffer == null) {
-            buffer = key.file.readBlock(key.blockNum);
-            buffers.put(key, buffer);
+    }
+
+    /**
+     * Read strided values from one block.
+     *
+     * @param key    the block
+     * @param offset the offset (in points) of the first value within the block
+     * @param stride the spacing (in points) of values within the block
+     * @param values array to store the values in
+     * @param start  the index in values to store the first value at
+     * @param n      the number of values to read
+     * @throws IOException if an I/O error occurs
+     */
+    public void readFloats(DatasetKey key, int offset, int stride, float[] values, int start, int n) throws IOException {
+        ByteBuffer buffer = getEntry(key).buffer;
+        int position = offset * Float.BYTES;
+        int byteStride = stride * Float.BYTES;
+        for (int i = 0; i < n; i++) {
+            values[start + i] = buffer.getFloat(position);
+            position += byteStride;
         }
-        activeBuffer = buffer;
-        activeKey = key;
-        return buffer;
     }
 
-    public synchronized float io(DatasetKey key, int offset, float v, int mode) throws IOException {
-        float value = 0.0f;
-        switch (mode) {
-            case 0: {
-                ByteBuffer buffer;
-                if (key == activeKey) {
-                    buffer = activeBuffer;
-                } else {
-                    buffer = buffers.get(key);
+    /**
+     * Write strided values to one block.
+     *
+     * @param key    the block
+     * @param offset the offset (in points) of the first value within the block
+     * @param stride the spacing (in points) of values within the block
+     * @param values the values to write
+     * @param start  the index in values of the first value to write
+     * @param n      the number of values to write
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeFloats(DatasetKey key, int offset, int stride, float[] values, int start, int n) throws IOException {
+        int byteStride = stride * Float.BYTES;
+        boolean done = false;
+        while (!done) {
+            CacheEntry entry = getEntry(key);
+            synchronized (entry) {
+                if (!entry.evicted) {
+                    int position = offset * Float.BYTES;
+                    for (int i = 0; i < n; i++) {
+                        entry.buffer.putFloat(position, values[start + i]);
+                        position += byteStride;
+                    }
+                    entry.dirty = true;
+                    done = true;
                 }
-                if (buffer == null) {
-                    buffer = key.file.readBlock(key.blockNum);
-                    buffers.put(key, buffer);
-                }
-                activeBuffer = buffer;
-                activeKey = key;
-                value = buffer.getFloat(offset * Float.BYTES);
             }
-            break;
-            case 1: {
-                ByteBuffer buffer;
-                if (key == activeKey) {
-                    buffer = activeBuffer;
-                } else {
-                    buffer = buffers.get(key);
-                }
-                if (buffer == null) {
-                    buffer = key.file.readBlock(key.blockNum);
-                    buffers.put(key, buffer);
+        }
+    }
+
+    public float io(DatasetKey key, int offset, float v, int mode) throws IOException {
+        float value = 0.0f;
+        switch (mode) {
+            case 0:
+                value = getEntry(key).buffer.getFloat(offset * Float.BYTES);
+                break;
+            case 1:
+                boolean done = false;
+                while (!done) {
+                    CacheEntry entry = getEntry(key);
+                    synchronized (entry) {
+                        if (!entry.evicted) {
+                            entry.buffer.putFloat(offset * Float.BYTES, v);
+                            entry.dirty = true;
+                            done = true;
+                        }
+                    }
                 }
-                activeBuffer = buffer;
-                activeKey = key;
-                buffer.putFloat(offset * Float.BYTES, v);
-            }
-            break;
+                break;
+            default:
+                break;
         }
         return value;
     }
 
+    private CacheEntry getEntry(DatasetKey key) throws IOException {
+        CacheEntry entry = lastEntry.get();
+        if ((entry != null) && (entry.key == key) && !entry.evicted) {
+            key.file.cacheStats.hits.increment();
+        } else {
+            entry = getStripe(key).getEntry(key);
+            evict(entry);
+            lastEntry.set(entry);
+        }
+        return entry;
+    }
+
+    private Stripe getStripe(DatasetKey key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return stripes[Math.floorMod(hash, stripes.length)];
+    }
+
 }
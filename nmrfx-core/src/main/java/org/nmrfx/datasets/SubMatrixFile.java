@@ -17,9 +17,7 @@
  */
 package org.nmrfx.datasets;
 
-import org.apache.commons.math3.complex.Complex;
 import org.nmrfx.datasets.StorageCache.DatasetKey;
-import org.nmrfx.math.VecBase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,6 +46,7 @@ public class SubMatrixFile implements DatasetStorageInterface, Closeable {
     DatasetLayout layout;
     private final int BYTES = Float.BYTES;
     DatasetKey[] keys;
+    final StorageCache.CacheStats cacheStats = new StorageCache.CacheStats();
 
     /**
      * An object that represents a mapping of specified dataset with a memory
@@ -71,6 +70,25 @@ public class SubMatrixFile implements DatasetStorageInterface, Closeable {
         return layout;
     }
 
+    /**
+     * Get the block cache shared by all SubMatrixFile instances.
+     *
+     * @return the cache
+     */
+    public static StorageCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Get the hit, miss and eviction counters for this file's blocks in the
+     * shared cache.
+     *
+     * @return the cache statistics
+     */
+    public StorageCache.CacheStats getCacheStats() {
+        return cacheStats;
+    }
+
     void init() throws IOException {
         fc = raFile.getChannel();
         int blockHeaderSize = layout.getBlockHeaderSize() / BYTES;
@@ -173,22 +191,32 @@ public class SubMatrixFile implements DatasetStorageInterface, Closeable {
         return totalSize;
     }
 
-    synchronized ByteBuffer readBlock(long iBlock) throws IOException {
+    ByteBuffer readBlock(long iBlock) throws IOException {
         long blockPos = iBlock * (layout.blockPoints * BYTES + layout.blockHeaderSize) + layout.fileHeaderSize;
         ByteBuffer buffer = ByteBuffer.allocate((int) (layout.blockPoints * BYTES));
         buffer.order(dataset.getByteOrder());
 
-        int nc = fc.read(buffer, blockPos);
+        int nc = 0;
+        while (buffer.hasRemaining()) {
+            int nRead = fc.read(buffer, blockPos + nc);
+            if (nRead < 0) {
+                break;
+            }
+            nc += nRead;
+        }
         if (nc != layout.blockPoints * BYTES) {
             log.warn("read failed {}", nc);
         }
         return buffer;
     }
 
-    synchronized void writeBlock(int iBlock, ByteBuffer buffer) throws IOException {
+    void writeBlock(int iBlock, ByteBuffer buffer) throws IOException {
         long blockPos = iBlock * (layout.blockPoints * BYTES + layout.blockHeaderSize) + layout.fileHeaderSize;
-        buffer.position(0);
-        int nw = fc.write(buffer, blockPos);
+        // positional writes on a duplicate so concurrent readers of the buffer are unaffected
+        ByteBuffer writeBuffer = buffer.duplicate().position(0);
+        while (writeBuffer.hasRemaining()) {
+            blockPos += fc.write(writeBuffer, blockPos);
+        }
     }
 
     @Override
@@ -207,104 +235,30 @@ public class SubMatrixFile implements DatasetStorageInterface, Closeable {
         cache.io(key, offset, d, 1);
     }
 
-    public synchronized void blockVectorIO(int first, int last, int[] point, int dim, double scale, VecBase vector, int mode) throws IOException {
-        int n = last - first + 1;
-        double[] vec = new double[n];
-        int[] offsets = new int[n];
-        DatasetKey[] vecKeys = new DatasetKey[n];
-        for (int i = first, k = 0; i <= last; i++) {
+    @Override
+    public void readFloats(int first, int last, int[] point, int dim, float[] values) throws IOException {
+        int stride = layout.offsetPoints[dim];
+        for (int i = first, k = 0; i <= last; ) {
             point[dim] = i;
-            int block = getBlockPosition(point);
-            vecKeys[k] = keys[block];
-            offsets[k] = getOffsetInBlock(point);
-            k++;
-        }
-
-        if (mode == 0) {
-            for (int i = first, j = 0, k = 0; i <= last; i++) {
-                if (vector.isComplex()) {
-                    if ((i % 2) != 0) {
-                        vec[k] = vector.getImag(j) * scale;
-                        j++;
-                    } else {
-                        vec[k] = vector.getReal(j) * scale;
-                    }
-                } else {
-                    vec[k] = vector.getReal(j) * scale;
-                    j++;
-                }
-                k++;
-            }
-            cache.io(vecKeys, offsets, vec, 0);
-        } else {
-            cache.io(vecKeys, offsets, vec, 1);
-            double dReal = 0.0;
-            for (int i = first, j = 0, k = 0; i <= last; i++) {
-                if (vector.isComplex()) {
-                    if ((i % 2) != 0) {
-                        double dImaginary = vec[k] / scale;
-                        vector.set(j, new Complex(dReal, dImaginary));
-                        j++;
-                    } else {
-                        dReal = vec[k] / scale;
-                    }
-                } else {
-                    vector.set(j, vec[k]);
-                    j++;
-                }
-                k++;
-            }
-
+            int blockLast = layout.lastInBlock(dim, i, last);
+            int n = blockLast - i + 1;
+            cache.readFloats(keys[getBlockPosition(point)], getOffsetInBlock(point), stride, values, k, n);
+            k += n;
+            i = blockLast + 1;
         }
     }
 
-    public synchronized void vectorIO(int first, int last, int[] point, int dim, double scale, VecBase vector, int mode) throws IOException {
-        if (mode == 0) {
-            int j = 0;
-            for (int i = first; i <= last; i++) {
-                point[dim] = i;
-                if (vector.isComplex()) {
-                    if ((i % 2) != 0) {
-                        setFloat((float) (vector.getImag(j) * scale), point);
-                        j++;
-                    } else {
-                        setFloat((float) (vector.getReal(j) * scale), point);
-                    }
-                } else {
-                    setFloat((float) (vector.getReal(j) * scale), point);
-                    j++;
-                }
-            }
-        } else {
-            double dReal = 0.0;
-            int j = 0;
-            for (int i = first; i <= last; i++) {
-                point[dim] = i;
-                if (vector.isComplex()) {
-                    if ((i % 2) != 0) {
-                        double dImaginary = getFloat(point) / scale;
-                        vector.set(j, new Complex(dReal, dImaginary));
-                        j++;
-                    } else {
-                        dReal = getFloat(point) / scale;
-                    }
-                } else {
-                    vector.set(j, getFloat(point) / scale);
-                    j++;
-                }
-            }
-
-        }
-    }
-
-    @Override
-    public void writeVector(int first, int last, int[] point, int dim, double scale, VecBase vector) throws IOException {
-        blockVectorIO(first, last, point, dim, scale, vector, 0);
-    }
-
     @Override
-    public void readVector(int first, int last, int[] point, int dim, double scale, VecBase vector) throws IOException {
-        blockVectorIO(first, last, point, dim, scale, vector, 1);
+    public void writeFloats(int first, int last, int[] point, int dim, float[] values) throws IOException {
+        int stride = layout.offsetPoints[dim];
+        for (int i = first, k = 0; i <= last; ) {
+            point[dim] = i;
+            int blockLast = layout.lastInBlock(dim, i, last);
+            int n = blockLast - i + 1;
+            cache.writeFloats(keys[getBlockPosition(point)], getOffsetInBlock(point), stride, values, k, n);
+            k += n;
+            i = blockLast + 1;
+        }
     }
 
     @Override
@@ -23,10 +23,7 @@
  */
 package org.nmrfx.math;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 import static java.util.Comparator.comparing;
 
@@ -136,8 +133,300 @@ public class Clusters extends Object {
         doCluster(iPfdim, tol, Integer.MAX_VALUE);
     }
 
+    /**
+     * Cluster the items by repeatedly merging the pair with the smallest
+     * increase of the tolerance scaled sum of squares, until no merge costs
+     * less than the number of dimensions (or until targetClusters is
+     * reached). Items of group 0 are never merged with each other.
+     * <p>
+     * The items are sorted by their first value and each item is only
+     * compared with the active items that follow it, up to and including the
+     * first one that is more than the tolerance away in the first dimension.
+     * The cheapest merge of each item is kept in a priority queue, and after a
+     * merge only the items whose comparisons involved the merged pair are
+     * compared again. This gives the same merges, in the same order, as
+     * {@link #doClusterExhaustive(int, double[], int)}.
+     *
+     * @param iPfdim         the number of dimensions to cluster on
+     * @param tol            the tolerance of each dimension
+     * @param targetClusters stop when this number of clusters is reached
+     * @throws IllegalArgumentException if there are less than 2 items
+     */
     public void doCluster(int iPfdim, double[] tol, int targetClusters)
             throws IllegalArgumentException {
+        int nClusterItems = data.size();
+        if (nClusterItems < 2) {
+            throw new IllegalArgumentException("Can't cluster less than 2 peaks");
+        }
+
+        data.sort(comparing(ClusterItem::getV0));
+        new MergeQueue(iPfdim, tol).merge(targetClusters);
+    }
+
+    record Merge(double cost, int i, int j, int version) {
+    }
+
+    /**
+     * The state of doCluster: the cheapest merge found by the scan of each
+     * item, where each scan stopped, and skip lists to step over inactive
+     * items. As the items are sorted, the scan of an item covers a range of
+     * the items that follow it, and a tree of the scan ends finds the scans
+     * that include an item.
+     */
+    private class MergeQueue {
+
+        static final double MAX_COST = 1e6;
+        final int n;
+        final int iPfdim;
+        final double[] tol;
+        // result of the last scan of each item: cheapest merge and the last item compared
+        final int[] bestJ;
+        final double[] bestCost;
+        final int[] stopJ;
+        final int[] version;
+        // max tree of stopJ, with -1 for inactive items
+        final int treeSize;
+        final int[] stopTree;
+        // next active item, and next active item not in group 0, at or after an index
+        final int[] nextActive;
+        final int[] nextNonZero;
+        final PriorityQueue<Merge> queue = new PriorityQueue<>(
+                comparing(Merge::cost).thenComparing(Merge::i).thenComparing(Merge::j));
+
+        MergeQueue(int iPfdim, double[] tol) {
+            n = data.size();
+            this.iPfdim = iPfdim;
+            this.tol = tol;
+            bestJ = new int[n];
+            bestCost = new double[n];
+            stopJ = new int[n];
+            version = new int[n];
+            treeSize = Integer.highestOneBit(Math.max(1, n - 1)) * 2;
+            stopTree = new int[2 * treeSize];
+            Arrays.fill(stopTree, -1);
+            nextActive = new int[n + 1];
+            nextNonZero = new int[n + 1];
+            for (int i = 0; i < n; i++) {
+                ClusterItem item = data.get(i);
+                nextActive[i] = item.active ? i : i + 1;
+                nextNonZero[i] = item.active && (item.group != 0) ? i : i + 1;
+            }
+            nextActive[n] = n;
+            nextNonZero[n] = n;
+            for (int i = 0; i < n; i++) {
+                scan(i);
+            }
+        }
+
+        static int find(int[] next, int x) {
+            int root = x;
+            while (next[root] != root) {
+                root = next[root];
+            }
+            while (next[x] != root) {
+                int hold = next[x];
+                next[x] = root;
+                x = hold;
+            }
+            return root;
+        }
+
+        void setStop(int i, int stop) {
+            stopJ[i] = stop;
+            int node = treeSize + i;
+            stopTree[node] = stop;
+            for (node /= 2; node > 0; node /= 2) {
+                stopTree[node] = Math.max(stopTree[2 * node], stopTree[2 * node + 1]);
+            }
+        }
+
+        /**
+         * Add the items before an item whose scan reached it.
+         */
+        void getScansIncluding(int j, List<Integer> scans) {
+            getScansIncluding(1, 0, treeSize, j, scans);
+        }
+
+        void getScansIncluding(int node, int start, int size, int j, List<Integer> scans) {
+            if ((start >= j) || (stopTree[node] < j)) {
+                return;
+            }
+            if (size == 1) {
+                if ((data.get(start).group != 0) || (data.get(j).group != 0)) {
+                    scans.add(start);
+                }
+            } else {
+                int half = size / 2;
+                getScansIncluding(2 * node, start, half, j, scans);
+                getScansIncluding(2 * node + 1, start + half, half, j, scans);
+            }
+        }
+
+        double dimCost(ClusterItem iDatum, ClusterItem jDatum, int ii) {
+            double delta1 = (iDatum.getN() * (iDatum.v[ii] * iDatum.v[ii]))
+                    + (jDatum.getN() * (jDatum.v[ii] * jDatum.v[ii]));
+            double delta2 = (iDatum.getN() * iDatum.v[ii])
+                    + (jDatum.getN() * jDatum.v[ii]);
+            delta2 = (delta2 * delta2) / (iDatum.getN() + jDatum.getN());
+
+            double delta = delta1 - delta2;
+
+            if (delta < 0.0) {
+                delta = 0.0;
+            }
+            return delta / (tol[ii] * tol[ii]);
+        }
+
+        double cost(ClusterItem iDatum, ClusterItem jDatum) {
+            double dDeltaSum = 0.0;
+            for (int ii = 0; ii < iPfdim; ii++) {
+                dDeltaSum += dimCost(iDatum, jDatum, ii);
+            }
+            return dDeltaSum;
+        }
+
+        void setBest(int i, int j, double cost) {
+            bestJ[i] = j;
+            bestCost[i] = cost;
+            version[i]++;
+            if (j >= 0) {
+                queue.add(new Merge(cost, i, j, version[i]));
+            }
+        }
+
+        /**
+         * Compare an item with the items that follow it, up to and including
+         * the first one that is too far away in the first dimension, and
+         * queue its cheapest merge.
+         */
+        void scan(int i) {
+            ClusterItem iDatum = data.get(i);
+            if (!iDatum.active) {
+                setStop(i, -1);
+                setBest(i, -1, MAX_COST);
+                return;
+            }
+            int[] next = iDatum.group == 0 ? nextNonZero : nextActive;
+            double min = MAX_COST;
+            int jmin = -1;
+            int stop = n;
+            for (int j = find(next, i + 1); j < n; j = find(next, j + 1)) {
+                ClusterItem jDatum = data.get(j);
+                double dDeltaSum = cost(iDatum, jDatum);
+                if (dDeltaSum < min) {
+                    min = dDeltaSum;
+                    jmin = j;
+                }
+                if (dimCost(iDatum, jDatum, 0) > 2.0) {
+                    stop = j;
+                    break;
+                }
+            }
+            setStop(i, stop);
+            setBest(i, jmin, min);
+        }
+
+        /**
+         * Update the scan of an item that compared with the removed item of a
+         * merge.
+         */
+        void updateForRemoved(int i, int removed) {
+            if ((bestJ[i] == removed) || (stopJ[i] == removed)) {
+                scan(i);
+            }
+        }
+
+        /**
+         * Update the scan of an item that compared with the item that was
+         * kept in a merge, rescanning only if the new cost of the kept item
+         * can't be combined with the earlier result.
+         */
+        void updateForKept(int i, int kept) {
+            ClusterItem iDatum = data.get(i);
+            ClusterItem keptDatum = data.get(kept);
+            double newCost = cost(iDatum, keptDatum);
+            boolean stops = dimCost(iDatum, keptDatum, 0) > 2.0;
+            if (stopJ[i] == kept) {
+                if (!stops) {
+                    scan(i);
+                    return;
+                }
+            } else if (stops) {
+                if (bestJ[i] > kept) {
+                    scan(i);
+                    return;
+                }
+                setStop(i, kept);
+            }
+            if (bestJ[i] == kept) {
+                if (newCost > bestCost[i]) {
+                    scan(i);
+                } else if (newCost < bestCost[i]) {
+                    setBest(i, kept, newCost);
+                }
+            } else if ((newCost < bestCost[i]) || ((newCost == bestCost[i]) && (bestJ[i] >= 0) && (kept < bestJ[i]))) {
+                setBest(i, kept, newCost);
+            }
+        }
+
+        void merge(int targetClusters) {
+            int nClusters = n;
+            List<Integer> scans = new ArrayList<>();
+            while (!queue.isEmpty()) {
+                Merge merge = queue.poll();
+                if (merge.version() != version[merge.i()]) {
+                    continue;
+                }
+                if ((nClusters <= targetClusters) && (Math.sqrt(merge.cost()) >= Math.sqrt(1.0 * iPfdim))) {
+                    break;
+                }
+                ClusterItem iDatum = data.get(merge.i());
+                ClusterItem jDatum = data.get(merge.j());
+                int removed;
+                int kept;
+                if (iDatum.group == 0) {
+                    iDatum.merge(jDatum);
+                    removed = merge.j();
+                    kept = merge.i();
+                } else {
+                    jDatum.merge(iDatum);
+                    removed = merge.i();
+                    kept = merge.j();
+                }
+                nClusters--;
+                if (nClusters == targetClusters) {
+                    break;
+                }
+                scans.clear();
+                getScansIncluding(removed, scans);
+                nextActive[removed] = removed + 1;
+                nextNonZero[removed] = removed + 1;
+                scan(removed);
+                for (int i : scans) {
+                    updateForRemoved(i, removed);
+                }
+                scans.clear();
+                getScansIncluding(kept, scans);
+                for (int i : scans) {
+                    updateForKept(i, kept);
+                }
+                scan(kept);
+            }
+        }
+    }
+
+    /**
+     * Cluster the items by repeatedly scanning all active pairs for the
+     * cheapest merge. This is the original (cubic) algorithm, kept as the
+     * reference for {@link #doCluster(int, double[], int)}.
+     *
+     * @param iPfdim         the number of dimensions to cluster on
+     * @param tol            the tolerance of each dimension
+     * @param targetClusters stop when this number of clusters is reached
+     * @throws IllegalArgumentException if there are less than 2 items
+     */
+    public void doClusterExhaustive(int iPfdim, double[] tol, int targetClusters)
+            throws IllegalArgumentException {
         int i;
         int j;
         int k;
@@ -222,6 +222,49 @@ public class VecBase extends PySequence implements MatrixType, DatasetStorageInt
         }
     }
 
+    /**
+     * Reset this vector to the state of a newly created vector with the
+     * specified size, complex mode and dataset location (as with
+     * {@link #VecBase(int, int[][], int[], boolean)}), so that it can be
+     * reused. Data arrays are kept if they are large enough and all values are
+     * set to zero.
+     *
+     * @param newSize Size of vector.
+     * @param newPt   dataset location (may be null)
+     * @param newDim  dataset dimensions (may be null)
+     * @param complex true if vector stores complex data
+     */
+    public void reset(int newSize, int[][] newPt, int[] newDim, boolean complex) {
+        pt = null;
+        dim = null;
+        useApache = true;
+        freqDomain = false;
+        size = 0;
+        resize(newSize, complex);
+        tdSize = newSize;
+        dwellTime = 1.0;
+        centerFreq = 1.0;
+        refValue = 0.0;
+        ph0 = 0.0;
+        ph1 = 0.0;
+        zfSize = 0;
+        extFirst = 0;
+        extLast = 0;
+        groupDelay = 0.0;
+        inSignalRegion = null;
+        name = "";
+        if (newPt != null) {
+            pt = new int[newPt.length][2];
+            for (int i = 0; i < newPt.length; i++) {
+                pt[i][0] = newPt[i][0];
+                pt[i][1] = newPt[i][1];
+            }
+        }
+        if (newDim != null) {
+            dim = newDim.clone();
+        }
+    }
+
     /**
      * Return a vector from the map of named and stored vectors
      *
@@ -2824,7 +2867,7 @@ public class VecBase extends PySequence implements MatrixType, DatasetStorageInt
             double re = Math.cos(p0 * degtorad);
             double im = -Math.sin(p0 * degtorad);
             for (int i = first; i < last; i++) {
-                sum += cvec[i].getReal() * re - cvec[i].getImaginary() * im;
+                sum += getReal(i) * re - getImag(i) * im;
             }
         }
         return sum;
@@ -3083,8 +3126,9 @@ public class VecBase extends PySequence implements MatrixType, DatasetStorageInt
             }
         } else {
             for (int i = first; i <= last; i++) {
-                testVal = (cvec[i].getReal() * cvec[i].getReal())
-                        + (cvec[i].getImaginary() * cvec[i].getImaginary());
+                double re = getReal(i);
+                double im = getImag(i);
+                testVal = re * re + im * im;
 
                 if (testVal > maxVal) {
                     iMax = i;
@@ -460,6 +460,7 @@ public class Peak implements Comparable, PeakOrMulti {
         for (int i = 0; i < peakDims.length; i++) {
             peakDims[i].copyTo(targetPeak.peakDims[i]);
         }
+        targetPeak.peakUpdated(targetPeak);
         return targetPeak;
     }
 
@@ -740,17 +741,27 @@ public class Peak implements Comparable, PeakOrMulti {
 
     public String toXPK2String(int index) {
         StringBuilder result = new StringBuilder();
-        String sep = "\t";
-        result.append(String.valueOf(getIdNum())).append(sep);
-        String formatString = "%.5f";
+        appendXPK2String(result);
+        return (result.toString().trim());
+    }
+
+    /**
+     * Append the XPK2 row of this peak, without a line end, so a writer can
+     * build many rows in one reused builder.
+     *
+     * @param result the builder to append to
+     */
+    public void appendXPK2String(StringBuilder result) {
+        char sep = '\t';
+        result.append(getIdNum()).append(sep);
 
         for (int i = 0; i < getNDim(); i++) {
             double sf = peakDims[i].getSpectralDimObj().getSf();
             String label = peakDims[i].getLabel();
             result.append(label).append(sep);
-            result.append(String.format(formatString, peakDims[i].getChemShiftValue())).append(sep);
-            result.append(String.format(formatString, peakDims[i].getLineWidthValue() * sf)).append(sep);
-            result.append(String.format(formatString, peakDims[i].getBoundsValue() * sf)).append(sep);
+            Format.appendFixed(result, peakDims[i].getChemShiftValue(), 5).append(sep);
+            Format.appendFixed(result, peakDims[i].getLineWidthValue() * sf, 5).append(sep);
+            Format.appendFixed(result, peakDims[i].getBoundsValue() * sf, 5).append(sep);
             result.append(peakDims[i].getError()).append(sep);
             if (peakDims[i].hasMultiplet()) {
                 result.append(peakDims[i].getMultiplet().getMultiplicity()).append(sep);
@@ -763,25 +774,24 @@ public class Peak implements Comparable, PeakOrMulti {
             int frozen = peakDims[i].isFrozen() ? 1 : 0;
             result.append(frozen).append(sep);
         }
-        result.append(String.valueOf(getVolume1())).append(sep);
-        result.append(String.valueOf(getVolume1Err())).append(sep);
-        result.append(String.valueOf(getIntensity())).append(sep);
-        result.append(String.valueOf(getIntensityErr())).append(sep);
-        result.append(String.valueOf(getType())).append(sep);
-        result.append(String.valueOf(getComment())).append(sep);
-        String colorString = colorArray == null ? "" : ColorUtil.toRGBCode(colorArray);
-        result.append(colorString).append(sep);
+        result.append(getVolume1()).append(sep);
+        result.append(getVolume1Err()).append(sep);
+        result.append(getIntensity()).append(sep);
+        result.append(getIntensityErr()).append(sep);
+        result.append(getType()).append(sep);
+        result.append(getComment()).append(sep);
+        if (colorArray != null) {
+            result.append(ColorUtil.toRGBCode(colorArray));
+        }
+        result.append(sep);
         result.append(getFlag2()).append(sep);
-        result.append(String.valueOf(getStatus()));
-
-        return (result.toString().trim());
+        result.append(getStatus());
     }
 
     public String toMeasureString(int index) {
         StringBuilder result = new StringBuilder();
         String sep = "\t";
         result.append(String.valueOf(getIdNum())).append(sep);
-        String formatString = "%.5f";
 
         for (int i = 0; i < getNDim(); i++) {
             String label = peakDims[i].getLabel();
@@ -790,8 +800,8 @@ public class Peak implements Comparable, PeakOrMulti {
         if (measures.isPresent()) {
             double[][] values = measures.get();
             for (int i = 0; i < values[0].length; i++) {
-                result.append(String.format(formatString, values[0][i])).append(sep);
-                result.append(String.format(formatString, values[1][i])).append(sep);
+                Format.appendFixed(result, values[0][i], 5).append(sep);
+                Format.appendFixed(result, values[1][i], 5).append(sep);
             }
         }
         return (result.toString().trim());
@@ -1358,9 +1368,9 @@ public class Peak implements Comparable, PeakOrMulti {
         }
         result.append(sep);
         for (int i = 0; i < getNDim(); i++) {
-            result.append(String.format("%8.4f", peakDims[i].getChemShiftValue())).append(sep);
+            Format.appendFixed(result, peakDims[i].getChemShiftValue(), 8, 4).append(sep);
         }
-        result.append(String.format("%14.3f", 1.0e6 * getIntensity()));
+        Format.appendFixed(result, 1.0e6 * getIntensity(), 14, 3);
         return (result.toString());
     }
 
@@ -0,0 +1,238 @@
+package org.nmrfx.peaks;
+
+import java.util.*;
+
+/**
+ * Spatial index of the peaks of a peak list. Peaks are placed in the cells of
+ * a uniform grid over the chemical shifts of the first (up to four)
+ * dimensions. Only occupied cells are stored, so region queries visit the
+ * cells overlapping the region instead of every peak. Shifts outside the grid
+ * are placed in the edge cells, so the grid stays valid as peaks move and the
+ * index can be updated incrementally as peaks are added, removed or shifted.
+ * Peaks with a shift that is not finite are kept apart and returned by every
+ * query.
+ * <p>
+ * Queries return candidate peaks, callers apply the exact test.
+ */
+class PeakIndex {
+
+    static final int MAX_INDEX_DIMS = 4;
+    private static final int PEAKS_PER_CELL = 4;
+    private static final int MAX_CELLS = 0xFFFF;
+    private static final long UNPLACED = -1L;
+
+    private final int nIndexDim;
+    private final int builtSize;
+    private final double[] origin;
+    private final double[] cellWidth;
+    private final int[] nCells;
+    private final Map<Long, List<Peak>> cells = new HashMap<>();
+    private final Map<Peak, Long> peakCells = new IdentityHashMap<>();
+
+    PeakIndex(int nDim, List<Peak> peaks) {
+        nIndexDim = Math.min(nDim, MAX_INDEX_DIMS);
+        builtSize = peaks.size();
+        origin = new double[nIndexDim];
+        cellWidth = new double[nIndexDim];
+        nCells = new int[nIndexDim];
+        int nPerDim = (int) Math.round(Math.pow((double) peaks.size() / PEAKS_PER_CELL, 1.0 / Math.max(1, nIndexDim)));
+        nPerDim = Math.max(1, Math.min(MAX_CELLS, nPerDim));
+        for (int iDim = 0; iDim < nIndexDim; iDim++) {
+            final int jDim = iDim;
+            DoubleSummaryStatistics stats = peaks.stream()
+                    .mapToDouble(p -> p.peakDims[jDim].getChemShiftValue())
+                    .filter(Double::isFinite).summaryStatistics();
+            double range = stats.getCount() > 0 ? stats.getMax() - stats.getMin() : 0.0;
+            origin[iDim] = stats.getCount() > 0 ? stats.getMin() : 0.0;
+            nCells[iDim] = range > 0.0 ? nPerDim : 1;
+            cellWidth[iDim] = range > 0.0 ? range / nPerDim : 1.0;
+        }
+        for (Peak peak : peaks) {
+            add(peak);
+        }
+    }
+
+    /**
+     * @param nPeaks the current size of the peak list
+     * @return true if the index no longer holds the peaks of the list, or its
+     * grid was built for a list of a very different size
+     */
+    synchronized boolean needsRebuild(int nPeaks) {
+        return (peakCells.size() != nPeaks) || (nPeaks > 4 * Math.max(builtSize, 16))
+                || (4 * nPeaks < builtSize);
+    }
+
+    int getNIndexDim() {
+        return nIndexDim;
+    }
+
+    synchronized int size() {
+        return peakCells.size();
+    }
+
+    private int getCell(int iDim, double ppm) {
+        double f = Math.floor((ppm - origin[iDim]) / cellWidth[iDim]);
+        return (int) Math.max(0, Math.min(nCells[iDim] - 1, f));
+    }
+
+    private long getKey(Peak peak) {
+        long key = 0;
+        for (int iDim = 0; iDim < nIndexDim; iDim++) {
+            double ppm = peak.peakDims[iDim].getChemShiftValue();
+            if (!Double.isFinite(ppm)) {
+                return UNPLACED;
+            }
+            key |= (long) getCell(iDim, ppm) << (16 * iDim);
+        }
+        return key;
+    }
+
+    private static int getKeyCell(long key, int iDim) {
+        return (int) ((key >>> (16 * iDim)) & 0xFFFF);
+    }
+
+    synchronized void add(Peak peak) {
+        if (peakCells.containsKey(peak)) {
+            update(peak);
+        } else {
+            long key = getKey(peak);
+            peakCells.put(peak, key);
+            cells.computeIfAbsent(key, k -> new ArrayList<>()).add(peak);
+        }
+    }
+
+    synchronized void remove(Peak peak) {
+        Long key = peakCells.remove(peak);
+        if (key != null) {
+            removeFromCell(key, peak);
+        }
+    }
+
+    /**
+     * Move a peak to the cell of its current shifts. Peaks that are not in the
+     * index are ignored.
+     *
+     * @param peak the peak
+     */
+    synchronized void update(Peak peak) {
+        Long oldKey = peakCells.get(peak);
+        if (oldKey != null) {
+            long key = getKey(peak);
+            if (key != oldKey) {
+                removeFromCell(oldKey, peak);
+                cells.computeIfAbsent(key, k -> new ArrayList<>()).add(peak);
+                peakCells.put(peak, key);
+            }
+        }
+    }
+
+    private void removeFromCell(long key, Peak peak) {
+        List<Peak> cellPeaks = cells.get(key);
+        if (cellPeaks != null) {
+            cellPeaks.remove(peak);
+            if (cellPeaks.isEmpty()) {
+                cells.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Get the peaks in the cells that overlap a region.
+     *
+     * @param ranges the lower and upper shift along each dimension of the
+     *               peak list. A null entry (or missing dimension) leaves that
+     *               dimension unbounded.
+     * @return the candidate peaks
+     */
+    synchronized List<Peak> getCandidates(double[][] ranges) {
+        int[][] cellRange = getCellRanges(ranges);
+        long nVisit = 1;
+        for (int[] range : cellRange) {
+            nVisit *= range[1] - range[0] + 1;
+        }
+        List<Peak> result = new ArrayList<>();
+        if (nVisit >= cells.size()) {
+            for (Map.Entry<Long, List<Peak>> entry : cells.entrySet()) {
+                if ((entry.getKey() == UNPLACED) || inCellRange(entry.getKey(), cellRange)) {
+                    result.addAll(entry.getValue());
+                }
+            }
+        } else {
+            List<Peak> unplaced = cells.get(UNPLACED);
+            if (unplaced != null) {
+                result.addAll(unplaced);
+            }
+            int[] cell = new int[nIndexDim];
+            for (int iDim = 0; iDim < nIndexDim; iDim++) {
+                cell[iDim] = cellRange[iDim][0];
+            }
+            while (true) {
+                long key = 0;
+                for (int iDim = 0; iDim < nIndexDim; iDim++) {
+                    key |= (long) cell[iDim] << (16 * iDim);
+                }
+                List<Peak> cellPeaks = cells.get(key);
+                if (cellPeaks != null) {
+                    result.addAll(cellPeaks);
+                }
+                int iDim = 0;
+                while ((iDim < nIndexDim) && (++cell[iDim] > cellRange[iDim][1])) {
+                    cell[iDim] = cellRange[iDim][0];
+                    iDim++;
+                }
+                if (iDim == nIndexDim) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param ranges the region, as for getCandidates
+     * @return true if the region overlaps every cell of the grid, so a query
+     * returns all peaks
+     */
+    synchronized boolean coversAll(double[][] ranges) {
+        int[][] cellRange = getCellRanges(ranges);
+        for (int iDim = 0; iDim < nIndexDim; iDim++) {
+            if ((cellRange[iDim][0] != 0) || (cellRange[iDim][1] != nCells[iDim] - 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param iDim the dimension
+     * @return the width of the cells along the dimension
+     */
+    double getCellWidth(int iDim) {
+        return cellWidth[iDim];
+    }
+
+    private int[][] getCellRanges(double[][] ranges) {
+        int[][] cellRange = new int[nIndexDim][2];
+        for (int iDim = 0; iDim < nIndexDim; iDim++) {
+            if ((ranges != null) && (iDim < ranges.length) && (ranges[iDim] != null)) {
+                double lower = Math.min(ranges[iDim][0], ranges[iDim][1]);
+                double upper = Math.max(ranges[iDim][0], ranges[iDim][1]);
+                cellRange[iDim][0] = getCell(iDim, lower);
+                cellRange[iDim][1] = getCell(iDim, upper);
+            } else {
+                cellRange[iDim][1] = nCells[iDim] - 1;
+            }
+        }
+        return cellRange;
+    }
+
+    private boolean inCellRange(long key, int[][] cellRange) {
+        for (int iDim = 0; iDim < nIndexDim; iDim++) {
+            int cell = getKeyCell(key, iDim);
+            if ((cell < cellRange[iDim][0]) || (cell > cellRange[iDim][1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -64,6 +64,11 @@ public class PeakList {
 
     Map<Peak.AssignmentLevel, Integer> assignmentMap = new HashMap<>();
     Updater updater = null;
+    private volatile PeakIndex peakIndex = null;
+    private int updateDepth = 0;
+    private final Map<Class<?>, Object> heldUpdates = new LinkedHashMap<>();
+    // peaks changed since the peak change listeners were last notified
+    private Set<Peak> changedPeaks = new HashSet<>();
 
     /**
      * @param name
@@ -530,12 +535,27 @@ public class PeakList {
         }
     }
 
+    /**
+     * Notify the peak change listeners with one PeakChangeEvent holding the
+     * peaks changed since the last notification. If no changes were recorded
+     * the event doesn't name the peaks, so listeners treat all as changed.
+     */
     public void notifyPeakChangeListeners() {
+        Set<Peak> changed;
+        synchronized (this) {
+            changed = changedPeaks.isEmpty() ? null : changedPeaks;
+            changedPeaks = new HashSet<>();
+        }
+        PeakChangeEvent event = new PeakChangeEvent(this, changed);
         for (PeakListener listener : peakChangeListeners) {
-            listener.peakListChanged(new PeakEvent(this));
+            listener.peakListChanged(event);
         }
     }
 
+    private synchronized void addChangedPeak(Peak peak) {
+        changedPeaks.add(peak);
+    }
+
     public void registerUpdater(Updater updater) {
         this.updater = updater;
     }
@@ -662,11 +682,68 @@ public class PeakList {
     public void peakListUpdated(Object object) {
         changed = true;
         assignmentStatusValid.set(false);
-        if (updater != null) {
+        PeakIndex index = peakIndex;
+        if (object instanceof Peak peak) {
+            // only kept while there are listeners to take them
+            if (!peakChangeListeners.isEmpty()) {
+                addChangedPeak(peak);
+            }
+            if (index != null) {
+                index.update(peak);
+            }
+        }
+        if ((updater != null) && !holdUpdate(object)) {
             updater.update(object);
         }
     }
 
+    private synchronized boolean holdUpdate(Object object) {
+        if (updateDepth == 0) {
+            return false;
+        }
+        Class<?> kind;
+        if (object instanceof Peak) {
+            kind = Peak.class;
+        } else if (object instanceof PeakList) {
+            kind = PeakList.class;
+        } else if (object instanceof List) {
+            kind = List.class;
+        } else {
+            kind = object.getClass();
+        }
+        heldUpdates.put(kind, object);
+        return true;
+    }
+
+    /**
+     * Hold back updater notifications until the matching call to
+     * commitUpdates, so a bulk change to the peaks notifies listeners once.
+     * The changed peaks are collected, and the peak change listeners get them
+     * in a single PeakChangeEvent. Calls may be nested.
+     */
+    public synchronized void beginUpdates() {
+        updateDepth++;
+    }
+
+    /**
+     * End an update started with beginUpdates. When the outermost update
+     * ends, the updater is notified of each kind of change that was held.
+     */
+    public void commitUpdates() {
+        List<Object> held;
+        synchronized (this) {
+            if ((updateDepth == 0) || (--updateDepth > 0)) {
+                return;
+            }
+            held = new ArrayList<>(heldUpdates.values());
+            heldUpdates.clear();
+        }
+        Updater currentUpdater = updater;
+        if (currentUpdater != null) {
+            held.forEach(currentUpdater::update);
+        }
+    }
+
     /**
      *
      */
@@ -822,6 +899,7 @@ public class PeakList {
     public void addPeakWithoutResonance(Peak newPeak) {
         newPeak.setIndex(peaks.size());
         peaks.add(newPeak);
+        addToPeakIndex(newPeak);
         peakListUpdated(peaks);
         clearIndex();
     }
@@ -833,11 +911,151 @@ public class PeakList {
         newPeak.initPeakDimContribs();
         newPeak.setIndex(peaks.size());
         peaks.add(newPeak);
+        addToPeakIndex(newPeak);
         peakListUpdated(peaks);
         clearIndex();
         return newPeak;
     }
 
+    private void addToPeakIndex(Peak peak) {
+        PeakIndex index = peakIndex;
+        if (index != null) {
+            index.add(peak);
+        }
+    }
+
+    private void removeFromPeakIndex(Peak peak) {
+        PeakIndex index = peakIndex;
+        if (index != null) {
+            index.remove(peak);
+        }
+    }
+
+    /**
+     * Get the spatial index of the peaks, building it if it doesn't exist or
+     * is out of step with the list. Once built, the index is kept up to date
+     * as peaks are added, removed and shifted.
+     *
+     * @return the index
+     */
+    synchronized PeakIndex getPeakIndex() {
+        PeakIndex index = peakIndex;
+        if ((index == null) || index.needsRebuild(peaks.size())) {
+            index = new PeakIndex(nDim, peaks);
+            peakIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Get the shift ranges to query the peak index with, for limits along
+     * search dimensions. Ranges of folded dimensions are left unbounded.
+     */
+    private double[][] getIndexRanges(double[][] limits, int[] dim, double[][] foldLimits) {
+        double[][] ranges = new double[nDim][];
+        for (int j = 0; j < limits.length; j++) {
+            if ((dim.length <= j) || (dim[j] < 0) || (dim[j] >= nDim)) {
+                continue;
+            }
+            if ((foldLimits != null) && (j < foldLimits.length) && (foldLimits[j] != null)) {
+                continue;
+            }
+            double lower = Math.min(limits[j][0], limits[j][1]);
+            double upper = Math.max(limits[j][0], limits[j][1]);
+            double[] range = ranges[dim[j]];
+            if (range == null) {
+                ranges[dim[j]] = new double[]{lower, upper};
+            } else {
+                range[0] = Math.max(range[0], lower);
+                range[1] = Math.min(range[1], upper);
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Find the peaks that are within a region, as tested by
+     * {@link Peak#inRegion(double[][], double[][], int[])}, using the spatial
+     * index of the list.
+     *
+     * @param limits     the lower and upper shift of the region along each
+     *                   search dimension
+     * @param foldLimits optional limits of the folded range of each search
+     *                   dimension, can be null
+     * @param dim        the peak list dimension of each search dimension
+     * @return the peaks in the region, in list order
+     */
+    public List<Peak> findPeaksInRegion(double[][] limits, double[][] foldLimits, int[] dim) {
+        if (peaks == null) {
+            return Collections.emptyList();
+        }
+        List<Peak> candidates = getPeakIndex().getCandidates(getIndexRanges(limits, dim, foldLimits));
+        List<Peak> result = new ArrayList<>();
+        for (Peak peak : candidates) {
+            if (peak.inRegion(limits, foldLimits, dim)) {
+                result.add(peak);
+            }
+        }
+        result.sort(comparing(Peak::getIndex));
+        return result;
+    }
+
+    /**
+     * Find the peaks nearest to a position. The distance is the root of the
+     * sum of the squared shift differences divided by the scale of each
+     * dimension. Deleted peaks are skipped.
+     *
+     * @param ppms  the position along each search dimension
+     * @param dim   the peak list dimension of each search dimension
+     * @param scale the scale of each search dimension
+     * @param k     the maximum number of peaks to return
+     * @return the peaks, nearest first
+     */
+    public List<Peak> findNearestPeaks(double[] ppms, int[] dim, double[] scale, int k) {
+        if ((peaks == null) || (k < 1)) {
+            return Collections.emptyList();
+        }
+        PeakIndex index = getPeakIndex();
+        double halfWidth = Double.MAX_VALUE;
+        for (int j = 0; j < ppms.length; j++) {
+            if (dim[j] < index.getNIndexDim()) {
+                halfWidth = Math.min(halfWidth, index.getCellWidth(dim[j]) / scale[j]);
+            }
+        }
+        if (halfWidth == Double.MAX_VALUE) {
+            halfWidth = Double.POSITIVE_INFINITY;
+        }
+        while (true) {
+            double[][] limits = new double[ppms.length][2];
+            for (int j = 0; j < ppms.length; j++) {
+                limits[j][0] = ppms[j] - halfWidth * scale[j];
+                limits[j][1] = ppms[j] + halfWidth * scale[j];
+            }
+            double[][] ranges = getIndexRanges(limits, dim, null);
+            boolean all = index.coversAll(ranges);
+            List<org.nmrfx.peaks.PeakDistance> found = new ArrayList<>();
+            for (Peak peak : index.getCandidates(ranges)) {
+                if (peak.isDeleted()) {
+                    continue;
+                }
+                double sum = 0.0;
+                for (int j = 0; j < ppms.length; j++) {
+                    double delta = (peak.peakDims[dim[j]].getChemShiftValue() - ppms[j]) / scale[j];
+                    sum += delta * delta;
+                }
+                double distance = Math.sqrt(sum);
+                if (all || (distance <= halfWidth)) {
+                    found.add(new org.nmrfx.peaks.PeakDistance(peak, distance));
+                }
+            }
+            if (all || (found.size() >= k)) {
+                found.sort(comparing(org.nmrfx.peaks.PeakDistance::getDistance));
+                return found.stream().limit(k).map(org.nmrfx.peaks.PeakDistance::getPeak).toList();
+            }
+            halfWidth *= 2.0;
+        }
+    }
+
     /**
      * @param s
      * @return
@@ -1262,12 +1480,17 @@ public class PeakList {
      *
      */
     public void reNumber() {
-        for (int i = 0; i < peaks.size(); i++) {
-            Peak peak = peaks.get(i);
-            peak.setIdNum(i);
+        beginUpdates();
+        try {
+            for (int i = 0; i < peaks.size(); i++) {
+                Peak peak = peaks.get(i);
+                peak.setIdNum(i);
+            }
+            idLast = peaks.size() - 1;
+            reIndex();
+        } finally {
+            commitUpdates();
         }
-        idLast = peaks.size() - 1;
-        reIndex();
     }
 
     /**
@@ -1549,10 +1772,16 @@ public class PeakList {
             width[i] = Math.abs(limits[i][0] - limits[i][1]);
         }
 
-        int nPeaks = size();
+        double[][] searchLimits = new double[nSearchDim][];
+        for (i = 0; i < nSearchDim; i++) {
+            searchLimits[i] = limits[i];
+        }
+        List<Peak> candidates = peaks == null ? Collections.emptyList()
+                : getPeakIndex().getCandidates(getIndexRanges(searchLimits, dim, foldLimits));
+        candidates.sort(comparing(Peak::getIndex));
 
-        for (i = 0; i < nPeaks; i++) {
-            peak = peaks.get(i);
+        for (i = 0; i < candidates.size(); i++) {
+            peak = candidates.get(i);
             boolean ok = true;
 
             double sumDistance = 0.0;
@@ -1691,6 +1920,10 @@ public class PeakList {
             peaks.clear();
         }
         peaks = null;
+        peakIndex = null;
+        synchronized (this) {
+            changedPeaks = new HashSet<>();
+        }
         if (updater != null) {
             updater.shutdown();
             updater = null;
@@ -1796,6 +2029,7 @@ public class PeakList {
             idLast--;
         }
         peaks.remove(peak);
+        removeFromPeakIndex(peak);
         peakListUpdated(peaks);
         reIndex();
     }
@@ -1882,16 +2116,21 @@ public class PeakList {
      */
     public int compress() {
         int nRemoved = 0;
-        for (int i = (peaks.size() - 1); i >= 0; i--) {
-            if ((peaks.get(i)).getStatus() < 0) {
-                PeakList.unLinkPeak(peaks.get(i));
-                (peaks.get(i)).markDeleted();
-                peaks.remove(i);
-                peakListUpdated(peaks);
-                nRemoved++;
+        beginUpdates();
+        try {
+            for (int i = (peaks.size() - 1); i >= 0; i--) {
+                if ((peaks.get(i)).getStatus() < 0) {
+                    PeakList.unLinkPeak(peaks.get(i));
+                    (peaks.get(i)).markDeleted();
+                    removeFromPeakIndex(peaks.remove(i));
+                    peakListUpdated(peaks);
+                    nRemoved++;
+                }
             }
+            reIndex();
+        } finally {
+            commitUpdates();
         }
-        reIndex();
         return nRemoved;
     }
 
@@ -2032,12 +2271,17 @@ public class PeakList {
      * @param value
      */
     public void shiftPeak(final int iDim, final double value) {
-        peaks.stream().forEach((p) -> {
-            PeakDim pDim = p.peakDims[iDim];
-            float shift = pDim.getChemShift();
-            shift += value;
-            pDim.setChemShiftValue(shift);
-        });
+        beginUpdates();
+        try {
+            peaks.stream().forEach((p) -> {
+                PeakDim pDim = p.peakDims[iDim];
+                float shift = pDim.getChemShift();
+                shift += value;
+                pDim.setChemShiftValue(shift);
+            });
+        } finally {
+            commitUpdates();
+        }
     }
 
     /**
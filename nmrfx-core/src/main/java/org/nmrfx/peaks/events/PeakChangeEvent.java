@@ -0,0 +1,56 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2017 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.peaks.events;
+
+import org.nmrfx.peaks.Peak;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Event sent to the peak change listeners of a peak list. It stands for all
+ * the changes to peaks since the listeners were last notified, so a batch of
+ * changes gives one event, and carries the set of peaks that changed.
+ *
+ * @author brucejohnson
+ */
+public class PeakChangeEvent extends PeakEvent {
+    private static final long serialVersionUID = 1L;
+    // peaks aren't serializable, the set isn't kept if the event is serialized
+    final transient Set<Peak> changedPeaks;
+
+    /**
+     * Creates a new instance of PeakChangeEvent
+     *
+     * @param object       event object
+     * @param changedPeaks the peaks that changed, or null if they aren't known
+     */
+    public PeakChangeEvent(Object object, Set<Peak> changedPeaks) {
+        super(object);
+        this.changedPeaks = changedPeaks == null ? null : Collections.unmodifiableSet(changedPeaks);
+    }
+
+    /**
+     * @return the peaks that changed, or an empty Optional if they aren't
+     * known and any peak may have changed
+     */
+    public Optional<Set<Peak>> getChangedPeaks() {
+        return Optional.ofNullable(changedPeaks);
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2017 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.peaks.io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Reads delimited text a line at a time into a reusable char buffer and
+ * records where each field starts and ends. Numeric fields are parsed
+ * directly from the buffer, so no String is made for a line or its fields
+ * unless one is asked for.
+ * <p>
+ * Fields are separated either by a single delimiter character, giving the
+ * same fields as String.split with that character and a limit of -1, or by
+ * runs of whitespace, giving the same fields as trim().split("\\s+").
+ *
+ * @author brucejohnson
+ */
+public class LineTokenizer {
+
+    private static final int MAX_FLOAT_MANTISSA = 1 << 24;
+    private static final long MAX_DOUBLE_MANTISSA = 1L << 53;
+    private static final float[] FLOAT_POWERS_OF_TEN = {1.0e0f, 1.0e1f, 1.0e2f, 1.0e3f, 1.0e4f,
+            1.0e5f, 1.0e6f, 1.0e7f, 1.0e8f, 1.0e9f, 1.0e10f};
+    private static final double[] DOUBLE_POWERS_OF_TEN = new double[23];
+
+    static {
+        DOUBLE_POWERS_OF_TEN[0] = 1.0;
+        for (int i = 1; i < DOUBLE_POWERS_OF_TEN.length; i++) {
+            DOUBLE_POWERS_OF_TEN[i] = DOUBLE_POWERS_OF_TEN[i - 1] * 10.0;
+        }
+    }
+
+    private final Reader reader;
+    private final char delimiter;
+    private final boolean whitespace;
+    private char[] buffer = new char[1 << 16];
+    private int position = 0;
+    private int limit = 0;
+    private boolean endOfInput = false;
+    private int lineStart = 0;
+    private int lineEnd = 0;
+    private int[] fieldStarts = new int[64];
+    private int[] fieldEnds = new int[64];
+    private int nFields = 0;
+    private final long[] decimalParts = new long[3];
+
+    /**
+     * Create a tokenizer whose fields are separated by a delimiter.
+     *
+     * @param reader    the source of the text
+     * @param delimiter the field delimiter
+     */
+    public LineTokenizer(Reader reader, char delimiter) {
+        this.reader = reader;
+        this.delimiter = delimiter;
+        this.whitespace = false;
+    }
+
+    /**
+     * Create a tokenizer whose fields are separated by runs of whitespace.
+     *
+     * @param reader the source of the text
+     */
+    public LineTokenizer(Reader reader) {
+        this.reader = reader;
+        this.delimiter = ' ';
+        this.whitespace = true;
+    }
+
+    /**
+     * Read the next line and split it into fields.
+     *
+     * @return false if there are no more lines
+     * @throws IOException if the text can't be read
+     */
+    public boolean nextLine() throws IOException {
+        int searchFrom = position;
+        while (true) {
+            for (int i = searchFrom; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    setLine(position, i);
+                    position = i + 1;
+                    return true;
+                }
+            }
+            if (endOfInput) {
+                if (position < limit) {
+                    setLine(position, limit);
+                    position = limit;
+                    return true;
+                }
+                nFields = 0;
+                return false;
+            }
+            searchFrom = fill();
+        }
+    }
+
+    // compact the unread text to the start of the buffer, growing it if full, and read more
+    private int fill() throws IOException {
+        int nUnread = limit - position;
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, nUnread);
+        } else if (nUnread == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        position = 0;
+        limit = nUnread;
+        int nRead = reader.read(buffer, limit, buffer.length - limit);
+        if (nRead == -1) {
+            endOfInput = true;
+        } else {
+            limit += nRead;
+        }
+        return nUnread;
+    }
+
+    private void setLine(int start, int end) {
+        if ((end > start) && (buffer[end - 1] == '\r')) {
+            end--;
+        }
+        lineStart = start;
+        lineEnd = end;
+        nFields = 0;
+        if (whitespace) {
+            splitWhitespace();
+        } else {
+            int fieldStart = start;
+            for (int i = start; i < end; i++) {
+                if (buffer[i] == delimiter) {
+                    addField(fieldStart, i);
+                    fieldStart = i + 1;
+                }
+            }
+            addField(fieldStart, end);
+        }
+    }
+
+    private void splitWhitespace() {
+        int i = lineStart;
+        while ((i < lineEnd) && Character.isWhitespace(buffer[i])) {
+            i++;
+        }
+        if (i == lineEnd) {
+            addField(i, i);
+            return;
+        }
+        while (i < lineEnd) {
+            int fieldStart = i;
+            while ((i < lineEnd) && !Character.isWhitespace(buffer[i])) {
+                i++;
+            }
+            addField(fieldStart, i);
+            while ((i < lineEnd) && Character.isWhitespace(buffer[i])) {
+                i++;
+            }
+        }
+    }
+
+    private void addField(int start, int end) {
+        if (nFields == fieldStarts.length) {
+            fieldStarts = Arrays.copyOf(fieldStarts, nFields * 2);
+            fieldEnds = Arrays.copyOf(fieldEnds, nFields * 2);
+        }
+        fieldStarts[nFields] = start;
+        fieldEnds[nFields] = end;
+        nFields++;
+    }
+
+    public int getFieldCount() {
+        return nFields;
+    }
+
+    /**
+     * @return the current line
+     */
+    public String getLine() {
+        return new String(buffer, lineStart, lineEnd - lineStart);
+    }
+
+    /**
+     * @return true if the current line is empty, only whitespace, or a comment
+     * starting with #
+     */
+    public boolean isBlankOrComment() {
+        for (int i = lineStart; i < lineEnd; i++) {
+            char ch = buffer[i];
+            if (ch > ' ') {
+                return ch == '#';
+            }
+        }
+        return true;
+    }
+
+    public String getString(int iField) {
+        return new String(buffer, fieldStarts[iField], fieldEnds[iField] - fieldStarts[iField]);
+    }
+
+    /**
+     * Get the fields of the current line.
+     *
+     * @return the fields
+     */
+    public String[] getStrings() {
+        String[] fields = new String[nFields];
+        for (int i = 0; i < nFields; i++) {
+            fields[i] = getString(i);
+        }
+        return fields;
+    }
+
+    public boolean isEmpty(int iField) {
+        return fieldStarts[iField] == fieldEnds[iField];
+    }
+
+    public boolean fieldEquals(int iField, String value) {
+        int start = fieldStarts[iField];
+        int length = fieldEnds[iField] - start;
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getInt(int iField) {
+        long value = getLong(iField);
+        if ((value < Integer.MIN_VALUE) || (value > Integer.MAX_VALUE)) {
+            throw new NumberFormatException("For input string: \"" + getString(iField) + "\"");
+        }
+        return (int) value;
+    }
+
+    public long getLong(int iField) {
+        int start = fieldStarts[iField];
+        int end = fieldEnds[iField];
+        int i = start;
+        boolean negative = false;
+        if ((i < end) && ((buffer[i] == '-') || (buffer[i] == '+'))) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+        // more than 18 digits could overflow, leave those to Long.parseLong
+        if ((i == end) || (end - i > 18)) {
+            return Long.parseLong(getString(iField));
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if ((digit < 0) || (digit > 9)) {
+                throw new NumberFormatException("For input string: \"" + getString(iField) + "\"");
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parse a field as a float. Plain decimals whose digits fit exactly in a
+     * float are converted with one correctly rounded division, anything else
+     * (exponents, NaN, long mantissas) by Float.parseFloat, so the result is
+     * always the same as Float.parseFloat.
+     *
+     * @param iField the field index
+     * @return the value
+     */
+    public float getFloat(int iField) {
+        long[] decimal = parseDecimal(iField);
+        if (decimal != null) {
+            if ((decimal[0] < MAX_FLOAT_MANTISSA) && (decimal[1] < FLOAT_POWERS_OF_TEN.length)) {
+                float value = decimal[0] / FLOAT_POWERS_OF_TEN[(int) decimal[1]];
+                return decimal[2] != 0 ? -value : value;
+            } else if ((decimal[0] < MAX_DOUBLE_MANTISSA) && (decimal[1] < DOUBLE_POWERS_OF_TEN.length)) {
+                // the correctly rounded double rounds to the correctly rounded float unless it is a float midpoint
+                double dValue = decimal[0] / DOUBLE_POWERS_OF_TEN[(int) decimal[1]];
+                float value = (float) dValue;
+                double delta = Math.abs(dValue - value);
+                float ulp = Math.ulp(value);
+                if ((delta * 2.0 != ulp) && (delta * 4.0 != ulp) && Float.isFinite(value)
+                        && (Math.abs(value) >= Float.MIN_NORMAL)) {
+                    return decimal[2] != 0 ? -value : value;
+                }
+            }
+        }
+        return Float.parseFloat(getString(iField));
+    }
+
+    /**
+     * Parse a field as a double, as getFloat.
+     *
+     * @param iField the field index
+     * @return the value
+     */
+    public double getDouble(int iField) {
+        long[] decimal = parseDecimal(iField);
+        if ((decimal != null) && (decimal[0] < MAX_DOUBLE_MANTISSA) && (decimal[1] < DOUBLE_POWERS_OF_TEN.length)) {
+            double value = decimal[0] / DOUBLE_POWERS_OF_TEN[(int) decimal[1]];
+            return decimal[2] != 0 ? -value : value;
+        }
+        return Double.parseDouble(getString(iField));
+    }
+
+    // parse [sign]digits[.digits] into mantissa, number of fraction digits and sign, or null if not that form
+    private long[] parseDecimal(int iField) {
+        int start = fieldStarts[iField];
+        int end = fieldEnds[iField];
+        int i = start;
+        long negative = 0;
+        if ((i < end) && ((buffer[i] == '-') || (buffer[i] == '+'))) {
+            negative = buffer[i] == '-' ? 1 : 0;
+            i++;
+        }
+        long mantissa = 0;
+        int nDigits = 0;
+        int nFraction = 0;
+        boolean inFraction = false;
+        for (; i < end; i++) {
+            char ch = buffer[i];
+            if ((ch >= '0') && (ch <= '9')) {
+                if (nDigits == 18) {
+                    return null;
+                }
+                mantissa = mantissa * 10 + (ch - '0');
+                nDigits++;
+                if (inFraction) {
+                    nFraction++;
+                }
+            } else if ((ch == '.') && !inFraction) {
+                inFraction = true;
+            } else {
+                return null;
+            }
+        }
+        if (nDigits == 0) {
+            return null;
+        }
+        decimalParts[0] = mantissa;
+        decimalParts[1] = nFraction;
+        decimalParts[2] = negative;
+        return decimalParts;
+    }
+}
@@ -27,8 +27,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * @author Bruce Johnson
@@ -100,29 +98,21 @@ public class PeakReader {
         String fileTail = path.getFileName().toString();
         fileTail = fileTail.substring(0, fileTail.lastIndexOf('.'));
         boolean gotHeader = false;
-        String[] dataHeader = null;
-        Map<String, Integer> dataMap = null;
+        XPK2Column[] columns = null;
         PeakList peakList = null;
         String units = "ppm";
         try (final BufferedReader fileReader = Files.newBufferedReader(path)) {
-            while (true) {
-                String line = fileReader.readLine();
-                if (line == null) {
-                    break;
-                }
-                String sline = line.trim();
-                if (sline.length() == 0) {
-                    continue;
-                }
-                if (sline.charAt(0) == '#') {
+            LineTokenizer tokenizer = new LineTokenizer(fileReader, '\t');
+            while (tokenizer.nextLine()) {
+                if (tokenizer.isBlankOrComment()) {
                     continue;
                 }
                 if (peakList == null) {
-                    if (line.contains("ndim")) {
-                        String[] header = line.split("\t", -1);
+                    if (tokenizer.getLine().contains("ndim")) {
+                        String[] header = tokenizer.getStrings();
                         Map<String, Integer> map = headerMap(header);
-                        String lineData = fileReader.readLine();
-                        String[] data = lineData.split("\t", -1);
+                        tokenizer.nextLine();
+                        String[] data = tokenizer.getStrings();
                         int nDim = Integer.valueOf(data[map.get("ndim")]);
                         String listName = fileTail;
                         if (map.get("peaklist") != null) {
@@ -147,11 +137,11 @@ public class PeakReader {
                     }
                 } else {
                     if (!gotHeader) {
-                        String[] header = line.split("\t", -1);
+                        String[] header = tokenizer.getStrings();
                         Map<String, Integer> map = headerMap(header);
                         for (int i = 0; i < peakList.nDim; i++) {
-                            String lineData = fileReader.readLine();
-                            String[] data = lineData.split("\t", -1);
+                            tokenizer.nextLine();
+                            String[] data = tokenizer.getStrings();
                             SpectralDim sDim = peakList.getSpectralDim(i);
                             for (String field : header) {
                                 String value = data[map.get(field)];
@@ -202,14 +192,10 @@ public class PeakReader {
                         }
                         gotHeader = true;
                     } else {
-                        if (dataHeader == null) {
-                            dataHeader = line.split("\t", -1);
+                        if (columns == null) {
+                            columns = getXPK2Columns(peakList, tokenizer.getStrings());
                         } else {
-                            if (dataMap == null) {
-                                dataMap = headerMap(dataHeader);
-                            }
-                            String[] data = line.split("\t", -1);
-                            processLine(peakList, dataHeader, dataMap, data);
+                            processLine(peakList, columns, tokenizer);
                         }
                     }
                 }
@@ -218,6 +204,133 @@ public class PeakReader {
         return peakList;
     }
 
+    enum XPK2Field {
+        LABEL, SHIFT, WIDTH, WIDTH_HZ, BOUNDS, BOUNDS_HZ, ERROR, FROZEN, USER, RESONANCE, IGNORED,
+        ID, INTENSITY, INTENSITY_ERR, VOLUME, VOLUME_ERR, STATUS, TYPE, COMMENT, FLAGS, FLAG, COLOR
+    }
+
+    /**
+     * A column of the peak rows of an XPK2 file.
+     *
+     * @param name    the column header
+     * @param field   the peak (or peak dimension) value it holds
+     * @param iDim    the peak dimension, or -1 for peak values
+     * @param flagNum the flag number of a flagN column
+     */
+    record XPK2Column(String name, XPK2Field field, int iDim, int flagNum) {
+    }
+
+    /**
+     * Resolve the data header of an XPK2 file once, so each row is parsed
+     * without looking up column names or dimension labels.
+     *
+     * @param peakList   the peak list being read
+     * @param dataHeader the column headers
+     * @return the columns
+     */
+    static XPK2Column[] getXPK2Columns(PeakList peakList, String[] dataHeader) {
+        XPK2Column[] columns = new XPK2Column[dataHeader.length];
+        for (int i = 0; i < dataHeader.length; i++) {
+            String name = dataHeader[i];
+            int dotIndex = name.indexOf('.');
+            if (dotIndex != -1) {
+                String dimLabel = name.substring(0, dotIndex);
+                String field = name.substring(dotIndex + 1);
+                int iDim = -1;
+                for (int j = 0; j < peakList.nDim; j++) {
+                    if (peakList.getSpectralDim(j).getDimName().equals(dimLabel)) {
+                        iDim = j;
+                    }
+                }
+                if (iDim == -1) {
+                    throw new IllegalArgumentException("Unknown dimension " + dimLabel);
+                }
+                XPK2Field xpk2Field = switch (field) {
+                    case "L" -> XPK2Field.LABEL;
+                    case "P" -> XPK2Field.SHIFT;
+                    case "W" -> XPK2Field.WIDTH;
+                    case "WH" -> XPK2Field.WIDTH_HZ;
+                    case "B" -> XPK2Field.BOUNDS;
+                    case "BH" -> XPK2Field.BOUNDS_HZ;
+                    case "J", "M", "m" -> XPK2Field.IGNORED;
+                    case "E" -> XPK2Field.ERROR;
+                    case "F" -> XPK2Field.FROZEN;
+                    case "U" -> XPK2Field.USER;
+                    case "r" -> XPK2Field.RESONANCE;
+                    default -> throw new IllegalArgumentException("Unknown field " + field);
+                };
+                columns[i] = new XPK2Column(name, xpk2Field, iDim, 0);
+            } else {
+                String field = name;
+                int flagNum = 0;
+                if (field.startsWith("flag") && (field.length() > 4) && Character.isDigit(field.charAt(4))) {
+                    flagNum = Integer.parseInt(field.substring(4));
+                    field = "flag";
+                }
+                XPK2Field xpk2Field = switch (field) {
+                    case "id" -> XPK2Field.ID;
+                    case "int", "intensity" -> XPK2Field.INTENSITY;
+                    case "intensity_err" -> XPK2Field.INTENSITY_ERR;
+                    case "vol", "volume" -> XPK2Field.VOLUME;
+                    case "volume_err" -> XPK2Field.VOLUME_ERR;
+                    case "status", "stat" -> XPK2Field.STATUS;
+                    case "type" -> XPK2Field.TYPE;
+                    case "comment" -> XPK2Field.COMMENT;
+                    case "flags" -> XPK2Field.FLAGS;
+                    case "flag" -> XPK2Field.FLAG;
+                    case "color" -> XPK2Field.COLOR;
+                    default -> throw new IllegalArgumentException("Unknown field " + field);
+                };
+                columns[i] = new XPK2Column(name, xpk2Field, -1, flagNum);
+            }
+        }
+        return columns;
+    }
+
+    private void processLine(PeakList peakList, XPK2Column[] columns, LineTokenizer tokenizer) {
+        Peak peak = peakList.getNewPeak();
+        int nFields = Math.min(columns.length, tokenizer.getFieldCount());
+        for (int i = 0; i < nFields; i++) {
+            XPK2Column column = columns[i];
+            PeakDim peakDim = column.iDim() >= 0 ? peak.getPeakDim(column.iDim()) : null;
+            try {
+                switch (column.field()) {
+                    case LABEL -> peakDim.setLabel(Arrays.asList(tokenizer.getString(i).split(" ")));
+                    case SHIFT -> peakDim.setChemShiftValue(tokenizer.getFloat(i));
+                    case WIDTH -> peakDim.setLineWidthValue(tokenizer.getFloat(i));
+                    case WIDTH_HZ -> peakDim.setLineWidthValue(tokenizer.getFloat(i) / (float) peakDim.getSpectralDimObj().getSf());
+                    case BOUNDS -> peakDim.setBoundsValue(tokenizer.getFloat(i));
+                    case BOUNDS_HZ -> peakDim.setBoundsValue(tokenizer.getFloat(i) / (float) peakDim.getSpectralDimObj().getSf());
+                    case ERROR -> peakDim.setError(tokenizer.getString(i));
+                    case FROZEN -> peakDim.setFrozen(!tokenizer.fieldEquals(i, "0"));
+                    case USER -> peakDim.setUser(tokenizer.getString(i));
+                    case RESONANCE -> {
+                        long resNum = tokenizer.getLong(i);
+                        if (linkResonances) {
+                            addResonance(resNum, peakDim);
+                        }
+                    }
+                    case IGNORED -> {
+                        // fixme
+                    }
+                    case ID -> peak.setIdNum(tokenizer.getInt(i));
+                    case INTENSITY -> peak.setIntensity(tokenizer.getFloat(i));
+                    case INTENSITY_ERR -> peak.setIntensityErr(tokenizer.getFloat(i));
+                    case VOLUME -> peak.setVolume1(tokenizer.getFloat(i));
+                    case VOLUME_ERR -> peak.setVolume1Err(tokenizer.getFloat(i));
+                    case STATUS -> peak.setStatus(tokenizer.getInt(i));
+                    case TYPE -> peak.setType(tokenizer.getInt(i));
+                    case COMMENT -> peak.setComment(tokenizer.getString(i));
+                    case FLAGS -> peak.setFlag2(tokenizer.getString(i));
+                    case FLAG -> peak.setFlag2(column.flagNum(), tokenizer.getString(i));
+                    case COLOR -> peak.setColor(tokenizer.getString(i));
+                }
+            } catch (NumberFormatException nfE) {
+                throw new IllegalArgumentException("Can't parse number: " + tokenizer.getString(i) + " for field " + column.name());
+            }
+        }
+    }
+
     public void processLine(PeakList peakList, String[] dataHeader, Map<String, Integer> dataMap, String[] data) {
         Peak peak = peakList.getNewPeak();
         for (String field : dataHeader) {
@@ -352,34 +465,27 @@ public class PeakReader {
         int nDim = peakList.nDim;
         double[] xValues;
         try (final BufferedReader fileReader = Files.newBufferedReader(path)) {
-            while (true) {
-                String line = fileReader.readLine();
-                if (line == null) {
-                    break;
-                }
-                String sline = line.trim();
-                if (sline.length() == 0) {
+            LineTokenizer tokenizer = new LineTokenizer(fileReader, '\t');
+            while (tokenizer.nextLine()) {
+                if (tokenizer.isBlankOrComment()) {
                     continue;
                 }
-                if (sline.charAt(0) == '#') {
-                    continue;
-                }
-                String[] data = line.split("\t", -1);
+                int nFields = tokenizer.getFieldCount();
                 if (!gotHeader) {
                     gotHeader = true;
                     valStart = nDim + 1;
-                    if ((data.length > (valStart + 1)) && (data[valStart + 1].equals("err"))) {
+                    if ((nFields > (valStart + 1)) && tokenizer.fieldEquals(valStart + 1, "err")) {
                         hasErrors = true;
                     }
-                    nValues = data.length - (nDim + 1);
+                    nValues = nFields - (nDim + 1);
                     if (hasErrors) {
                         nValues /= 2;
                     }
                     xValues = new double[nValues];
                     boolean ok = true;
-                    for (int i = valStart, j = 0; i < data.length; i++) {
+                    for (int i = valStart, j = 0; i < nFields; i++) {
                         try {
-                            xValues[j++] = Double.parseDouble(data[i]);
+                            xValues[j++] = tokenizer.getDouble(i);
                             if (hasErrors) {
                                 i++;
                             }
@@ -393,14 +499,14 @@ public class PeakReader {
                         peakList.setMeasures(measure);
                     }
                 } else {
-                    int peakId = Integer.parseInt(data[0]);
+                    int peakId = tokenizer.getInt(0);
                     Peak peak = peakList.getPeakByID(peakId);
                     if (peak != null) {
                         double[][] values = new double[2][nValues];
-                        for (int i = valStart, j = 0; i < data.length; i++) {
-                            values[0][j] = Double.parseDouble(data[i]);
+                        for (int i = valStart, j = 0; i < nFields; i++) {
+                            values[0][j] = tokenizer.getDouble(i);
                             if (hasErrors) {
-                                values[1][j] = Double.parseDouble(data[i + 1]);
+                                values[1][j] = tokenizer.getDouble(i + 1);
                                 i++;
                             }
                             j++;
@@ -641,17 +747,45 @@ public class PeakReader {
         return nDim;
     }
 
+    /**
+     * Find where the atom name starts in a Sparky assignment such as ALA12CA
+     * or 12HN. The assignment must be optional letters, then digits, then a
+     * letter and the rest of the atom name.
+     *
+     * @param assignment the assignment of one dimension
+     * @return the index of the atom name, or -1 if the assignment isn't in
+     * that form
+     */
+    static int getSparkyAtomStart(String assignment) {
+        int length = assignment.length();
+        int i = 0;
+        while ((i < length) && isAsciiLetter(assignment.charAt(i))) {
+            i++;
+        }
+        int digitStart = i;
+        while ((i < length) && (assignment.charAt(i) >= '0') && (assignment.charAt(i) <= '9')) {
+            i++;
+        }
+        if ((i == digitStart) || (i == length) || !isAsciiLetter(assignment.charAt(i))) {
+            return -1;
+        }
+        return i;
+    }
+
+    private static boolean isAsciiLetter(char ch) {
+        return ((ch >= 'A') && (ch <= 'Z')) || ((ch >= 'a') && (ch <= 'z'));
+    }
+
     public static PeakList readSparkyAssignmentFile(String fileName) throws IOException {
         Path path = Paths.get(fileName);
         String fileTail = path.getFileName().toString();
         fileTail = fileTail.substring(0, fileTail.indexOf('.'));
         String listName = fileTail;
         PeakList peakList;
-        Pattern pattern = Pattern.compile("([A-Za-z]*)([0-9]+)([A-Za-z].*)");
         try (final BufferedReader fileReader = Files.newBufferedReader(path)) {
-            String line = fileReader.readLine();
-            line = line.trim();
-            String[] fields = line.split("\\s+");
+            LineTokenizer tokenizer = new LineTokenizer(fileReader);
+            tokenizer.nextLine();
+            String[] fields = tokenizer.getStrings();
             int nDim = countSparkyDims(fields);
             boolean hasHeight = hasSparkyDataHeight(fields);
             peakList = new PeakList(listName, nDim);
@@ -659,25 +793,20 @@ public class PeakReader {
             if (hasHeight) {
                 expectedFields++;
             }
-            while (true) {
-                line = fileReader.readLine();
-                if (line == null) {
-                    break;
-                }
-                line = line.trim();
-                fields = line.split("\\s+");
-                if (fields.length >= expectedFields) {
+            while (tokenizer.nextLine()) {
+                int nFields = tokenizer.getFieldCount();
+                if (nFields >= expectedFields) {
                     Peak peak = peakList.getNewPeak();
-                    String[] assignFields = fields[0].split("-");
+                    String[] assignFields = tokenizer.getString(0).split("-");
                     if (hasHeight) {
-                        float height = Float.parseFloat(fields[fields.length - 1]);
+                        float height = tokenizer.getFloat(nFields - 1);
                         peak.setIntensity(height);
                     } else {
                         peak.setIntensity(1.0f);
                     }
 
                     for (int i = 0; i < nDim; i++) {
-                        float ppm = Float.parseFloat(fields[i + 1]);
+                        float ppm = tokenizer.getFloat(i + 1);
                         PeakDim peakDim = peak.getPeakDim(i);
                         peakDim.setChemShift(ppm);
                         float widthHz = 20.0f;
@@ -687,16 +816,10 @@ public class PeakReader {
                         String atomName = "";
                         if (assignFields.length == nDim) {
                             String assignField = assignFields[i];
-                            if (!assignField.equals("?")) {
-                                Matcher matcher = pattern.matcher(assignField);
-                                if (matcher.matches()) {
-                                    if (matcher.group(1) == null) {
-                                        resName = matcher.group(2);
-                                    } else {
-                                        resName = matcher.group(1) + matcher.group(2);
-                                    }
-                                    atomName = matcher.group(3);
-                                }
+                            int atomStart = getSparkyAtomStart(assignField);
+                            if (atomStart > 0) {
+                                resName = assignField.substring(0, atomStart);
+                                atomName = assignField.substring(atomStart);
                             }
                         }
 
@@ -32,6 +32,8 @@ import java.util.Map;
 @PythonAPI("pscript")
 public class PeakWriter {
 
+    private static final int WRITE_CHUNK_SIZE = 1 << 16;
+
     private static final String[] XPKDIMSTRINGS = {
             "label",
             "code",
@@ -97,7 +99,35 @@ public class PeakWriter {
     }
 
     public void writePeaksXPK2(Writer chan, PeakList peakList) throws IOException, InvalidPeakException {
+        writeXPK2ListHeader(chan, peakList);
+        chan.write(peakList.getXPK2Header());
+        chan.write("\n");
+        StringBuilder sBuilder = new StringBuilder(WRITE_CHUNK_SIZE + 1024);
+        int nPeaks = peakList.size();
+        for (int i = 0; i < nPeaks; i++) {
+            Peak peak = peakList.getPeak(i);
+            if (peak == null) {
+                throw new InvalidPeakException("PeakList.writePeaks: peak null at " + i);
+            }
+            peak.appendXPK2String(sBuilder);
+            sBuilder.append('\n');
+            writeChunk(chan, sBuilder, false);
+        }
+        writeChunk(chan, sBuilder, true);
+    }
 
+    /**
+     * Write the rows collected in a builder once it holds enough text, so
+     * rows are built in one reused builder and written in large blocks.
+     */
+    private static void writeChunk(Writer chan, StringBuilder sBuilder, boolean last) throws IOException {
+        if (last || (sBuilder.length() >= WRITE_CHUNK_SIZE)) {
+            chan.append(sBuilder);
+            sBuilder.setLength(0);
+        }
+    }
+
+    private void writeXPK2ListHeader(Writer chan, PeakList peakList) throws IOException {
         Map<String, String> properties = peakList.getProperties();
         chan.write("peaklist\tdataset\tndim\tcondition\tscale");
         StringBuilder propBuilder = new StringBuilder();
@@ -139,16 +169,6 @@ public class PeakWriter {
         for (int j = 0; j < nDim; j++) {
             chan.write(peakList.getSpectralDim(j).toXPK2Dim() + "\n");
         }
-        chan.write(peakList.getXPK2Header());
-        chan.write("\n");
-        int nPeaks = peakList.size();
-        for (int i = 0; i < nPeaks; i++) {
-            Peak peak = peakList.getPeak(i);
-            if (peak == null) {
-                throw new InvalidPeakException("PeakList.writePeaks: peak null at " + i);
-            }
-            chan.write(peak.toXPK2String(i) + "\n");
-        }
     }
 
     public void writePeakMeasures(Writer chan, PeakList peakList) throws IOException, InvalidPeakException {
@@ -162,6 +182,7 @@ public class PeakWriter {
         }
         int nPeaks = peakList.size();
         boolean wroteHeader = false;
+        StringBuilder sBuilder = new StringBuilder();
         for (int i = 0; i < nPeaks; i++) {
             Peak peak = peakList.getPeak(i);
             if (peak == null) {
@@ -186,9 +207,11 @@ public class PeakWriter {
                     chan.write("\n");
                     wroteHeader = true;
                 }
-                chan.write(peak.toMeasureString(i) + "\n");
+                sBuilder.append(peak.toMeasureString(i)).append('\n');
+                writeChunk(chan, sBuilder, false);
             }
         }
+        writeChunk(chan, sBuilder, true);
     }
 
     public void writePeaksXPK(Writer chan, PeakList peakList) throws IOException, IllegalArgumentException, InvalidPeakException {
@@ -513,14 +536,16 @@ public class PeakWriter {
         }
         chan.write(peakList.getSparkyHeader());
         chan.write("\n");
+        StringBuilder sBuilder = new StringBuilder();
         int nPeaks = peakList.size();
         for (int i = 0; i < nPeaks; i++) {
             Peak peak = peakList.getPeak(i);
             if (peak == null) {
                 throw new InvalidPeakException("PeakList.writePeaks: peak null at " + i);
             }
-            chan.write(peak.toSparkyString());
-            chan.write("\n");
+            sBuilder.append(peak.toSparkyString()).append('\n');
+            writeChunk(chan, sBuilder, false);
         }
+        writeChunk(chan, sBuilder, true);
     }
 }
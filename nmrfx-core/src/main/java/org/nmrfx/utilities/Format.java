@@ -27,6 +27,7 @@ import java.util.Locale;
 public class Format {
     private static final Locale STD_LOCALE = new Locale("en", "US");
     private static final DecimalFormat[] FORMATTERS = new DecimalFormat[11];
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000, 100000, 1000000};
 
     static {
         for (int i = 1; i < FORMATTERS.length; i++) {
@@ -71,6 +72,109 @@ public class Format {
         return get(precision).format(value);
     }
 
+    /**
+     * Append a value with a fixed number of decimals, giving the same text as
+     * String.format("%.nf") without parsing a format string or making a
+     * Formatter for each value.
+     *
+     * @param sBuilder  the builder to append to
+     * @param value     the value
+     * @param nDecimals the number of decimals
+     * @return the builder
+     */
+    public static StringBuilder appendFixed(StringBuilder sBuilder, double value, int nDecimals) {
+        double absValue = Math.abs(value);
+        if (!Double.isFinite(value) || (absValue >= 1.0e12) || (nDecimals > 6) || (nDecimals < 0)) {
+            return sBuilder.append(String.format("%." + nDecimals + "f", value));
+        }
+        long scaled = getScaledFast(absValue, nDecimals);
+        if (scaled < 0) {
+            scaled = getScaled(absValue, nDecimals);
+        }
+        if (Double.doubleToRawLongBits(value) < 0) {
+            sBuilder.append('-');
+        }
+        long factor = POWERS_OF_TEN[nDecimals];
+        sBuilder.append(scaled / factor);
+        if (nDecimals > 0) {
+            sBuilder.append('.');
+            long fraction = scaled % factor;
+            for (long f = factor / 10; f > 1 && fraction < f; f /= 10) {
+                sBuilder.append('0');
+            }
+            sBuilder.append(fraction);
+        }
+        return sBuilder;
+    }
+
+    // value times 10^nDecimals rounded to a long, or -1 if too close to a tie to round without the decimal digits
+    private static long getScaledFast(double absValue, int nDecimals) {
+        double scaled = absValue * POWERS_OF_TEN[nDecimals];
+        if (scaled >= 1.0e15) {
+            return -1;
+        }
+        double floor = Math.floor(scaled);
+        double fraction = scaled - floor;
+        if (Math.abs(fraction - 0.5) <= 8.0 * Math.ulp(scaled)) {
+            return -1;
+        }
+        return (long) floor + (fraction > 0.5 ? 1 : 0);
+    }
+
+    private static long getScaled(double absValue, int nDecimals) {
+        // round half up on the shortest decimal representation, as Formatter does
+        String digits = Double.toString(absValue);
+        int ePos = digits.indexOf('E');
+        int end = ePos == -1 ? digits.length() : ePos;
+        int exponent = ePos == -1 ? 0 : Integer.parseInt(digits, ePos + 1, digits.length(), 10);
+        int dot = digits.indexOf('.');
+        int nKeep = dot + exponent + nDecimals;
+        long scaled = 0;
+        if (nKeep >= 0) {
+            int nDigits = 0;
+            boolean roundUp = false;
+            for (int i = 0; i < end; i++) {
+                if (i == dot) {
+                    continue;
+                }
+                int digit = digits.charAt(i) - '0';
+                if (nDigits == nKeep) {
+                    roundUp = digit >= 5;
+                    break;
+                }
+                scaled = scaled * 10 + digit;
+                nDigits++;
+            }
+            for (; nDigits < nKeep; nDigits++) {
+                scaled *= 10;
+            }
+            if (roundUp) {
+                scaled++;
+            }
+        }
+        return scaled;
+    }
+
+    /**
+     * Append a value with a fixed number of decimals, padded on the left with
+     * spaces to a minimum width, as String.format("%w.nf").
+     *
+     * @param sBuilder  the builder to append to
+     * @param value     the value
+     * @param width     the minimum width
+     * @param nDecimals the number of decimals
+     * @return the builder
+     */
+    public static StringBuilder appendFixed(StringBuilder sBuilder, double value, int width, int nDecimals) {
+        int start = sBuilder.length();
+        appendFixed(sBuilder, value, nDecimals);
+        int nPad = width - (sBuilder.length() - start);
+        if (nPad > 0) {
+            sBuilder.insert(start, " ".repeat(nPad));
+        }
+        return sBuilder;
+    }
+
     public static DecimalFormat get(final int precision) {
         final DecimalFormat format;
         if (precision < 1) {
@@ -86,4 +86,25 @@ public class MoleculeTest {
         Assert.assertTrue(matched2y);
     }
 
+    @Test
+    public void testThreadMolecule() throws InterruptedException {
+        MoleculeBase[] threadMols = new MoleculeBase[2];
+        Thread thread = new Thread(() -> {
+            MoleculeFactory.beginThreadMolecule();
+            try {
+                threadMols[0] = new Sequence().read("threadMol", Arrays.asList("GLY", "ALA"), null);
+                threadMols[1] = MoleculeFactory.getActive();
+            } catch (MoleculeIOException ex) {
+                threadMols[0] = null;
+            } finally {
+                MoleculeFactory.endThreadMolecule();
+            }
+        });
+        thread.start();
+        thread.join();
+        Assert.assertNotNull(threadMols[0]);
+        Assert.assertSame(threadMols[0], threadMols[1]);
+        Assert.assertNull(MoleculeFactory.getMolecule("threadMol"));
+        Assert.assertNotSame(threadMols[0], MoleculeFactory.getActive());
+    }
 }
@@ -0,0 +1,145 @@
+package org.nmrfx.datasets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StorageCacheTest {
+
+    private static final int[] SIZES = {512, 512};
+    private File file;
+    private RandomAccessFile raFile;
+    private SubMatrixFile subMatrixFile;
+    private DatasetLayout layout;
+    private long savedMaxBytes;
+
+    @Before
+    public void setUp() throws IOException {
+        savedMaxBytes = SubMatrixFile.getCache().getMaxBytes();
+        file = File.createTempFile("cachetest", ".nv");
+        DatasetBase dataset = new DatasetBase(file.getPath(), file.getName(), true, true);
+        dataset.setNDim(2);
+        dataset.size = SIZES.clone();
+        layout = DatasetLayout.createBlockMatrix(0, SIZES);
+        raFile = new RandomAccessFile(file, "rw");
+        raFile.setLength(layout.getTotalSize());
+        subMatrixFile = new SubMatrixFile(dataset, file, layout, raFile, true);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        subMatrixFile.close();
+        SubMatrixFile.getCache().setMaxBytes(savedMaxBytes);
+        file.delete();
+    }
+
+    private long blockBytes() {
+        return layout.getBlockPoints() * Float.BYTES;
+    }
+
+    @Test
+    public void testCacheStaysWithinBudget() throws IOException {
+        StorageCache cache = SubMatrixFile.getCache();
+        cache.setMaxBytes(4 * blockBytes());
+        for (int i = 0; i < SIZES[0]; i++) {
+            for (int j = 0; j < SIZES[1]; j++) {
+                subMatrixFile.setFloat(i + j, i, j);
+            }
+        }
+        assertTrue(layout.getTotalBlocks() > 4);
+        assertTrue(cache.getCurrentBytes() <= 4 * blockBytes());
+        assertTrue(subMatrixFile.getCacheStats().getEvictions() > 0);
+        assertTrue(subMatrixFile.getCacheStats().getWriteBacks() > 0);
+    }
+
+    @Test
+    public void testEvictedBlocksAreWrittenBack() throws IOException {
+        SubMatrixFile.getCache().setMaxBytes(2 * blockBytes());
+        for (int i = 0; i < SIZES[0]; i++) {
+            for (int j = 0; j < SIZES[1]; j++) {
+                subMatrixFile.setFloat(i * 1000.0f + j, i, j);
+            }
+        }
+        for (int i = 0; i < SIZES[0]; i += 17) {
+            for (int j = 0; j < SIZES[1]; j += 13) {
+                assertEquals(i * 1000.0f + j, subMatrixFile.getFloat(i, j), 1.0e-6);
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentWritesAndReads() throws Exception {
+        SubMatrixFile.getCache().setMaxBytes(4 * blockBytes());
+        int nThreads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int iThread = 0; iThread < nThreads; iThread++) {
+            final int first = iThread;
+            futures.add(executor.submit(() -> {
+                for (int i = first; i < SIZES[0]; i += nThreads) {
+                    for (int j = 0; j < SIZES[1]; j++) {
+                        subMatrixFile.setFloat(i * 1000.0f + j, i, j);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertTrue(SubMatrixFile.getCache().getCurrentBytes() <= 4 * blockBytes());
+        for (int i = 0; i < SIZES[0]; i++) {
+            for (int j = 0; j < SIZES[1]; j++) {
+                assertEquals(i * 1000.0f + j, subMatrixFile.getFloat(i, j), 1.0e-6);
+            }
+        }
+    }
+
+    @Test
+    public void testStridedTransferAcrossBlocks() throws IOException {
+        int[] point = new int[2];
+        float[] values = new float[SIZES[1]];
+        for (int i = 0; i < SIZES[0]; i++) {
+            for (int j = 0; j < SIZES[1]; j++) {
+                values[j] = i * 1000.0f + j;
+            }
+            point[0] = i;
+            subMatrixFile.writeFloats(0, SIZES[1] - 1, point, 1, values);
+        }
+        for (int i = 0; i < SIZES[0]; i += 31) {
+            for (int j = 0; j < SIZES[1]; j += 7) {
+                assertEquals(i * 1000.0f + j, subMatrixFile.getFloat(i, j), 1.0e-6);
+            }
+        }
+        float[] row = new float[SIZES[0] - 10];
+        point[1] = 300;
+        subMatrixFile.readFloats(5, SIZES[0] - 6, point, 0, row);
+        for (int i = 0; i < row.length; i++) {
+            assertEquals((i + 5) * 1000.0f + 300, row[i], 1.0e-6);
+        }
+    }
+
+    @Test
+    public void testHitsAndMisses() throws IOException {
+        SubMatrixFile.getCache().setMaxBytes(StorageCache.DEFAULT_MAX_BYTES);
+        subMatrixFile.getCacheStats().reset();
+        subMatrixFile.getFloat(0, 0);
+        subMatrixFile.getFloat(1, 0);
+        subMatrixFile.getFloat(2, 0);
+        assertEquals(1, subMatrixFile.getCacheStats().getMisses());
+        assertEquals(2, subMatrixFile.getCacheStats().getHits());
+    }
+}
@@ -0,0 +1,60 @@
+package org.nmrfx.math;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class ClustersTest {
+
+    Clusters getClusters(int nPeaks, int nGroups, double[] tol, long seed) {
+        Random random = new Random(seed);
+        double[][] centers = new double[nPeaks][2];
+        for (double[] center : centers) {
+            center[0] = 7.0 + 2.0 * random.nextDouble();
+            center[1] = 105.0 + 25.0 * random.nextDouble();
+        }
+        Clusters clusters = new Clusters();
+        int index = 0;
+        for (int iGroup = 0; iGroup < nGroups; iGroup++) {
+            for (double[] center : centers) {
+                if (random.nextDouble() < 0.1) {
+                    continue;
+                }
+                double[] v = new double[2];
+                for (int iDim = 0; iDim < 2; iDim++) {
+                    v[iDim] = center[iDim] + random.nextGaussian() * tol[iDim] / 3.0;
+                }
+                clusters.addDatum(new Clusters.ClusterItem(index++, v, iGroup));
+            }
+        }
+        return clusters;
+    }
+
+    void compare(int nPeaks, int nGroups, int target, long seed) {
+        double[] tol = {0.04, 0.4};
+        Clusters clusters = getClusters(nPeaks, nGroups, tol, seed);
+        Clusters reference = getClusters(nPeaks, nGroups, tol, seed);
+        clusters.doCluster(2, tol, target);
+        reference.doClusterExhaustive(2, tol, target);
+        Assert.assertEquals(reference.data.size(), clusters.data.size());
+        for (int i = 0; i < clusters.data.size(); i++) {
+            Clusters.ClusterItem item = clusters.data.get(i);
+            Clusters.ClusterItem refItem = reference.data.get(i);
+            Assert.assertEquals(refItem.isActive(), item.isActive());
+            Assert.assertEquals(refItem.getObjects(), item.getObjects());
+            Assert.assertArrayEquals(refItem.v, item.v, 0.0);
+        }
+    }
+
+    @Test
+    public void testMatchesExhaustive() {
+        compare(300, 3, Integer.MAX_VALUE, 5L);
+        compare(200, 4, Integer.MAX_VALUE, 9L);
+    }
+
+    @Test
+    public void testTargetClusters() {
+        compare(150, 2, 120, 17L);
+    }
+}
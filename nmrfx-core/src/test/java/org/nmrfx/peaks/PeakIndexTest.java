@@ -0,0 +1,83 @@
+package org.nmrfx.peaks;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.nmrfx.project.ProjectBase;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+public class PeakIndexTest {
+
+    int[] dim = {0, 1, 2};
+
+    PeakList getPeakList(int nPeaks) {
+        ProjectBase.getActive().clearAllPeakLists();
+        PeakList peakList = new PeakList("index", 3);
+        Random random = new Random(7);
+        for (int i = 0; i < nPeaks; i++) {
+            Peak peak = peakList.getNewPeak();
+            peak.getPeakDim(0).setChemShiftValue((float) (6.0 + 4.0 * random.nextDouble()));
+            peak.getPeakDim(1).setChemShiftValue((float) (100.0 + 35.0 * random.nextDouble()));
+            peak.getPeakDim(2).setChemShiftValue((float) (10.0 * random.nextDouble()));
+        }
+        return peakList;
+    }
+
+    void checkRegion(PeakList peakList, double[][] limits, double[][] foldLimits) {
+        List<Peak> expected = peakList.peaks().stream()
+                .filter(p -> p.inRegion(limits, foldLimits, dim)).toList();
+        Assert.assertEquals(expected, peakList.findPeaksInRegion(limits, foldLimits, dim));
+    }
+
+    @Test
+    public void testRegion() {
+        PeakList peakList = getPeakList(2000);
+        double[][] limits = {{7.5, 8.0}, {110.0, 120.0}, {2.0, 6.0}};
+        checkRegion(peakList, limits, null);
+        checkRegion(peakList, new double[][]{{7.5, 8.0}, {120.0, 125.0}}, new double[][]{null, {110.0, 130.0}});
+
+        // shifted, removed and added peaks are tracked by the index
+        for (int i = 0; i < 200; i++) {
+            peakList.getPeak(i).getPeakDim(0).setChemShiftValue(7.75f);
+        }
+        peakList.removePeak(peakList.getPeak(1000));
+        Peak peak = peakList.getNewPeak();
+        peak.getPeakDim(0).setChemShiftValue(7.6f);
+        peak.getPeakDim(1).setChemShiftValue(115.0f);
+        peak.getPeakDim(2).setChemShiftValue(3.0f);
+        checkRegion(peakList, limits, null);
+        Assert.assertTrue(peakList.findPeaksInRegion(limits, null, dim).contains(peak));
+    }
+
+    @Test
+    public void testLocate() {
+        PeakList peakList = getPeakList(1000);
+        double[][] limits = {{8.2, 7.9}, {118.0, 112.0}};
+        int[] searchDim = {0, 1};
+        List<Peak> found = peakList.locatePeaks(limits, searchDim);
+        long expected = peakList.peaks().stream().filter(p -> {
+            double x = p.getPeakDim(0).getChemShiftValue();
+            double y = p.getPeakDim(1).getChemShiftValue();
+            return (x < 8.2) && (x >= 7.9) && (y < 118.0) && (y >= 112.0);
+        }).count();
+        Assert.assertEquals(expected, found.size());
+    }
+
+    @Test
+    public void testNearest() {
+        PeakList peakList = getPeakList(3000);
+        double[] ppms = {8.1, 121.3};
+        int[] searchDim = {0, 1};
+        double[] scale = {0.1, 1.0};
+        List<Peak> sorted = new ArrayList<>(peakList.peaks());
+        sorted.sort(Comparator.comparingDouble(p -> {
+            double dx = (p.getPeakDim(0).getChemShiftValue() - ppms[0]) / scale[0];
+            double dy = (p.getPeakDim(1).getChemShiftValue() - ppms[1]) / scale[1];
+            return dx * dx + dy * dy;
+        }));
+        Assert.assertEquals(sorted.subList(0, 5), peakList.findNearestPeaks(ppms, searchDim, scale, 5));
+    }
+}
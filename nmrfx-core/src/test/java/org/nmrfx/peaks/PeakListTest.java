@@ -5,11 +5,15 @@ import org.junit.Test;
 import org.nmrfx.chemistry.MoleculeBase;
 import org.nmrfx.chemistry.io.MoleculeIOException;
 import org.nmrfx.chemistry.io.Sequence;
+import org.nmrfx.peaks.events.PeakChangeEvent;
+import org.nmrfx.peaks.events.PeakEvent;
 import org.nmrfx.peaks.io.PeakReader;
 import org.nmrfx.project.ProjectBase;
+import org.nmrfx.utilities.Updater;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 
 public class PeakListTest {
@@ -33,4 +37,51 @@ public class PeakListTest {
             Assert.assertEquals(entry.getKey().description, 1, entry.getValue().longValue());
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBatchedPeakChanges() {
+        ProjectBase.getActive().clearAllPeakLists();
+        PeakList peakList = new PeakList("batch", 2);
+        for (int i = 0; i < 50; i++) {
+            Peak peak = peakList.getNewPeak();
+            peak.getPeakDim(0).setChemShiftValue(1.0f + i * 0.1f);
+            peak.getPeakDim(1).setChemShiftValue(100.0f + i);
+        }
+        peakList.reIndex();
+        List<Object> updates = new ArrayList<>();
+        peakList.registerUpdater(new Updater() {
+            @Override
+            public void update(Object object) {
+                updates.add(object);
+            }
+        });
+        List<PeakEvent> events = new ArrayList<>();
+        peakList.registerPeakChangeListener(events::add);
+
+        peakList.beginUpdates();
+        peakList.beginUpdates();
+        for (int i = 0; i < 10; i++) {
+            peakList.getPeak(i).getPeakDim(0).setChemShiftValue(5.0f);
+            peakList.getPeak(i).getPeakDim(1).setChemShiftValue(110.0f);
+        }
+        peakList.commitUpdates();
+        Assert.assertTrue(updates.isEmpty());
+        peakList.commitUpdates();
+        Assert.assertEquals(1, updates.size());
+        Assert.assertTrue(updates.get(0) instanceof Peak);
+
+        peakList.notifyPeakChangeListeners();
+        Assert.assertEquals(1, events.size());
+        PeakChangeEvent event = (PeakChangeEvent) events.get(0);
+        Assert.assertEquals(10, event.getChangedPeaks().orElseThrow().size());
+        Assert.assertTrue(event.getChangedPeaks().get().contains(peakList.getPeak(9)));
+
+        peakList.notifyPeakChangeListeners();
+        Assert.assertTrue(((PeakChangeEvent) events.get(1)).getChangedPeaks().isEmpty());
+
+        updates.clear();
+        peakList.shiftPeak(0, 0.5);
+        Assert.assertEquals(1, updates.size());
+        peakList.remove();
+    }
+}
@@ -0,0 +1,171 @@
+package org.nmrfx.peaks.io;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nmrfx.peaks.InvalidPeakException;
+import org.nmrfx.peaks.Measures;
+import org.nmrfx.peaks.Peak;
+import org.nmrfx.peaks.PeakDim;
+import org.nmrfx.peaks.PeakList;
+import org.nmrfx.project.ProjectBase;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+
+public class PeakReaderTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testTokenizer() throws IOException {
+        String text = "a\tb\t\t1.5\r\n\n# comment\n  x   y\tz  \nlast\t-12";
+        LineTokenizer tokenizer = new LineTokenizer(new StringReader(text), '\t');
+        Assert.assertTrue(tokenizer.nextLine());
+        Assert.assertArrayEquals("a\tb\t\t1.5".split("\t", -1), tokenizer.getStrings());
+        Assert.assertEquals(1.5f, tokenizer.getFloat(3), 0.0f);
+        Assert.assertTrue(tokenizer.isEmpty(2));
+        Assert.assertTrue(tokenizer.nextLine());
+        Assert.assertTrue(tokenizer.isBlankOrComment());
+        Assert.assertTrue(tokenizer.nextLine());
+        Assert.assertTrue(tokenizer.isBlankOrComment());
+        Assert.assertTrue(tokenizer.nextLine());
+        Assert.assertFalse(tokenizer.isBlankOrComment());
+        Assert.assertTrue(tokenizer.nextLine());
+        Assert.assertEquals(-12, tokenizer.getInt(1));
+        Assert.assertFalse(tokenizer.nextLine());
+
+        tokenizer = new LineTokenizer(new StringReader("  x   y\tz  \n"));
+        tokenizer.nextLine();
+        Assert.assertArrayEquals("  x   y\tz  ".trim().split("\\s+"), tokenizer.getStrings());
+    }
+
+    @Test
+    public void testNumbers() throws IOException {
+        Random random = new Random(5);
+        StringBuilder sBuilder = new StringBuilder();
+        int n = 20000;
+        for (int i = 0; i < n; i++) {
+            double value = Math.pow(10.0, random.nextInt(16) - 8) * (random.nextDouble() - 0.3);
+            sBuilder.append((float) value).append('\t').append(value).append('\t');
+            sBuilder.append(String.format("%.5f", value)).append('\n');
+        }
+        sBuilder.append("1e5\tNaN\t-\n");
+        LineTokenizer tokenizer = new LineTokenizer(new StringReader(sBuilder.toString()), '\t');
+        while (tokenizer.nextLine()) {
+            for (int i = 0; i < 2; i++) {
+                String field = tokenizer.getString(i);
+                Assert.assertEquals(field, Float.parseFloat(field), tokenizer.getFloat(i), 0.0f);
+                Assert.assertEquals(field, Double.parseDouble(field), tokenizer.getDouble(i), 0.0);
+            }
+            if (tokenizer.fieldEquals(2, "-")) {
+                Assert.assertThrows(NumberFormatException.class, () -> tokenizer.getFloat(2));
+            } else {
+                String field = tokenizer.getString(2);
+                Assert.assertEquals(field, Float.parseFloat(field), tokenizer.getFloat(2), 0.0f);
+            }
+        }
+    }
+
+    PeakList getPeakList(int nPeaks) {
+        PeakList peakList = new PeakList("roundtrip", 2);
+        String[] names = {"H1", "N15"};
+        for (int iDim = 0; iDim < 2; iDim++) {
+            peakList.getSpectralDim(iDim).setDimName(names[iDim]);
+            peakList.getSpectralDim(iDim).setSf(iDim == 0 ? 600.0 : 60.8);
+        }
+        peakList.setMeasures(new Measures(new double[]{1.0, 2.0}));
+        Random random = new Random(7);
+        for (int i = 0; i < nPeaks; i++) {
+            Peak peak = peakList.getNewPeak();
+            peak.setIntensity((float) (random.nextGaussian() * 1.0e4));
+            peak.setVolume1((float) (random.nextDouble() * 1.0e6));
+            peak.setComment(i % 7 == 0 ? "check" : "");
+            for (int iDim = 0; iDim < 2; iDim++) {
+                PeakDim peakDim = peak.getPeakDim(iDim);
+                peakDim.setChemShiftValue((float) ((iDim == 0 ? 6.0 : 100.0) + 30.0 * random.nextDouble()));
+                peakDim.setLineWidthValue((float) (0.01 + 0.02 * random.nextDouble()));
+                peakDim.setBoundsValue((float) (0.05 + 0.05 * random.nextDouble()));
+            }
+            if (i % 5 == 0) {
+                peak.getPeakDim(0).setLabel(i + ".H");
+            }
+            peak.setMeasures(new double[][]{{random.nextDouble(), random.nextDouble()}, {0.01, 0.02}});
+        }
+        return peakList;
+    }
+
+    @Test
+    public void testXPK2RoundTrip() throws IOException, InvalidPeakException {
+        ProjectBase.getActive().clearAllPeakLists();
+        PeakList peakList = getPeakList(2000);
+        File file = tmpFolder.newFile("roundtrip.xpk2");
+        File measureFile = tmpFolder.newFile("roundtrip.mpk2");
+        PeakWriter peakWriter = new PeakWriter();
+        try (FileWriter writer = new FileWriter(file)) {
+            peakWriter.writePeaksXPK2(writer, peakList);
+        }
+        try (FileWriter writer = new FileWriter(measureFile)) {
+            peakWriter.writePeakMeasures(writer, peakList);
+        }
+        peakList.remove();
+        PeakReader peakReader = new PeakReader();
+        PeakList readList = peakReader.readXPK2Peaks(file.toString());
+        peakReader.readMPK2(readList, measureFile.toString());
+        PeakList expectedList = getPeakList(2000);
+        Assert.assertEquals(expectedList.size(), readList.size());
+        for (int i = 0; i < expectedList.size(); i++) {
+            Peak expected = expectedList.getPeak(i);
+            Peak peak = readList.getPeak(i);
+            Assert.assertEquals(expected.getIdNum(), peak.getIdNum());
+            Assert.assertEquals(expected.getIntensity(), peak.getIntensity(), 0.0f);
+            Assert.assertEquals(expected.getVolume1(), peak.getVolume1(), 0.0f);
+            Assert.assertEquals(expected.getComment(), peak.getComment());
+            for (int iDim = 0; iDim < 2; iDim++) {
+                PeakDim expectedDim = expected.getPeakDim(iDim);
+                PeakDim peakDim = peak.getPeakDim(iDim);
+                Assert.assertEquals(expectedDim.getLabel(), peakDim.getLabel());
+                Assert.assertEquals(expectedDim.getChemShiftValue(), peakDim.getChemShiftValue(), 1.0e-5f);
+                Assert.assertEquals(expectedDim.getLineWidthValue(), peakDim.getLineWidthValue(), 1.0e-6f);
+                Assert.assertEquals(expectedDim.getBoundsValue(), peakDim.getBoundsValue(), 1.0e-6f);
+            }
+            Assert.assertEquals(expected.toMeasureString(i), peak.toMeasureString(i));
+        }
+        readList.remove();
+        expectedList.remove();
+    }
+
+    @Test
+    public void testSparky() throws IOException, InvalidPeakException {
+        ProjectBase.getActive().clearAllPeakLists();
+        Assert.assertEquals(5, PeakReader.getSparkyAtomStart("ALA12CA"));
+        Assert.assertEquals(2, PeakReader.getSparkyAtomStart("12HN"));
+        Assert.assertEquals(-1, PeakReader.getSparkyAtomStart("?"));
+        Assert.assertEquals(-1, PeakReader.getSparkyAtomStart("A12.5X"));
+        Assert.assertEquals(-1, PeakReader.getSparkyAtomStart("ALA12"));
+
+        PeakList peakList = getPeakList(100);
+        File file = tmpFolder.newFile("sparky.list");
+        try (FileWriter writer = new FileWriter(file)) {
+            new PeakWriter().writePeaksToSparky(writer, peakList);
+        }
+        PeakList readList = PeakReader.readSparkyAssignmentFile(file.toString());
+        Assert.assertEquals(peakList.size(), readList.size());
+        for (int i = 0; i < peakList.size(); i++) {
+            Peak peak = peakList.getPeak(i);
+            Peak readPeak = readList.getPeak(i);
+            for (int iDim = 0; iDim < 2; iDim++) {
+                Assert.assertEquals(peak.getPeakDim(iDim).getChemShiftValue(),
+                        readPeak.getPeakDim(iDim).getChemShiftValue(), 1.0e-4);
+            }
+            Assert.assertEquals(1.0e6 * peak.getIntensity(), readPeak.getIntensity(), 1.0e-6 * Math.abs(readPeak.getIntensity()) + 1.0);
+        }
+        peakList.remove();
+        readList.remove();
+    }
+}
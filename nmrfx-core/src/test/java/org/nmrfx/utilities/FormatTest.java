@@ -0,0 +1,40 @@
+package org.nmrfx.utilities;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class FormatTest {
+
+    void check(double value, int width, int nDecimals) {
+        String expected = String.format("%" + (width > 0 ? width : "") + "." + nDecimals + "f", value);
+        StringBuilder sBuilder = new StringBuilder("x");
+        if (width > 0) {
+            Format.appendFixed(sBuilder, value, width, nDecimals);
+        } else {
+            Format.appendFixed(sBuilder, value, nDecimals);
+        }
+        Assert.assertEquals("value " + value, "x" + expected, sBuilder.toString());
+    }
+
+    @Test
+    public void testAppendFixed() {
+        double[] values = {0.0, -0.0, 1.0, -1.0, 0.123455, 0.123445, 8.942385, 2.5e-6, -2.5e-6, 5.0e-6,
+                4.9999e-6, 1.0e-9, 99999.999995, 1.0e11, 1234567.0, 0.5, 1.0e-3, 9.99999,
+                Double.NaN, Double.POSITIVE_INFINITY, 1.0e13};
+        for (double value : values) {
+            for (int nDecimals = 0; nDecimals <= 6; nDecimals++) {
+                check(value, 0, nDecimals);
+            }
+        }
+        Random random = new Random(3);
+        for (int i = 0; i < 20000; i++) {
+            double value = Math.pow(10.0, random.nextInt(14) - 7) * (random.nextDouble() - 0.3);
+            check(value, 0, 5);
+            check((float) value, 0, 5);
+            check(value, 14, 3);
+            check((float) value, 8, 4);
+        }
+    }
+}
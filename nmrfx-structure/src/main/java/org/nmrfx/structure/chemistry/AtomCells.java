@@ -0,0 +1,202 @@
+/*
+ * NMRFx Structure : A Program for Calculating Structures
+ * Copyright (C) 2004-2017 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.structure.chemistry;
+
+import org.nmrfx.chemistry.Atom;
+import org.nmrfx.chemistry.Point3;
+
+import java.util.List;
+
+/**
+ * A grid of cubic cells, at least as wide as a distance limit, holding the
+ * coordinates of a list of atoms in one structure. The atoms within the limit
+ * of an atom are then found by searching its own and the 26 surrounding cells
+ * rather than every atom in the molecule.
+ *
+ * @author brucejohnson
+ */
+public class AtomCells {
+
+    /**
+     * Receives an atom found within the distance limit, with its distance.
+     */
+    public interface Neighbor {
+
+        void accept(int j, double r);
+    }
+
+    private final double limit;
+    private final double limit2;
+    private final double[] coords;
+    private final boolean[] hasCoords;
+    private final double cellSize;
+    private final double[] min = new double[3];
+    private final int[] nCells = new int[3];
+    private final int[] atomCells;
+    private final int[] cellStarts;
+    private final int[] cellAtoms;
+
+    /**
+     * Place the atoms in cells. Atoms without coordinates in the structure are
+     * left out and have no neighbors.
+     *
+     * @param atoms   the atoms, indexed in the same order by the search methods
+     * @param iStruct the structure to get coordinates from
+     * @param limit   the distance limit for neighbor searches
+     */
+    public AtomCells(List<Atom> atoms, int iStruct, double limit) {
+        this.limit = limit;
+        this.limit2 = limit * limit;
+        int nAtoms = atoms.size();
+        coords = new double[nAtoms * 3];
+        hasCoords = new boolean[nAtoms];
+        double[] max = new double[3];
+        for (int k = 0; k < 3; k++) {
+            min[k] = Double.MAX_VALUE;
+            max[k] = -Double.MAX_VALUE;
+        }
+        int nValid = 0;
+        for (int i = 0; i < nAtoms; i++) {
+            Point3 pt = atoms.get(i).getPoint(iStruct);
+            if (pt != null) {
+                hasCoords[i] = true;
+                coords[i * 3] = pt.getX();
+                coords[i * 3 + 1] = pt.getY();
+                coords[i * 3 + 2] = pt.getZ();
+                for (int k = 0; k < 3; k++) {
+                    min[k] = Math.min(min[k], coords[i * 3 + k]);
+                    max[k] = Math.max(max[k], coords[i * 3 + k]);
+                }
+                nValid++;
+            }
+        }
+        if (nValid == 0) {
+            for (int k = 0; k < 3; k++) {
+                min[k] = 0.0;
+                max[k] = 0.0;
+            }
+        }
+        // widen the cells if atoms spread far enough apart that the grid would hold mostly empty cells
+        int maxCells = Math.max(1000, 8 * nValid);
+        double size = Math.max(limit, 1.0e-6);
+        long totalCells;
+        while (true) {
+            totalCells = 1;
+            for (int k = 0; k < 3; k++) {
+                nCells[k] = (int) Math.floor((max[k] - min[k]) / size) + 1;
+                totalCells *= nCells[k];
+            }
+            if (totalCells <= maxCells) {
+                break;
+            }
+            size *= 1.5;
+        }
+        cellSize = size;
+
+        atomCells = new int[nAtoms];
+        cellStarts = new int[(int) totalCells + 1];
+        for (int i = 0; i < nAtoms; i++) {
+            if (hasCoords[i]) {
+                int iCell = cellIndex(coords[i * 3], coords[i * 3 + 1], coords[i * 3 + 2]);
+                atomCells[i] = iCell;
+                cellStarts[iCell + 1]++;
+            }
+        }
+        for (int iCell = 0; iCell < totalCells; iCell++) {
+            cellStarts[iCell + 1] += cellStarts[iCell];
+        }
+        int[] cellAdded = new int[(int) totalCells];
+        cellAtoms = new int[nValid];
+        for (int i = 0; i < nAtoms; i++) {
+            if (hasCoords[i]) {
+                int iCell = atomCells[i];
+                cellAtoms[cellStarts[iCell] + cellAdded[iCell]++] = i;
+            }
+        }
+    }
+
+    private int cellCoord(double value, int k) {
+        int c = (int) ((value - min[k]) / cellSize);
+        return Math.min(Math.max(c, 0), nCells[k] - 1);
+    }
+
+    private int cellIndex(double x, double y, double z) {
+        return (cellCoord(z, 2) * nCells[1] + cellCoord(y, 1)) * nCells[0] + cellCoord(x, 0);
+    }
+
+    public double getLimit() {
+        return limit;
+    }
+
+    public boolean hasCoords(int i) {
+        return hasCoords[i];
+    }
+
+    /**
+     * Call the consumer with each other atom closer than the distance limit to
+     * atom i, in no particular order.
+     *
+     * @param i        the index of the atom
+     * @param neighbor receives the index and distance of each atom found
+     */
+    public void forEachNeighbor(int i, Neighbor neighbor) {
+        if (hasCoords[i]) {
+            search(coords[i * 3], coords[i * 3 + 1], coords[i * 3 + 2], i, neighbor);
+        }
+    }
+
+    /**
+     * Call the consumer with each atom closer than the distance limit to a
+     * point, in no particular order.
+     *
+     * @param pt       the point to search around
+     * @param neighbor receives the index and distance of each atom found
+     */
+    public void forEachNeighbor(Point3 pt, Neighbor neighbor) {
+        search(pt.getX(), pt.getY(), pt.getZ(), -1, neighbor);
+    }
+
+    private void search(double x, double y, double z, int skip, Neighbor neighbor) {
+        if (cellAtoms.length == 0) {
+            return;
+        }
+        int cx = cellCoord(x, 0);
+        int cy = cellCoord(y, 1);
+        int cz = cellCoord(z, 2);
+        for (int iz = Math.max(cz - 1, 0), zEnd = Math.min(cz + 1, nCells[2] - 1); iz <= zEnd; iz++) {
+            for (int iy = Math.max(cy - 1, 0), yEnd = Math.min(cy + 1, nCells[1] - 1); iy <= yEnd; iy++) {
+                // the cells along x are adjacent in cellAtoms, so a row of three cells is one range
+                int rowStart = (iz * nCells[1] + iy) * nCells[0];
+                int start = cellStarts[rowStart + Math.max(cx - 1, 0)];
+                int end = cellStarts[rowStart + Math.min(cx + 1, nCells[0] - 1) + 1];
+                for (int k = start; k < end; k++) {
+                    int j = cellAtoms[k];
+                    if (j != skip) {
+                        double dx = x - coords[j * 3];
+                        double dy = y - coords[j * 3 + 1];
+                        double dz = z - coords[j * 3 + 2];
+                        double r2 = dx * dx + dy * dy + dz * dz;
+                        if (r2 < limit2) {
+                            neighbor.accept(j, Math.sqrt(r2));
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
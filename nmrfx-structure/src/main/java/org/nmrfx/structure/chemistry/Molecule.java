@@ -664,34 +664,36 @@ public class Molecule extends MoleculeBase {
         } else {
             atomList = treeAtoms;
         }
-        FastVector3D[] vecCoords = eCoords.getVecCoords();
         FastVector3D[] origins = new FastVector3D[3];
         origins[0] = new FastVector3D(-1.0, -1.0, 0.0);
         origins[1] = new FastVector3D(-1.0, 0.0, 0.0);
         origins[2] = new FastVector3D(0.0, 0.0, 0.0);
+        // positions are read from and written to the coordinate array of eCoords
+        FastVector3D p1 = new FastVector3D();
+        FastVector3D p2 = new FastVector3D();
+        FastVector3D v3 = new FastVector3D();
+        FastVector3D v4 = new FastVector3D();
 
         for (int i = 0; i < genVecs.length; i++) {
             if (genVecs[i].length > 3) {
                 FastVector3D v1;
                 FastVector3D v2;
-                FastVector3D v3;
                 if (genVecs[i][0] < 0) {
                     v1 = origins[genVecs[i][0] + 2];
                 } else {
-                    v1 = vecCoords[genVecs[i][0]];
+                    v1 = eCoords.getCoords(genVecs[i][0], p1);
                 }
                 if (genVecs[i][1] < 0) {
                     v2 = origins[genVecs[i][1] + 2];
                 } else {
-                    v2 = vecCoords[genVecs[i][1]];
+                    v2 = eCoords.getCoords(genVecs[i][1], p2);
                 }
-                v3 = vecCoords[genVecs[i][2]];
+                eCoords.getCoords(genVecs[i][2], v3);
 
                 Coordinates3DF coords = new Coordinates3DF(v1, v2, v3);
                 coords.setupNeRF();
                 double dihedralAngle = 0;
                 for (int j = 3; j < genVecs[i].length; j++) {
-                    FastVector3D v4 = vecCoords[genVecs[i][j]];
                     Atom a4 = atomList.get(genVecs[i][j]);
                     if (dihedralAngles == null) {
                         dihedralAngle += a4.dihedralAngle;
@@ -700,6 +702,7 @@ public class Molecule extends MoleculeBase {
                     }
                     nAngles++;
                     boolean ok = coords.calculateNeRF(dihedralAngle, a4.bndCos, a4.bndSin, v4);
+                    eCoords.setCoords(genVecs[i][j], v4);
                     if (!ok) {
                         log.info("{} {} {}", a4.getParent(), a4.getFullName(), a4.valanceAngle);
                     }
@@ -732,7 +735,7 @@ public class Molecule extends MoleculeBase {
         } else {
             atomList = treeAtoms;
         }
-        FastVector3D[] vecCoords = eCoords.getVecCoords(atomList.size());
+        eCoords.initCoords(atomList.size());
 
         // fixme this is a hack because the treeAtoms are not in monotoniclly increasing order of residue number
         Map<Entity, Integer> resMap = new HashMap<>();
@@ -754,7 +757,7 @@ public class Molecule extends MoleculeBase {
     }
 
     public void updateFromVecCoords() {
-        FastVector3D[] vecCoords = eCoords.getVecCoords();
+        double[] coords = eCoords.getCoords();
         List<Atom> atomList;
         if (treeAtoms == null) {
             atomList = atoms;
@@ -766,13 +769,9 @@ public class Molecule extends MoleculeBase {
             if (pt == null) {
                 log.warn("updateFromVecCoords null pt {} {}", atom.getFullName(), atom.eAtom);
             } else {
-                FastVector3D fVec = vecCoords[atom.eAtom];
-                if (fVec == null) {
-                    // fixme System.out.println("null vec " + atom.getFullName() + " " + (i - 1));
-                } else {
-                    Point3 newPt = new Point3(fVec.getEntry(0), fVec.getEntry(1), fVec.getEntry(2));
-                    atom.setPoint(newPt);
-                }
+                int i3 = 3 * atom.eAtom;
+                Point3 newPt = new Point3(coords[i3], coords[i3 + 1], coords[i3 + 2]);
+                atom.setPoint(newPt);
 
             }
         }
@@ -2151,27 +2150,27 @@ public class Molecule extends MoleculeBase {
         if (useMap) {
             lcmbMap = new HashMap<>();
         }
-        for (Atom atom1 : atoms) {
-            SpatialSet sp1 = atom1.spatialSet;
-            sp1.setOrder(0.0f);
-            Point3 pt1 = atom1.getPoint(iStruct);
-            double fSum = 0.0;
-            for (Atom atom2 : atoms) {
-                if (atom1 != atom2) {
-                    Point3 pt2 = atom2.getPoint(iStruct);
-                    if ((pt1 != null) && (pt2 != null)) {
-                        double r = Atom.calcDistance(pt1, pt2);
-                        if (r < 15.0) {
-                            fSum += a * Math.exp(-r / r0);
-                        }
-                    }
-                }
-            }
-            double contactSum = fSum;
+        int nAtoms = atoms.size();
+        AtomCells cells = new AtomCells(atoms, iStruct, 15.0);
+        double[] contactSums = new double[nAtoms];
+        for (int i = 0; i < nAtoms; i++) {
+            final int iAtom = i;
+            // each pair is found from both atoms, so only add it from the first
+            cells.forEachNeighbor(i, (j, r) -> {
+                if (j > iAtom) {
+                    double f = a * Math.exp(-r / r0);
+                    contactSums[iAtom] += f;
+                    contactSums[j] += f;
+                }
+            });
+        }
+        for (int i = 0; i < nAtoms; i++) {
+            Atom atom1 = atoms.get(i);
+            double contactSum = contactSums[i];
             if (lcmbMap != null) {
                 lcmbMap.put(atom1.getFullName(), contactSum);
             }
-            sp1.setOrder((float) contactSum);
+            atom1.spatialSet.setOrder((float) contactSum);
         }
         return lcmbMap;
     }
@@ -2182,38 +2181,23 @@ public class Molecule extends MoleculeBase {
     }
 
     public double[] calcDistanceInputMatrixRow(final int iStruct, double distLim, Atom targetAtom, double intraScale) {
-        List origAtomSources = RNAAttributes.getAtomSources();
-        int numAtomSources = origAtomSources.size();
-        int sepIntra = 0;
-        double[] distValues = new double[numAtomSources * (1 + sepIntra)];
+        int numAtomSources = RNAAttributes.getAtomSources().size();
+        double[] distValues = new double[numAtomSources];
 
         Point3 targetPt = targetAtom.getPoint(iStruct);
+        if (targetPt == null) {
+            return distValues;
+        }
         for (Atom sourceAtom : atoms) {
-            String resName = sourceAtom.getEntity().getName();
-            String atomName = sourceAtom.getName();
-            String key = resName + atomName;
-            if (atomName.contains("'") || atomName.contains("P")) {
-                key = atomName;
-            }
-            int sourceResID = sourceAtom.getEntity().getIDNum();
-            int targetResID = targetAtom.getEntity().getIDNum();
-            if ((targetAtom != sourceAtom) && (sourceAtom.getAtomicNumber() != 1)
-                    && ((sourceResID != targetResID) || !Predictor.isRNAPairFixed(targetAtom, sourceAtom))) {
+            if ((targetAtom != sourceAtom) && (sourceAtom.getAtomicNumber() != 1)) {
                 Point3 sourcePt = sourceAtom.getPoint(iStruct);
-                if ((targetPt != null) && (sourcePt != null)) {
+                if (sourcePt != null) {
                     double r = Atom.calcDistance(targetPt, sourcePt);
-                    if (r < distLim && origAtomSources.contains(key)) {
-                        int keyInd = origAtomSources.indexOf(key);
-                        double dis3 = Math.pow(r, -3);
-                        if (r == 0) {
-                            dis3 = 0.0;
+                    if (r < distLim) {
+                        int sourceType = RNAAttributes.getAtomSourceIndex(sourceAtom);
+                        if (sourceType >= 0) {
+                            addDistanceInput(distValues, targetAtom, sourceAtom, sourceType, r, intraScale);
                         }
-                        if (sourceResID != targetResID) {
-                            keyInd += numAtomSources * sepIntra;
-                        } else {
-                            dis3 *= intraScale;
-                        }
-                        distValues[keyInd] += dis3;
                     }
                 }
             }
@@ -2221,6 +2205,65 @@ public class Molecule extends MoleculeBase {
         return distValues;
     }
 
+    /**
+     * Calculate the distance input rows used for RNA shift prediction for a
+     * list of target atoms in one pass over a structure. The source atoms are
+     * typed once and placed on a grid of cells, so each row only visits the
+     * atoms near its target.
+     *
+     * @param iStruct     the structure to use
+     * @param distLim     the distance limit for source atoms
+     * @param targetAtoms the atoms to calculate rows for
+     * @param intraScale  the scale applied to sources in the target's residue
+     * @return the rows, in the order of the target atoms
+     */
+    public double[][] calcDistanceInputMatrixRows(final int iStruct, double distLim, List<Atom> targetAtoms, double intraScale) {
+        int numAtomSources = RNAAttributes.getAtomSources().size();
+        List<Atom> sourceAtoms = new ArrayList<>();
+        List<Integer> sourceTypeList = new ArrayList<>();
+        for (Atom atom : atoms) {
+            if (atom.getAtomicNumber() != 1) {
+                int sourceType = RNAAttributes.getAtomSourceIndex(atom);
+                if (sourceType >= 0) {
+                    sourceAtoms.add(atom);
+                    sourceTypeList.add(sourceType);
+                }
+            }
+        }
+        int[] sourceTypes = sourceTypeList.stream().mapToInt(Integer::intValue).toArray();
+        AtomCells cells = new AtomCells(sourceAtoms, iStruct, distLim);
+        double[][] rows = new double[targetAtoms.size()][];
+        for (int i = 0; i < rows.length; i++) {
+            Atom targetAtom = targetAtoms.get(i);
+            double[] distValues = new double[numAtomSources];
+            rows[i] = distValues;
+            Point3 targetPt = targetAtom.getPoint(iStruct);
+            if (targetPt != null) {
+                cells.forEachNeighbor(targetPt, (j, r) -> {
+                    Atom sourceAtom = sourceAtoms.get(j);
+                    if (sourceAtom != targetAtom) {
+                        addDistanceInput(distValues, targetAtom, sourceAtom, sourceTypes[j], r, intraScale);
+                    }
+                });
+            }
+        }
+        return rows;
+    }
+
+    private static void addDistanceInput(double[] distValues, Atom targetAtom, Atom sourceAtom, int sourceType,
+                                         double r, double intraScale) {
+        int sourceResID = sourceAtom.getEntity().getIDNum();
+        int targetResID = targetAtom.getEntity().getIDNum();
+        if ((sourceResID == targetResID) && Predictor.isRNAPairFixed(targetAtom, sourceAtom)) {
+            return;
+        }
+        double dis3 = r == 0 ? 0.0 : Math.pow(r, -3);
+        if (sourceResID == targetResID) {
+            dis3 *= intraScale;
+        }
+        distValues[sourceType] += dis3;
+    }
+
     // J. AM. CHEM. SOC. 2002, 124, 12654-12655
     public void calcContactOrder(final int iStruct, boolean scaleEnds) {
         double r0 = 1.0;
@@ -45,8 +45,10 @@ public class AtomBranch {
     Atom atom;
     int iAtom;
     int pAtom;
-    FastVector3D iVec;
-    FastVector3D pVec;
+    // coordinates of the atom at the end of the rotatable bond and of its parent
+    EnergyCoords eCoords;
+    int iCoord;
+    int pCoord;
 
     // inertia, velocity and acceleration values in a reference frame fixed on rotated bond
     FastDiagonalMatrix inertialTensorF = new FastDiagonalMatrix(3);
@@ -87,9 +89,10 @@ public class AtomBranch {
     int index = 0;
     int lastGroup = 0;
 
-    public AtomBranch(FastVector3D iVec, FastVector3D pVec) {
-        this.iVec = iVec;
-        this.pVec = pVec;
+    public AtomBranch(EnergyCoords eCoords, int iCoord, int pCoord) {
+        this.eCoords = eCoords;
+        this.iCoord = iCoord;
+        this.pCoord = pCoord;
 
     }
 
@@ -198,15 +201,26 @@ public class AtomBranch {
      * @return vector to the origin atom of this group
      */
     public FastVector3D getVectorF() {
-        return iVec.copy();
+        return eCoords.getCoords(iCoord);
+    }
+
+    /**
+     * @param target the vector to set
+     * @return the target vector, set to the origin atom of this group
+     */
+    public FastVector3D getVectorF(FastVector3D target) {
+        return eCoords.getCoords(iCoord, target);
     }
 
     /**
      * @return vector between the parent of the origin atom and the origin atom
      */
     public FastVector3D getUnitVecF() {
-        FastVector3D uVec = new FastVector3D();
-        iVec.subtract(pVec, uVec);
+        double[] coords = eCoords.getCoords();
+        int i3 = 3 * iCoord;
+        int p3 = 3 * pCoord;
+        FastVector3D uVec = new FastVector3D(coords[i3] - coords[p3],
+                coords[i3 + 1] - coords[p3 + 1], coords[i3 + 2] - coords[p3 + 2]);
         uVec.normalize();
         return uVec;
 
@@ -216,12 +230,12 @@ public class AtomBranch {
      * @return vector between the parent of the origin atom and the origin atom
      */
     public FastVector3D getDistVecF() {
-        FastVector3D endPoint = iVec.copy();
+        FastVector3D endPoint = getVectorF();
         FastVector3D ea;
         if (prev == null) {
             ea = endPoint;
         } else {
-            FastVector3D beginPoint = prev.iVec;
+            FastVector3D beginPoint = prev.getVectorF();
             endPoint.subtract(beginPoint, endPoint);
             ea = endPoint;
         }
@@ -276,6 +290,15 @@ public class AtomBranch {
         farr[2] -= vec[2];
     }
 
+    void addToFG(double[] vec, int offset) {
+        farr[0] += vec[offset];
+        farr[1] += vec[offset + 1];
+        farr[2] += vec[offset + 2];
+        garr[0] += vec[offset + 3];
+        garr[1] += vec[offset + 4];
+        garr[2] += vec[offset + 5];
+    }
+
     void initF() {
         farr[0] = 0;
         farr[1] = 0;
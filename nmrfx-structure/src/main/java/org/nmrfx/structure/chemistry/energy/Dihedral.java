@@ -35,7 +35,8 @@ public class Dihedral {
     private static final Logger log = LoggerFactory.getLogger(Dihedral.class);
 
     final Molecule molecule;
-    static Random rand = new Random();
+    // one generator per thread, so structures can be calculated concurrently
+    private static final ThreadLocal<Random> threadRandom = ThreadLocal.withInitial(Random::new);
     double[] angleValues;
     double[] savedAngles;
     double[] bestValues;
@@ -55,7 +56,7 @@ public class Dihedral {
     double[] inputSigma = null;
     public EnergyLists energyList;
     double lastEnergy = 0.0;
-    static long startTime = 0;
+    long startTime = 0;
     double bestEnergy = Double.MAX_VALUE;
     int nEvaluations = 0;
     int reportAt = 100;
@@ -64,8 +65,9 @@ public class Dihedral {
     static double initPuckerAmplitude = 45 * toRad;
     static double initPseudoAngle = 18 * toRad;
     public static double backBoneScale = 4.0;
-    static Map<String, List<AngleConstraint>> angleBoundaries = new HashMap<>();
-    static List<Map<Residue, AngleProp>> torsionAngles = new ArrayList<>();
+    // per instance, as each molecule has its own angle atoms and constraint indices
+    final Map<String, List<AngleConstraint>> angleBoundaries = new HashMap<>();
+    final List<Map<Residue, AngleProp>> torsionAngles = new ArrayList<>();
 
     double maxSigma = 20;
 
@@ -144,12 +146,20 @@ public class Dihedral {
         normBoundaries = new double[2][nNorm];
     }
 
+    /**
+     * Seed the random number generator of the current thread.
+     *
+     * @param seed the seed
+     */
     public static void seed(long seed) {
-        rand.setSeed(seed);
+        threadRandom.get().setSeed(seed);
     }
 
+    /**
+     * @return the random number generator of the current thread
+     */
     public static Random getRandom() {
-        return rand;
+        return threadRandom.get();
     }
 
     public void setSinCosMode(boolean state) {
@@ -487,7 +497,7 @@ public class Dihedral {
         getDihedrals();
         setBoundaries(0.1, false, Math.PI);
         for (int i = 0; i < angleValues.length; i++) {
-            angleValues[i] = 2.0 * Math.PI * (rand.nextDouble() - 0.5);
+            angleValues[i] = 2.0 * Math.PI * (getRandom().nextDouble() - 0.5);
             angleValues[i] = Util.reduceAngle(angleValues[i]);
         }
         putDihedrals();
@@ -570,6 +580,19 @@ public class Dihedral {
         return normValue;
     }
 
+    /**
+     * Forget the evaluations and best energy of the last calculation, so the
+     * next one updates its contact lists as one on a new Dihedral would.
+     */
+    void resetEvaluations() {
+        lastEnergy = 0.0;
+        bestEnergy = Double.MAX_VALUE;
+        nEvaluations = 0;
+        if (bestValues != null) {
+            Arrays.fill(bestValues, 0.0);
+        }
+    }
+
     public double nonNormValue(final double[] dihValues) {
         if ((nEvaluations % energyList.getUpdateAt()) == 0) {
             energyList.makeAtomListFast();
@@ -663,7 +686,7 @@ public class Dihedral {
         prepareAngles(false);
         setBoundaries(0.1, false);
         energyList.setupDihedrals();
-        return new RotationalDynamics(this, rand);
+        return new RotationalDynamics(this, getRandom());
     }
 
 }
@@ -49,18 +49,23 @@ public class EnergyBaseStacking extends EnergyDistancePairs {
     }
 
     @Override
-    public double calcEnergy(boolean calcDeriv, double weight, double eWeight) {
-        FastVector3D[] vecCoords = eCoords.getVecCoords();
+    double calcEnergy(boolean calcDeriv, double weight, double eWeight, int start, int end) {
+        FastVector3D iV = new FastVector3D();
+        FastVector3D jV = new FastVector3D();
+        FastVector3D pV1a = new FastVector3D();
+        FastVector3D pV1b = new FastVector3D();
+        FastVector3D pV2a = new FastVector3D();
+        FastVector3D pV2b = new FastVector3D();
         double sum = 0.0;
-        for (int i = 0; i < nPairs; i++) {
+        for (int i = start; i < end; i++) {
             int iAtom = iAtoms[i];
             int jAtom = jAtoms[i];
-            FastVector3D iV = vecCoords[iAtom];
-            FastVector3D jV = vecCoords[jAtom];
-            FastVector3D pV1a = vecCoords[baseAtoms1a[i]];
-            FastVector3D pV1b = vecCoords[baseAtoms1b[i]];
-            FastVector3D pV2a = vecCoords[baseAtoms2a[i]];
-            FastVector3D pV2b = vecCoords[baseAtoms2b[i]];
+            eCoords.getCoords(iAtom, iV);
+            eCoords.getCoords(jAtom, jV);
+            eCoords.getCoords(baseAtoms1a[i], pV1a);
+            eCoords.getCoords(baseAtoms1b[i], pV1b);
+            eCoords.getCoords(baseAtoms2a[i], pV2a);
+            eCoords.getCoords(baseAtoms2b[i], pV2b);
 
             FastVector3D vDiffa = new FastVector3D();
             FastVector3D vDiffb = new FastVector3D();
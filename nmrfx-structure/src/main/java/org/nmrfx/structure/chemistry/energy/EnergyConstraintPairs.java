@@ -6,7 +6,6 @@
 package org.nmrfx.structure.chemistry.energy;
 
 import org.nmrfx.chemistry.Atom;
-import org.nmrfx.structure.fastlinear.FastVector3D;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -219,9 +218,21 @@ public class EnergyConstraintPairs extends EnergyDistancePairs {
         }
     }
 
+    @Override
+    int rangeStart(int i) {
+        while ((i > 0) && (i < nPairs) && (iGroups[i] == iGroups[i - 1])) {
+            i++;
+        }
+        return i;
+    }
+
     public double calcEnergy(boolean calcDeriv, double weight) {
+        return sumRanges((start, end) -> calcEnergy(calcDeriv, weight, start, end));
+    }
+
+    double calcEnergy(boolean calcDeriv, double weight, int start, int end) {
         double sum = 0.0;
-        for (int i = 0; i < nPairs; i++) {
+        for (int i = start; i < end; i++) {
             sum += calcEnergy(calcDeriv, weight, i);
             if (groupSizes[i] > 1) {
                 i += groupSizes[i] - 1;
@@ -231,7 +242,7 @@ public class EnergyConstraintPairs extends EnergyDistancePairs {
     }
 
     public double calcEnergy(boolean calcDeriv, double weight, int i) {
-        FastVector3D[] vecCoords = eCoords.getVecCoords();
+        double[] coords = eCoords.getCoords();
         double sum = 0.0;
         int groupSize = groupSizes[i];
         int nMono = 1;
@@ -242,9 +253,7 @@ public class EnergyConstraintPairs extends EnergyDistancePairs {
             for (int j = 0; j < groupSize; j++) {
                 int iAtom = iAtoms[i + j];
                 int jAtom = jAtoms[i + j];
-                FastVector3D iV = vecCoords[iAtom];
-                FastVector3D jV = vecCoords[jAtom];
-                double r2Temp = iV.disSq(jV);
+                double r2Temp = EnergyCoords.disSq(coords, iAtom, jAtom);
                 double r = Math.sqrt(r2Temp);
                 sum2 += Math.pow(r, -6);
                 derivs[i + j] = 0.0;
@@ -262,9 +271,7 @@ public class EnergyConstraintPairs extends EnergyDistancePairs {
         } else {
             int iAtom = iAtoms[i];
             int jAtom = jAtoms[i];
-            FastVector3D iV = vecCoords[iAtom];
-            FastVector3D jV = vecCoords[jAtom];
-            r2 = iV.disSq(jV);
+            r2 = EnergyCoords.disSq(coords, iAtom, jAtom);
             disSq[i] = r2;
             derivs[i] = 0.0;
             viol[i] = 0.0;
@@ -28,6 +28,10 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Bruce Johnson
@@ -37,12 +41,16 @@ public class EnergyCoords {
 
     static final double PI32 = Math.PI * Math.sqrt(Math.PI);
     public static final double RSCALE = Math.pow(2.0, -1.0 / 6.0);
+    // shared by all coordinates and limited to the number of processors, so concurrent calculations queue their
+    // ranges instead of adding threads. Idle threads exit after a minute.
+    private static final ExecutorService EXECUTOR = createExecutor();
 
     private static final int[][] offsets = {{0, 0, 0}, {1, 0, 0}, {1, 1, 0}, {0, 1, 0}, {-1, 1, 0}, {0, 0, 1},
             {1, 0, 1}, {1, 1, 1}, {0, 1, 1}, {-1, 1, 1}, {-1, 0, 1},
             {-1, -1, 1}, {0, -1, 1}, {1, -1, 1}
     };
-    FastVector3D[] vecCoords = null;
+    // x, y and z of atom i are at 3 * i, 3 * i + 1 and 3 * i + 2
+    double[] coords = null;
     EnergyDistancePairs eDistancePairs;
     EnergyConstraintPairs eConstraintPairs;
     EnergyShiftPairs eShiftPairs;
@@ -66,6 +74,23 @@ public class EnergyCoords {
     boolean[][] fixed;
     Map<Integer, Set<Integer>> kSwap = null;
     boolean setupShifts = false;
+    int nThreads = 1;
+    // neighbor list skin, and a count of changes to the fixed pairs (or resets), which invalidate the pair lists
+    double skin = 0.0;
+    int fixedVersion = 0;
+    // cell grid arrays reused by setCells
+    private int[] cellCounts = new int[0];
+    private int[] cellStarts = new int[0];
+    private int[] cellAdded = new int[0];
+    private int[] cellAtoms = new int[0];
+
+    /**
+     * The parameters a pair list was built with by setCells.
+     */
+    record CellParameters(int deltaEnd, double limit, double hardSphere, boolean includeH,
+                          double shrinkValue, double shrinkHValue, boolean useFF, boolean stacking,
+                          double skin) {
+    }
 
     private static double hbondDelta = 0.60;
 
@@ -87,9 +112,69 @@ public class EnergyCoords {
         }
     }
 
-    public FastVector3D[] getVecCoords(int size) {
-        if ((vecCoords == null) || (vecCoords.length != size)) {
-            vecCoords = new FastVector3D[size];
+    /**
+     * Set the number of threads used to calculate the repulsive, NOE, stacking
+     * and shift pair energies and derivatives. The pairs are split into the
+     * same contiguous ranges each time and the results of the ranges are
+     * added in order, so the energies don't depend on thread timing, but they
+     * can differ in the last bits from those calculated with another number of
+     * threads. One range is calculated on the calling thread and the others on
+     * a pool, shared by all coordinates, of one thread per processor.
+     *
+     * @param nThreads the number of threads, 1 for serial calculation
+     */
+    public void setThreads(int nThreads) {
+        this.nThreads = Math.max(1, nThreads);
+    }
+
+    public int getThreads() {
+        return nThreads;
+    }
+
+    /**
+     * Set the skin of the contact pair lists built by setCells. With a skin
+     * greater than 0 the lists hold the pairs within the distance limit plus
+     * the skin, and are only rebuilt when the parameters or fixed pairs have
+     * changed, or some atom has moved more than half the skin since the last
+     * build. No pair that gets within the distance limit is missed in between,
+     * so lists can be updated often at little cost. Force field pairs in the
+     * skin, beyond the distance limit, add no energy. With a skin of 0, the
+     * default, the lists are rebuilt on every call.
+     *
+     * @param skin the skin distance
+     */
+    public void setSkin(double skin) {
+        this.skin = Math.max(0.0, skin);
+    }
+
+    public double getSkin() {
+        return skin;
+    }
+
+    ExecutorService getExecutor() {
+        return EXECUTOR;
+    }
+
+    private static ExecutorService createExecutor() {
+        int nProcessors = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(nProcessors, nProcessors, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "EnergyCoords");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Allocate the coordinates, and the per atom values, of size atoms.
+     *
+     * @param size the number of atoms
+     */
+    public void initCoords(int size) {
+        if ((coords == null) || (coords.length != 3 * size)) {
+            coords = new double[3 * size];
             resNums = new int[size];
             atoms = new Atom[size];
             mAtoms = new int[size];
@@ -105,26 +190,79 @@ public class EnergyCoords {
             shifts = new double[size];
             refShifts = new double[size];
             for (int i = 0; i < size; i++) {
-                vecCoords[i] = new FastVector3D();
                 shiftClass[i] = -1;
             }
         }
         nAtoms = size;
+    }
 
-        return vecCoords;
+    public int getNAtoms() {
+        return nAtoms;
     }
 
-    public FastVector3D[] getVecCoords() {
-        return vecCoords;
+    /**
+     * The coordinates of all atoms in one array, with x, y and z of atom i at
+     * 3 * i, 3 * i + 1 and 3 * i + 2.
+     *
+     * @return the coordinate array
+     */
+    public double[] getCoords() {
+        return coords;
     }
 
     public void setCoords(int i, double x, double y, double z, int resNum, Atom atomType) {
-        vecCoords[i].set(x, y, z);
+        setCoords(i, x, y, z);
         resNums[i] = resNum;
         atoms[i] = atomType;
         atomType.eAtom = i;
     }
 
+    public void setCoords(int i, double x, double y, double z) {
+        int i3 = 3 * i;
+        coords[i3] = x;
+        coords[i3 + 1] = y;
+        coords[i3 + 2] = z;
+    }
+
+    public void setCoords(int i, FastVector3D vec) {
+        setCoords(i, vec.getX(), vec.getY(), vec.getZ());
+    }
+
+    /**
+     * Copy the coordinates of an atom into a vector.
+     *
+     * @param i      the atom index
+     * @param target the vector to set
+     * @return the target vector
+     */
+    public FastVector3D getCoords(int i, FastVector3D target) {
+        int i3 = 3 * i;
+        target.set(coords[i3], coords[i3 + 1], coords[i3 + 2]);
+        return target;
+    }
+
+    public FastVector3D getCoords(int i) {
+        return getCoords(i, new FastVector3D());
+    }
+
+    /**
+     * @param i the first atom index
+     * @param j the second atom index
+     * @return the squared distance between the atoms
+     */
+    public double disSq(int i, int j) {
+        return disSq(coords, i, j);
+    }
+
+    static double disSq(double[] coords, int i, int j) {
+        int i3 = 3 * i;
+        int j3 = 3 * j;
+        double delX = coords[i3] - coords[j3];
+        double delY = coords[i3 + 1] - coords[j3 + 1];
+        double delZ = coords[i3 + 2] - coords[j3 + 2];
+        return delX * delX + delY * delY + delZ * delZ;
+    }
+
     public void setupShifts() {
         eShiftPairs.setupShifts();
     }
@@ -238,11 +376,7 @@ public class EnergyCoords {
     }
 
     public double calcDihedral(int a, int b, int c, int d) {
-        FastVector3D av = vecCoords[a];
-        FastVector3D bv = vecCoords[b];
-        FastVector3D cv = vecCoords[c];
-        FastVector3D dv = vecCoords[d];
-        return calcDihedral(av, bv, cv, dv);
+        return calcDihedral(getCoords(a), getCoords(b), getCoords(c), getCoords(d));
     }
 
     /**
@@ -269,10 +403,10 @@ public class EnergyCoords {
             bounds[i][1] = Double.NEGATIVE_INFINITY;
         }
         for (int i = 0; i < nAtoms; i++) {
-            double[] data = vecCoords[i].getValues();
             for (int j = 0; j < 3; j++) {
-                bounds[j][0] = Math.min(data[j], bounds[j][0]);
-                bounds[j][1] = Math.max(data[j], bounds[j][1]);
+                double value = coords[3 * i + j];
+                bounds[j][0] = Math.min(value, bounds[j][0]);
+                bounds[j][1] = Math.max(value, bounds[j][1]);
             }
         }
         // change bounds to be minimum and size
@@ -326,7 +460,21 @@ public class EnergyCoords {
     public void setCells(EnergyPairs ePairs, int deltaEnd, double limit,
                          double hardSphere, boolean includeH, double shrinkValue,
                          double shrinkHValue, boolean useFF) {
+        CellParameters parameters = new CellParameters(deltaEnd, limit, hardSphere, includeH,
+                shrinkValue, shrinkHValue, useFF, forceWeight.getStacking() > 0.0, skin);
+        if (ePairs.pairListCurrent(parameters, fixedVersion)) {
+            return;
+        }
+        double stackLimit = 6.0;
+        ePairs.cutoff2 = Double.MAX_VALUE;
+        if (skin > 0.0) {
+            // the force field energy has no cutoff of its own, so it skips pairs in the skin
+            ePairs.cutoff2 = limit * limit;
+            limit += skin;
+            stackLimit += skin;
+        }
         double limit2 = limit * limit;
+        double stackLimit2 = stackLimit * stackLimit;
         double[][] bounds = getBoundaries();
         int[] nCells = new int[3];
 
@@ -340,13 +488,23 @@ public class EnergyCoords {
         }
         int[] strides = {1, nCells[0], nCells[0] * nCells[1]};
         int nCellsTotal = nCells[0] * nCells[1] * nCells[2];
-        int[] cellCounts = new int[nCellsTotal];
-        int[] cellStarts = new int[nCellsTotal];
+        if (cellCounts.length < nCellsTotal) {
+            cellCounts = new int[nCellsTotal];
+            cellStarts = new int[nCellsTotal];
+            cellAdded = new int[nCellsTotal];
+        } else {
+            Arrays.fill(cellCounts, 0, nCellsTotal, 0);
+            Arrays.fill(cellAdded, 0, nCellsTotal, 0);
+        }
+        if (cellAtoms.length < nAtoms) {
+            cellAtoms = new int[nAtoms];
+        }
+        int[] cellCounts = this.cellCounts;
+        int[] cellStarts = this.cellStarts;
+        int[] idx = new int[3];
         for (int i = 0; i < nAtoms; i++) {
-            double[] data = vecCoords[i].getValues();
-            int[] idx = new int[3];
             for (int j = 0; j < 3; j++) {
-                idx[j] = (int) Math.floor((data[j] - bounds[j][0]) / limit);
+                idx[j] = (int) Math.floor((coords[3 * i + j] - bounds[j][0]) / limit);
             }
             int index = idx[0] + idx[1] * strides[1] + idx[2] * strides[2];
             cellCounts[index]++;
@@ -362,8 +520,8 @@ public class EnergyCoords {
             int delta = offsets[i][0] + offsets[i][1] * strides[1] + offsets[i][2] * strides[2];
             offsets1[i] = delta;
         }
-        int[] atomIndex = new int[nAtoms];
-        int[] nAdded = new int[nCellsTotal];
+        int[] atomIndex = cellAtoms;
+        int[] nAdded = cellAdded;
         for (int i = 0; i < nAtoms; i++) {
             int index = cellIndex[i];
             atomIndex[cellStarts[index] + nAdded[index]] = i;
@@ -424,7 +582,7 @@ public class EnergyCoords {
                                     int iUnit = atom1.rotGroup == null ? -1 : atom1.rotGroup.rotUnit;
                                     int jUnit = atom2.rotGroup == null ? -1 : atom2.rotGroup.rotUnit;
                                     if (((iUnit != -1) || (jUnit != -1)) && (iUnit != jUnit)) {
-                                        double disSq = vecCoords[iAtom].disSq(vecCoords[jAtom]);
+                                        double disSq = disSq(coords, iAtom, jAtom);
 
                                         double limit2R = limit2;
                                         boolean stackCheck = (forceWeight.getStacking() > 0.0) && (atom1.getEntity() != atom2.getEntity()) && atom1.getFlag(Atom.RING) && !atom1.getName().contains("'")
@@ -432,7 +590,7 @@ public class EnergyCoords {
                                         Atom[] planeAtoms1 = null;
                                         Atom[] planeAtoms2 = null;
                                         if (stackCheck) {
-                                            limit2R = 36.0;
+                                            limit2R = stackLimit2;
                                             planeAtoms1 = atom1.getPlaneAtoms();
                                             planeAtoms2 = atom2.getPlaneAtoms();
                                         }
@@ -497,6 +655,7 @@ public class EnergyCoords {
                 }
             }
         }
+        ePairs.setPairListBuilt(parameters, fixedVersion);
     }
 
     boolean getFixed(int i, int j) {
@@ -504,12 +663,16 @@ public class EnergyCoords {
     }
 
     void setFixed(int i, int j, boolean state) {
-        fixed[i][j] = state;
+        if (fixed[i][j] != state) {
+            fixed[i][j] = state;
+            fixedVersion++;
+        }
     }
 
     public double[][][] getFixedRange() {
         double[][][] disRange = new double[2][nAtoms][nAtoms];
         fixed = new boolean[nAtoms][nAtoms];
+        fixedVersion++;
         for (int i = 0; i < nAtoms; i++) {
             Arrays.fill(disRange[0][i], Double.MAX_VALUE);
             Arrays.fill(disRange[1][i], Double.NEGATIVE_INFINITY);
@@ -520,10 +683,8 @@ public class EnergyCoords {
 
     public void updateRanges(double[][][] disRanges) {
         for (int i = 0; i < nAtoms; i++) {
-            FastVector3D v1 = vecCoords[i];
             for (int j = 0; j < nAtoms; j++) {
-                FastVector3D v2 = vecCoords[j];
-                double dis = v1.dis(v2);
+                double dis = Math.sqrt(disSq(coords, i, j));
                 disRanges[0][i][j] = Math.min(dis, disRanges[0][i][j]);
                 disRanges[1][i][j] = Math.max(dis, disRanges[1][i][j]);
             }
@@ -567,6 +728,19 @@ public class EnergyCoords {
 
     public void resetFixed() {
         fixed = null;
+        fixedVersion++;
+    }
+
+    /**
+     * Forget the swaps and pair lists of a calculation, as needed when the
+     * coordinates are reset to a saved state rather than moved. The next
+     * setCells rebuilds the pair lists.
+     */
+    void resetPairLists() {
+        if (swapped != null) {
+            Arrays.fill(swapped, false);
+        }
+        fixedVersion++;
     }
 
     public boolean fixedCurrent() {
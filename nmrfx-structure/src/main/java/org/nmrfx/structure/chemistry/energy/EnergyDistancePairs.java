@@ -6,7 +6,6 @@
 package org.nmrfx.structure.chemistry.energy;
 
 import org.nmrfx.chemistry.Atom;
-import org.nmrfx.structure.fastlinear.FastVector3D;
 
 import static org.nmrfx.structure.chemistry.energy.AtomMath.RADJ;
 
@@ -45,14 +44,16 @@ public class EnergyDistancePairs extends EnergyPairs {
     }
 
     public double calcEnergy(boolean calcDeriv, double weight, double eWeight) {
-        FastVector3D[] vecCoords = eCoords.getVecCoords();
+        return sumRanges((start, end) -> calcEnergy(calcDeriv, weight, eWeight, start, end));
+    }
+
+    double calcEnergy(boolean calcDeriv, double weight, double eWeight, int start, int end) {
+        double[] coords = eCoords.getCoords();
         double sum = 0.0;
-        for (int i = 0; i < nPairs; i++) {
+        for (int i = start; i < end; i++) {
             int iAtom = iAtoms[i];
             int jAtom = jAtoms[i];
-            FastVector3D iV = vecCoords[iAtom];
-            FastVector3D jV = vecCoords[jAtom];
-            double r2 = iV.disSq(jV);
+            double r2 = EnergyCoords.disSq(coords, iAtom, jAtom);
             disSq[i] = r2;
             derivs[i] = 0.0;
             viol[i] = 0.0;
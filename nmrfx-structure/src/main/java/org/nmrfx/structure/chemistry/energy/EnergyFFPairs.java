@@ -6,7 +6,6 @@
 package org.nmrfx.structure.chemistry.energy;
 
 import org.nmrfx.chemistry.Atom;
-import org.nmrfx.structure.fastlinear.FastVector3D;
 
 /**
  * @author brucejohnson
@@ -47,8 +46,8 @@ public class EnergyFFPairs extends EnergyDistancePairs {
     }
 
     @Override
-    public double calcEnergy(boolean calcDeriv, double weight, double eWeight) {
-        FastVector3D[] vecCoords = eCoords.getVecCoords();
+    double calcEnergy(boolean calcDeriv, double weight, double eWeight, int start, int end) {
+        double[] coords = eCoords.getCoords();
         double sum = 0.0;
         double cutoffScale = -1.0;
         double rMin = eCoords.forceWeight.getNBMin();
@@ -79,7 +78,7 @@ public class EnergyFFPairs extends EnergyDistancePairs {
         double a12 = a1 * a1;
         double b12 = b1 * b1;
 
-        for (int i = 0; i < nPairs; i++) {
+        for (int i = start; i < end; i++) {
             int iAtom = iAtoms[i];
             int jAtom = jAtoms[i];
             double a = aValues[i];
@@ -94,12 +93,14 @@ public class EnergyFFPairs extends EnergyDistancePairs {
 //derivative of ( 2.0*(2.0 + 0.15 *  x^2)/((2.0+0.15*x^2)^2 + x^2)) 
 // derivative of ( 2.0*q/(q^2+x^2))
 // derivative of (a*s3-b)*(s6)
-            FastVector3D iV = vecCoords[iAtom];
-            FastVector3D jV = vecCoords[jAtom];
-            double r2 = iV.disSq(jV);
+            double r2 = EnergyCoords.disSq(coords, iAtom, jAtom);
             disSq[i] = r2;
             derivs[i] = 0.0;
             viol[i] = 0.0;
+            if (r2 >= cutoff2) {
+                // in the skin of the list, a zero derivative is also skipped by addDerivs
+                continue;
+            }
             final double q = a1 + b1 * r2;
             final double u = c1 * q;
             final double v = q * q + r2;
@@ -147,7 +148,7 @@ public class EnergyFFPairs extends EnergyDistancePairs {
     }
 
     public double calcLKEnergy(boolean calcDeriv, double weight) {
-        FastVector3D[] vecCoords = eCoords.getVecCoords();
+        double[] coords = eCoords.getCoords();
         double sum = 0.0;
         double cutoffScale = -1.0;
 
@@ -160,12 +161,13 @@ public class EnergyFFPairs extends EnergyDistancePairs {
             double sigmaI = eCoords.contactRadii[iAtom] / EnergyCoords.RSCALE;
             double sigmaIJ = (eCoords.contactRadii[iAtom] + eCoords.contactRadii[jAtom]) / EnergyCoords.RSCALE;
 
-            FastVector3D iV = vecCoords[iAtom];
-            FastVector3D jV = vecCoords[jAtom];
-            double r2 = iV.disSq(jV);
+            double r2 = EnergyCoords.disSq(coords, iAtom, jAtom);
             disSq[i] = r2;
             derivs[i] = 0.0;
             viol[i] = 0.0;
+            if (r2 >= cutoff2) {
+                continue;
+            }
             double r = Math.sqrt(r2);
             double x = (r - sigmaIJ) / lambda;
             double alphaTerm = -V * dGFree / (TWOPI3_2 * lambda * sigmaI * sigmaI);
@@ -189,6 +191,9 @@ public class EnergyFFPairs extends EnergyDistancePairs {
     }
 
     double getEnergy(int i, double r2, double weight, double eWeight) {
+        if (r2 >= cutoff2) {
+            return 0.0;
+        }
         int iAtom = iAtoms[i];
         int jAtom = jAtoms[i];
         double a = aValues[i];
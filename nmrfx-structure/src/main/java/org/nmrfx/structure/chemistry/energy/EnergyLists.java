@@ -49,6 +49,7 @@ public class EnergyLists {
     private CompoundSphere[] compoundArray = null;
     private Molecule molecule;
     private double distanceLimit = 8.0;
+    private double skin = 0.0;
     private boolean includeH = false;
     private boolean useCourseGrain = false;
     private int deltaEnd = 0;
@@ -115,6 +116,21 @@ public class EnergyLists {
         distanceLimit = value;
     }
 
+    /**
+     * Set the skin added to the distance limit of the contact list, so the
+     * list need only be rebuilt after atoms have moved more than half the skin
+     * (see EnergyCoords.setSkin).
+     *
+     * @param value the skin distance, 0 to rebuild the list at each update
+     */
+    public void setSkin(final double value) {
+        skin = value;
+    }
+
+    public double getSkin() {
+        return skin;
+    }
+
     public double getDistanceLimit() {
         return distanceLimit;
     }
@@ -1201,7 +1217,6 @@ public class EnergyLists {
 
     public void setupDihedrals() {
         EnergyCoords eCoords = molecule.getEnergyCoords();
-        FastVector3D[] vecCoords = eCoords.getVecCoords();
         try {
             List<Atom> atoms = molecule.getAtomArray();
             int nBranch = 0;
@@ -1218,9 +1233,7 @@ public class EnergyLists {
             for (Atom atom : atoms) {
                 if (atom.rotUnit != -1) {
                     int unit = atom.rotUnit;
-                    FastVector3D iVecCoords = vecCoords[atom.eAtom];
-                    FastVector3D pVecCoords = vecCoords[atom.parent.eAtom];
-                    branches[unit] = new AtomBranch(iVecCoords, pVecCoords);
+                    branches[unit] = new AtomBranch(eCoords, atom.eAtom, atom.parent.eAtom);
                     branches[unit].setAtom(atom);
                     int nAtomBranches = 0;
                     for (Atom branchAtom : atom.branchAtoms) {
@@ -1379,10 +1392,11 @@ public class EnergyLists {
             }
             int k = 0;
             FastVector3D cross = new FastVector3D();
+            FastVector3D iVec = new FastVector3D();
             for (int i = 0; i < n; i++) {
                 FastVector3D eaF3D = branches[i].getUnitVecF();
                 double dot1 = eaF3D.dotProduct(branches[i].farr);
-                eaF3D.crossProduct(branches[i].iVec, cross);
+                eaF3D.crossProduct(branches[i].getVectorF(iVec), cross);
                 double dot2 = cross.dotProduct(branches[i].garr);
                 if (REPORTBAD && (Math.abs(dot1 + dot2) > 100000.0)) {
                     System.out.printf("%5d dot1 %9.5g dot2 %9.5g df %9.5g %s\n", i, dot1, dot2, (dot1 + dot2),
@@ -1446,6 +1460,7 @@ public class EnergyLists {
         if (!constraintsSetup) {
             updateNOEPairs();
         }
+        eCoords.setSkin(skin);
         eCoords.setCells(eCoords.eDistancePairs, deltaEnd, distanceLimit, hardSphere,
                 includeH, shrinkValue, shrinkHValue, forceWeight.getCFFNB() > 0.0);
     }
@@ -7,11 +7,38 @@ package org.nmrfx.structure.chemistry.energy;
 
 import org.nmrfx.structure.fastlinear.FastVector3D;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 /**
  * @author brucejohnson
  */
 public class EnergyPairs {
 
+    /**
+     * The smallest number of pairs given to each thread.
+     */
+    static final int MIN_RANGE_SIZE = 512;
+
+    /**
+     * Calculates the energy of the pairs from start (inclusive) to end (exclusive).
+     */
+    @FunctionalInterface
+    interface RangeEnergy {
+        double calcEnergy(int start, int end);
+    }
+
+    /**
+     * Calculates a result for one range of pairs.
+     */
+    @FunctionalInterface
+    interface RangeCalculation<T> {
+        T calculate(int iRange, int start, int end);
+    }
+
     EnergyCoords eCoords;
     int[] iAtoms;
     int[] jAtoms;
@@ -21,6 +48,13 @@ public class EnergyPairs {
     double[] weights;
     double[] derivs;
     int nPairs;
+    double[][] rangeDerivs = null;
+    // state of the last build of this list by EnergyCoords.setCells
+    EnergyCoords.CellParameters listParameters = null;
+    int listFixedVersion = -1;
+    double[] listCoords = null;
+    // square of the distance limit the list was built for, pairs of a skinned list beyond it are ignored
+    double cutoff2 = Double.MAX_VALUE;
 
     public EnergyPairs(EnergyCoords eCoords) {
         this.eCoords = eCoords;
@@ -42,6 +76,49 @@ public class EnergyPairs {
 
     public void clear() {
         nPairs = 0;
+        listParameters = null;
+    }
+
+    /**
+     * Record that setCells has built this pair list from the current
+     * coordinates.
+     */
+    void setPairListBuilt(EnergyCoords.CellParameters parameters, int fixedVersion) {
+        double[] coords = eCoords.getCoords();
+        int n = 3 * eCoords.getNAtoms();
+        if ((listCoords == null) || (listCoords.length != n)) {
+            listCoords = new double[n];
+        }
+        System.arraycopy(coords, 0, listCoords, 0, n);
+        listParameters = parameters;
+        listFixedVersion = fixedVersion;
+    }
+
+    /**
+     * A pair list with a skin is still current if it was built with the same
+     * parameters and fixed pairs, and no atom has moved more than half the
+     * skin since.
+     */
+    boolean pairListCurrent(EnergyCoords.CellParameters parameters, int fixedVersion) {
+        double skin = parameters.skin();
+        if ((skin <= 0.0) || !parameters.equals(listParameters) || (fixedVersion != listFixedVersion)) {
+            return false;
+        }
+        double[] coords = eCoords.getCoords();
+        int n = 3 * eCoords.getNAtoms();
+        if (listCoords.length != n) {
+            return false;
+        }
+        double maxMove2 = skin * skin / 4.0;
+        for (int i = 0; i < n; i += 3) {
+            double dx = coords[i] - listCoords[i];
+            double dy = coords[i + 1] - listCoords[i + 1];
+            double dz = coords[i + 2] - listCoords[i + 2];
+            if (dx * dx + dy * dy + dz * dz > maxMove2) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public void addPair(int i, int j, int iUnit, int jUnit, double r0) {
@@ -89,14 +166,166 @@ public class EnergyPairs {
         }
     }
 
+    /**
+     * The number of ranges the pairs are split into, one per thread, but none
+     * smaller than MIN_RANGE_SIZE.
+     */
+    int getNRanges() {
+        return Math.max(1, Math.min(eCoords.getThreads(), nPairs / MIN_RANGE_SIZE));
+    }
+
+    /**
+     * The first pair of a range must be the first pair of a group of pairs
+     * that are calculated together.
+     *
+     * @param i a pair index
+     * @return the index of the range start at or after i
+     */
+    int rangeStart(int i) {
+        return i;
+    }
+
+    int[] getRangeStarts(int nRanges) {
+        int[] starts = new int[nRanges + 1];
+        for (int iRange = 0; iRange < nRanges; iRange++) {
+            starts[iRange] = rangeStart((int) ((long) nPairs * iRange / nRanges));
+        }
+        starts[nRanges] = nPairs;
+        return starts;
+    }
+
+    /**
+     * Run a calculation on each range of pairs. The last range is calculated
+     * on the calling thread and the others on the thread pool of the
+     * coordinates. If a range fails, the failure is thrown once the other
+     * ranges have finished, as they share the arrays of the pairs.
+     *
+     * @param nRanges     the number of ranges
+     * @param calculation the calculation
+     * @return the results, in order of the ranges
+     */
+    <T> List<T> calcRanges(int nRanges, RangeCalculation<T> calculation) {
+        int[] starts = getRangeStarts(nRanges);
+        int lastRange = nRanges - 1;
+        List<Future<T>> futures = new ArrayList<>();
+        for (int iRange = 0; iRange < lastRange; iRange++) {
+            final int jRange = iRange;
+            futures.add(eCoords.getExecutor().submit(() -> calculation.calculate(jRange, starts[jRange], starts[jRange + 1])));
+        }
+        List<T> results = new ArrayList<>(nRanges);
+        try {
+            T lastResult = calculation.calculate(lastRange, starts[lastRange], starts[nRanges]);
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            results.add(lastResult);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Pair calculation interrupted", ex);
+        } catch (ExecutionException ex) {
+            awaitRanges(futures);
+            if (ex.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(ex.getCause());
+        } catch (RuntimeException ex) {
+            awaitRanges(futures);
+            throw ex;
+        }
+        return results;
+    }
+
+    private static void awaitRanges(List<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException ex) {
+                // only the first failure is thrown
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sum the energies of the ranges of pairs, calculated in parallel if the
+     * coordinates use more than one thread. The range sums are added in order
+     * of the ranges, so the total only depends on the number of ranges.
+     *
+     * @param rangeEnergy calculates the energy of one range
+     * @return the total energy
+     */
+    double sumRanges(RangeEnergy rangeEnergy) {
+        int nRanges = getNRanges();
+        if (nRanges == 1) {
+            return rangeEnergy.calcEnergy(0, nPairs);
+        }
+        double sum = 0.0;
+        for (double rangeSum : calcRanges(nRanges, (iRange, start, end) -> rangeEnergy.calcEnergy(start, end))) {
+            sum += rangeSum;
+        }
+        return sum;
+    }
+
     public void addDerivs(AtomBranch[] branches) {
-        FastVector3D[] vecCoords = eCoords.getVecCoords();
+        int nRanges = getNRanges();
+        int iMax;
+        if (nRanges == 1) {
+            iMax = addDerivs(branches, null, 0, nPairs);
+        } else {
+            // each range adds to its own derivatives, which are then added
+            // to the branches in order of the ranges
+            int size = branches.length * 6;
+            if ((rangeDerivs == null) || (rangeDerivs.length < nRanges) || (rangeDerivs[0].length != size)) {
+                rangeDerivs = new double[nRanges][size];
+            }
+            List<Integer> rangeMax = calcRanges(nRanges, (iRange, start, end) -> {
+                double[] rangeDeriv = rangeDerivs[iRange];
+                Arrays.fill(rangeDeriv, 0.0);
+                return addDerivs(branches, rangeDeriv, start, end);
+            });
+            iMax = -1;
+            for (int iRange = 0; iRange < nRanges; iRange++) {
+                double[] rangeDeriv = rangeDerivs[iRange];
+                for (int iUnit = 0; iUnit < branches.length; iUnit++) {
+                    if (branches[iUnit] != null) {
+                        branches[iUnit].addToFG(rangeDeriv, iUnit * 6);
+                    }
+                }
+                int iRangeMax = rangeMax.get(iRange);
+                if ((iRangeMax >= 0) && ((iMax < 0) || (Math.abs(derivs[iRangeMax]) > Math.abs(derivs[iMax])))) {
+                    iMax = iRangeMax;
+                }
+            }
+        }
+        double dMax = iMax >= 0 ? Math.abs(derivs[iMax]) : 0.0;
+        if (dMax > 100000.0) {
+            System.out.printf("WARNING: Gradient %8.2g ", dMax);
+            ViolationStats stats = getError(iMax, 0.1, 1.0, -1.0);
+            if (stats != null) {
+                System.out.print(stats.toString());
+            }
 
+        }
+    }
+
+    /**
+     * Add the derivatives of a range of pairs to the branches or, if
+     * rangeDeriv is not null, to rangeDeriv, which holds the F and G values of
+     * branch i at 6 * i.
+     *
+     * @return the index of the pair with the largest derivative, or -1 if none
+     * is non-zero
+     */
+    int addDerivs(AtomBranch[] branches, double[] rangeDeriv, int start, int end) {
+        FastVector3D pv1 = new FastVector3D();
+        FastVector3D pv2 = new FastVector3D();
         FastVector3D v1 = new FastVector3D();
         FastVector3D v2 = new FastVector3D();
-        int iMax = 0;
+        int iMax = -1;
         double dMax = 0.0;
-        for (int i = 0; i < nPairs; i++) {
+        for (int i = start; i < end; i++) {
             double deriv = derivs[i];
             if (Math.abs(deriv) > dMax) {
                 dMax = Math.abs(deriv);
@@ -108,8 +337,8 @@ public class EnergyPairs {
             int iAtom = iAtoms[i];
             int jAtom = jAtoms[i];
 
-            FastVector3D pv1 = vecCoords[iAtom];
-            FastVector3D pv2 = vecCoords[jAtom];
+            eCoords.getCoords(iAtom, pv1);
+            eCoords.getCoords(jAtom, pv2);
 
             pv1.crossProduct(pv2, v1);
             v1.multiply(derivs[i]);
@@ -119,24 +348,36 @@ public class EnergyPairs {
             int iUnit = iUnits[i];
             int jUnit = jUnits[i];
 
-            if (iUnit >= 0) {
-                branches[iUnit].addToF(v1.getValues());
-                branches[iUnit].addToG(v2.getValues());
+            if (rangeDeriv == null) {
+                if (iUnit >= 0) {
+                    branches[iUnit].addToF(v1.getValues());
+                    branches[iUnit].addToG(v2.getValues());
 
+                }
+                if (jUnit >= 0) {
+                    branches[jUnit].subtractToF(v1.getValues());
+                    branches[jUnit].subtractToG(v2.getValues());
+                }
+            } else {
+                double[] f = v1.getValues();
+                double[] g = v2.getValues();
+                if (iUnit >= 0) {
+                    int offset = iUnit * 6;
+                    for (int k = 0; k < 3; k++) {
+                        rangeDeriv[offset + k] += f[k];
+                        rangeDeriv[offset + 3 + k] += g[k];
+                    }
+                }
+                if (jUnit >= 0) {
+                    int offset = jUnit * 6;
+                    for (int k = 0; k < 3; k++) {
+                        rangeDeriv[offset + k] -= f[k];
+                        rangeDeriv[offset + 3 + k] -= g[k];
+                    }
+                }
             }
-            if (jUnit >= 0) {
-                branches[jUnit].subtractToF(v1.getValues());
-                branches[jUnit].subtractToG(v2.getValues());
-            }
-        }
-        if (dMax > 100000.0) {
-            System.out.printf("WARNING: Gradient %8.2g ", dMax);
-            ViolationStats stats = getError(iMax, 0.1, 1.0, -1.0);
-            if (stats != null) {
-                System.out.print(stats.toString());
-            }
-
         }
+        return iMax;
     }
 
     public ViolationStats getError(int i, double limitVal, double weight) {
@@ -10,7 +10,6 @@ import org.nmrfx.chemistry.PPMv;
 import org.nmrfx.chemistry.Residue;
 import org.nmrfx.structure.chemistry.predict.Predictor;
 import org.nmrfx.structure.chemistry.predict.RNAAttributes;
-import org.nmrfx.structure.fastlinear.FastVector3D;
 
 import java.util.HashMap;
 import java.util.List;
@@ -64,42 +63,24 @@ public class EnergyShiftPairs extends EnergyPairs {
         eCoords.setCells(this, 1000, rLim, 0.0, true, 0.0, 0.0, false);
         double[] baseShifts = eCoords.baseShifts;
         double[] refShifts = eCoords.refShifts;
-        int[] shiftClass = eCoords.shiftClass;
         double[] shifts = eCoords.shifts;
         Atom[] atoms = eCoords.atoms;
-        FastVector3D[] vecCoords = eCoords.getVecCoords();
 
-        double r2Lim = rLim * rLim;
         System.arraycopy(baseShifts, 0, refShifts, 0, baseShifts.length);
 
-        for (int i = 0; i < nPairs; i++) {
-            int iAtom = iAtoms[i];
-            int jAtom = jAtoms[i];
-
-            if ((baseShifts[iAtom] != 0.0) && shiftClass[jAtom] >= 0) {
-                int alphaClass = getRNAClass(atoms[iAtom]);
-                if (alphaClass >= 0) {
-                    FastVector3D iV = vecCoords[iAtom];
-                    FastVector3D jV = vecCoords[jAtom];
-                    double r2 = iV.disSq(jV);
-                    if (r2 <= r2Lim) {
-                        double r = Math.sqrt(r2);
-                        int alphaIndex = shiftClass[jAtom];
-                        double alpha = Predictor.getAlpha(alphaClass, alphaIndex);
-                        double shiftContrib = alpha / (r * r2);
-                        if (atoms[iAtom].getEntity().getIDNum() == atoms[jAtom].getEntity().getIDNum()) {
-                            shiftContrib *= intraScale;
-
-                        }
-                        refShifts[iAtom] += shiftContrib;
-
-                        if (calcDeriv) {
-                            //  what is needed is actually the derivative/r, therefore
-                            // we divide by r
-                            // fixme problems if r near 0.0 so we add small adjustment.  Is there a better way???
-                            //derivs[i] = -2.0 * weights[i] * weight * dif / (r + RADJ);
-                        }
-                    }
+        int nRanges = getNRanges();
+        if (nRanges == 1) {
+            addDistShifts(refShifts, rLim, intraScale, 0, nPairs);
+        } else {
+            // each range adds to its own shifts, which are then added in order of the ranges
+            List<double[]> rangeShifts = calcRanges(nRanges, (iRange, start, end) -> {
+                double[] rangeShift = new double[refShifts.length];
+                addDistShifts(rangeShift, rLim, intraScale, start, end);
+                return rangeShift;
+            });
+            for (double[] rangeShift : rangeShifts) {
+                for (int i = 0; i < refShifts.length; i++) {
+                    refShifts[i] += rangeShift[i];
                 }
             }
         }
@@ -137,6 +118,41 @@ public class EnergyShiftPairs extends EnergyPairs {
         return sum;
     }
 
+    /**
+     * Add the distance dependent shift contributions of a range of pairs to
+     * the shifts of their first atoms.
+     */
+    void addDistShifts(double[] refShifts, double rLim, double intraScale, int start, int end) {
+        double[] baseShifts = eCoords.baseShifts;
+        int[] shiftClass = eCoords.shiftClass;
+        Atom[] atoms = eCoords.atoms;
+        double[] coords = eCoords.getCoords();
+
+        double r2Lim = rLim * rLim;
+        for (int i = start; i < end; i++) {
+            int iAtom = iAtoms[i];
+            int jAtom = jAtoms[i];
+
+            if ((baseShifts[iAtom] != 0.0) && shiftClass[jAtom] >= 0) {
+                int alphaClass = getRNAClass(atoms[iAtom]);
+                if (alphaClass >= 0) {
+                    double r2 = EnergyCoords.disSq(coords, iAtom, jAtom);
+                    if (r2 <= r2Lim) {
+                        double r = Math.sqrt(r2);
+                        int alphaIndex = shiftClass[jAtom];
+                        double alpha = Predictor.getAlpha(alphaClass, alphaIndex);
+                        double shiftContrib = alpha / (r * r2);
+                        if (atoms[iAtom].getEntity().getIDNum() == atoms[jAtom].getEntity().getIDNum()) {
+                            shiftContrib *= intraScale;
+
+                        }
+                        refShifts[iAtom] += shiftContrib;
+                    }
+                }
+            }
+        }
+    }
+
     double calcChi(Atom atom) {
         Atom[] atoms = ((Residue) atom.getEntity()).getChiAtoms();
         return eCoords.calcDihedral(atoms[0].eAtom, atoms[1].eAtom, atoms[2].eAtom, atoms[3].eAtom);
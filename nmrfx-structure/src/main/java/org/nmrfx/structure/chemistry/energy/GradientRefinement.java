@@ -25,6 +25,7 @@ import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
 import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunction;
 import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunctionGradient;
 import org.nmrfx.chemistry.Atom;
+import org.nmrfx.chemistry.MoleculeFactory;
 import org.nmrfx.structure.chemistry.MissingCoordinatesException;
 import org.nmrfx.structure.chemistry.io.TrajectoryWriter;
 import org.nmrfx.utilities.ProgressUpdater;
@@ -40,7 +41,8 @@ public class GradientRefinement extends Refinement {
     public static boolean NLCG = true;
     private boolean useNumericDerivatives = false;
     public TrajectoryWriter trajectoryWriter = null;
-    private static ProgressUpdater progressUpdater = null;
+    private static volatile ProgressUpdater defaultUpdater = null;
+    private ProgressUpdater progressUpdater;
 
     public class Checker extends SimpleValueChecker {
 
@@ -79,6 +81,7 @@ public class GradientRefinement extends Refinement {
     public GradientRefinement(final Dihedral dihedrals) {
         super(dihedrals);
         this.molecule = dihedrals.molecule;
+        progressUpdater = MoleculeFactory.hasThreadMolecule() ? null : defaultUpdater;
         startTime = System.currentTimeMillis();
     }
 
@@ -86,7 +89,18 @@ public class GradientRefinement extends Refinement {
         this.trajectoryWriter = trajectoryWriter;
     }
 
+    /**
+     * Set the updater that new instances report progress to. Instances made on
+     * a thread with its own molecule (see MoleculeFactory.beginThreadMolecule)
+     * don't use it, as they calculate one of several structures at a time.
+     *
+     * @param updater the updater, or null for none
+     */
     public static void setUpdater(ProgressUpdater updater) {
+        defaultUpdater = updater;
+    }
+
+    public void setProgressUpdater(ProgressUpdater updater) {
         progressUpdater = updater;
     }
 
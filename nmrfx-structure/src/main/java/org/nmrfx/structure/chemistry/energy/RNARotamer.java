@@ -49,7 +49,9 @@ public class RNARotamer {
     public static double HPOWER = 3.0;
     static final int[] subsetIndices = {1, 2, 3, 4};
     static final int[] indices = {0, 1, 2, 3, 4, 5, 6};
-    static Atom[] atoms = {null, null, null, null, null, null, null};
+    // the suite atoms of the last residue passed to getDihedrals, one array per thread so
+    // structures can be calculated concurrently
+    private static final ThreadLocal<Atom[]> suiteAngleAtoms = ThreadLocal.withInitial(() -> new Atom[7]);
     static final int NPREVIOUS = 1;
 
     static final String[] DELTAP_ATOMS = {"-1:C5'", "-1:C4'", "-1:C3'", "-1:O3'"};
@@ -538,6 +540,7 @@ public class RNARotamer {
     public static Map<Integer, Double> calcDerivs(RotamerScore[] scores, double rotEnergy) {
         int i = 0;
         Map<Integer, Double> derivMap = new HashMap<>();
+        Atom[] atoms = suiteAngleAtoms.get();
         double eRotEnergy = Math.exp(rotEnergy);
         for (i = 0; i < 7; i++) {
             double sum = 0;
@@ -678,6 +681,7 @@ public class RNARotamer {
 
     public static double[] getDihedrals(Residue residue, EnergyCoords ec) {
         double[] angles = new double[suiteAtoms.length];
+        Atom[] atoms = suiteAngleAtoms.get();
         if (residue.previous != null) {
             int i = 0;
             for (String[] atomNames : suiteAtoms) {
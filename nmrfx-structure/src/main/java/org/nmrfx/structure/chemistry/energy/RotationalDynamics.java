@@ -19,6 +19,7 @@ package org.nmrfx.structure.chemistry.energy;
 
 import org.nmrfx.chemistry.Atom;
 import org.nmrfx.chemistry.AtomEnergyProp;
+import org.nmrfx.chemistry.MoleculeFactory;
 import org.nmrfx.chemistry.Util;
 import org.nmrfx.structure.chemistry.MissingCoordinatesException;
 import org.nmrfx.structure.chemistry.Molecule;
@@ -70,9 +71,10 @@ public class RotationalDynamics {
     double sumERef = 0.0;
     double[] velStore = null;
     Random rand = null;
-    public static boolean firstRun = true;
+    public boolean firstRun = true;
     public TrajectoryWriter trajectoryWriter = null;
-    private static ProgressUpdater progressUpdater = null;
+    private static volatile ProgressUpdater defaultUpdater = null;
+    private ProgressUpdater progressUpdater;
     PyObject tempFunction;
     PyObject econFunction;
 
@@ -89,11 +91,23 @@ public class RotationalDynamics {
             this.branches.add(branch);
         }
         this.rand = rand;
+        progressUpdater = MoleculeFactory.hasThreadMolecule() ? null : defaultUpdater;
         getBranchAtoms();
         // makeInertias now
     }
 
+    /**
+     * Set the updater that new instances report progress to. Instances made on
+     * a thread with its own molecule (see MoleculeFactory.beginThreadMolecule)
+     * don't use it, as they calculate one of several structures at a time.
+     *
+     * @param updater the updater, or null for none
+     */
     public static void setUpdater(ProgressUpdater updater) {
+        defaultUpdater = updater;
+    }
+
+    public void setProgressUpdater(ProgressUpdater updater) {
         progressUpdater = updater;
     }
 
@@ -0,0 +1,315 @@
+/*
+ * NMRFx Structure : A Program for Calculating Structures
+ * Copyright (C) 2004-2017 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.structure.chemistry.energy;
+
+import org.nmrfx.chemistry.Atom;
+import org.nmrfx.chemistry.MoleculeFactory;
+import org.nmrfx.chemistry.Point3;
+import org.nmrfx.structure.chemistry.Molecule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Calculates an ensemble of structures in this JVM. Each worker thread sets
+ * up its own molecule, energy lists and dihedrals once, saves their starting
+ * state and then takes seeds until the ensemble is done. Before each seed the
+ * worker restores the starting coordinates, angles and energy parameters,
+ * drops the pair lists and swaps of the last structure and randomizes the
+ * angles from the seed, so the structure depends only on its seed and not on
+ * which worker ran it or what that worker ran before. Every finished structure
+ * is written to the output directory as the PDB (rootName + seed + .pdb),
+ * energy dump (.txt) and angle (.ang) files written by a calculation in its
+ * own process, and its energy is appended to energies.txt.
+ * <p>
+ * The molecule of a structure is the active molecule of its thread only
+ * (see MoleculeFactory.beginThreadMolecule), and each thread has its own
+ * random number generator (see Dihedral.seed). The setups of the workers are
+ * run one at a time, as reading molecules and constraints uses shared
+ * resources, while the structures are calculated concurrently. If a setup
+ * fails the calculation fails, while a structure that fails is reported in
+ * its result.
+ *
+ * @author brucejohnson
+ */
+public class StructureEnsemble {
+
+    private static final Logger log = LoggerFactory.getLogger(StructureEnsemble.class);
+    private static final Object SETUP_LOCK = new Object();
+
+    /**
+     * Sets up the molecule and constraints used by one worker.
+     */
+    @FunctionalInterface
+    public interface WorkerSetup {
+        /**
+         * @param iWorker the index of the worker
+         * @return the dihedrals, with their energy lists, of the new molecule
+         * @throws Exception if the setup fails
+         */
+        Dihedral setup(int iWorker) throws Exception;
+    }
+
+    /**
+     * Calculates one structure, starting from the randomized angles of the
+     * worker's molecule.
+     */
+    @FunctionalInterface
+    public interface Protocol {
+        /**
+         * @param dihedral the dihedrals of the worker
+         * @param seed     the seed of the structure
+         * @throws Exception if the calculation fails
+         */
+        void calculate(Dihedral dihedral, long seed) throws Exception;
+    }
+
+    /**
+     * The outcome of calculating one structure.
+     *
+     * @param seed    the seed of the structure
+     * @param energy  the final energy, or NaN if the calculation failed
+     * @param seconds the time taken
+     * @param pdbFile the file the structure was written to, or null if it failed
+     */
+    public record StructureResult(long seed, double energy, double seconds, File pdbFile) {
+        public boolean succeeded() {
+            return pdbFile != null;
+        }
+    }
+
+    private final WorkerSetup setup;
+    private final Protocol protocol;
+    private final File outDir;
+    private String rootName = "temp";
+    private int nThreads = Runtime.getRuntime().availableProcessors();
+    private final AtomicInteger nextStructure = new AtomicInteger(0);
+    private final AtomicInteger nFinished = new AtomicInteger(0);
+
+    public StructureEnsemble(WorkerSetup setup, Protocol protocol, File outDir) {
+        this.setup = setup;
+        this.protocol = protocol;
+        this.outDir = outDir;
+    }
+
+    public void setThreads(int nThreads) {
+        this.nThreads = Math.max(1, nThreads);
+    }
+
+    public void setRootName(String rootName) {
+        this.rootName = rootName;
+    }
+
+    /**
+     * Calculate structures with the seeds startSeed to startSeed + nStructures - 1.
+     *
+     * @param startSeed   the seed of the first structure
+     * @param nStructures the number of structures
+     * @return the result of each structure, in order of seed
+     * @throws IOException if the output directory can't be made or a worker
+     *                     can't be set up
+     */
+    public List<StructureResult> calculate(long startSeed, int nStructures) throws IOException {
+        if (!outDir.isDirectory() && !outDir.mkdirs()) {
+            throw new IOException("Can't make output directory " + outDir);
+        }
+        nextStructure.set(0);
+        nFinished.set(0);
+        int nWorkers = Math.min(nThreads, nStructures);
+        List<StructureResult> results = Collections.synchronizedList(new ArrayList<>());
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int iWorker = 0; iWorker < nWorkers; iWorker++) {
+            int worker = iWorker;
+            tasks.add(() -> {
+                runWorker(worker, startSeed, nStructures, results);
+                return null;
+            });
+        }
+        if (!tasks.isEmpty()) {
+            ExecutorService pool = Executors.newFixedThreadPool(nWorkers);
+            try {
+                for (Future<Void> future : pool.invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Structure calculation interrupted", ex);
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof IOException ioException) {
+                    throw ioException;
+                } else if (cause instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                } else if (cause instanceof Error error) {
+                    throw error;
+                }
+                throw new IllegalStateException(cause);
+            } finally {
+                pool.shutdown();
+            }
+        }
+        List<StructureResult> sorted = new ArrayList<>(results);
+        sorted.sort(Comparator.comparingLong(StructureResult::seed));
+        return sorted;
+    }
+
+    private void runWorker(int iWorker, long startSeed, int nStructures, List<StructureResult> results)
+            throws Exception {
+        MoleculeFactory.beginThreadMolecule();
+        try {
+            Dihedral dihedral;
+            synchronized (SETUP_LOCK) {
+                dihedral = setup.setup(iWorker);
+            }
+            // finds the fixed atom pairs, by randomizing angles, before any seed is set
+            dihedral.energyList.makeAtomListFast();
+            StartState startState = new StartState(dihedral);
+            int iStructure;
+            while ((iStructure = nextStructure.getAndIncrement()) < nStructures) {
+                long seed = startSeed + iStructure;
+                StructureResult result = calculateStructure(dihedral, startState, seed);
+                results.add(result);
+                log.info("Finished seed {} ({} of {}) energy {} in {} s", seed, nFinished.incrementAndGet(),
+                        nStructures, String.format("%.2f", result.energy()), String.format("%.1f", result.seconds()));
+            }
+        } finally {
+            MoleculeFactory.endThreadMolecule();
+        }
+    }
+
+    private StructureResult calculateStructure(Dihedral dihedral, StartState startState, long seed) {
+        long startTime = System.nanoTime();
+        try {
+            startState.restore();
+            // seeded as refine.setSeed does
+            Dihedral.seed(seed);
+            Dihedral.seed(Dihedral.getRandom().nextInt());
+            dihedral.randomizeAngles();
+            protocol.calculate(dihedral, seed);
+            EnergyLists energyLists = dihedral.energyList;
+            energyLists.makeAtomListFast();
+            dihedral.setupAngleRestraints();
+            double energy = energyLists.energy();
+            File pdbFile = writeStructure(dihedral, seed, energy);
+            return new StructureResult(seed, energy, (System.nanoTime() - startTime) / 1.0e9, pdbFile);
+        } catch (Exception ex) {
+            log.error("Structure with seed {} failed: {}", seed, ex.getMessage(), ex);
+            return new StructureResult(seed, Double.NaN, (System.nanoTime() - startTime) / 1.0e9, null);
+        }
+    }
+
+    private File writeStructure(Dihedral dihedral, long seed, double energy) throws IOException {
+        String root = rootName + seed;
+        Molecule molecule = dihedral.molecule;
+        File pdbFile = new File(outDir, root + ".pdb");
+        dihedral.writeDihedrals(new File(outDir, root + ".ang").toString(), false);
+        molecule.writeXYZToPDB(pdbFile.toString(), 0);
+        dihedral.energyList.dump(0.1, 0.2, new File(outDir, root + ".txt").toString());
+        synchronized (this) {
+            try (PrintWriter writer = new PrintWriter(new FileWriter(new File(outDir, "energies.txt"), true))) {
+                writer.printf("%d %.2f%n", seed, energy);
+            }
+        }
+        return pdbFile;
+    }
+
+    /**
+     * The state of a worker's molecule and energy lists just after setup,
+     * which each structure of the worker starts from.
+     */
+    private static class StartState {
+
+        private final Dihedral dihedral;
+        private final Atom[] atoms;
+        private final Point3[] points;
+        private final float[] dihedralAngles;
+        private final boolean courseGrain;
+        private final boolean includeH;
+        private final double hardSphere;
+        private final double distanceLimit;
+        private final double skin;
+        private final int deltaStart;
+        private final int deltaEnd;
+        private final int updateAt;
+        private final double shrinkValue;
+        private final double shrinkHValue;
+        private final int swap;
+        private final ForceWeight forceWeight;
+
+        StartState(Dihedral dihedral) {
+            this.dihedral = dihedral;
+            atoms = dihedral.molecule.getAtomArray().toArray(new Atom[0]);
+            points = new Point3[atoms.length];
+            dihedralAngles = new float[atoms.length];
+            for (int i = 0; i < atoms.length; i++) {
+                points[i] = atoms[i].getPoint();
+                dihedralAngles[i] = atoms[i].dihedralAngle;
+            }
+            EnergyLists energyLists = dihedral.energyList;
+            courseGrain = energyLists.getCourseGrain();
+            includeH = energyLists.getIncludeH();
+            hardSphere = energyLists.getHardSphere();
+            distanceLimit = energyLists.getDistanceLimit();
+            skin = energyLists.getSkin();
+            deltaStart = energyLists.getDeltaStart();
+            deltaEnd = energyLists.getDeltaEnd();
+            updateAt = energyLists.getUpdateAt();
+            shrinkValue = energyLists.getShrinkValue();
+            shrinkHValue = energyLists.getShrinkHValue();
+            swap = energyLists.getSwap();
+            forceWeight = energyLists.getForceWeight();
+        }
+
+        void restore() {
+            for (int i = 0; i < atoms.length; i++) {
+                if (points[i] != null) {
+                    atoms[i].setPoint(points[i]);
+                }
+                atoms[i].dihedralAngle = dihedralAngles[i];
+            }
+            EnergyLists energyLists = dihedral.energyList;
+            energyLists.setCourseGrain(courseGrain);
+            energyLists.setIncludeH(includeH);
+            energyLists.setHardSphere(hardSphere);
+            energyLists.setDistanceLimit(distanceLimit);
+            energyLists.setSkin(skin);
+            energyLists.setDeltaStart(deltaStart);
+            energyLists.setDeltaEnd(deltaEnd);
+            energyLists.setUpdateAt(updateAt);
+            energyLists.setShrinkValue(shrinkValue);
+            energyLists.setShrinkHValue(shrinkHValue);
+            energyLists.setSwap(swap);
+            energyLists.setForceWeight(forceWeight);
+            dihedral.resetEvaluations();
+            // the pair lists are made again when next used, and swaps change
+            // the constraint pairs, so they are made again from the constraints
+            dihedral.molecule.getEnergyCoords().resetPairLists();
+            energyLists.resetConstraints();
+        }
+    }
+}
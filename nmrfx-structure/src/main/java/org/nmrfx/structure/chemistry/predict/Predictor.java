@@ -397,45 +397,51 @@ public class Predictor {
             EnergyCoords eCoords = molecule.getEnergyCoords();
             eCoords.calcDistShifts(false, getRMax(), intraScale, 1.0);
         } else {
-            List<Atom> atoms = polymer.getAtoms();
-            double[] angleValues = new double[4];
-            for (Atom atom : atoms) {
-                String aName = atom.getName();
-                String nucName = atom.getEntity().getName();
-                int alphaType = getAlphaIndex(nucName, aName);
+            List<Atom> targetAtoms = new ArrayList<>();
+            List<Integer> alphaTypes = new ArrayList<>();
+            for (Atom atom : polymer.getAtoms()) {
+                int alphaType = getAlphaIndex(atom.getEntity().getName(), atom.getName());
                 if (alphaType >= 0) {
-                    int nAlpha = alphas[alphaType].length - 1;
-                    double[] distances = molecule.calcDistanceInputMatrixRow(iStruct, getRMax(), atom, getIntraScale());
-                    double distPPM = 0.0;
-                    double chi = ((Residue) atom.getEntity()).calcChi(iStruct);
-                    angleValues[0] = Math.cos(chi);
-                    angleValues[1] = Math.sin(chi);
-                    double nu2 = ((Residue) atom.getEntity()).calcNu2(iStruct);
-                    angleValues[2] = Math.cos(nu2);
-                    angleValues[3] = Math.sin(nu2);
-                    int angStart = nAlpha - 4;
-                    for (int i = 0; i < nAlpha; i++) {
-                        double alpha = alphas[alphaType][i];
-                        double shiftContrib;
-                        if (i < angStart) {
-                            shiftContrib = alpha * distances[i];
-                        } else {
-                            shiftContrib = alpha * angleValues[i - angStart];
-                        }
-                        distPPM += shiftContrib;
-                    }
-                    double ppm = alphas[alphaType][nAlpha] + distPPM;
-                    Double mae = getMAE(atom);
-                    if (iRef < 0) {
-                        atom.setRefPPM(-iRef - 1, ppm);
-                        if (mae != null) {
-                            atom.setRefError(-iRef - 1, mae);
-                        }
+                    targetAtoms.add(atom);
+                    alphaTypes.add(alphaType);
+                }
+            }
+            double[][] distanceRows = molecule.calcDistanceInputMatrixRows(iStruct, getRMax(), targetAtoms, getIntraScale());
+            double[] angleValues = new double[4];
+            for (int iAtom = 0; iAtom < targetAtoms.size(); iAtom++) {
+                Atom atom = targetAtoms.get(iAtom);
+                int alphaType = alphaTypes.get(iAtom);
+                int nAlpha = alphas[alphaType].length - 1;
+                double[] distances = distanceRows[iAtom];
+                double distPPM = 0.0;
+                double chi = ((Residue) atom.getEntity()).calcChi(iStruct);
+                angleValues[0] = Math.cos(chi);
+                angleValues[1] = Math.sin(chi);
+                double nu2 = ((Residue) atom.getEntity()).calcNu2(iStruct);
+                angleValues[2] = Math.cos(nu2);
+                angleValues[3] = Math.sin(nu2);
+                int angStart = nAlpha - 4;
+                for (int i = 0; i < nAlpha; i++) {
+                    double alpha = alphas[alphaType][i];
+                    double shiftContrib;
+                    if (i < angStart) {
+                        shiftContrib = alpha * distances[i];
                     } else {
-                        atom.setPPM(iRef, ppm);
-                        if (mae != null) {
-                            atom.setPPMError(-iRef - 1, mae);
-                        }
+                        shiftContrib = alpha * angleValues[i - angStart];
+                    }
+                    distPPM += shiftContrib;
+                }
+                double ppm = alphas[alphaType][nAlpha] + distPPM;
+                Double mae = getMAE(atom);
+                if (iRef < 0) {
+                    atom.setRefPPM(-iRef - 1, ppm);
+                    if (mae != null) {
+                        atom.setRefError(-iRef - 1, mae);
+                    }
+                } else {
+                    atom.setPPM(iRef, ppm);
+                    if (mae != null) {
+                        atom.setPPMError(-iRef - 1, mae);
                     }
                 }
             }
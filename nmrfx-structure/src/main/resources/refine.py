@@ -536,6 +536,9 @@ class refine:
         newSeed = ranGen.nextInt()
         self.dihedral.seed(newSeed)
 
+    def setEnergyThreads(self,nThreads):
+        self.molecule.getEnergyCoords().setThreads(nThreads)
+
     def putPseudo(self,angle1,angle2):
         self.dihedral.putPseudoAngle(angle1,angle2)
 
@@ -950,6 +953,7 @@ class refine:
             'shrinkValue' : self.energyLists.setShrinkValue,
             'shrinkHValue': self.energyLists.setShrinkHValue,
             'dislim'      : self.energyLists.setDistanceLimit,
+            'skin'        : self.energyLists.setSkin,
             'updateAt'      : self.energyLists.setUpdateAt,
             'swap'        : self.energyLists.setSwap
         }
@@ -557,8 +557,18 @@ def predictDistShifts(mol, rmax, allAtomNames, structureNum=0, refShifts=None, a
             ringShifts = RingCurrentShift()
             ringShifts.makeRingList(mol)
 
+        # distance rows for all the atoms are calculated in one pass per structure
+        targetAtoms = [sp.atom for sp in spatialSets]
+        if isinstance(structureNum,(list,tuple)):
+            distStructures = structureNum
+        else:
+            distStructures = [structureNum]
+        distRows = {}
+        for iStruct in distStructures:
+            distRows[iStruct] = mol.calcDistanceInputMatrixRows(iStruct, rmax, targetAtoms, intraScale)
+
         shifts = []
-        for sp in spatialSets:
+        for iAtom,sp in enumerate(spatialSets):
             name = sp.atom.getShortName()
             aName = sp.atom.getName()
             if aName[-1] == "'":
@@ -603,7 +613,7 @@ def predictDistShifts(mol, rmax, allAtomNames, structureNum=0, refShifts=None, a
                 distPPM = 0.0
                 ringPPM = 0.0
                 for iStruct in structureNum:
-                    distances = mol.calcDistanceInputMatrixRow(iStruct, rmax, sp.atom, intraScale)
+                    distances = distRows[iStruct][iAtom]
                     distances = atomValues + list(distances)
                     if plusRingMode:
                         alphasOnly = alphas[0:-2]
@@ -631,7 +641,7 @@ def predictDistShifts(mol, rmax, allAtomNames, structureNum=0, refShifts=None, a
             else:
                 alphas = alphas[:-1]
                 intercept = alphas[-1]
-                distances = mol.calcDistanceInputMatrixRow(structureNum, rmax, sp.atom, intraScale)
+                distances = distRows[structureNum][iAtom]
                 distances = atomValues + list(distances)
                 distPPM = sum([alphas[i] * distances[i] for i in range(len(alphas))]) + intercept
 
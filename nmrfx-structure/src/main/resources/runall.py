@@ -7,6 +7,7 @@ import os.path
 import glob
 import shutil
 import imp
+import threading
 import checke
 from super import *
 from java.lang import System
@@ -140,6 +141,69 @@ def calcStructures(calcScript,startStructure,nStructures,dir,nProcesses=4, heapM
         time.sleep(1)
     return errStatus
 
+def calcStructuresInJVM(calcScript,startStructure,nStructures,dir,nThreads=4):
+    """
+    Calculates the structures on a pool of threads in this JVM instead of
+    one nmrfxs process per structure. Each thread loads the molecule and
+    constraints of the yaml file once, then for each structure resets them to
+    their loaded state and anneals from the structure's seed, so each structure
+    matches that of a separate nmrfxs process. Output goes to the 'output'
+    directory of dir, as for a calculation run with 'nmrfxs gen -d dir'.
+
+    Returns errStatus (int)
+    - zero if calculations successful
+    - nonzero otherwise
+    """
+    from refine import refine
+    from molio import readYaml
+    from java.io import File
+    from org.nmrfx.structure.chemistry.energy import StructureEnsemble
+    import osfiles
+
+    if not calcScript.endswith('.yaml'):
+        print "In JVM calculations need a .yaml file"
+        return 1
+    dataDir = os.path.join(dir,'')
+    jvmOutDir = os.path.join(dir,'output')
+    for subDir in (jvmOutDir, os.path.join(dir,'final')):
+        if not os.path.exists(subDir):
+            os.makedirs(subDir)
+    data = readYaml(calcScript)
+    if not 'anneal' in data:
+        print "In JVM calculations need an anneal section in the .yaml file"
+        return 1
+    refiners = {}
+    refinersLock = threading.Lock()
+
+    class YamlSetup(StructureEnsemble.WorkerSetup):
+        def setup(self, iWorker):
+            refiner = refine()
+            osfiles.setOutFiles(refiner,dataDir,startStructure)
+            refiner.rootName = "temp"
+            refiner.loadFromYaml(data,startStructure)
+            with refinersLock:
+                refiners[refiner.dihedral] = refiner
+            return refiner.dihedral
+
+    class AnnealProtocol(StructureEnsemble.Protocol):
+        def calculate(self, dihedral, seed):
+            with refinersLock:
+                refiner = refiners[dihedral]
+            refiner.seed = seed
+            osfiles.setOutFiles(refiner,dataDir,seed)
+            refiner.anneal(refiner.dOpt)
+
+    ensemble = StructureEnsemble(YamlSetup(), AnnealProtocol(), File(jvmOutDir))
+    ensemble.setThreads(nThreads)
+    ensemble.setRootName("temp")
+    results = ensemble.calculate(startStructure, nStructures)
+    nFailed = nStructures - len([result for result in results if result.succeeded()])
+    if nFailed > 0:
+        print "Failed",nFailed,"of",nStructures
+        return 1
+    print "Done"
+    return 0
+
 def keepStructures(nStructures,newName='final',rootName=''):
     pat = re.compile(r'.*\D([0-9]+).pdb')
     ePat = re.compile(r'.*\sTotal\s+([0-9\.\0\-]+)')
@@ -200,6 +264,7 @@ def parseArgs():
     parser.add_option("-d", "--directory", dest="directory",default=homeDir, help="Base directory for output files ")
     parser.add_option("-c", "--clean", action="store_true", dest="clean", default=False, help="Clean Directories (False)")
     parser.add_option("-m", "--memory", dest="heapMemory",default='512', help="Amount of heap memory to use in MBytes")
+    parser.add_option("-j", "--jvm", action="store_true", dest="inJVM", default=False, help="Calculate structures on threads in this JVM, from a .yaml file (False)")
 
     (options, args) = parser.parse_args()
     print 'args',args
@@ -238,7 +303,10 @@ def parseArgs():
         else:
            print 'Must specify script'
            exit()
-        retCode = calcStructures(calcScript,start,nStructures,homeDir,nProcesses,heapMemory)
+        if options.inJVM:
+            retCode = calcStructuresInJVM(calcScript,start,nStructures,homeDir,nProcesses)
+        else:
+            retCode = calcStructures(calcScript,start,nStructures,homeDir,nProcesses,heapMemory)
     if nKeep > 0 and (not retCode):
         keepStructures(nKeep)
         checke.outDir = homeDir
@@ -0,0 +1,70 @@
+package org.nmrfx.structure.chemistry;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.nmrfx.chemistry.Atom;
+import org.nmrfx.chemistry.MoleculeFactory;
+import org.nmrfx.chemistry.Point3;
+import org.nmrfx.chemistry.io.PDBFile;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+public class AtomCellsTest {
+
+    Molecule loadRNA() throws Exception {
+        String fileName = Path.of("src", "test", "sh", "2KOC.pdb").toString();
+        new PDBFile().readSequence(fileName, false, 0);
+        Molecule molecule = (Molecule) MoleculeFactory.getActive();
+        molecule.updateAtomArray();
+        return molecule;
+    }
+
+    @Test
+    public void testContactSum() throws Exception {
+        MoleculeFactory.beginThreadMolecule();
+        try {
+            Molecule molecule = loadRNA();
+            Map<String, Double> contactMap = molecule.calcContactSum(0, true);
+            List<Atom> atoms = molecule.getAtoms();
+            for (Atom atom1 : atoms) {
+                Point3 pt1 = atom1.getPoint(0);
+                double fSum = 0.0;
+                for (Atom atom2 : atoms) {
+                    if (atom1 != atom2) {
+                        double r = Atom.calcDistance(pt1, atom2.getPoint(0));
+                        if (r < 15.0) {
+                            fSum += 39.3 * Math.exp(-r / 3.0);
+                        }
+                    }
+                }
+                Assert.assertEquals(fSum, contactMap.get(atom1.getFullName()), 1.0e-9 * fSum);
+            }
+        } finally {
+            MoleculeFactory.endThreadMolecule();
+        }
+    }
+
+    @Test
+    public void testDistanceInputRows() throws Exception {
+        MoleculeFactory.beginThreadMolecule();
+        try {
+            Molecule molecule = loadRNA();
+            List<Atom> atoms = molecule.getAtoms();
+            double[][] rows = molecule.calcDistanceInputMatrixRows(0, 4.6, atoms, 5.0);
+            double total = 0.0;
+            for (int i = 0; i < atoms.size(); i++) {
+                double[] row = molecule.calcDistanceInputMatrixRow(0, 4.6, atoms.get(i), 5.0);
+                Assert.assertEquals(row.length, rows[i].length);
+                for (int j = 0; j < row.length; j++) {
+                    Assert.assertEquals(row[j], rows[i][j], 1.0e-12 * Math.max(1.0, row[j]));
+                    total += row[j];
+                }
+            }
+            Assert.assertTrue(total > 0.0);
+        } finally {
+            MoleculeFactory.endThreadMolecule();
+        }
+    }
+}
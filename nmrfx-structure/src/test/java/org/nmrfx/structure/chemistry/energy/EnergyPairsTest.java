@@ -0,0 +1,176 @@
+package org.nmrfx.structure.chemistry.energy;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.nmrfx.chemistry.MoleculeFactory;
+import org.nmrfx.chemistry.io.Sequence;
+import org.nmrfx.structure.chemistry.Molecule;
+import org.nmrfx.structure.fastlinear.FastVector3D;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class EnergyPairsTest {
+
+    EnergyLists setupPeptide(int nResidues) throws Exception {
+        String[] residues = {"ALA", "GLY", "SER", "VAL", "LEU", "LYS", "PHE", "GLU"};
+        List<String> sequence = new ArrayList<>();
+        for (int i = 0; i < nResidues; i++) {
+            sequence.add(residues[i % residues.length]);
+        }
+        Molecule molecule = (Molecule) new Sequence().read("pep", sequence, null);
+        molecule.genCoords();
+        EnergyLists energyLists = new EnergyLists();
+        energyLists.makeCompoundList(molecule);
+        energyLists.clear();
+        energyLists.setIncludeH(true);
+        energyLists.setHardSphere(0.15);
+        energyLists.setDistanceLimit(8.0);
+        energyLists.setDeltaStart(0);
+        energyLists.setDeltaEnd(1000);
+        energyLists.makeAtomListFast();
+        Dihedral dihedral = new Dihedral(energyLists, false);
+        Dihedral.seed(3);
+        dihedral.randomizeAngles();
+        energyLists.makeAtomListFast();
+        energyLists.energy();
+        return energyLists;
+    }
+
+    @Test
+    public void testParallelPairs() throws Exception {
+        MoleculeFactory.beginThreadMolecule();
+        try {
+            EnergyLists energyLists = setupPeptide(24);
+            Molecule molecule = energyLists.getMolecule();
+
+            EnergyCoords eCoords = molecule.getEnergyCoords();
+            int nAtoms = eCoords.getNAtoms();
+            Random random = new Random(5);
+            for (int group = 0; group < 1500; group++) {
+                int groupSize = 1 + random.nextInt(3);
+                for (int k = 0; k < groupSize; k++) {
+                    int i = random.nextInt(nAtoms);
+                    int j = (i + 1 + random.nextInt(nAtoms - 1)) % nAtoms;
+                    eCoords.addPair(i, j, -1, -1, 1.8, 3.0, false, group, 1.0);
+                }
+            }
+            eCoords.updateGroups();
+            Assert.assertTrue(eCoords.getNContacts() > 4 * EnergyPairs.MIN_RANGE_SIZE);
+
+            double[][] results = new double[3][];
+            int[] threads = {1, 4, 4};
+            for (int i = 0; i < threads.length; i++) {
+                eCoords.setThreads(threads[i]);
+                double repel = eCoords.calcRepel(true, 1.0, -1.0);
+                double noe = eCoords.calcNOE(true, 1.0);
+                EnergyDeriv eDeriv = energyLists.energy(true);
+                double[] derivs = eDeriv.getDerivatives();
+                double[] result = new double[derivs.length + 3];
+                result[0] = repel;
+                result[1] = noe;
+                result[2] = eDeriv.getEnergy();
+                System.arraycopy(derivs, 0, result, 3, derivs.length);
+                results[i] = result;
+            }
+            eCoords.setThreads(1);
+            Assert.assertTrue(results[0][1] > 0.0);
+            Assert.assertArrayEquals(results[1], results[2], 0.0);
+            for (int i = 0; i < results[0].length; i++) {
+                double tol = 1.0e-9 * Math.max(1.0, Math.abs(results[0][i]));
+                Assert.assertEquals(results[0][i], results[1][i], tol);
+            }
+        } finally {
+            MoleculeFactory.endThreadMolecule();
+        }
+    }
+
+    @Test
+    public void testPairListSkin() throws Exception {
+        MoleculeFactory.beginThreadMolecule();
+        try {
+            EnergyLists energyLists = setupPeptide(24);
+            EnergyCoords eCoords = energyLists.getMolecule().getEnergyCoords();
+            energyLists.setSkin(1.0);
+            energyLists.makeAtomListFast();
+            int nContacts = eCoords.getNContacts();
+
+            // moves below half the skin keep the list, which must still give the full energy
+            Random random = new Random(7);
+            int nAtoms = eCoords.getNAtoms();
+            for (int i = 0; i < nAtoms; i++) {
+                FastVector3D v = eCoords.getCoords(i);
+                eCoords.setCoords(i, v.getX() + 0.5 * (random.nextDouble() - 0.5),
+                        v.getY() + 0.5 * (random.nextDouble() - 0.5),
+                        v.getZ() + 0.5 * (random.nextDouble() - 0.5));
+            }
+            energyLists.makeAtomListFast();
+            Assert.assertEquals(nContacts, eCoords.getNContacts());
+            double skinRepel = eCoords.calcRepel(false, 1.0, -1.0);
+
+            energyLists.setSkin(0.0);
+            energyLists.makeAtomListFast();
+            Assert.assertTrue(eCoords.getNContacts() < nContacts);
+            double repel = eCoords.calcRepel(false, 1.0, -1.0);
+            Assert.assertTrue(repel > 0.0);
+            Assert.assertEquals(repel, skinRepel, 1.0e-9 * repel);
+
+            // a move beyond half the skin forces a rebuild
+            energyLists.setSkin(1.0);
+            energyLists.makeAtomListFast();
+            FastVector3D v = eCoords.getCoords(0);
+            eCoords.setCoords(0, v.getX() + 0.6, v.getY(), v.getZ());
+            energyLists.makeAtomListFast();
+            Assert.assertArrayEquals(eCoords.getCoords(), eCoords.eDistancePairs.listCoords, 0.0);
+        } finally {
+            MoleculeFactory.endThreadMolecule();
+        }
+    }
+
+    @Test
+    public void testFFPairListSkin() throws Exception {
+        MoleculeFactory.beginThreadMolecule();
+        try {
+            EnergyLists energyLists = setupPeptide(24);
+            energyLists.setForceWeight(new ForceWeight(1.0, 1.0, -1.0, 1.0, -1.0, -1.0, -1.0, -1.0, 1.0, -1.0, 0.5));
+            EnergyCoords eCoords = energyLists.getMolecule().getEnergyCoords();
+            Random random = new Random(11);
+            int nAtoms = eCoords.getNAtoms();
+            for (int pass = 0; pass < 2; pass++) {
+                energyLists.setSkin(1.0);
+                energyLists.makeAtomListFast();
+                int nContacts = eCoords.getNContacts();
+                EnergyDeriv skinDeriv = energyLists.energy(true);
+
+                energyLists.setSkin(0.0);
+                energyLists.makeAtomListFast();
+                Assert.assertTrue(eCoords.getNContacts() < nContacts);
+                EnergyDeriv eDeriv = energyLists.energy(true);
+                double energy = eDeriv.getEnergy();
+                Assert.assertTrue(energy != 0.0);
+                Assert.assertEquals(energy, skinDeriv.getEnergy(), 1.0e-9 * Math.abs(energy));
+                double[] derivs = eDeriv.getDerivatives();
+                double[] skinDerivs = skinDeriv.getDerivatives();
+                // pairs are added in another order, so derivatives agree to the rounding of the largest terms
+                double maxDeriv = 1.0;
+                for (double deriv : derivs) {
+                    maxDeriv = Math.max(maxDeriv, Math.abs(deriv));
+                }
+                Assert.assertArrayEquals(derivs, skinDerivs, 1.0e-9 * maxDeriv);
+
+                // build the skinned list, then move atoms below half the skin so it is kept for the next pass
+                energyLists.setSkin(1.0);
+                energyLists.makeAtomListFast();
+                for (int i = 0; i < nAtoms; i++) {
+                    FastVector3D v = eCoords.getCoords(i);
+                    eCoords.setCoords(i, v.getX() + 0.5 * (random.nextDouble() - 0.5),
+                            v.getY() + 0.5 * (random.nextDouble() - 0.5),
+                            v.getZ() + 0.5 * (random.nextDouble() - 0.5));
+                }
+            }
+        } finally {
+            MoleculeFactory.endThreadMolecule();
+        }
+    }
+}
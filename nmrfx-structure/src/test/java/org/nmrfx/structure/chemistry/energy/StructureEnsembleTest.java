@@ -0,0 +1,86 @@
+package org.nmrfx.structure.chemistry.energy;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nmrfx.chemistry.io.Sequence;
+import org.nmrfx.structure.chemistry.Molecule;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class StructureEnsembleTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    static Dihedral setupPeptide(int iWorker) throws Exception {
+        String[] residues = {"ALA", "GLY", "SER", "VAL", "LEU", "LYS"};
+        List<String> sequence = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            sequence.add(residues[i % residues.length]);
+        }
+        Molecule molecule = (Molecule) new Sequence().read("ens", sequence, null);
+        molecule.genCoords();
+        EnergyLists energyLists = new EnergyLists();
+        energyLists.makeCompoundList(molecule);
+        energyLists.clear();
+        energyLists.setIncludeH(false);
+        energyLists.setHardSphere(0.15);
+        energyLists.setDistanceLimit(5.0);
+        energyLists.setDeltaStart(0);
+        energyLists.setDeltaEnd(1000);
+        energyLists.makeAtomListFast();
+        return new Dihedral(energyLists, false);
+    }
+
+    static void anneal(Dihedral dihedral, long seed) {
+        new GradientRefinement(dihedral).gradMinimize(50, 1.0e-6);
+        // changed parameters must not carry over to the next structure of the worker
+        dihedral.energyList.setHardSphere(0.0);
+        dihedral.energyList.setDistanceLimit(3.0);
+        new GradientRefinement(dihedral).gradMinimize(50, 1.0e-6);
+    }
+
+    List<StructureEnsemble.StructureResult> calculate(int nThreads) throws Exception {
+        File outDir = tmpFolder.newFolder("threads" + nThreads);
+        StructureEnsemble ensemble = new StructureEnsemble(StructureEnsembleTest::setupPeptide,
+                StructureEnsembleTest::anneal, outDir);
+        ensemble.setThreads(nThreads);
+        return ensemble.calculate(11, 4);
+    }
+
+    @Test
+    public void testThreadsMatchSerial() throws Exception {
+        List<StructureEnsemble.StructureResult> serial = calculate(1);
+        List<StructureEnsemble.StructureResult> threaded = calculate(2);
+        Assert.assertEquals(4, serial.size());
+        Assert.assertEquals(4, threaded.size());
+        for (int i = 0; i < serial.size(); i++) {
+            StructureEnsemble.StructureResult result1 = serial.get(i);
+            StructureEnsemble.StructureResult result2 = threaded.get(i);
+            Assert.assertTrue(result1.succeeded());
+            Assert.assertTrue(result2.succeeded());
+            Assert.assertEquals(result1.seed(), result2.seed());
+            Assert.assertEquals(result1.energy(), result2.energy(), 0.0);
+            Assert.assertEquals(Files.readAllLines(result1.pdbFile().toPath()),
+                    Files.readAllLines(result2.pdbFile().toPath()));
+        }
+        // different seeds give different structures
+        Assert.assertNotEquals(serial.get(0).energy(), serial.get(1).energy(), 0.0);
+    }
+
+    @Test
+    public void testSetupFailure() throws Exception {
+        File outDir = tmpFolder.newFolder("failed");
+        StructureEnsemble ensemble = new StructureEnsemble(iWorker -> {
+            throw new IllegalStateException("setup failed");
+        }, StructureEnsembleTest::anneal, outDir);
+        ensemble.setThreads(2);
+        IllegalStateException ex = Assert.assertThrows(IllegalStateException.class, () -> ensemble.calculate(1, 4));
+        Assert.assertEquals("setup failed", ex.getMessage());
+    }
+}